@@ -27,6 +27,26 @@ import java.io.PrintStream;
  * @version 1.0
  */
 public abstract class Bundle { 
+  /**
+   * Stable ordinal for this record within its globals -- assigned when the record is created.
+   * Used as the position in compressed bitmaps ({@link BundleBitmapSet}).
+   */
+  private int ordinal = -1;
+
+  /**
+   * Return the ordinal for this record.
+   *
+   *@return ordinal or -1 if one has not been assigned
+   */
+  public int  ordinal()                 { return ordinal; }
+
+  /**
+   * Set the ordinal for this record. Limited to just this package for access.
+   *
+   *@param new_ordinal ordinal assigned by the globals
+   */
+  void        setOrdinal(int new_ordinal) { ordinal = new_ordinal; }
+
   /**
    * Return the string within the specified field index of this bundle.
    *
@@ -43,6 +63,14 @@ public abstract class Bundle {
    */
   public abstract int toValue(int fld_i);
 
+  /**
+   * Return the code of this field's value in the field's dictionary (see {@link BundlesG#intern(int,String)}).
+   *
+   * @param  fld_i field index
+   * @return       dictionary code
+   */
+  int toCode(int fld_i) { return getTablet().getBundles().getGlobals().intern(fld_i, toString(fld_i)); }
+
   /**
    * Return the begin timestamp for this record.
    *
@@ -0,0 +1,334 @@
+/*
+
+Copyright 2013 David Trimm
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package racetrack.framework;
+
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import racetrack.util.RoaringBitmap;
+
+/**
+ * Set of records backed by a compressed bitmap over the record ordinals.  Used
+ * by the bundles implementations for the root and subset record sets so that
+ * each level of the filter stack only costs memory proportional to its selectivity.
+ * Set operations between two bitmap sets from the same globals are performed
+ * word-wise on the bitmaps.
+ *
+ * The globals (which resolve ordinals back to records) are bound from the first
+ * record added.  Records from other globals (e.g., a zeroized data set) are never
+ * reported as contained -- and can't be added.  Ordinals that the globals release during a cleanse are
+ * dropped from the bitmap before it's sized, iterated, or combined -- so the size
+ * always matches the iteration.
+ *
+ * @author  D. Trimm
+ * @version 1.0
+ */
+public class BundleBitmapSet extends AbstractSet<Bundle> {
+  /**
+   * Bitmap of the record ordinals
+   */
+  private RoaringBitmap bitmap  = new RoaringBitmap();
+
+  /**
+   * Globals used to resolve ordinals into records
+   */
+  private BundlesG      globals = null;
+
+  /**
+   * Released ordinal generation (see {@link BundlesG#releasedGeneration()}) that the bitmap was last pruned at
+   */
+  private int           released_gen = -1;
+
+  /**
+   * Construct an empty set.
+   */
+  public BundleBitmapSet() { }
+
+  /**
+   * Construct a set from a bitmap and the globals for the ordinals.
+   *
+   *@param globals globals for the ordinals
+   *@param bitmap  ordinals in the set (owned by the new set)
+   */
+  BundleBitmapSet(BundlesG globals, RoaringBitmap bitmap) { this.globals = globals; this.bitmap = bitmap; }
+
+  /**
+   * Return the underlying bitmap.  Should not be modified.
+   *
+   *@return ordinal bitmap
+   */
+  public RoaringBitmap bitmap() { return live(); }
+
+  /**
+   * Drop the ordinals that the globals released since the last call.  The bitmap is replaced
+   * (not modified) so that iterators already in progress are unaffected.
+   *
+   *@return bitmap of the live ordinals
+   */
+  private RoaringBitmap live() {
+    RoaringBitmap bm = bitmap; if (globals == null) return bm;
+    int gen = globals.releasedGeneration(); if (gen == released_gen) return bm;
+    RoaringBitmap released = globals.releasedOrdinals();
+    if (bm.isEmpty() == false && released.isEmpty() == false) { bm = RoaringBitmap.andNot(bm, released); bitmap = bm; }
+    released_gen = gen; return bm;
+  }
+
+  /**
+   * Return the globals that this set's ordinals belong to.
+   *
+   *@return globals or null if the set has never had a record
+   */
+  public BundlesG globals() { return globals; }
+
+  /**
+   * Return the globals for a record.
+   */
+  private static BundlesG globalsOf(Bundle bundle) { return bundle.getTablet().getBundles().getGlobals(); }
+
+  /**
+   * Add a record to the set.
+   *
+   *@param  bundle record to add
+   *
+   *@return true if the record was not already in the set
+   *
+   *@throws RuntimeException if the record has no ordinal or belongs to other globals than the set's records
+   */
+  @Override
+  public boolean add(Bundle bundle) {
+    if (bundle.ordinal() < 0) throw new RuntimeException("BundleBitmapSet.add() - Record Has No Ordinal");
+    BundlesG bundle_globals = globalsOf(bundle);
+    if (globals == null) globals = bundle_globals;
+    else if (bundle_globals != globals) throw new RuntimeException("BundleBitmapSet.add() - Record From Different Globals");
+    return bitmap.add(bundle.ordinal());
+  }
+
+  /**
+   * Determine if the set contains the object.
+   *
+   *@param  o object to check
+   *
+   *@return true if contained
+   */
+  @Override
+  public boolean contains(Object o) {
+    if (globals == null || (o instanceof Bundle) == false) return false;
+    int ord = ((Bundle) o).ordinal();
+    return bitmap.contains(ord) && globals.ordinalBundle(ord) == o;
+  }
+
+  /**
+   * Remove the object from the set.
+   *
+   *@param  o object to remove
+   *
+   *@return true if removed
+   */
+  @Override
+  public boolean remove(Object o) {
+    if (contains(o) == false) return false;
+    return bitmap.remove(((Bundle) o).ordinal());
+  }
+
+  /**
+   * Remove all of the records.
+   */
+  @Override
+  public void clear() { bitmap = new RoaringBitmap(); }
+
+  /**
+   * Return the number of records in the set.
+   *
+   *@return set size
+   */
+  @Override
+  public int size() { return live().cardinality(); }
+
+  /**
+   * Return an iterator over the records (in ordinal order).
+   *
+   *@return record iterator
+   */
+  @Override
+  public Iterator<Bundle> iterator() {
+    return new Iterator<Bundle>() {
+      RoaringBitmap bm = live(); RoaringBitmap.IntIterator it = bm.iterator(); Bundle next = advance(), last = null;
+      private Bundle advance() { while (it.hasNext()) { Bundle b = globals.ordinalBundle(it.next()); if (b != null) return b; } return null; }
+      public boolean hasNext() { return next != null; }
+      public Bundle  next()    { if (next == null) throw new NoSuchElementException(); last = next; next = advance(); return last; }
+      public void    remove()  { if (last == null) throw new IllegalStateException(); live().remove(last.ordinal()); last = null; }
+    };
+  }
+
+  /**
+   * Determine if the other collection is a bitmap set over the same globals.
+   */
+  private boolean compatible(Object c) {
+    return (c instanceof BundleBitmapSet) && (globals == null || ((BundleBitmapSet) c).globals == null || ((BundleBitmapSet) c).globals == globals);
+  }
+
+  /**
+   * Add all of the records in the collection.  Bitmap sets are merged with a word-wise or.
+   *
+   *@param  c records to add
+   *
+   *@return true if the set changed
+   */
+  @Override
+  public boolean addAll(Collection<? extends Bundle> c) {
+    if (compatible(c)) {
+      BundleBitmapSet other = (BundleBitmapSet) c; int before = live().cardinality();
+      if (globals == null) globals = other.globals;
+      bitmap.become(RoaringBitmap.or(bitmap, other.live()));
+      return before != bitmap.cardinality();
+    } else return super.addAll(c);
+  }
+
+  /**
+   * Remove all of the records in the collection.  Bitmap sets are removed with a word-wise andNot.
+   *
+   *@param  c records to remove
+   *
+   *@return true if the set changed
+   */
+  @Override
+  public boolean removeAll(Collection<?> c) {
+    if (compatible(c)) {
+      int before = live().cardinality();
+      bitmap.become(RoaringBitmap.andNot(bitmap, ((BundleBitmapSet) c).live()));
+      return before != bitmap.cardinality();
+    } else {
+      boolean changed = false; Iterator<?> it = c.iterator(); while (it.hasNext()) if (remove(it.next())) changed = true;
+      return changed;
+    }
+  }
+
+  /**
+   * Retain only the records in the collection.  Bitmap sets are intersected with a word-wise and.
+   *
+   *@param  c records to retain
+   *
+   *@return true if the set changed
+   */
+  @Override
+  public boolean retainAll(Collection<?> c) {
+    if (compatible(c)) {
+      int before = live().cardinality();
+      bitmap.become(RoaringBitmap.and(bitmap, ((BundleBitmapSet) c).live()));
+      return before != bitmap.cardinality();
+    } else {
+      RoaringBitmap kept = new RoaringBitmap();
+      Iterator<Bundle> it = iterator(); while (it.hasNext()) { Bundle b = it.next(); if (c.contains(b)) kept.add(b.ordinal()); }
+      boolean changed = kept.cardinality() != live().cardinality(); bitmap = kept;
+      return changed;
+    }
+  }
+
+  /**
+   * Determine if the set contains all of the records in the collection.
+   *
+   *@param  c records to check
+   *
+   *@return true if all are contained
+   */
+  @Override
+  public boolean containsAll(Collection<?> c) {
+    if (compatible(c)) return RoaringBitmap.andNot(((BundleBitmapSet) c).live(), live()).isEmpty();
+    else               return super.containsAll(c);
+  }
+
+  /**
+   * Compare against another set.  Bitmap sets over the same globals compare their bitmaps directly.
+   *
+   *@param  o object to compare against
+   *
+   *@return true if the same records
+   */
+  @Override
+  public boolean equals(Object o) {
+    if (o == this) return true;
+    if (compatible(o)) return live().equals(((BundleBitmapSet) o).live());
+    return super.equals(o);
+  }
+
+  /**
+   * Hashcode consistent with {@link java.util.Set#hashCode()}.
+   *
+   *@return hashcode
+   */
+  @Override
+  public int hashCode() { return super.hashCode(); }
+
+  /**
+   * Return the records in a that are not in b.  If both are bitmap sets over the same globals,
+   * the result is computed with a word-wise andNot.
+   *
+   *@param  a records
+   *@param  b records to subtract
+   *
+   *@return new set of the difference
+   */
+  public static Set<Bundle> andNot(Set<Bundle> a, Set<Bundle> b) {
+    if (a instanceof BundleBitmapSet && ((BundleBitmapSet) a).compatible(b)) {
+      BundleBitmapSet ab = (BundleBitmapSet) a;
+      return new BundleBitmapSet(ab.globals, RoaringBitmap.andNot(ab.live(), ((BundleBitmapSet) b).live()));
+    }
+    Set<Bundle> set = new HashSet<Bundle>();
+    Iterator<Bundle> it = a.iterator(); while (it.hasNext()) { Bundle bundle = it.next(); if (b.contains(bundle) == false) set.add(bundle); }
+    return set;
+  }
+
+  /**
+   * Return a copy of a record set.  Bitmap sets share their containers with the copy until
+   * either set changes them -- so the cost is proportional to the number of containers rather
+   * than the number of records.  Other sets are copied.
+   *
+   *@param  set records to copy
+   *
+   *@return independent copy
+   */
+  public static Set<Bundle> share(Set<Bundle> set) {
+    if (set instanceof BundleBitmapSet) {
+      BundleBitmapSet bs = (BundleBitmapSet) set, copy = new BundleBitmapSet(bs.globals, bs.live().share());
+      copy.released_gen = bs.released_gen; return copy;
+    }
+    return new HashSet<Bundle>(set);
+  }
+
+  /**
+   * Determine if two record sets hold the same records.  Handles nulls (two nulls are the same).
+   * Bitmap sets are compared word-wise.
+   *
+   *@param  a first set
+   *@param  b second set
+   *
+   *@return true if the same records
+   */
+  public static boolean sameRecords(Set<Bundle> a, Set<Bundle> b) {
+    if (a == b)                     return true;
+    if (a == null || b == null)     return false;
+    if (a.size() != b.size())       return false;
+    if (a instanceof BundleBitmapSet) return a.equals(b);
+    if (b instanceof BundleBitmapSet) return b.equals(a);
+    return a.containsAll(b);
+  }
+}
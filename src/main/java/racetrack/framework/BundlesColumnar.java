@@ -0,0 +1,982 @@
+/*
+
+Copyright 2013 David Trimm
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package racetrack.framework;
+
+import java.io.File;
+import java.io.PrintStream;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import racetrack.util.Utils;
+
+/**
+ * Columnar, dictionary-encoded implementation of the bundles framework.  Each
+ * tablet stores its records as one int[] per field -- the ints are codes into
+ * the per-field {@link FieldDictionary} held by the {@link BundlesG}.  Records
+ * are lightweight row references into those columns so that toString() and
+ * toValue() are array reads rather than per-record string arrays and map lookups.
+ *
+ * Behaves the same as {@link BundlesRecs} -- subsets share the root tablet's
+ * columns and field mapping, and bundles always reference their root tablet.
+ *
+ * @author  D. Trimm
+ * @version 1.0
+ */
+public class BundlesColumnar extends Bundles {
+  /**
+   * Set of {@link Tablet} within this view of the data set
+   */
+  private Set<Tablet> tablet_set = new HashSet<Tablet>();
+
+  /**
+   * Set of {@link Bundle} within this data set -- bitmap over the record ordinals
+   */
+  private Set<Bundle> bundle_set = new BundleBitmapSet();
+
+  /**
+   * Default constructor
+   */
+  public BundlesColumnar() { }
+
+  /**
+   * Internal method to add a {@link Bundle} to this data set.  Maintains the
+   * first and last timestamp for the data.
+   *
+   * @param bundle Bundle to add
+   */
+  @Override
+  public void             add(Bundle bundle)          { bundle_set.add(bundle);
+                                                        if (bundle.hasTime()) {
+							  if (t0    > bundle.ts0()) t0    = bundle.ts0();
+							  if (t1    < bundle.ts0()) t1    = bundle.ts0();
+                                                          if (t1dur < bundle.ts1()) t1dur = bundle.ts1();
+							}
+						      }
+
+  /**
+   * Return a tablet object constructed with this bundles.
+   *
+   *@return tablet object
+   */
+  @Override
+  Tablet createTablet() { return new ColTablet(this); }
+
+  /**
+   * Internal method to add a {@link Tablet} to this data set.
+   *
+   * @param tablet Tablet to add
+   */
+  @Override
+  public void             add(Tablet tablet)          { tablet_set.add(tablet); }
+
+  /**
+   * Find or create a tablet with the specified header labels.
+   *
+   *@param hdrs headers in the tablet-to-find
+   *
+   *@return existing tablet if it exists, otherwise a new table (already added to the bundles)
+   */
+  @Override
+  public Tablet findOrCreateTablet(String hdrs[]) {
+    Tablet tablet = new ColTablet(this);
+    int local_i = 0;
+    for (int i=0;i<hdrs.length;i++) {
+      if        (hdrs[i].equals("timestamp")     || hdrs[i].equals("beg")) { tablet.setHasTimeStamps();
+      } else if (hdrs[i].equals("timestamp_end") || hdrs[i].equals("end")) { tablet.setHasDurations();
+      } else {
+        int fld_i = globals.getOrCreateField(hdrs[i], Utils.isAllUpper(hdrs[i]));
+	tablet.setFieldIndex(fld_i, local_i);
+	local_i++;
+      }
+    }
+    Iterator<Tablet> it = tabletIterator();
+    while (it.hasNext()) { Tablet other_tablet = it.next(); if (other_tablet.sameSchema(tablet)) return other_tablet; }
+    add(tablet);
+    return tablet;
+  }
+
+  /**
+   * Method to create an iterator through the tablets in this data set.
+   *
+   * @return Iterator over the tablets in this data set
+   */
+  @Override
+  public Iterator<Tablet> tabletIterator()            { return tablet_set.iterator(); }
+
+  /**
+   * Return the total number of tablets.
+   *
+   * @return Number of tablets
+   */
+  @Override
+  public int tabletCount() { return tablet_set.size(); }
+
+  /**
+   * Method to create an iterator over all of the bundles in this data set.
+   *
+   * @return Iterator over the bundles in this data set
+   */
+  @Override
+  public Iterator<Bundle> bundleIterator()            { return bundle_set.iterator(); }
+
+  /**
+   * Method to return the set of bundles in this data set.
+   *
+   * @return Set of the bundles
+   */
+  @Override
+  public Set<Bundle>  bundleSet()                 { return bundle_set; }
+
+  /**
+   * Returns the number of bundles in this data set.
+   *
+   * @return The number of bundles in this data set
+   */
+  @Override
+  public int              size()                      { return bundle_set.size();}
+
+  /**
+   * Create a new data set based on a subset of the bundles provided.  This is
+   * the primary method for data filtering operations.  The record sets are
+   * bitmaps over the record ordinals so each subset's memory scales with its
+   * selectivity rather than with the number of records.  The new tablets share
+   * the columns of the originals.  Tablets are looked up by identity -- two tablets with the
+   * same fields are still separate tablets.
+   *
+   * @param  set subset of bundles to use to create the new set
+   * @return new {@link Bundles} object encapsulating the subset
+   */
+  @Override
+  public Bundles          subset(Set<Bundle> set) {
+    Bundles new_bundles = new BundlesColumnar();
+    new_bundles.globals = getGlobals();
+    Map<Tablet,Tablet> tablet_lu = new IdentityHashMap<Tablet,Tablet>();
+    Iterator<Bundle> it = set.iterator();
+    while (it.hasNext()) {
+      Bundle bundle = it.next();
+      Tablet tablet = bundle.getTablet();
+      if (tablet_lu.containsKey(tablet) == false) {
+        Tablet new_tablet = new ColTablet(new_bundles, (ColTablet) tablet);
+	tablet_lu.put(tablet, new_tablet);
+	new_bundles.add(new_tablet);
+      }
+      ((ColTablet) tablet_lu.get(tablet)).add(bundle); new_bundles.add(bundle);
+    }
+    return new_bundles;
+  }
+
+  /**
+   * Return a string representation of the bundles.
+   *
+   * @return String representation
+   */
+  public String toString() {
+    return "|BundlesColumnar|Sz=" + bundle_set.size() + "|" + Utils.humanReadableDate(ts0()) + " => " + Utils.humanReadableDate(ts1()) +
+           "|Tablets=" + tablet_set.size() + "|";
+  }
+
+  /**
+   * Make sure that the root tablets matching the headers of the visible tablets have the tags field.
+   *
+   *@param visible visible records
+   *@param fld_i   field index for the tags
+   *
+   *@return true if a field was added
+   */
+  private boolean ensureTagField(Bundles visible, int fld_i) {
+    boolean field_added = false;
+    Iterator<Tablet> it_tab = visible.tabletIterator(); while (it_tab.hasNext()) { Tablet tablet = it_tab.next();
+      String hdr = tablet.fileHeader();
+      if (tablet.hasField(fld_i) == false) {
+        Iterator<Tablet> it_root_tabs = tabletIterator();  while (it_root_tabs.hasNext()) { Tablet root_tablet = it_root_tabs.next();
+          if (root_tablet.fileHeader().equals(hdr)) {
+            root_tablet.addField(BundlesDT.TAGS); field_added = true;
+    } } } }
+    return field_added;
+  }
+
+  /**
+   * Clear the tags for the existing bundles (if they have the field).  Do not create the field if it's not already there.
+   */
+  @Override
+  public void clearTags() {
+    BundlesG globals = getGlobals();
+    int      fld_i   = globals.fieldIndex(BundlesDT.TAGS);
+    Iterator<Tablet> it_tab = tabletIterator(); while (it_tab.hasNext()) { Tablet tablet = it_tab.next();
+      if (tablet.hasField(fld_i)) {
+        Iterator<Bundle> it_bun  = tablet.bundleIterator();
+	while (it_bun.hasNext()) ((ColBundle) it_bun.next()).set(fld_i, BundlesDT.NOTSET);
+      }
+    }
+  }
+
+  /**
+   * Add the specified tags to the specified records/bundles.  Create new space within bundles if necessary.
+   *
+   *@param visible records to apply the new tags to
+   *@param tags    tags to add
+   */
+  @Override
+  public boolean addTags(Bundles visible, String tags) {
+    BundlesG globals     = getGlobals();
+    int      fld_i       = globals.getOrCreateField(BundlesDT.TAGS, false);
+    boolean  field_added = ensureTagField(visible, fld_i);
+    Iterator<Tablet> it_tab = visible.tabletIterator(); while (it_tab.hasNext()) { Tablet tablet = it_tab.next();
+      Iterator<Bundle> it_bun  = tablet.bundleIterator();
+      while (it_bun.hasNext()) {
+        ColBundle bundle  = (ColBundle) it_bun.next();
+	String    old_tag = bundle.toString(fld_i), new_tag;
+	if (old_tag.equals(BundlesDT.NOTSET)) new_tag = tags; else new_tag = Utils.normalizeTag(old_tag + "|" + tags);
+        globals.addFieldEntity(fld_i, new_tag); bundle.set(fld_i, new_tag);
+      }
+    }
+    return field_added;
+  }
+
+  /**
+   * Replace the tag field with the specified tag.  Create new space within bundles if necessary.
+   *
+   *@param visible bundles to apply the change to
+   *@param tags    tags for replacement
+   *
+   *@return true if a new field was added
+   */
+  @Override
+  public boolean replaceTags(Bundles visible, String tags) {
+    BundlesG globals     = getGlobals();
+    int      fld_i       = globals.getOrCreateField(BundlesDT.TAGS, false);
+    boolean  field_added = ensureTagField(visible, fld_i);
+    Iterator<Tablet> it_tab = visible.tabletIterator(); while (it_tab.hasNext()) { Tablet tablet = it_tab.next();
+      Iterator<Bundle> it_bun  = tablet.bundleIterator();
+      while (it_bun.hasNext()) { globals.addFieldEntity(fld_i, tags); ((ColBundle) it_bun.next()).set(fld_i, tags); }
+    }
+    return field_added;
+  }
+
+  /**
+   * Replace just the specified type value tags in the visible bundles.
+   *
+   *@param to_replace tags to replace
+   *
+   *@return true if any fields were added
+   */
+  @Override
+  public boolean replaceTypeValueTags(Bundles visible, String to_replace) {
+    Map<String, List<String>> map = new HashMap<String, List<String>>();
+    List<String> replaces = Utils.tokenizeTags(to_replace);
+    for (int i=0;i<replaces.size();i++) {
+      String tag = replaces.get(i);
+      if (Utils.tagIsTypeValue(tag)) {
+        String type = (Utils.separateTypeValueTag(tag))[0];
+        if (map.containsKey(type) == false) map.put(type, new ArrayList<String>());
+        map.get(type).add(tag);
+      }
+    }
+
+    BundlesG globals     = getGlobals();
+    int      fld_i       = globals.getOrCreateField(BundlesDT.TAGS, false);
+    boolean  field_added = ensureTagField(visible, fld_i);
+
+    Iterator<Tablet> it_tab = visible.tabletIterator(); while (it_tab.hasNext()) { Tablet tablet = it_tab.next();
+      Iterator<Bundle> it_bun = tablet.bundleIterator();
+      while (it_bun.hasNext()) {
+        ColBundle bundle = (ColBundle) it_bun.next();
+        List<String> tokens = Utils.tokenizeTags(bundle.toString(fld_i));
+        Iterator<String> it = tokens.iterator();
+        while (it.hasNext()) {
+          String tag = it.next();
+          if (Utils.tagIsTypeValue(tag) && map.containsKey((Utils.separateTypeValueTag(tag))[0])) it.remove();
+        }
+        tokens.addAll(replaces);
+        String new_tags = Utils.combineTags(tokens);
+        globals.addFieldEntity(fld_i, new_tags); bundle.set(fld_i, new_tags);
+      }
+    }
+    return field_added;
+  }
+
+  /**
+   * Remove the specified tags from the visible bundles.
+   *
+   *@param to_remove tags to remove
+   */
+  @Override
+  public void removeTags(String to_remove) {
+    Set<String> set = new HashSet<String>();
+    set.addAll(Utils.tokenizeTags(to_remove));
+    BundlesG globals = getGlobals();
+    int      fld_i   = globals.getOrCreateField(BundlesDT.TAGS, false);
+    Iterator<Tablet> it_tab = tabletIterator(); while (it_tab.hasNext()) { Tablet tablet = it_tab.next();
+      if (tablet.hasField(fld_i)) {
+        Iterator<Bundle> it_bun = tablet.bundleIterator();
+        while (it_bun.hasNext()) {
+          ColBundle bundle = (ColBundle) it_bun.next();
+          List<String> tokens = Utils.tokenizeTags(bundle.toString(fld_i));
+          Iterator<String> it = tokens.iterator();
+          while (it.hasNext()) { String tag = it.next(); if (set.contains(tag)) it.remove(); }
+          if (tokens.size() > 0) { String new_tags = Utils.combineTags(tokens); globals.addFieldEntity(fld_i, new_tags); bundle.set(fld_i, new_tags); }
+          else                   { bundle.set(fld_i, BundlesDT.NOTSET); }
+        }
+      }
+    }
+  }
+
+  /**
+   * Method to test the bundles object.
+   *
+   * @param args command line arguments - in this case dataset file names
+   */
+  public static void main(String args[]) {
+    try {
+      Bundles bundles = new BundlesColumnar();
+      for (int i=0;i<args.length;i++) {
+        System.err.println("Loading File \"" + args[i] + "\"");
+	BundlesUtils.parse(bundles, null, new File(args[i]), null);
+	System.err.println("  Done! " + bundles);
+      }
+    } catch (Throwable t) {
+      System.err.println("Throwable : " + t);
+      t.printStackTrace(System.err);
+    }
+  }
+
+  /**
+   * Column storage shared by a root tablet and all of its subset views.  Columns are indexed
+   * by the tablet's local field index and hold codes into the per-field dictionaries.  The views
+   * also share the field mapping -- so the caches derived from it are kept here as well.
+   */
+  static class Columns {
+    /**
+     * Code columns -- [local index][row]
+     */
+    int  cols[][] = new int[0][];
+
+    /**
+     * Begin timestamps (only allocated if the tablet has timestamps)
+     */
+    long ts0s[]   = null;
+
+    /**
+     * End timestamps (only allocated if the tablet has durations)
+     */
+    long ts1s[]   = null;
+
+    /**
+     * Number of rows in use
+     */
+    int  rows     = 0;
+
+    /**
+     * Allocated row capacity
+     */
+    int  capacity = 0;
+
+    /**
+     * Cached reverse lookup from local index to global field index
+     */
+    int  local_to_fld[]  = null;
+
+    /**
+     * Cached field indices sorted by header name
+     */
+    int  sorted_fld_is[] = null;
+
+    /**
+     * Invalidate the cached field lookups -- called whenever the field mapping changes.
+     */
+    void fieldsChanged() { local_to_fld = null; sorted_fld_is = null; }
+
+    /**
+     * Make sure that the specified number of columns exist.  New columns are filled with the specified code.
+     *
+     *@param n    number of columns
+     *@param fill code for the existing rows
+     */
+    void ensureColumns(int n, int fill) {
+      if (cols.length >= n) return;
+      int new_cols[][] = new int[n][]; System.arraycopy(cols, 0, new_cols, 0, cols.length);
+      for (int i=cols.length;i<n;i++) { new_cols[i] = new int[capacity]; if (fill != 0) Arrays.fill(new_cols[i], 0, rows, fill); }
+      cols = new_cols;
+    }
+
+    /**
+     * Allocate a new row, growing the columns (by doubling) if necessary.
+     *
+     *@param times     allocate begin timestamps
+     *@param durations allocate end timestamps
+     *
+     *@return new row index
+     */
+    int newRow(boolean times, boolean durations) {
+      if (rows == capacity) {
+        int new_cap = (capacity == 0) ? 64 : capacity*2;
+        for (int i=0;i<cols.length;i++) { int col[] = new int[new_cap]; System.arraycopy(cols[i], 0, col, 0, rows); cols[i] = col; }
+        if (times)     { long ts[] = new long[new_cap]; if (ts0s != null) System.arraycopy(ts0s, 0, ts, 0, rows); ts0s = ts; }
+        if (durations) { long ts[] = new long[new_cap]; if (ts1s != null) System.arraycopy(ts1s, 0, ts, 0, rows); ts1s = ts; }
+        capacity = new_cap;
+      }
+      return rows++;
+    }
+  }
+
+  /**
+   * Record backed by a row within the columns of its tablet.
+   */
+  public class ColBundle extends Bundle {
+    /**
+     * Corresponding (root) tablet for this bundle.
+     */
+    private ColTablet tablet;
+
+    /**
+     * Row within the tablet's columns
+     */
+    private int       row;
+
+    /**
+     * Create a new bundle within the specified tablet.
+     *
+     *@param tablet umbrella tablet for this bundle
+     *@param row    row index within the tablet's columns
+     */
+    public ColBundle(ColTablet tablet, int row) { this.tablet = tablet; this.row = row; }
+
+    /**
+     * Return the row index for this bundle.  The row index is stable for the life of the bundle.
+     *
+     *@return row index
+     */
+    public int     row()                 { return row; }
+
+    /**
+     * Return the string within the specified field index of this bundle.
+     *
+     * @param  fld_i field index
+     * @return       corresponding string
+     */
+    public String  toString(int fld_i)   { return tablet.globals.dictionary(fld_i).toString(tablet.columns.cols[tablet.fields[fld_i]][row]); }
+
+    /**
+     * Return the value of this field.
+     *
+     * @param  fld_i field index
+     * @return       corresponding integer value
+     */
+    public int     toValue(int fld_i)    { return tablet.globals.dictionary(fld_i).toValue (tablet.columns.cols[tablet.fields[fld_i]][row]); }
+
+    /**
+     * Return the dictionary code of this field -- the column already holds it.
+     *
+     * @param  fld_i field index
+     * @return       dictionary code
+     */
+    @Override
+    int            toCode(int fld_i)     { return tablet.columns.cols[tablet.fields[fld_i]][row]; }
+
+    /**
+     * Set the value of a field for this record.  The entity should already be added to the globals.
+     *
+     *@param fld_i field index
+     *@param val   new value
+     */
+    void           set(int fld_i, String val) { tablet.columns.cols[tablet.fields[fld_i]][row] = tablet.globals.intern(fld_i, val); }
+
+    /**
+     * Get the {@link Tablet} for this bundle.
+     *
+     * @return bundle's tablet
+     */
+    public Tablet  getTablet()           { return tablet; }
+
+    /**
+     * Return the begin time stamp for this record.
+     *
+     * @return begin timestamp
+     */
+    @Override
+    public long    ts0()                 { return tablet.hasTimeStamps() ? tablet.columns.ts0s[row] : 0L; }
+
+    /**
+     * Return the end time stamp for this record.
+     *
+     * @return end timestamp
+     */
+    @Override
+    public long    ts1()                 { return tablet.hasDurations() ? tablet.columns.ts1s[row] : ts0(); }
+
+    /**
+     * Indicate if this record has time.
+     *
+     *@return true if the tablet has timestamps
+     */
+    @Override
+    public boolean hasTime()             { return tablet.hasTimeStamps(); }
+
+    /**
+     * Indicate if this record has a duration.
+     *
+     *@return true if the tablet has durations
+     */
+    @Override
+    public boolean hasDuration()         { return tablet.hasDurations(); }
+
+    /**
+     * Save the bundle to a printstream so that it can be re-parsed.
+     *
+     * @param out print stream to save the bundle to
+     */
+    protected void save(PrintStream out) {
+      boolean first = true;
+      if (hasTime())     { out.print(Utils.exactDate(ts0())); first = false; }
+      if (hasDuration()) { out.print("," + Utils.exactDate(ts1())); }
+      int local_to_fld[] = tablet.localToField();
+      for (int i=0;i<local_to_fld.length;i++) {
+        String str = Utils.encToURL(toString(local_to_fld[i]));
+        out.print(first ? str : "," + str); first = false;
+      }
+      out.println("");
+    }
+
+    /**
+     * Return a uniform, normalized string representation of this bundle.
+     *
+     * @return normalized string representation
+     */
+    public String  toString()            {
+      BundlesG globals         = tablet.getBundles().getGlobals();
+      int      sorted_fld_is[] = tablet.getSortedFieldIndices();
+      StringBuffer sb = new StringBuffer();
+      for (int i=0;i<sorted_fld_is.length;i++) {
+        sb.append(globals.fieldHeader(sorted_fld_is[i]) + "=" + Utils.encToURL(toString(sorted_fld_is[i])));
+        if (i < (sorted_fld_is.length-1)) sb.append(BundlesDT.DELIM);
+      }
+      if (hasTime())     { sb.append(BundlesDT.DELIM); sb.append(Utils.exactDate(ts0())); }
+      if (hasDuration()) { sb.append(BundlesDT.DELIM); sb.append(Utils.exactDate(ts1())); }
+      return sb.toString();
+    }
+  }
+
+  /**
+   * Tablet that stores its records as dictionary-encoded columns.  Subset tablets
+   * are views that share the columns and field mapping of the root tablet.
+   *
+   * @author  D. Trimm
+   * @version 1.0
+   */
+  public class ColTablet extends Tablet {
+    /**
+     * Overarching {@link Bundles} instance that this tablet belongs to.
+     */
+    private Bundles         bundles        = null;
+
+    /**
+     * Globals for the overarching bundles
+     */
+    private BundlesG        globals        = null;
+
+    /**
+     * Set of the actual bundles in this tablet (bitmap over the record ordinals).  Used to iterate over.
+     */
+    private Set<Bundle>     bundle_set     = new BundleBitmapSet();
+
+    /**
+     * Mapping of the fields indices to the corresponding column.  If a -1 entry exist, that
+     * data is not held by these records.
+     */
+    private int             fields[]       = new int[BundlesG.MAX_FIELDS];
+
+    /**
+     * Column storage -- shared with the subset views of this tablet
+     */
+    private Columns         columns        = new Columns();
+
+    /**
+     * Add a bundle (record) to this tablet.
+     *
+     *@param bundle bundle to add
+     */
+    void            add(Bundle bundle) { bundle_set.add(bundle); }
+
+    /**
+     * Set a field mapping index to convert from global indices to local indices.
+     *
+     * @param fld_i   global index
+     * @param local_i local index
+     */
+    void setFieldIndex    (int fld_i, int local_i) { fields[fld_i] = local_i; columns.fieldsChanged(); }
+
+    /**
+     * Return the local index for the specified field index.
+     *
+     *@param fld_i     global index
+     *
+     *@return local index
+     */
+    int  localIndex       (int fld_i) { return fields[fld_i]; }
+
+    /**
+     * Construct a new tablet with the corresponding {@link Bundles} class.
+     *
+     * @param bundles overarching data structure
+     */
+    public ColTablet(Bundles bundles) { this.bundles = bundles; this.globals = bundles.getGlobals(); for (int i=0;i<fields.length;i++) fields[i] = -1; }
+
+    /**
+     * Construct a view of an existing tablet for a subset of its records.
+     *
+     * @param bundles  overarching data structure
+     * @param to_copy  tablet whose fields and columns are shared
+     */
+    public ColTablet(Bundles bundles, ColTablet to_copy) {
+      this.bundles        = bundles;
+      this.globals        = bundles.getGlobals();
+      this.has_timestamps = to_copy.has_timestamps;
+      this.has_durations  = to_copy.has_durations;
+      this.fields         = to_copy.fields;
+      this.columns        = to_copy.columns;
+    }
+
+    /**
+     * Return the global field index for each local index.
+     *
+     *@return local-to-global field array
+     */
+    int[] localToField() {
+      int ltf[] = columns.local_to_fld;
+      if (ltf == null || ltf.length != numberOfColumns()) {
+        ltf = new int[numberOfColumns()];
+        for (int fld_i=0;fld_i<fields.length;fld_i++) if (fields[fld_i] >= 0) ltf[fields[fld_i]] = fld_i;
+        columns.local_to_fld = ltf;
+      }
+      return ltf;
+    }
+
+    /**
+     * Return the number of local fields (columns) in this tablet.
+     *
+     *@return number of columns
+     */
+    private int numberOfColumns() { int n = 0; for (int i=0;i<fields.length;i++) if (fields[i] >= 0) n++; return n; }
+
+    /**
+     * Add a field to this tablet and all associated records (bundles).
+     *
+     *@param fld field to add
+     */
+    void             addField(String fld) {
+      int fld_i = globals.getOrCreateField(fld, Utils.isAllUpper(fld));
+      if (fields[fld_i] < 0) {
+        int local_i = numberOfColumns();
+        globals.addFieldEntity(fld_i, BundlesDT.NOTSET);
+        columns.ensureColumns(local_i+1, globals.intern(fld_i, BundlesDT.NOTSET));
+        fields[fld_i] = local_i;
+        columns.fieldsChanged();
+      }
+    }
+
+    /**
+     * For the records, set the specific field to the specific value.
+     *
+     *@param fld field to set
+     *@param val value to set
+     */
+    void setField(String fld, String val) {
+      int fld_i = globals.getOrCreateField(fld, Utils.isAllUpper(fld));
+      globals.addFieldEntity(fld_i, val);
+      int code = globals.intern(fld_i, val), col[] = columns.cols[fields[fld_i]];
+      Iterator<Bundle> it = bundleIterator();
+      while (it.hasNext()) col[((ColBundle) it.next()).row] = code;
+    }
+
+    /**
+     * Return the overarching datastructure for this tablet.
+     *
+     * @return Bundles
+     */
+    public Bundles          getBundles()        { return bundles; }
+
+    /**
+     * Return the set collection for the bundles.
+     *
+     *@return set of bundle/records
+     */
+    public Set<Bundle>  bundleSet()         { return bundle_set; }
+
+    /**
+     * Provide an interator over the individual bundles/records within this tablet.
+     *
+     * @return iterator over the records/bundles.
+     */
+    public Iterator<Bundle> bundleIterator()    { return bundle_set.iterator(); }
+
+    /**
+     * Remove the specified fields from this class.  Only the column references need to be
+     * shuffled -- the records themselves are unaffected.
+     *
+     *@param flds fields to remove
+     */
+    void removeFields(Set<String> flds) {
+      int ltf[] = localToField(), new_cols[][] = new int[ltf.length][]; int kept = 0, remove_count = 0;
+      for (int local_i=0;local_i<ltf.length;local_i++) {
+        int fld_i = ltf[local_i];
+        if (flds.contains(globals.fieldHeader(fld_i))) { fields[fld_i] = -1; remove_count++; }
+        else { if (local_i < columns.cols.length) new_cols[kept] = columns.cols[local_i]; fields[fld_i] = kept; kept++; }
+      }
+      if (remove_count == 0) return;
+      // No records yet -- columns will be allocated on the first add
+      if (columns.rows == 0) { columns.cols = new int[0][]; } else {
+        int trimmed[][] = new int[kept][]; System.arraycopy(new_cols, 0, trimmed, 0, kept);
+        columns.cols = trimmed;
+      }
+      columns.fieldsChanged();
+    }
+
+    /**
+     * Returns if this tablet contains data matching the global field index.
+     *
+     * @param  fld_i global field index
+     * @return       flag indicating that the data is present
+     */
+    public boolean          hasField(int fld_i) { if (fld_i < 0) return false; else return fields[fld_i] != -1; }
+
+    /**
+     * Returns the number of records / bundles within this tablet.
+     *
+     * @return the number of records
+     */
+    public int              size()              { return bundle_set.size();     }
+
+    /**
+     * Return a copy of the mapping array for this tablet.
+     *
+     * @return array mapping global to local indices
+     */
+    public int[]            getFields()         {
+      int copy[] = new int[fields.length]; System.arraycopy(fields, 0, copy, 0, copy.length);
+      return copy;
+    }
+
+    /**
+     * Return a string that can be used to represent data stored  out of this tablet set.
+     *
+     * @return comma-separated string for the field headers in this tablet.
+     */
+    public String           fileHeader()        {
+      List<String> al = new ArrayList<String>();
+      if (hasTimeStamps()) al.add("timestamp");
+      if (hasDurations())  al.add("timestamp_end");
+      int ltf[] = localToField(); for (int i=0;i<ltf.length;i++) al.add(globals.fieldHeader(ltf[i]));
+      StringBuffer sb = new StringBuffer(); for (int i=0;i<al.size();i++) sb.append((i == 0) ? al.get(i) : "," + al.get(i));
+      return sb.toString();
+    }
+
+    /**
+     * Return the sorted list of field indices.
+     *
+     * @return sorted list of field indices (sorted by header name)
+     */
+    int[]            getSortedFieldIndices() {
+      int sorted_fld_is[] = columns.sorted_fld_is;
+      if (sorted_fld_is == null) {
+        List<String> al = new ArrayList<String>();
+        int ltf[] = localToField(); for (int i=0;i<ltf.length;i++) al.add(globals.fieldHeader(ltf[i]));
+        Collections.sort(al);
+        int sorted[] = new int[al.size()];
+        for (int i=0;i<al.size();i++) sorted[i] = globals.fieldIndex(al.get(i));
+        columns.sorted_fld_is = sorted_fld_is = sorted;
+      }
+      return sorted_fld_is;
+    }
+
+    /**
+     * Mostly used for debugging purposes.
+     *
+     * @return high-level information about the underlying tablet data.
+     */
+    public String           toString() {
+      List<String> al = new ArrayList<String>();
+      for (int i=0;i<fields.length;i++) if (fields[i] != -1) al.add(globals.fieldHeader(i));
+      Collections.sort(al); StringBuffer sb = new StringBuffer(); sb.append("|ColTablet|sz=" + bundle_set.size());
+      for (int i=0;i<al.size();i++) { sb.append("|" + al.get(i)); }
+      if (hasTimeStamps()) sb.append(" Tm");
+      if (hasDurations())  sb.append(" Dur");
+      return sb.toString();
+    }
+
+    /**
+     * Determine if this tablet has the same schema as another.  Same means that it has
+     * the exact same named fields.  Timestamps are also checked.  Tablets themselves
+     * compare by identity since their fields can change while they are in sets.
+     *
+     *@param other tablet to compare to
+     *
+     *@return true if the tablets have exactly the same schema
+     */
+    public boolean sameSchema(Tablet other) {
+      if (other instanceof ColTablet) {
+        ColTablet o = (ColTablet) other;
+        int sorted[]   = getSortedFieldIndices(),
+            o_sorted[] = o.getSortedFieldIndices();
+        if (hasTimeStamps() != o.hasTimeStamps()) return false;
+        if (hasDurations()  != o.hasDurations())  return false;
+        if (sorted.length == o_sorted.length) {
+          for (int i=0;i<sorted.length;i++) if (sorted[i] != o_sorted[i]) return false;
+          return true;
+        } else return false;
+      } else return false;
+    }
+
+    /**
+     * Add a new bundle.  Create the elements from the attribute map and the timestamps (if not null).
+     * Note that for this method to succeed, all fields in this tablet must be satisfied.
+     *
+     *@param attr          attribute mapping
+     *@param timestamp     if the tablet has timestamps, this parameter must not be null
+     *@param timestamp_end if the tablet has timestamps and durations, this parameter must not be null
+     *
+     *@return the created bundle if successful, null otherwise
+     */
+    public Bundle addBundle(Map<String,String> attr, String timestamp, String timestamp_end) {
+      if (hasTimeStamps() &&                   timestamp     == null) return null;
+      if (hasTimeStamps() && hasDurations() && timestamp_end == null) return null;
+      return addBundle(attr, hasTimeStamps() ? Utils.parseTimeStamp(timestamp)     : 0L,
+                             hasDurations()  ? Utils.parseTimeStamp(timestamp_end) : 0L);
+    }
+
+    /**
+     * Add a new bundle with timestamps that were already parsed.
+     *
+     *@param attr attribute mapping
+     *@param ts0  timestamp -- ignored if the tablet doesn't have timestamps
+     *@param ts1  end timestamp -- ignored if the tablet doesn't have durations
+     *
+     *@return the created bundle if successful, null otherwise
+     */
+    public Bundle addBundle(Map<String,String> attr, long ts0, long ts1) {
+      columns.ensureColumns(attr.keySet().size(), 0);
+      int row = columns.newRow(hasTimeStamps(), hasDurations());
+
+      // Set the timestamps -- keep the end after the beginning (mirrors the record implementation)
+      if (hasTimeStamps()) columns.ts0s[row] = ts0;
+      if (hasDurations())  {
+        if (columns.ts0s[row] != 0L && columns.ts0s[row] > ts1) { columns.ts1s[row] = columns.ts0s[row]; columns.ts0s[row] = ts1; }
+        else                                                      columns.ts1s[row] = ts1;
+      }
+
+      // Go through the fields
+      Iterator<String> it = attr.keySet().iterator();
+      while (it.hasNext()) {
+        String fld = it.next(); String val = attr.get(fld);
+        if (fld.equals(BundlesDT.TAGS)) val = Utils.normalizeTag(val);
+        int fld_i = globals.getOrCreateField(fld, Utils.isAllUpper(fld));
+        globals.addFieldEntity(fld_i, val);
+        columns.cols[fields[fld_i]][row] = globals.intern(fld_i, val);
+      }
+
+      Bundle bundle = new ColBundle(this, row); globals.registerOrdinal(bundle);
+
+      // Add duration entity lookups
+      if (bundle.hasDuration()) {
+        String blanks[] = KeyMaker.blanks(globals, false, false, false, true);
+        for (int i=0;i<blanks.length;i++) {
+          if (blanks[i].startsWith("|Dur|")) {
+            KeyMaker km = new KeyMaker(this, blanks[i]);
+            globals.addFieldEntity(-1, (km.stringKeys(bundle))[0]);
+          }
+        }
+      }
+
+      bundles.add(bundle); add(bundle);
+      return bundle;
+    }
+
+    /**
+     * Add a new bundle.
+     *
+     *@param attr          attribute mapping
+     *@param timestamp     if the tablet has timestamps, this parameter must not be null
+     *
+     *@return the created bundle if successful, null otherwise
+     */
+    public Bundle addBundle(Map<String,String> attr, String timestamp) { return addBundle(attr, timestamp, null); }
+
+    /**
+     * Add a new bundle.
+     *
+     *@param attr          attribute mapping
+     *
+     *@return the created bundle if successful, null otherwise
+     */
+    public Bundle addBundle(Map<String,String> attr)                   { return addBundle(attr, null,      null); }
+
+    /**
+     * Add records whose values are already codes in the field dictionaries -- used by
+     * {@link BundlesSnapshot} to load the columns without building an attribute map per
+     * record.  The values must already be entities in the globals.  If the tablet has no
+     * rows yet, the arrays become the tablet's columns (so they must not be reused).
+     *
+     *@param flds  global field index of each code column
+     *@param codes code columns -- [column][row]
+     *@param ts0s  timestamps -- ignored if the tablet doesn't have timestamps
+     *@param ts1s  end timestamps -- ignored if the tablet doesn't have durations
+     *@param n     number of records
+     *
+     *@return the created bundles
+     */
+    List<Bundle> addRows(int flds[], int codes[][], long ts0s[], long ts1s[], int n) {
+      columns.ensureColumns(numberOfColumns(), 0); int base = columns.rows;
+      if (base == 0) {
+        for (int c=0;c<codes.length;c++) columns.cols[fields[flds[c]]] = codes[c];
+        for (int i=0;i<columns.cols.length;i++) if (columns.cols[i].length < n) columns.cols[i] = Arrays.copyOf(columns.cols[i], n);
+        columns.ts0s = hasTimeStamps() ? ts0s : null; columns.ts1s = hasDurations() ? ts1s : null;
+        columns.capacity = n; columns.rows = n;
+      } else {
+        for (int r=0;r<n;r++) {
+          int row = columns.newRow(hasTimeStamps(), hasDurations());
+          for (int c=0;c<codes.length;c++) columns.cols[fields[flds[c]]][row] = codes[c][r];
+          if (hasTimeStamps()) columns.ts0s[row] = ts0s[r];
+          if (hasDurations())  columns.ts1s[row] = ts1s[r];
+        }
+      }
+
+      // Keep the end after the beginning (as in addBundle()) -- then create the records
+      KeyMaker dur_kms[] = null; List<Bundle> added = new ArrayList<Bundle>(n);
+      if (hasDurations()) {
+        List<KeyMaker> al = new ArrayList<KeyMaker>(); String blanks[] = KeyMaker.blanks(globals, false, false, false, true);
+        for (int i=0;i<blanks.length;i++) if (blanks[i].startsWith("|Dur|")) al.add(new KeyMaker(this, blanks[i]));
+        dur_kms = al.toArray(new KeyMaker[al.size()]);
+      }
+      for (int row=base;row<base+n;row++) {
+        if (hasDurations() && columns.ts0s[row] != 0L && columns.ts0s[row] > columns.ts1s[row]) { long ts = columns.ts1s[row]; columns.ts1s[row] = columns.ts0s[row]; columns.ts0s[row] = ts; }
+        Bundle bundle = new ColBundle(this, row); globals.registerOrdinal(bundle);
+        if (dur_kms != null) for (int i=0;i<dur_kms.length;i++) globals.addFieldEntity(-1, (dur_kms[i].stringKeys(bundle))[0]);
+        bundles.add(bundle); add(bundle); added.add(bundle);
+      }
+      return added;
+    }
+  }
+}
@@ -20,6 +20,7 @@ package racetrack.framework;
 
 import java.awt.Color;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -27,8 +28,11 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import racetrack.gui.RT;
+import racetrack.util.RoaringBitmap;
 import racetrack.util.Utils;
 import racetrack.visualization.RTColorManager;
 
@@ -59,6 +63,12 @@ public class BundlesCounterContext {
    */
   String                            color_by; 
 
+  /**
+   * Key dictionaries that the key ids come from -- shared with the partials and versions so that
+   * their ids can be compared (see {@link BundlesG#keyDictionaries()})
+   */
+  ConcurrentMap<String,FieldDictionary> key_dicts;
+
   /**
    * A subclass that delineates whether the counting is done arithmetically or using
    * set-based operations.  Most of the work goes on in this class but the overall
@@ -73,11 +83,15 @@ public class BundlesCounterContext {
   Map<Tablet,KeyMaker>          color_tablet_lu   = new HashMap<Tablet,KeyMaker>();
 
   /**
-   * Lookup table to convert the binning string (typically specific to the type
-   * of view that the GUI is creating) with the set of corresponding bundles.  A
-   * bundle can often exist in more than one bin.
+   * Bin strings interned to dense ids -- the records for each bin (a bundle can often exist
+   * in more than one bin) are kept with the bin's page in the counter
+   */
+  Interner                  bin_ids           = new Interner();
+
+  /**
+   * Set once a newer version of this context has been made (see {@link #fork()})
    */
-  Map<String,Set<Bundle>>   bin_to_bundle_set = new HashMap<String,Set<Bundle>>();
+  boolean                   forked            = false;
 
   /**
    * Subclass used to perform the actual counting dependent on how the data should be
@@ -212,232 +226,544 @@ public class BundlesCounterContext {
   };
 
   /**
-   * Implementation of a counter that accumulates using set-based operations.
-   *
-   * @author  D. Trimm
-   * @version 1.0
-   */
-  class SetCounter implements Counter {
-    Map<String,Set<String>>             bin_to_total           = new HashMap<String,Set<String>>();
-    Map<String,Set<String>>             bin_to_ctotal          = new HashMap<String,Set<String>>();
-    Map<String,Map<String,Set<String>>> bin_to_cbin_to_total   = new HashMap<String,Map<String,Set<String>>>();
-    Map<String,Set<String>>             cbin_to_total          = new HashMap<String,Set<String>>();
-    Map<String,Double>                  total_color_maximum_lu = new HashMap<String,Double>();
-    double                              total_maximum          = 0.0, 
-                                        total_color_maximum    = 0.0;
-    Map<Tablet,KeyMaker>                count_by_lu            = new HashMap<Tablet,KeyMaker>();
-
-    public double count(Bundle bundle, String bin, double div) { return count(bundle,bin); }
-
-    public double count(Bundle bundle, String bin) {
-      if (count_by_lu.containsKey(bundle.getTablet()) == false) {
-	count_by_lu.put(bundle.getTablet(),new KeyMaker(bundle.getTablet(),count_by));
+   * Ids per page of the counter storage (see {@link IndexedCounter}).
+   */
+  static final int PAGE_BITS = 8, PAGE_SIZE = 1 << PAGE_BITS, PAGE_MASK = PAGE_SIZE - 1;
+
+  /**
+   * Dense interning of strings to integer ids (in first-seen order).  The versions of a context
+   * (see {@link #fork()}) share their interners -- only the newest version interns while the
+   * older versions look up, so the lookups are safe against a concurrent intern.  Ids are never
+   * reassigned and an older version ignores the ids issued after it.
+   */
+  static class Interner {
+    ConcurrentMap<String,Integer> ids     = new ConcurrentHashMap<String,Integer>();
+    volatile String               pages[][] = new String[4][];
+    int                           size    = 0;
+    /**
+     * Return the id for the string, issuing the next id if the string is new.
+     */
+    int    intern(String str) { Integer id = ids.get(str); if (id != null) return id;
+                                int page = size >>> PAGE_BITS; String lu[][] = pages;
+                                if (page >= lu.length) lu = Arrays.copyOf(lu, lu.length*2);
+                                if (lu[page] == null)  lu[page] = new String[PAGE_SIZE];
+                                lu[page][size & PAGE_MASK] = str; pages = lu; ids.put(str, size); return size++; }
+    /**
+     * Return the id for the string or -1 if it hasn't been interned.
+     */
+    int    lookup(String str) { Integer id = ids.get(str); return id == null ? -1 : id; }
+    String str(int id)        { return pages[id >>> PAGE_BITS][id & PAGE_MASK]; }
+    int    size()             { return size; }
+  }
+
+  /**
+   * Open-addressed map from a (bin id, color bin id) pair to a dense pair id.  Shared by the
+   * versions of a context like the {@link Interner} -- the table is replaced (never rehashed in
+   * place) when it grows so that a lookup always sees a whole table.
+   */
+  static class PairIndex {
+    static class Table { long keys[]; int vals[]; Table(int n) { keys = new long[n]; vals = new int[n]; Arrays.fill(keys, -1L); } }
+    volatile Table table = new Table(64); int size = 0;
+    static long key(int bin_i, int cbin_i) { return (((long) bin_i) << 32) | (cbin_i & 0xffffffffL); }
+    static int slot(long key, int len) { long h = key * 0x9E3779B97F4A7C15L; return (int) (h >>> 40) & (len - 1); }
+    /**
+     * Return the pair id or -1 if not present.
+     */
+    int get(int bin_i, int cbin_i) {
+      Table t = table; long keys[] = t.keys; long key = key(bin_i, cbin_i); int i = slot(key, keys.length);
+      while (keys[i] != -1L) { if (keys[i] == key) return t.vals[i]; i = (i+1) & (keys.length-1); }
+      return -1;
+    }
+    /**
+     * Add a pair that isn't present and give it the next dense id.
+     */
+    int add(int bin_i, int cbin_i) {
+      Table t = table;
+      if ((size+1)*2 > t.keys.length) {
+        Table grown = new Table(t.keys.length*2); long keys[] = grown.keys;
+        for (int j=0;j<t.keys.length;j++) if (t.keys[j] != -1L) { int i = slot(t.keys[j], keys.length); while (keys[i] != -1L) i = (i+1) & (keys.length-1); keys[i] = t.keys[j]; grown.vals[i] = t.vals[j]; }
+        table = t = grown;
       }
-      String sets[] = count_by_lu.get(bundle.getTablet()).stringKeys(bundle);
-      if (sets.length == 0) return 0.0;
-      // - create if necessary
-      if (bin_to_total.containsKey(bin) == false) {
-        bin_to_total.put(bin, new HashSet<String>());
-	bin_to_cbin_to_total.put(bin, new HashMap<String,Set<String>>());
-        bin_to_ctotal.put(bin, new HashSet<String>());
+      long key = key(bin_i, cbin_i); int i = slot(key, t.keys.length); while (t.keys[i] != -1L) i = (i+1) & (t.keys.length-1);
+      t.vals[i] = size; t.keys[i] = key;
+      return size++;
+    }
+  }
+
+  /**
+   * Storage for a page of bins.  A page belongs to the version that created it -- a newer version
+   * copies the page before changing it and then copies a bin's bitmap and records (see
+   * {@link #own(int)}) before changing those.  The scalar counters keep the totals and color totals,
+   * the set counters keep the bitmaps (the color total is a cache, NaN when stale).
+   */
+  static class BinPage {
+    int           version;
+    boolean       made[]       = new boolean[PAGE_SIZE], owned[]   = new boolean[PAGE_SIZE];
+    int           first_pair[] = new int[PAGE_SIZE],     pairs[]   = new int[PAGE_SIZE];
+    double        total[],                               ctotal[]  = new double[PAGE_SIZE];
+    RoaringBitmap set[];
+    Object        records[]    = new Object[PAGE_SIZE];
+    BinPage(int version, boolean sets) { this.version = version; Arrays.fill(owned, true); if (sets) set = new RoaringBitmap[PAGE_SIZE]; else total = new double[PAGE_SIZE]; }
+    BinPage(BinPage page, int version) {
+      this.version = version; made = page.made.clone(); first_pair = page.first_pair.clone(); pairs = page.pairs.clone(); ctotal = page.ctotal.clone(); records = page.records.clone();
+      if (page.set != null) set = page.set.clone(); else total = page.total.clone();
+    }
+    /**
+     * Take ownership of a bin's bitmap and records -- they're shared with the older version until changed.
+     */
+    void own(int b) {
+      if (owned[b]) return;
+      if (set != null && set[b] != null) set[b] = set[b].share();
+      if (records[b] != null) records[b] = BundleBitmapSet.share(records(b));
+      owned[b] = true;
+    }
+    @SuppressWarnings("unchecked")
+    Set<Bundle> records(int b) { return (Set<Bundle>) records[b]; }
+  }
+
+  /**
+   * Storage for a page of color bins -- copied like the {@link BinPage}.
+   */
+  static class CBinPage {
+    int           version;
+    boolean       owned[] = new boolean[PAGE_SIZE];
+    double        total[], max[] = new double[PAGE_SIZE];
+    RoaringBitmap set[];
+    CBinPage(int version, boolean sets) { this.version = version; Arrays.fill(owned, true); if (sets) set = new RoaringBitmap[PAGE_SIZE]; else total = new double[PAGE_SIZE]; }
+    CBinPage(CBinPage page, int version) { this.version = version; max = page.max.clone(); if (page.set != null) set = page.set.clone(); else total = page.total.clone(); }
+    void own(int c) { if (owned[c]) return; if (set != null && set[c] != null) set[c] = set[c].share(); owned[c] = true; }
+  }
+
+  /**
+   * Storage for a page of (bin, color bin) pairs -- copied like the {@link BinPage}.
+   */
+  static class PairPage {
+    int           version;
+    boolean       owned[] = new boolean[PAGE_SIZE];
+    int           bin[]   = new int[PAGE_SIZE], cbin[] = new int[PAGE_SIZE], next[] = new int[PAGE_SIZE];
+    double        total[];
+    RoaringBitmap set[];
+    PairPage(int version, boolean sets) { this.version = version; Arrays.fill(owned, true); if (sets) set = new RoaringBitmap[PAGE_SIZE]; else total = new double[PAGE_SIZE]; }
+    PairPage(PairPage page, int version) {
+      this.version = version; bin = page.bin.clone(); cbin = page.cbin.clone(); next = page.next.clone();
+      if (page.set != null) set = page.set.clone(); else total = page.total.clone();
+    }
+    void own(int p) { if (owned[p]) return; if (set != null && set[p] != null) set[p] = set[p].share(); owned[p] = true; }
+  }
+
+  /**
+   * Base for the counters that work on interned bin ids.  Color bins are interned as well and
+   * each (bin, color bin) combination gets a dense pair id so that the totals can be kept
+   * in primitive arrays.  The pairs for a bin are chained so that the color bins for a bin
+   * can be walked without any map lookups.
+   *
+   * The arrays are split into pages of {@link #PAGE_SIZE} ids so that a newer version of the
+   * counter (see {@link #fork()}) can share the pages it doesn't change.  The writers go through
+   * {@link #binPage(int)}, {@link #cbinPage(int)}, and {@link #pairPage(int)} -- the readers only
+   * look at the ids that exist in their version (bins that are made, color bins under cbin_n,
+   * pairs under pair_n).
+   */
+  abstract class IndexedCounter implements Counter {
+    Interner   cbin_ids     = new Interner();
+    PairIndex  pair_index   = new PairIndex();
+    int        version      = 0, cbin_n = 0, pair_n = 0;
+    BinPage    bin_pages[]  = new BinPage[4];
+    CBinPage   cbin_pages[] = new CBinPage[4];
+    PairPage   pair_pages[] = new PairPage[4];
+
+    /**
+     * Add the record's contribution to the bin.
+     *
+     *@param  bundle record to add
+     *@param  bin_i  bin id (from the context's interner)
+     *@param  div    dividing factor for this contribution
+     *
+     *@return specific contribution of this record
+     */
+    abstract double count(Bundle bundle, int bin_i, double div);
+
+    /**
+     * Return true if the pages keep bitmaps (set counters) rather than totals.
+     */
+    abstract boolean sets();
+
+    /**
+     * Continue counting from an older version -- the pages and ids are shared, only the page
+     * tables are copied.
+     *
+     *@param older counter (of the same type) of the older version
+     */
+    void forkFrom(IndexedCounter older) {
+      version     = older.version + 1;
+      cbin_ids    = older.cbin_ids;           pair_index = older.pair_index;           cbin_of_key = older.cbin_of_key;
+      cbin_n      = older.cbin_n;             pair_n     = older.pair_n;
+      bin_pages   = older.bin_pages.clone();  cbin_pages = older.cbin_pages.clone();   pair_pages  = older.pair_pages.clone();
+    }
+
+    /**
+     * Return the page for a bin ready to be changed -- created if missing, copied if it belongs to
+     * an older version.
+     */
+    BinPage binPage(int bin_i) {
+      int p = bin_i >>> PAGE_BITS;
+      if (p >= bin_pages.length) bin_pages = Arrays.copyOf(bin_pages, Math.max(p+1, bin_pages.length*2));
+      BinPage page = bin_pages[p];
+      if      (page == null)            bin_pages[p] = page = new BinPage(version, sets());
+      else if (page.version != version) bin_pages[p] = page = new BinPage(page, version);
+      page.own(bin_i & PAGE_MASK);
+      return page;
+    }
+    CBinPage cbinPage(int cbin_i) {
+      int p = cbin_i >>> PAGE_BITS;
+      if (p >= cbin_pages.length) cbin_pages = Arrays.copyOf(cbin_pages, Math.max(p+1, cbin_pages.length*2));
+      CBinPage page = cbin_pages[p];
+      if      (page == null)            cbin_pages[p] = page = new CBinPage(version, sets());
+      else if (page.version != version) cbin_pages[p] = page = new CBinPage(page, version);
+      page.own(cbin_i & PAGE_MASK);
+      return page;
+    }
+    PairPage pairPage(int pair_i) {
+      int p = pair_i >>> PAGE_BITS;
+      if (p >= pair_pages.length) pair_pages = Arrays.copyOf(pair_pages, Math.max(p+1, pair_pages.length*2));
+      PairPage page = pair_pages[p];
+      if      (page == null)            pair_pages[p] = page = new PairPage(version, sets());
+      else if (page.version != version) pair_pages[p] = page = new PairPage(page, version);
+      page.own(pair_i & PAGE_MASK);
+      return page;
+    }
+
+    /**
+     * Return the page for a bin for reading -- null if this version has no page for the bin.
+     */
+    BinPage binRead(int bin_i) { int p = bin_i >>> PAGE_BITS; return (bin_i < 0 || p >= bin_pages.length) ? null : bin_pages[p]; }
+    int     pairCBin(int pair_i) { return pair_pages[pair_i >>> PAGE_BITS].cbin[pair_i & PAGE_MASK]; }
+    int     pairNext(int pair_i) { return pair_pages[pair_i >>> PAGE_BITS].next[pair_i & PAGE_MASK]; }
+
+    /**
+     * Make sure that the bin has storage and return its (changeable) page.  Sets bin_created when the bin is new.
+     */
+    boolean bin_created;
+    BinPage makeBin(int bin_i) {
+      BinPage page = binPage(bin_i); int b = bin_i & PAGE_MASK;
+      bin_created = (page.made[b] == false);
+      if (bin_created) { page.made[b] = true; page.first_pair[b] = -1; }
+      return page;
+    }
+
+    /**
+     * Intern a color bin, returning its id.  Sets cbin_created when it is new.
+     */
+    boolean cbin_created;
+    int cbin(String cbin) {
+      int cbin_i = cbin_ids.intern(cbin); cbin_created = (cbin_i >= cbin_n);
+      if (cbin_created) cbin_n = cbin_i + 1;
+      return cbin_i;
+    }
+
+    /**
+     * Color key ids of the record being counted (see {@link #colorKeys(Bundle)}) and the color bin
+     * for each color key id (plus one, zero if not yet seen).  The color key ids are the same
+     * across tablets, so the color strings are only interned once per distinct value.
+     */
+    int       color_keys[]    = new int[8], cbin_of_key[] = new int[64];
+    KeyMaker  color_km        = null;       Tablet color_tablet = null;
+
+    /**
+     * Write the color key ids of a record into color_keys -- returns the number of keys.  A record
+     * whose tablet doesn't complete the color_by blank gets a single key of -1 ("[nocolor]").
+     */
+    int colorKeys(Bundle bundle) {
+      Tablet tablet = bundle.getTablet();
+      if (tablet != color_tablet) { color_km = colorKeyMaker(tablet); color_tablet = tablet; }
+      if (color_km == null) { color_keys[0] = -1; return 1; }
+      int n = color_km.keyIds(bundle, color_keys);
+      if (n > color_keys.length) { color_keys = new int[Math.max(n, color_keys.length*2)]; n = color_km.keyIds(bundle, color_keys); }
+      return n;
+    }
+
+    /**
+     * Return the color bin id for a color key id, interning the color bin if necessary.  Sets cbin_created when it is new.
+     */
+    int cbinForKey(int key) {
+      if (key < 0) return cbin("[nocolor]");
+      if (key < cbin_of_key.length && cbin_of_key[key] > 0) { cbin_created = false; return cbin_of_key[key] - 1; }
+      int cbin_i = cbin(color_km.keyString(key));
+      if (key >= cbin_of_key.length) cbin_of_key = Arrays.copyOf(cbin_of_key, Math.max(key+1, cbin_of_key.length*2));
+      cbin_of_key[key] = cbin_i + 1;
+      return cbin_i;
+    }
+
+    /**
+     * Return the pair id for the bin and color bin, creating it if necessary.  Sets pair_created when it is new.
+     */
+    boolean pair_created;
+    int pair(int bin_i, int cbin_i) {
+      int pair_i = pair_index.get(bin_i, cbin_i); pair_created = (pair_i < 0);
+      if (pair_created) {
+        pair_i = pair_index.add(bin_i, cbin_i); pair_n = pair_i + 1;
+        PairPage pp = pairPage(pair_i); int p = pair_i & PAGE_MASK;
+        BinPage  bp = binPage(bin_i);   int b = bin_i  & PAGE_MASK;
+        pp.bin[p] = bin_i; pp.cbin[p] = cbin_i; pp.next[p] = bp.first_pair[b]; bp.first_pair[b] = pair_i; bp.pairs[b]++;
       }
-      // - Add to
-      for (int i=0;i<sets.length;i++) bin_to_total.get(bin).add(sets[i]);
-      // - Update maximum and get return
-      if (total_maximum < bin_to_total.get(bin).size()) total_maximum = bin_to_total.get(bin).size();
-      double ret = bin_to_total.get(bin).size();
-      // Add to the color bin
+      return pair_i;
+    }
+
+    /**
+     * Return the pair id for the bin and color bin in this version or -1 if there is no such pair.
+     */
+    int pairId(int bin_i, int cbin_i) {
+      int pair_i = pair_index.get(bin_i, cbin_i); if (pair_i < 0 || pair_i >= pair_n) return -1;
+      PairPage page = pair_pages[pair_i >>> PAGE_BITS]; int p = pair_i & PAGE_MASK;
+      return (page.bin[p] == bin_i && page.cbin[p] == cbin_i) ? pair_i : -1;
+    }
+
+    /**
+     * Return the bin id for a bin string -- the lookup fails (as the map-based counters would) for unknown bins.
+     */
+    int binId(String bin) { int bin_i = bin_ids.lookup(bin); BinPage page = binRead(bin_i); if (page == null || page.made[bin_i & PAGE_MASK] == false) throw new NullPointerException("No Bin \"" + bin + "\""); return bin_i; }
+    int cbinId(String cbin) { int cbin_i = cbin_ids.lookup(cbin); if (cbin_i < 0 || cbin_i >= cbin_n) throw new NullPointerException("No Color Bin \"" + cbin + "\""); return cbin_i; }
+    BinPage  binOf (int bin_i)  { return bin_pages [bin_i  >>> PAGE_BITS]; }
+    CBinPage cbinOf(int cbin_i) { return cbin_pages[cbin_i >>> PAGE_BITS]; }
+
+    public double count(Bundle bundle, String bin)             { return count(bundle, bin_ids.intern(bin), 1.0); }
+    public double count(Bundle bundle, String bin, double div) { return count(bundle, bin_ids.intern(bin), div); }
+
+    /**
+     * Abstract accessor for a pair's total
+     */
+    abstract double pairTotal(int pair_i);
+
+    /**
+     * Fold another counter's totals into this one.
+     *
+     *@param other   counter (of the same type) to merge from
+     *@param bin_map conversion from the other context's bin ids to this context's bin ids
+     */
+    abstract void merge(IndexedCounter other, int bin_map[]);
+
+    public double total(String bin, String cbin) { 
+      int bin_i = bin_ids.lookup(bin), cbin_i = cbin_ids.lookup(cbin); if (bin_i < 0 || cbin_i < 0) return 0.0;
+      int pair_i = pairId(bin_i, cbin_i); return pair_i < 0 ? 0.0 : pairTotal(pair_i);
+    }
+    public double totalNormalized(String bin)    { return total(bin) / totalMaximum(); }
+    public Color  binColor(String bin)           { 
+      int bin_i = bin_ids.lookup(bin); BinPage page = binRead(bin_i); int b = bin_i & PAGE_MASK;
+      if (page != null && page.made[b] && page.pairs[b] == 1) return RTColorManager.getColor(cbin_ids.str(pairCBin(page.first_pair[b])));
+      else if (color_by == null) return RTColorManager.getLogColor(total(bin));
+      else                       return RTColorManager.getColor("set", "multi");
+    }
+    public Iterator<String> binIterator()        { 
+      List<String> list = new ArrayList<String>();
+      for (int p=0;p<bin_pages.length;p++) { BinPage page = bin_pages[p]; if (page == null) continue;
+        for (int b=0;b<PAGE_SIZE;b++) if (page.made[b]) list.add(bin_ids.str((p << PAGE_BITS) | b)); }
+      return list.iterator();
+    }
+    public Iterator<String> colorBinIterator()   { 
+      List<String> list = new ArrayList<String>(); for (int i=0;i<cbin_n;i++) list.add(cbin_ids.str(i));
+      return list.iterator();
+    }
+  }
+
+  /**
+   * Implementation of a counter that accumulates using arithmetic operations.  Sums are kept in double
+   * arrays indexed by bin, color bin, and pair ids.
+   */
+  class IndexedScalarCounter extends IndexedCounter {
+    double total_maximum = 1.0, total_color_maximum = 0.0;
+    int    fldi          = -1;
+
+    public IndexedScalarCounter() { if (this instanceof IndexedBundleCounter == false) fldi = bundles.getGlobals().fieldIndex(count_by); }
+    public double toAdd(Bundle bundle) { return bundle.toValue(fldi); }
+
+    boolean sets() { return false; }
+    void forkFrom(IndexedCounter older) { super.forkFrom(older); IndexedScalarCounter from = (IndexedScalarCounter) older; total_maximum = from.total_maximum; total_color_maximum = from.total_color_maximum; }
+    double pairTotal(int pair_i) { return pair_pages[pair_i >>> PAGE_BITS].total[pair_i & PAGE_MASK]; }
+
+    double count(Bundle bundle, int bin_i, double div) {
+      double to_add = toAdd(bundle)/div, ret;
+      // Add to the bin
+      BinPage bp = makeBin(bin_i); int b = bin_i & PAGE_MASK;
+      if (bin_created) { bp.total[b] = to_add; bp.ctotal[b] = 0.0; } else bp.total[b] += to_add;
+      ret = bp.total[b];
+      if (ret > total_maximum) total_maximum = ret;
+      // Add to the color bins
       if (color_by != null) {
-        String cbins[] = colorBins(bundle);
-	for (int i=0;i<cbins.length;i++) {
-          bin_to_ctotal.get(bin).add(cbins[i]);
-	  if (cbin_to_total.containsKey(cbins[i])                 == false) {
-	    cbin_to_total.put(cbins[i], new HashSet<String>());
-            total_color_maximum_lu.put(cbins[i], 0.0);
-          }
-	  if (bin_to_cbin_to_total.get(bin).containsKey(cbins[i]) == false)
-	    bin_to_cbin_to_total.get(bin).put(cbins[i], new HashSet<String>());
-          for (int j=0;j<sets.length;j++) {
-	    cbin_to_total.get(cbins[i]).add(sets[j]);
-// System.err.println("bin=" + bin + ":cbin_to_total.get(" + cbins[i] + ").add(" + sets[j] + ")");
-	    bin_to_cbin_to_total.get(bin).get(cbins[i]).add(sets[j]);
-// System.err.println("  bin_to_cbin_to_total.get(" + bin + ").get(" + cbins[i] + ").add(" + sets[j] + ")");
-            if (bin_to_cbin_to_total.get(bin).get(cbins[i]).size() > total_color_maximum_lu.get(cbins[i]))
-              total_color_maximum_lu.put(cbins[i], (double) bin_to_cbin_to_total.get(bin).get(cbins[i]).size());
-// System.err.println("  total_color_maximum_lu.put(" + cbins[i] + "," + ((double) bin_to_cbin_to_total.get(bin).get(cbins[i]).size()) + ")");
-            if (bin_to_cbin_to_total.get(bin).get(cbins[i]).size() > total_color_maximum)
-              total_color_maximum = bin_to_cbin_to_total.get(bin).get(cbins[i]).size();
-// System.err.println("  total_color_maximum = " + bin_to_cbin_to_total.get(bin).get(cbins[i]).size());
-	  }
-	}
+        int n = colorKeys(bundle);
+        for (int i=0;i<n;i++) {
+          int cbin_i = cbinForKey(color_keys[i]), pair_i = pair(bin_i, cbin_i);
+          CBinPage cp = cbinPage(cbin_i); int c = cbin_i & PAGE_MASK;
+          PairPage pp = pairPage(pair_i); int p = pair_i & PAGE_MASK;
+          bp.ctotal[b] += to_add;
+          if (cbin_created) { cp.total[c] = to_add; cp.max[c] = Double.NEGATIVE_INFINITY; } else cp.total[c] += to_add;
+          if (pair_created)   pp.total[p] = to_add; else pp.total[p] += to_add;
+          if (pp.total[p] > cp.max[c])          cp.max[c]           = pp.total[p];
+          if (pp.total[p] > total_color_maximum) total_color_maximum = pp.total[p];
+        }
       }
-      // Return
       return ret;
     }
-    // - totals
-    public double total(String bin)              { return bin_to_total.get(bin).size(); }
-
-    Map<String,Double> bin_color_total = new HashMap<String,Double>();
-    public double binColorTotal(String bin)      { if (bin_color_total.containsKey(bin) == false) {
-                                                     double sum = 0.0;
-                                                     Iterator<String> it = bin_to_cbin_to_total.get(bin).keySet().iterator();
-                                                     while (it.hasNext()) sum += bin_to_cbin_to_total.get(bin).get(it.next()).size();
-                                                     bin_color_total.put(bin,sum);
-                                                   }
-                                                   return bin_color_total.get(bin); }
-
-    public double total(String bin, String cbin) { if (bin_to_cbin_to_total.containsKey(bin) &&
-                                                       bin_to_cbin_to_total.get(bin).containsKey(cbin)) return bin_to_cbin_to_total.get(bin).get(cbin).size();
-                                                   else                                                 return 0.0; }
-    public double totalColor(String cbin)        { return cbin_to_total.get(cbin).size(); }
+    public double total(String bin)              { int bin_i  = binId(bin);   return binOf(bin_i).total[bin_i & PAGE_MASK]; }
+    public double binColorTotal(String bin)      { int bin_i  = binId(bin);   return binOf(bin_i).ctotal[bin_i & PAGE_MASK]; }
+    public double totalColor(String cbin)        { int cbin_i = cbinId(cbin); return cbinOf(cbin_i).total[cbin_i & PAGE_MASK]; }
     public double totalMaximum()                 { return total_maximum; }
     public double totalColorMaximum()            { return total_color_maximum; }
-    public double totalColorMaximum(String cbin) { return total_color_maximum_lu.get(cbin); }
-    public double totalNormalized(String bin)    { return total(bin) / total_maximum; }
-    public Color  binColor(String bin)           { 
-      if (bin_to_cbin_to_total.containsKey(bin) && bin_to_cbin_to_total.get(bin).size() == 1) return RTColorManager.getColor(bin_to_cbin_to_total.get(bin).keySet().iterator().next());
-      else if (color_by == null) return RTColorManager.getLogColor(total(bin));
-      else                       return RTColorManager.getColor("set", "multi");
+    public double totalColorMaximum(String cbin) { int cbin_i = cbinId(cbin); return cbinOf(cbin_i).max[cbin_i & PAGE_MASK]; }
+    void merge(IndexedCounter other_ic, int bin_map[]) {
+      IndexedScalarCounter other = (IndexedScalarCounter) other_ic;
+      for (int ob=0;ob<bin_map.length;ob++) { BinPage op = other.binRead(ob); int o = ob & PAGE_MASK; if (op == null || op.made[o] == false) continue;
+        int bin_i = bin_map[ob]; BinPage bp = makeBin(bin_i); int b = bin_i & PAGE_MASK;
+        if (bin_created) { bp.total[b] = op.total[o]; bp.ctotal[b] = op.ctotal[o]; }
+        else             { bp.total[b] += op.total[o]; bp.ctotal[b] += op.ctotal[o]; }
+        if (bp.total[b] > total_maximum) total_maximum = bp.total[b];
+      }
+      if (other.total_maximum > total_maximum) total_maximum = other.total_maximum;
+      int cbin_map[] = new int[other.cbin_n];
+      for (int oc=0;oc<cbin_map.length;oc++) {
+        int cbin_i = cbin_map[oc] = cbin(other.cbin_ids.str(oc)); CBinPage cp = cbinPage(cbin_i), ocp = other.cbinOf(oc); int c = cbin_i & PAGE_MASK, o = oc & PAGE_MASK;
+        if (cbin_created) { cp.total[c] = ocp.total[o]; cp.max[c] = ocp.max[o]; }
+        else              { cp.total[c] += ocp.total[o]; if (ocp.max[o] > cp.max[c]) cp.max[c] = ocp.max[o]; }
+      }
+      for (int op=0;op<other.pair_n;op++) {
+        PairPage opp = other.pair_pages[op >>> PAGE_BITS]; int o = op & PAGE_MASK;
+        int pair_i = pair(bin_map[opp.bin[o]], cbin_map[opp.cbin[o]]); PairPage pp = pairPage(pair_i); int p = pair_i & PAGE_MASK;
+        int cbin_i = pp.cbin[p]; CBinPage cp = cbinPage(cbin_i); int c = cbin_i & PAGE_MASK;
+        if (pair_created) pp.total[p] = opp.total[o]; else pp.total[p] += opp.total[o];
+        if (pp.total[p] > cp.max[c])           cp.max[c]           = pp.total[p];
+        if (pp.total[p] > total_color_maximum) total_color_maximum = pp.total[p];
+      }
+      if (other.total_color_maximum > total_color_maximum) total_color_maximum = other.total_color_maximum;
     }
-    public void   accumulate(String from, String into) { 
-      // Update the total & adjust the maximum if necessary
-      bin_to_total.get(into).addAll(bin_to_total.get(from));
-      if (total_maximum < bin_to_total.get(into).size()) total_maximum = bin_to_total.get(into).size();
-      // fix the color-bys
-      if (color_by != null && bin_to_cbin_to_total.containsKey(from)) {
-        // Make the into if it doesn't exist
-        if (bin_to_cbin_to_total.containsKey(into) == false) bin_to_cbin_to_total.put(into, new HashMap<String,Set<String>>());
-
-        // Go through each color bin updating or creating the place for the destination
-        Iterator<String> it_cbin = bin_to_cbin_to_total.get(from).keySet().iterator();
-        while (it_cbin.hasNext()) {
-          String cbin = it_cbin.next();
-          // Update or create the actual color bin
-          if (bin_to_cbin_to_total.get(into).containsKey(cbin)) { bin_to_cbin_to_total.get(into).get(cbin).addAll(bin_to_cbin_to_total.get(from).get(cbin)); }
-          else                                                  { bin_to_cbin_to_total.get(into).put(cbin, new HashSet<String>());
-                                                                  bin_to_cbin_to_total.get(into).get(cbin).addAll(bin_to_cbin_to_total.get(from).get(cbin)); }
-          bin_to_ctotal.get(into).addAll(bin_to_cbin_to_total.get(from).get(cbin));
-
-          // track the maximum(s)
-          cbin_to_total.get(cbin).addAll(bin_to_cbin_to_total.get(from).get(cbin)); // May be redundant...
-          if (bin_to_cbin_to_total.get(into).get(cbin).size() > total_color_maximum)              total_color_maximum = bin_to_cbin_to_total.get(into).get(cbin).size();
-          if (bin_to_cbin_to_total.get(into).get(cbin).size() > total_color_maximum_lu.get(cbin)) total_color_maximum_lu.put(cbin,(double)bin_to_cbin_to_total.get(into).get(cbin).size());
+    public void accumulate(String from, String into) {
+      int from_i = binId(from), into_i = binId(into);
+      BinPage ip = binPage(into_i), fp = binOf(from_i); int t = into_i & PAGE_MASK, f = from_i & PAGE_MASK;
+      ip.total[t] += fp.total[f];
+      if (total_maximum < ip.total[t]) total_maximum = ip.total[t];
+      if (color_by != null) {
+        for (int q=fp.first_pair[f];q>=0;q=pairNext(q)) {
+          int cbin_i = pairCBin(q); double v = pairTotal(q); int pair_i = pair(into_i, cbin_i);
+          PairPage pp = pairPage(pair_i); int p = pair_i & PAGE_MASK; CBinPage cp = cbinPage(cbin_i); int c = cbin_i & PAGE_MASK;
+          if (pair_created) pp.total[p] = v; else pp.total[p] += v;
+          ip.ctotal[t] += v;
+          cp.total[c]  += v;
+          if (pp.total[p] > total_color_maximum) total_color_maximum = pp.total[p];
+          if (pp.total[p] > cp.max[c])           cp.max[c]           = pp.total[p];
         }
       }
     }
-    public Iterator<String> binIterator()        { return bin_to_total.keySet().iterator(); }
-    public Iterator<String> colorBinIterator()   { return cbin_to_total.keySet().iterator(); }
   }
 
   /**
-   * A limited version of the {@link ScalarCounter} that is used to just count the
+   * A limited version of the {@link IndexedScalarCounter} that is used to just count the
    * actual bundle element itself.
    */
-  class BundleCounter extends ScalarCounter {
-    public BundleCounter() { }
+  class IndexedBundleCounter extends IndexedScalarCounter {
+    public IndexedBundleCounter() { }
     public double toAdd(Bundle bundle) { return 1.0; }
   }
 
   /**
-   * Implementation of a counter that accumulates using arithmetic operations.
-   *
-   * @author  D. Trimm
-   * @version 1.0
-   */
-  class ScalarCounter implements Counter {
-    Map<String,Double>             bin_to_total           = new HashMap<String,Double>();
-    Map<String,Double>             bin_to_ctotal          = new HashMap<String,Double>();
-    Map<String,Map<String,Double>> bin_to_cbin_to_total   = new HashMap<String,Map<String,Double>>();
-    Map<String,Double>             cbin_to_total          = new HashMap<String,Double>();
-    Map<String,Double>             total_color_maximum_lu = new HashMap<String,Double>();
-    double                         total_maximum          = 1.0, 
-                                   total_color_maximum    = 0.0;
-    int                            fldi                   = -1;
-
-    public ScalarCounter() { if (this instanceof BundleCounter == false) fldi = bundles.getGlobals().fieldIndex(count_by); }
-    // - toAdd();
-    //   - 2012/10/01 - added check for valid fldi.  Not sure if this is the correct place to fix the problem:
-    //     For panels like the RTGraph, there's no explicit check to see if a bundle contains the correct field (it doesn't check the tablet)...
-    //     This fix may mess up the statistics panel...
-    //   - 2012/10/01 - solution it to make RTGraph panel conform to Tablet test... otherwise we penalize every render
-    //     public double toAdd(Bundle bundle) { if (fldi >= 0) return bundle.toValue(fldi); else return 0; }
-    public double toAdd(Bundle bundle) { return bundle.toValue(fldi); }
-    public double count(Bundle bundle, String bin) { return count(bundle,bin,1.0); }
-    public double count(Bundle bundle, String bin, double div) {
-      double to_add = toAdd(bundle), ret;
-      // Add to the bin
-      if (bin_to_total.containsKey(bin) == false) { 
-        bin_to_total.put(bin, ret = to_add/div); 
-        bin_to_cbin_to_total.put(bin, new HashMap<String,Double>()); 
-        bin_to_ctotal.put(bin, 0.0);
-      } else bin_to_total.put(bin, ret = bin_to_total.get(bin) + to_add/div);
-      // Update the maximum
-      if (bin_to_total.get(bin) > total_maximum) total_maximum = bin_to_total.get(bin);
+   * Implementation of a counter that accumulates using set-based operations.  The count-by values are the {@link KeyMaker} key ids
+   * (dense and shared across tablets and partials) and the distinct values for each bin, color bin,
+   * and pair are kept as compressed bitmaps -- so the distinct counts are exact.
+   */
+  class IndexedSetCounter extends IndexedCounter {
+    int            elems[]     = new int[8];
+    double         total_maximum = 0.0, total_color_maximum = 0.0;
+    Map<Tablet,KeyMaker> count_by_lu = new HashMap<Tablet,KeyMaker>(); Tablet last_tablet = null; KeyMaker last_km = null;
+
+    boolean sets() { return true; }
+    void forkFrom(IndexedCounter older) { super.forkFrom(older); IndexedSetCounter from = (IndexedSetCounter) older; total_maximum = from.total_maximum; total_color_maximum = from.total_color_maximum; count_by_lu = from.count_by_lu; }
+    double pairTotal(int pair_i) { return pair_pages[pair_i >>> PAGE_BITS].set[pair_i & PAGE_MASK].cardinality(); }
+
+    double count(Bundle bundle, int bin_i, double div) {
+      Tablet tablet = bundle.getTablet();
+      if (tablet != last_tablet) {
+        last_km = count_by_lu.get(tablet); if (last_km == null) count_by_lu.put(tablet, last_km = new KeyMaker(tablet, count_by, key_dicts));
+        last_tablet = tablet;
+      }
+      int n = last_km.keyIds(bundle, elems);
+      if (n > elems.length) { elems = new int[Math.max(n, elems.length*2)]; n = last_km.keyIds(bundle, elems); }
+      if (n == 0) return 0.0;
+      // - create if necessary
+      BinPage bp = makeBin(bin_i); int b = bin_i & PAGE_MASK;
+      if (bin_created) bp.set[b] = new RoaringBitmap();
+      bp.ctotal[b] = Double.NaN; // color sum is recalculated on the next lookup
+      RoaringBitmap bs = bp.set[b]; for (int i=0;i<n;i++) bs.add(elems[i]);
+      double ret = bs.cardinality(); if (total_maximum < ret) total_maximum = ret;
       // Add to the color bin
-// System.err.println("\"" + bundle + "\" => " + color_by);
       if (color_by != null) {
-        String cbins[] = colorBins(bundle);
-// System.err.println("  cbins = " + cbins + " ... len=" + cbins.length);
-	for (int i=0;i<cbins.length;i++) {
-// System.err.println("    cbins[" + i + "] = " + cbins[i]);
-          bin_to_ctotal.put(bin, bin_to_ctotal.get(bin) + to_add/div);
-	  if (cbin_to_total.containsKey(cbins[i]) == false)                 cbin_to_total.put(cbins[i], to_add/div);
-	  else                                                              cbin_to_total.put(cbins[i], cbin_to_total.get(cbins[i]) + to_add/div);
-	  if (bin_to_cbin_to_total.get(bin).containsKey(cbins[i]) == false) bin_to_cbin_to_total.get(bin).put(cbins[i], to_add/div);
-	  else                                                              bin_to_cbin_to_total.get(bin).put(cbins[i], bin_to_cbin_to_total.get(bin).get(cbins[i]) + to_add/div);
-
-          if (total_color_maximum_lu.containsKey(cbins[i]) == false || bin_to_cbin_to_total.get(bin).get(cbins[i]) > total_color_maximum_lu.get(cbins[i]))
-            total_color_maximum_lu.put(cbins[i], bin_to_cbin_to_total.get(bin).get(cbins[i]));
-          if (bin_to_cbin_to_total.get(bin).get(cbins[i]) > total_color_maximum)
-            total_color_maximum = bin_to_cbin_to_total.get(bin).get(cbins[i]);
-	}
+        int nc = colorKeys(bundle);
+        for (int i=0;i<nc;i++) {
+          int cbin_i = cbinForKey(color_keys[i]), pair_i = pair(bin_i, cbin_i);
+          CBinPage cp = cbinPage(cbin_i); int c = cbin_i & PAGE_MASK;
+          PairPage pp = pairPage(pair_i); int p = pair_i & PAGE_MASK;
+          if (cbin_created) { cp.set[c] = new RoaringBitmap(); cp.max[c] = 0.0; }
+          if (pair_created)   pp.set[p] = new RoaringBitmap();
+          RoaringBitmap cs = cp.set[c], ps = pp.set[p];
+          for (int j=0;j<n;j++) { cs.add(elems[j]); ps.add(elems[j]); }
+          double pc = ps.cardinality();
+          if (pc > cp.max[c])             cp.max[c]           = pc;
+          if (pc > total_color_maximum)   total_color_maximum = pc;
+        }
       }
-      // Return new count
       return ret;
     }
-    public double total(String bin)              { return bin_to_total.get(bin); }
-    public double binColorTotal(String bin)      { return bin_to_ctotal.get(bin); }
-    public double total(String bin, String cbin) { if (bin_to_cbin_to_total.containsKey(bin) &&
-                                                       bin_to_cbin_to_total.get(bin).containsKey(cbin)) return bin_to_cbin_to_total.get(bin).get(cbin);
-                                                   else                                                 return 0.0; }
-    public double totalColor(String cbin)        { return cbin_to_total.get(cbin); }
+    public double total(String bin)              { int bin_i = binId(bin); return binOf(bin_i).set[bin_i & PAGE_MASK].cardinality(); }
+    public double binColorTotal(String bin)      { int bin_i = binId(bin); BinPage bp = binOf(bin_i); int b = bin_i & PAGE_MASK;
+                                                   if (Double.isNaN(bp.ctotal[b])) {
+                                                     double sum = 0.0; for (int p=bp.first_pair[b];p>=0;p=pairNext(p)) sum += pairTotal(p);
+                                                     bp.ctotal[b] = sum;
+                                                   }
+                                                   return bp.ctotal[b]; }
+    public double totalColor(String cbin)        { int cbin_i = cbinId(cbin); return cbinOf(cbin_i).set[cbin_i & PAGE_MASK].cardinality(); }
     public double totalMaximum()                 { return total_maximum; }
     public double totalColorMaximum()            { return total_color_maximum; }
-    public double totalColorMaximum(String cbin) { return total_color_maximum_lu.get(cbin); }
-    public double totalNormalized(String bin)    { return total(bin) / total_maximum; }
-    public Color  binColor(String bin)           { 
-      if (bin_to_cbin_to_total.containsKey(bin) && bin_to_cbin_to_total.get(bin).size() == 1) return RTColorManager.getColor(bin_to_cbin_to_total.get(bin).keySet().iterator().next());
-      else if (color_by == null) return RTColorManager.getLogColor(total(bin));
-      else                       return RTColorManager.getColor("set", "multi");
+    public double totalColorMaximum(String cbin) { int cbin_i = cbinId(cbin); return cbinOf(cbin_i).max[cbin_i & PAGE_MASK]; }
+    void merge(IndexedCounter other_ic, int bin_map[]) {
+      IndexedSetCounter other = (IndexedSetCounter) other_ic;
+      // Both counters use the key ids of the count_by blank -- the bitmaps can be or'ed directly
+      for (int ob=0;ob<bin_map.length;ob++) { BinPage op = other.binRead(ob); int o = ob & PAGE_MASK; if (op == null || op.made[o] == false) continue;
+        int bin_i = bin_map[ob]; BinPage bp = makeBin(bin_i); int b = bin_i & PAGE_MASK;
+        if (bin_created) bp.set[b] = new RoaringBitmap();
+        bp.ctotal[b] = Double.NaN;
+        bp.set[b].become(RoaringBitmap.or(bp.set[b], op.set[o]));
+        if (bp.set[b].cardinality() > total_maximum) total_maximum = bp.set[b].cardinality();
+      }
+      int cbin_map[] = new int[other.cbin_n];
+      for (int oc=0;oc<cbin_map.length;oc++) {
+        int cbin_i = cbin_map[oc] = cbin(other.cbin_ids.str(oc)); CBinPage cp = cbinPage(cbin_i), ocp = other.cbinOf(oc); int c = cbin_i & PAGE_MASK, o = oc & PAGE_MASK;
+        if (cbin_created) { cp.set[c] = new RoaringBitmap(); cp.max[c] = 0.0; }
+        cp.set[c].become(RoaringBitmap.or(cp.set[c], ocp.set[o]));
+      }
+      for (int op=0;op<other.pair_n;op++) {
+        PairPage opp = other.pair_pages[op >>> PAGE_BITS]; int o = op & PAGE_MASK;
+        int pair_i = pair(bin_map[opp.bin[o]], cbin_map[opp.cbin[o]]); PairPage pp = pairPage(pair_i); int p = pair_i & PAGE_MASK;
+        int cbin_i = pp.cbin[p]; CBinPage cp = cbinPage(cbin_i); int c = cbin_i & PAGE_MASK;
+        if (pair_created) pp.set[p] = new RoaringBitmap();
+        pp.set[p].become(RoaringBitmap.or(pp.set[p], opp.set[o]));
+        double pc = pp.set[p].cardinality();
+        if (pc > cp.max[c])           cp.max[c]           = pc;
+        if (pc > total_color_maximum) total_color_maximum = pc;
+      }
     }
-    public void accumulate(String from, String into) { 
-      // Update the total & adjust the maximum if necessary
-      bin_to_total.put(into, bin_to_total.get(from) + bin_to_total.get(into));
-      if (total_maximum < bin_to_total.get(into)) total_maximum = bin_to_total.get(into);
-
-      // Update the color-bys if appropriate... probably will take awhile
-      if (color_by != null && bin_to_cbin_to_total.containsKey(from)) {
-	// Make the into if it doesn't exist
-        if (bin_to_cbin_to_total.containsKey(into) == false) bin_to_cbin_to_total.put(into, new HashMap<String,Double>());
-
-	// Go through each color bin updating or creating the place for the destination
-        Iterator<String> it_cbin = bin_to_cbin_to_total.get(from).keySet().iterator();
-	while (it_cbin.hasNext()) {
-	  String cbin = it_cbin.next();
-	  // Update or create the actual color bin
-	  if (bin_to_cbin_to_total.get(into).containsKey(cbin)) { bin_to_cbin_to_total.get(into).put(cbin, bin_to_cbin_to_total.get(from).get(cbin) + bin_to_cbin_to_total.get(into).get(cbin)); } 
-	  else                                                  { bin_to_cbin_to_total.get(into).put(cbin, bin_to_cbin_to_total.get(from).get(cbin)); }
-	  bin_to_ctotal.put(into, bin_to_ctotal.get(into) + bin_to_cbin_to_total.get(from).get(cbin));
-
-	  // track the maximum(s)
-          cbin_to_total.put(cbin, cbin_to_total.get(cbin) + bin_to_cbin_to_total.get(from).get(cbin)); // May be unnecessary... or produce incorrect results
-          if (bin_to_cbin_to_total.get(into).get(cbin) > total_color_maximum)              total_color_maximum = bin_to_cbin_to_total.get(into).get(cbin);
-	  if (bin_to_cbin_to_total.get(into).get(cbin) > total_color_maximum_lu.get(cbin)) total_color_maximum_lu.put(cbin,bin_to_cbin_to_total.get(into).get(cbin));
-	}
+
+    public void accumulate(String from, String into) {
+      int from_i = binId(from), into_i = binId(into);
+      BinPage ip = binPage(into_i), fp = binOf(from_i); int t = into_i & PAGE_MASK, f = from_i & PAGE_MASK;
+      ip.set[t].become(RoaringBitmap.or(ip.set[t], fp.set[f])); ip.ctotal[t] = Double.NaN;
+      if (total_maximum < ip.set[t].cardinality()) total_maximum = ip.set[t].cardinality();
+      if (color_by != null) {
+        for (int q=fp.first_pair[f];q>=0;q=pairNext(q)) {
+          int cbin_i = pairCBin(q); RoaringBitmap qs = pair_pages[q >>> PAGE_BITS].set[q & PAGE_MASK]; int pair_i = pair(into_i, cbin_i);
+          PairPage pp = pairPage(pair_i); int p = pair_i & PAGE_MASK; CBinPage cp = cbinPage(cbin_i); int c = cbin_i & PAGE_MASK;
+          if (pair_created) pp.set[p] = qs.copy(); else pp.set[p].become(RoaringBitmap.or(pp.set[p], qs));
+          cp.set[c].become(RoaringBitmap.or(cp.set[c], qs));
+          double pc = pp.set[p].cardinality();
+          if (pc > total_color_maximum) total_color_maximum = pc;
+          if (pc > cp.max[c])           cp.max[c]           = pc;
+        }
       }
     }
-    public Iterator<String> binIterator()        { return bin_to_total.keySet().iterator(); }
-    public Iterator<String> colorBinIterator()   { return cbin_to_total.keySet().iterator(); }
   }
 
   /**
@@ -447,16 +773,26 @@ public class BundlesCounterContext {
    * @param count_by field to count by
    * @param color_by sub-field to color by
    */
-  public BundlesCounterContext(Bundles bundles, String count_by, String color_by) {
-    this.bundles = bundles; this.count_by = count_by; this.color_by = color_by;
+  public BundlesCounterContext(Bundles bundles, String count_by, String color_by) { this(bundles, count_by, color_by, bundles.getGlobals().keyDictionaries()); }
+
+  /**
+   * Constructor for a context whose key ids come from specific key dictionaries.
+   *
+   * @param bundles   dataset to count over
+   * @param count_by  field to count by
+   * @param color_by  sub-field to color by
+   * @param key_dicts key dictionaries
+   */
+  private BundlesCounterContext(Bundles bundles, String count_by, String color_by, ConcurrentMap<String,FieldDictionary> key_dicts) {
+    this.bundles = bundles; this.count_by = count_by; this.color_by = color_by; this.key_dicts = key_dicts;
     // Figure out the count_by's...
     if (count_by.equals(BundlesDT.COUNT_BY_BUNS)) {
-      counter = new BundleCounter();
+      counter = new IndexedBundleCounter();
     } else if (count_by.indexOf(BundlesDT.DELIM) >= 0 || 
                bundles.getGlobals().isScalar(bundles.getGlobals().fieldIndex(count_by)) == false) { // Set based
-      counter = new SetCounter();
+      counter = new IndexedSetCounter();
     } else { // Scalar based
-      counter = new ScalarCounter();
+      counter = new IndexedScalarCounter();
     }
   }
 
@@ -467,24 +803,106 @@ public class BundlesCounterContext {
    * @return        color bin strings that this bundle maps into
    */
   public String[] colorBins(Bundle bundle) { 
-    if (color_tablet_lu.containsKey(bundle.getTablet()) == false) { // color_by KeyMaker missing, fill it in
-      if (KeyMaker.tabletCompletesBlank(bundle.getTablet(), color_by)) color_tablet_lu.put(bundle.getTablet(),new KeyMaker(bundle.getTablet(),color_by));
-      else                                                             color_tablet_lu.put(bundle.getTablet(),null);
+    KeyMaker km = colorKeyMaker(bundle.getTablet());
+    if (km == null)   { String strs[] = new String[1]; strs[0] = "[nocolor]"; return strs; // Doesn't complete the color_by blank
+    } else              return km.stringKeys(bundle); 
+  }
+
+  /**
+   * Return the color_by {@link KeyMaker} for a tablet.
+   *
+   * @param  tablet tablet of the record
+   * @return        key maker or null if the tablet doesn't complete the color_by blank
+   */
+  private KeyMaker colorKeyMaker(Tablet tablet) {
+    if (color_tablet_lu.containsKey(tablet) == false) { // color_by KeyMaker missing, fill it in
+      if (KeyMaker.tabletCompletesBlank(tablet, color_by)) color_tablet_lu.put(tablet,new KeyMaker(tablet,color_by,key_dicts));
+      else                                                 color_tablet_lu.put(tablet,null);
     } 
-    if (color_tablet_lu.get(bundle.getTablet()) == null)   { String strs[] = new String[1]; strs[0] = "[nocolor]"; return strs; // Doesn't complete the color_by blank
-    } else                                                   return color_tablet_lu.get(bundle.getTablet()).stringKeys(bundle); 
+    return color_tablet_lu.get(tablet);
   }
 
-  // These are really just cut-outs to call the associated subset counter
-  public double            count(Bundle bundle, String bin, double div) {
-    if (bin_to_bundle_set.containsKey(bin) == false) bin_to_bundle_set.put(bin,new HashSet<Bundle>());
-    bin_to_bundle_set.get(bin).add(bundle);
-    return counter.count(bundle,bin,div);    
+  /**
+   * Determine if partial contexts (from {@link #newPartial()}) can be merged into this one.
+   *
+   *@return true if merge is supported
+   */
+  public boolean               mergeable()  { return counter instanceof IndexedCounter; }
+
+  /**
+   * Create an empty context with the same settings.  Used to accumulate a portion of the
+   * records on a separate thread -- the partial is then folded back in with {@link #merge}.
+   *
+   *@return new empty context
+   */
+  public BundlesCounterContext newPartial() { return new BundlesCounterContext(bundles, count_by, color_by, key_dicts); }
+
+  /**
+   * Merge a partial context into this context.  Merging the partials in record order produces the
+   * same bins, totals, and record sets as counting all of the records in this context.  The
+   * maximums are the maximums of the final totals (only different from sequential counting
+   * when negative values are summed).
+   *
+   *@param partial context created by {@link #newPartial()} on this context
+   */
+  public void merge(BundlesCounterContext partial) {
+    if (mergeable() == false || partial.counter.getClass() != counter.getClass()) throw new RuntimeException("BundlesCounterContext.merge() - Incompatible Counters");
+    checkNotForked();
+    IndexedCounter ic = (IndexedCounter) counter, pic = (IndexedCounter) partial.counter;
+    int bin_map[] = new int[partial.bin_ids.size()];
+    for (int i=0;i<bin_map.length;i++) {
+      int bin_i = bin_map[i] = bin_ids.intern(partial.bin_ids.str(i));
+      BinPage from = pic.binRead(i); Set<Bundle> from_set = from == null ? null : from.records(i & PAGE_MASK); if (from_set == null) continue;
+      BinPage page = ic.binPage(bin_i); int b = bin_i & PAGE_MASK; Set<Bundle> set = page.records(b);
+      if (set == null) page.records[b] = from_set;
+      else             set.addAll(from_set);
+    }
+    ic.merge(pic, bin_map);
   }
-  public double            count(Bundle bundle, String bin) { 
-    if (bin_to_bundle_set.containsKey(bin) == false) bin_to_bundle_set.put(bin,new HashSet<Bundle>());
-    bin_to_bundle_set.get(bin).add(bundle);
-    return counter.count(bundle,bin);    
+
+  /**
+   * Create the next version of this context -- for counting more records (e.g., records appended
+   * to the root) while this version stays available, unchanged, to whoever is reading it.  The
+   * versions share their storage:  the next version copies the page tables (one reference per
+   * {@link #PAGE_SIZE} bins) and then copies a page -- and a bin's bitmap and records -- only when it
+   * changes them.  Counting k records into the next version costs time proportional to k rather
+   * than to the size of this context.  This context can't be counted into afterwards.
+   *
+   *@return next version of this context
+   */
+  public BundlesCounterContext fork() {
+    if (mergeable() == false) throw new RuntimeException("BundlesCounterContext.fork() - Counter Doesn't Support Versions");
+    checkNotForked(); forked = true;
+    BundlesCounterContext next = newPartial(); next.bin_ids = bin_ids; next.color_tablet_lu = color_tablet_lu;
+    ((IndexedCounter) next.counter).forkFrom((IndexedCounter) counter);
+    return next;
+  }
+
+  /**
+   * Only the newest version of a context can be changed.
+   */
+  private void checkNotForked() { if (forked) throw new RuntimeException("BundlesCounterContext - Context Has A Newer Version"); }
+
+  // These are really just cut-outs to call the associated subset counter
+  public double            count(Bundle bundle, String bin, double div) { return countIndexed(bundle, bin, div); }
+  public double            count(Bundle bundle, String bin)             { return countIndexed(bundle, bin, 1.0); }
+
+  /**
+   * Count a record -- the bin string is hashed once here and everything downstream works with the bin id.
+   *
+   *@param  bundle record to count
+   *@param  bin    GUI-specific binning string
+   *@param  div    dividing factor for this contribution
+   *
+   *@return specific contribution of this record
+   */
+  private double           countIndexed(Bundle bundle, String bin, double div) {
+    checkNotForked();
+    IndexedCounter ic = (IndexedCounter) counter; int bin_i = bin_ids.intern(bin);
+    BinPage page = ic.binPage(bin_i); int b = bin_i & PAGE_MASK; Set<Bundle> set = page.records(b);
+    if (set == null) page.records[b] = set = (bundle.ordinal() >= 0 ? new BundleBitmapSet() : new HashSet<Bundle>());
+    set.add(bundle);
+    return ic.count(bundle, bin_i, div);
   }
   public double            total(String bin)                { return counter.total(bin);           }
   public double            binColorTotal(String bin)        { return counter.binColorTotal(bin);   }
@@ -494,7 +912,7 @@ public class BundlesCounterContext {
   public Color             binColor(String bin)             { return counter.binColor(bin); }
   public double            totalColorMaximum()              { return counter.totalColorMaximum();     }
   public double            totalColorMaximum(String cbin)   { return counter.totalColorMaximum(cbin); }
-  public void              accumulate(String from, String into) { counter.accumulate(from,into); }
+  public void              accumulate(String from, String into) { checkNotForked(); counter.accumulate(from,into); }
   public Iterator<String>  binIterator()                    { return counter.binIterator();        }
   public Iterator<String>  colorBinIterator()               { return counter.colorBinIterator();   }
 
@@ -541,7 +959,7 @@ public class BundlesCounterContext {
    *
    * @return the set of bundles that have been accumulated for this bin
    */
-  public Set<Bundle>   getBundles(String bin)           { return bin_to_bundle_set.get(bin); }
+  public Set<Bundle>   getBundles(String bin)           { int bin_i = bin_ids.lookup(bin); BinPage page = ((IndexedCounter) counter).binRead(bin_i); return page == null ? null : page.records(bin_i & PAGE_MASK); }
 
   /**
    * Class used to sort double values that correspond to a specific string.
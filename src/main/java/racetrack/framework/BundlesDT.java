@@ -19,9 +19,11 @@ limitations under the License.
 package racetrack.framework;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -186,33 +188,82 @@ public class BundlesDT {
    * the ordering of regex has to be constructed so that the strictest
    * method is used first.  For instance, domain prior to ipv4. Note for
    * performance reasons, the results are cached (and need to be cleared
-   * when data is removed from the application.)
+   * when data is removed from the application.)  The classification itself
+   * is a single pass by {@link DataTypeClassifier} -- equivalent to the
+   * regex ordering in {@link #getEntityDataTypeRegex(String)}.
    *
    * @param  entity entity to parse
    * @return        corresponding datatype
    */
   public static BundlesDT.DT getEntityDataType(String entity) {
-    if      (entity.equals(BundlesDT.NOTSET)) return BundlesDT.DT.NOTSET;
-    else if (dt_cache.containsKey(entity))    return dt_cache.get(entity);
-    else {
-      for (int i=0;i<dt_al.size();i++) {
-        // System.err.println("Checking Against Data Type \"" + dt_al.get(i) + "\""); // DEBUG
-        if (stringIsType(entity, dt_al.get(i))) {
-          dt_cache.put(entity,dt_al.get(i));
-          return dt_al.get(i);
-        }
-      }
+    BundlesDT.DT cached;
+    if      (entity.equals(BundlesDT.NOTSET))             return BundlesDT.DT.NOTSET;
+    else if ((cached = dt_cache.get(entity)) != null)     return cached;
+    BundlesDT.DT dt = DataTypeClassifier.classify(entity);
+    dt_cache.put(entity, dt);
+    return dt;
+  }
+
+  /**
+   * Convert an entity string into its datatype by checking each regex in order (uncached).
+   * Reference implementation for the {@link DataTypeClassifier}.
+   *
+   * @param  entity entity to parse
+   * @return        corresponding datatype
+   */
+  public static BundlesDT.DT getEntityDataTypeRegex(String entity) {
+    if (entity.equals(BundlesDT.NOTSET)) return BundlesDT.DT.NOTSET;
+    for (int i=0;i<dt_al.size();i++) {
+      // System.err.println("Checking Against Data Type \"" + dt_al.get(i) + "\""); // DEBUG
+      if (stringIsType(entity, dt_al.get(i))) return dt_al.get(i);
     }
-    dt_cache.put(entity, BundlesDT.DT.UNKNOWN);
     return BundlesDT.DT.UNKNOWN;
   }
 
+  /**
+   * Determine if an entity has the form of a declared datatype (e.g., from a log schema) -- a
+   * cheap check on the characters so that a mislabeled value falls back to the probe.  Only the
+   * datatypes with a numeric lookup (or none) can be declared.
+   *
+   *@param  entity entity string
+   *@param  dt     declared datatype
+   *
+   *@return true if the entity can be treated as the datatype without probing
+   */
+  static boolean fitsDataType(String entity, BundlesDT.DT dt) {
+    if (entity.length() == 0) return false;
+    switch (dt) {
+      case INTEGER:  return DataTypeClassifier.isInteger(entity) && fitsInt(entity);
+      case FLOAT:    return DataTypeClassifier.isFloat(entity);
+      case IPv4:     return LoadFilter.ipv4(entity) >= 0L;
+      case IPv4CIDR: { int slash = entity.indexOf('/'); String bits = entity.substring(slash+1);
+                       return slash > 0 && LoadFilter.ipv4(entity.substring(0, slash)) >= 0L && bits.length() > 0 && bits.length() <= 2 && DataTypeClassifier.isInteger(bits) && bits.charAt(0) != '-' && bits.charAt(0) != '+' && Integer.parseInt(bits) <= 32; }
+      case UNKNOWN:  return true;
+      default:       return false;
+    }
+  }
+
+  /**
+   * Determine if an integer string fits in an int (the entity lookup value).
+   */
+  private static boolean fitsInt(String s) {
+    if (s.length() > 11) return false;
+    long v = Long.parseLong(s.charAt(0) == '+' ? s.substring(1) : s); return v >= Integer.MIN_VALUE && v <= Integer.MAX_VALUE;
+  }
+
+  /**
+   * Maximum number of entries in the datatype cache -- oldest entries are evicted first
+   */
+  static final int DT_CACHE_MAX = 65536;
+
   /**
    * Cache lookup for a string into its corresponding datatype
    */
   private static Map<String,BundlesDT.DT> dt_cache;
   static {
-    dt_cache = new HashMap<String,BundlesDT.DT>();
+    dt_cache = Collections.synchronizedMap(new LinkedHashMap<String,BundlesDT.DT>(1024, 0.75f, false) { // Evaluated from worker threads
+      private static final long serialVersionUID = 1L;
+      protected boolean removeEldestEntry(Map.Entry<String,BundlesDT.DT> eldest) { return size() > DT_CACHE_MAX; } });
     CacheManager.registerCache("Bundles DT Cache", dt_cache);
   }
 
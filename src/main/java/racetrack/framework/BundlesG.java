@@ -20,6 +20,8 @@ package racetrack.framework;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -27,9 +29,14 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import racetrack.util.CacheManager;
 import racetrack.util.Entity;
+import racetrack.util.InternTable;
+import racetrack.util.RoaringBitmap;
 import racetrack.util.SubText;
 import racetrack.util.Utils;
 
@@ -52,7 +59,7 @@ public class BundlesG {
   /**
    * Current number of fields consumed
    */
-  private int                                    fld_count = 0;
+  private volatile int                           fld_count = 0;
 
   /**
    * Field names for each index
@@ -65,19 +72,245 @@ public class BundlesG {
   private boolean                                sclr[]    = new boolean [MAX_FIELDS];
 
   /**
-   * Lookup table to calculate the field index from a field name
+   * Lookup table to calculate the field index from a field name -- read without locking
    */
-  private Map<String,Integer>                flds_lu   = new HashMap<String,Integer>();
+  private InternTable                            flds_lu   = new InternTable();
 
   /**
    * Lookup table that converts a field index into the set of data types
    */
-  private Map<Integer,Set<BundlesDT.DT>> fld_dts   = new HashMap<Integer,Set<BundlesDT.DT>>();
+  private Map<Integer,Set<BundlesDT.DT>> fld_dts   = new ConcurrentHashMap<Integer,Set<BundlesDT.DT>>();
 
   /**
-   * Lookup table to convert a string to a representative integer value
+   * Datatypes declared by a schema (Zeek #types, JSON value kinds) -- values of the field that have
+   * the declared form skip the datatype probe
    */
-  private Map<String,Integer>                ent_2_i   = new HashMap<String,Integer>();
+  private Map<Integer,BundlesDT.DT>      fld_declared = new ConcurrentHashMap<Integer,BundlesDT.DT>();
+
+  /**
+   * Datatypes of the entities being loaded when they're already known (e.g., stored in a snapshot)
+   * -- those entities skip the datatype probe.  Only set for the duration of a load.
+   */
+  private volatile Map<String,BundlesDT.DT> known_dts = null;
+
+  /**
+   * Set (or clear with null) the datatypes known for the entities being loaded.
+   *
+   *@param known entity to datatype -- read only while set
+   */
+  void setKnownDataTypes(Map<String,BundlesDT.DT> known) { known_dts = known; }
+
+  /**
+   * Lookup table to convert a string to a representative integer value.  Sharded so that
+   * parallel loads can add entities concurrently -- lookups never lock.
+   */
+  private InternTable                            ent_2_i   = new InternTable();
+
+  /**
+   * Generation of the entity-to-integer lookup.  Incremented whenever existing entity
+   * values may change (cleanse, index overrides) so that derived caches can be invalidated.
+   */
+  private volatile int                           ent_gen   = 0;
+
+  /**
+   * Return the current generation of the entity-to-integer lookup.
+   *
+   *@return entity lookup generation
+   */
+  public int entityGeneration() { return ent_gen; }
+
+  /**
+   * Load filters that produced the data -- "source : specification" for each filtered load
+   */
+  private List<String>                           load_filters = new ArrayList<String>();
+
+  /**
+   * Record that a source was loaded through a filter.
+   *
+   *@param source name of the loaded file
+   *@param filter projection and predicates that were applied
+   */
+  public synchronized void addLoadFilter(String source, LoadFilter filter) { load_filters.add(source + " : " + filter); }
+
+  /**
+   * Restore load filter records (from a snapshot).
+   *
+   *@param records records as returned by {@link #getLoadFilters()}
+   */
+  synchronized void addLoadFilters(List<String> records) { load_filters.addAll(records); }
+
+  /**
+   * Return the load filters that produced the data.
+   *
+   *@return "source : specification" for each filtered load -- empty if everything was loaded
+   */
+  public synchronized List<String> getLoadFilters() { return new ArrayList<String>(load_filters); }
+
+  /**
+   * Ordinals per page of the record lookup
+   */
+  static final int ORD_PAGE_BITS = 12, ORD_PAGE = 1 << ORD_PAGE_BITS, ORD_PAGE_MASK = ORD_PAGE - 1;
+
+  /**
+   * Records indexed by their ordinal -- in pages.  Entries are cleared during cleanse for records
+   * that are no longer active, and pages without any active records are dropped.  Ordinals are
+   * never reused -- bitmaps that still hold a released ordinal must not pick up a new record.
+   */
+  private volatile Bundle                        ordinals[][] = new Bundle[16][];
+
+  /**
+   * Next ordinal to assign
+   */
+  private int                                    next_ordinal = 0;
+
+  /**
+   * Ordinals released by cleanse -- replaced (never modified) when more are released
+   */
+  private volatile RoaringBitmap                 released     = new RoaringBitmap();
+
+  /**
+   * Incremented whenever ordinals are released
+   */
+  private volatile int                           released_gen = 0;
+
+  /**
+   * Assign the next ordinal to a newly created record.
+   *
+   *@param bundle record to register
+   */
+  synchronized void registerOrdinal(Bundle bundle) {
+    int page = next_ordinal >>> ORD_PAGE_BITS;
+    if (page == ordinals.length) { Bundle grown[][] = new Bundle[ordinals.length*2][]; System.arraycopy(ordinals, 0, grown, 0, page); ordinals = grown; }
+    if (ordinals[page] == null) ordinals[page] = new Bundle[ORD_PAGE];
+    ordinals[page][next_ordinal & ORD_PAGE_MASK] = bundle; bundle.setOrdinal(next_ordinal); next_ordinal++;
+  }
+
+  /**
+   * Return the record for the specified ordinal.
+   *
+   *@param  ordinal record ordinal
+   *
+   *@return record or null if the ordinal is not (or no longer) in use
+   */
+  public Bundle ordinalBundle(int ordinal) {
+    Bundle lu[][] = ordinals; if (ordinal < 0 || (ordinal >>> ORD_PAGE_BITS) >= lu.length) return null;
+    Bundle page[] = lu[ordinal >>> ORD_PAGE_BITS]; return (page == null) ? null : page[ordinal & ORD_PAGE_MASK];
+  }
+
+  /**
+   * Return the ordinals that cleanse has released (see {@link #releasedGeneration()}).  Should not be modified.
+   *
+   *@return released ordinals
+   */
+  RoaringBitmap releasedOrdinals() { return released; }
+
+  /**
+   * Return the generation of the released ordinals -- changes whenever ordinals are released.
+   *
+   *@return released ordinal generation
+   */
+  int releasedGeneration() { return released_gen; }
+
+  /**
+   * Return the number of ordinals assigned -- every ordinal is less than this.
+   *
+   *@return number of ordinals
+   */
+  synchronized int ordinalCount() { return next_ordinal; }
+
+  /**
+   * Per-field dictionaries for the columnar backend -- created on demand
+   */
+  private final FieldDictionary                  dicts[]   = new FieldDictionary[MAX_FIELDS];
+
+  /**
+   * Return the dictionary for the specified field.  Only valid after a value has been interned
+   * for the field -- otherwise returns null.
+   *
+   *@param  fld_i field index
+   *
+   *@return field dictionary
+   */
+  FieldDictionary dictionary(int fld_i) { return dicts[fld_i]; }
+
+  /**
+   * Return the dictionary for the specified field, creating it if necessary.
+   *
+   *@param  fld_i field index
+   *
+   *@return field dictionary
+   */
+  synchronized FieldDictionary getOrCreateDictionary(int fld_i) {
+    if (dicts[fld_i] == null) dicts[fld_i] = new FieldDictionary(this);
+    return dicts[fld_i];
+  }
+
+  /**
+   * Intern a value for a field into the field's dictionary.  The entity should already
+   * have been added via {@link #addFieldEntity(int,String)}.
+   *
+   *@param  fld_i field index
+   *@param  val   value to intern
+   *
+   *@return dictionary code for the value
+   */
+  int intern(int fld_i, String val) {
+    FieldDictionary dict = dicts[fld_i]; if (dict == null) dict = getOrCreateDictionary(fld_i);
+    return dict.intern(val);
+  }
+
+  /**
+   * Key dictionaries by {@link KeyMaker} blank -- the key ids of a blank are shared across tablets.
+   * Replaced with each entity generation (and by {@link #clearKeyDictionaries()}) -- a key maker
+   * holds onto the dictionary that it started with so its ids stay consistent.
+   */
+  private volatile ConcurrentMap<String,FieldDictionary> key_dicts = new ConcurrentHashMap<String,FieldDictionary>();
+
+  /**
+   * Entity generation of the key dictionaries
+   */
+  private volatile int                                    key_dicts_gen = 0;
+
+  /**
+   * Return the current key dictionaries.  A counter context holds onto these so that the key
+   * ids of its tablets, partials, and folds all come from the same dictionaries.
+   *
+   *@return key dictionaries by blank
+   */
+  ConcurrentMap<String,FieldDictionary> keyDictionaries() {
+    if (key_dicts_gen != ent_gen) { synchronized (this) { if (key_dicts_gen != ent_gen) { key_dicts = new ConcurrentHashMap<String,FieldDictionary>(); key_dicts_gen = ent_gen; } } }
+    return key_dicts;
+  }
+
+  /**
+   * Return the dictionary for the keys that a blank produces, creating it if necessary.
+   *
+   *@param  blank key maker blank
+   *
+   *@return key dictionary
+   */
+  FieldDictionary keyDictionary(String blank) { return keyDictionary(keyDictionaries(), blank); }
+
+  /**
+   * Return the dictionary for the keys that a blank produces from a specific set of key
+   * dictionaries (see {@link #keyDictionaries()}), creating it if necessary.
+   *
+   *@param  kds   key dictionaries
+   *@param  blank key maker blank
+   *
+   *@return key dictionary
+   */
+  FieldDictionary keyDictionary(ConcurrentMap<String,FieldDictionary> kds, String blank) {
+    FieldDictionary dict = kds.get(blank); if (dict != null) return dict;
+    FieldDictionary created = new FieldDictionary(this);
+    dict = kds.putIfAbsent(blank, created); return (dict == null) ? created : dict;
+  }
+
+  /**
+   * Drop the key dictionaries -- called when the root or the fields change.  Key makers that are
+   * already in use keep their dictionaries.
+   */
+  public synchronized void clearKeyDictionaries() { key_dicts = new ConcurrentHashMap<String,FieldDictionary>(); key_dicts_gen = ent_gen; }
 
   /**
    * Adds the default values prior to loading data.
@@ -174,7 +407,7 @@ public class BundlesG {
    */
   public void cleanse(Set<Bundles> active) {
     // Clear the ent_2_i's
-    ent_2_i.clear(); post_processors = null;
+    ent_2_i.clear(); post_processors = null; ent_gen++;
 
     // Initialize by creating a lookup for the post processors
     Map<BundlesDT.DT, Set<PostProc>> pp_lu = new HashMap<BundlesDT.DT, Set<PostProc>>();
@@ -224,6 +457,27 @@ public class BundlesG {
 	}
       }
     }
+    // Release the ordinals for records that are no longer active
+    RoaringBitmap active_ords = new RoaringBitmap();
+    it_bs = active.iterator(); while (it_bs.hasNext()) {
+      Set<Bundle> set = it_bs.next().bundleSet();
+      if (set instanceof BundleBitmapSet) active_ords.become(RoaringBitmap.or(active_ords, ((BundleBitmapSet) set).bitmap()));
+      else { Iterator<Bundle> it = set.iterator(); while (it.hasNext()) active_ords.add(it.next().ordinal()); }
+    }
+    synchronized (this) {
+      RoaringBitmap now_released = new RoaringBitmap();
+      for (int page_i=0;page_i<ordinals.length;page_i++) {
+        Bundle page[] = ordinals[page_i]; if (page == null) continue; boolean live = false;
+        for (int j=0;j<ORD_PAGE;j++) {
+          if (page[j] == null) continue; int ord = (page_i << ORD_PAGE_BITS) | j;
+          if (active_ords.contains(ord)) live = true; else { page[j] = null; now_released.add(ord); }
+        }
+        // Drop the page if it's full and all of its records were released
+        if (live == false && ((page_i+1) << ORD_PAGE_BITS) <= next_ordinal) ordinals[page_i] = null;
+      }
+      if (now_released.isEmpty() == false) { released = RoaringBitmap.or(released, now_released); released_gen++; }
+    }
+
     // Re-add the range values
     addRangeIntegers();
     // Clear the caches
@@ -234,22 +488,39 @@ public class BundlesG {
 
   /**
    * Lookup table to determine how many of a certain datatype exist in the application.
-   * Used to incrementally create integer lookups for entity strings.
+   * Used to incrementally create integer lookups for entity strings.  Populated for every
+   * datatype up front so that the map itself is never modified.
    */
-  private Map<BundlesDT.DT,Integer> dt_count_lu       = new HashMap<BundlesDT.DT,Integer>();
+  private Map<BundlesDT.DT,AtomicInteger> dt_count_lu = new EnumMap<BundlesDT.DT,AtomicInteger>(BundlesDT.DT.class);
+  { for (BundlesDT.DT dt : BundlesDT.DT.values()) dt_count_lu.put(dt, new AtomicInteger(0)); }
 
   /**
-   * Set of entities that could not be associated with a particular datatype.  Used
+   * Count of entities that could not be associated with a particular datatype.  Used
    * to create integer lookups for entity strings.
    */
-  private Set<String>               not_assoc         = new HashSet<String>();
+  private AtomicInteger             not_assoc         = new AtomicInteger(0);
 
   /**
    * List of post processors.  Post processors are used to convert one datatype into
    * another.  Some post processors do this by calculation/algorithm.  Others use
    * lookup tables from dataset loads.
    */
-  private PostProc                      post_processors[] = null; 
+  private volatile PostProc             post_processors[] = null; 
+
+  /**
+   * Return the post processors, creating them if necessary.
+   *
+   *@return post processors
+   */
+  private synchronized PostProc[] postProcessors() {
+    if (post_processors == null) {
+      String post_proc_strs[] = BundlesDT.listEnabledPostProcessors();
+      PostProc pps[] = new PostProc[post_proc_strs.length];
+      for (int i=0;i<pps.length;i++) pps[i] = BundlesDT.createPostProcessor(post_proc_strs[i], this);
+      post_processors = pps;
+    }
+    return post_processors;
+  }
 
   /**
    * Get or create the field index for a specified field.
@@ -259,12 +530,34 @@ public class BundlesG {
    *                      how the files are added together during sum operations
    * @return              index of the existing, or already created, field
    */
-  public synchronized int   getOrCreateField(String field, boolean scalar_field) {
-    if (flds_lu.containsKey(field) == false) {
-      flds[fld_count] = field; sclr[fld_count] = scalar_field; flds_lu.put(field, fld_count); fld_dts.put(fld_count,new HashSet<BundlesDT.DT>()); fld_count++;
-    } return flds_lu.get(field);
+  public int   getOrCreateField(String field, boolean scalar_field) {
+    int fld_i = flds_lu.get(field, -1); if (fld_i != -1) return fld_i;
+    synchronized (this) {
+      if ((fld_i = flds_lu.get(field, -1)) == -1) {
+        fld_i = fld_count;
+        flds[fld_i] = field; sclr[fld_i] = scalar_field; fld_dts.put(fld_i, Collections.newSetFromMap(new ConcurrentHashMap<BundlesDT.DT,Boolean>()));
+        flds_lu.put(field, fld_i); fld_count++; // Published last so that lock-free readers see the arrays filled in
+      } return fld_i;
+    }
   }
 
+  /**
+   * Return the entity lookup so that the tokenizers can reuse the strings of entities that
+   * are already known.  Read-only use -- entities are only added through {@link #addFieldEntity}.
+   *
+   *@return entity lookup
+   */
+  InternTable entityDictionary() { return ent_2_i; }
+
+  /**
+   * Declare the datatype of a field's values (from a log schema).  Values that have the form of the
+   * datatype (see {@link BundlesDT#fitsDataType(String,BundlesDT.DT)}) aren't probed -- other values are.
+   *
+   *@param fld_i field index
+   *@param dt    declared datatype -- null to remove the declaration
+   */
+  public void declareFieldDataType(int fld_i, BundlesDT.DT dt) { if (dt == null) fld_declared.remove(fld_i); else fld_declared.put(fld_i, dt); }
+
   /**
    * Method to force an entity to point to a specific index.  Used by models that fall outside
    * of the scope of data management -- in the first case, counting and organizing data by the
@@ -273,16 +566,21 @@ public class BundlesG {
    *@param entity entity to set
    *@param index  look up value for entity
    */
-  protected synchronized void overrideEntityIndex(String entity, int index) { ent_2_i.put(entity,index); }
+  protected synchronized void overrideEntityIndex(String entity, int index) { 
+    boolean existed = ent_2_i.containsKey(entity); int prev = ent_2_i.get(entity, index);
+    ent_2_i.put(entity,index); if (existed && prev != index) ent_gen++; 
+  }
 
   /**
    * Add an entity to a specific field.  This creates the appropriate lookup
-   * tables for fast lookup/access.
+   * tables for fast lookup/access.  Safe to call from multiple threads -- an
+   * entity's integer is assigned exactly once, so the per-datatype counters
+   * stay dense.
    *
    * @param fld_i  index of the field
    * @param entity string of the entity to add
    */
-  protected synchronized void  addFieldEntity(int fld_i, String entity) {
+  protected void  addFieldEntity(int fld_i, String entity) {
     // System.err.println("addFieldEntity(" + fld_i + ",\"" + entity + "\")");
     //
     // fld_i is used to indicate if this is a second iteration of addFieldEntity() to prevent
@@ -318,56 +616,50 @@ public class BundlesG {
     //
     } else {
       // System.err.println("determining datatype for \"" + entity + "\""); // DEBUG
-      BundlesDT.DT datatype = BundlesDT.getEntityDataType(entity); if (dt_count_lu.containsKey(datatype) == false) dt_count_lu.put(datatype,0);
+      Map<String,BundlesDT.DT> known = known_dts;
+      BundlesDT.DT datatype = (known == null) ? null : known.get(entity), declared = (fld_i == -1 || fld_declared.isEmpty()) ? null : fld_declared.get(fld_i);
+      if (datatype == null) { if (declared != null && BundlesDT.fitsDataType(entity, declared)) datatype = declared; else datatype = BundlesDT.getEntityDataType(entity); }
       // System.err.println("datatype for \"" + entity + "\" ==> " + datatype); // DEBUG
       if (datatype != null) {
-// System.err.println("390:fld_i = " + fld_i + " (" + fld_dts.containsKey(fld_i) + ")"); // abc DEBUG
-// try { System.err.println("            " + fieldHeader(fld_i)); } catch (Throwable t) { }                              // abc DEBUG
         if (fld_i != -1) fld_dts.get(fld_i).add(datatype);
         if (ent_2_i.containsKey(entity) == false) {
 	  // Use special rules to set integer correspondance
 	  switch (datatype) {
-	    case IPv4:     ent_2_i.put(entity, Utils.ipAddrToInt(entity));                                         break;
-	    case IPv4CIDR: ent_2_i.put(entity, Utils.ipAddrToInt((new StringTokenizer(entity, "/")).nextToken())); break;
-	    case INTEGER:  ent_2_i.put(entity, Integer.parseInt(entity)); 
+	    case IPv4:     ent_2_i.putIfAbsent(entity, Utils.ipAddrToInt(entity));                                         break;
+	    case IPv4CIDR: ent_2_i.putIfAbsent(entity, Utils.ipAddrToInt((new StringTokenizer(entity, "/")).nextToken())); break;
+	    case INTEGER:  ent_2_i.putIfAbsent(entity, Integer.parseInt(entity)); 
 	                   if (warn_on_float_conflict) checkForFloatConflict(fld_i);
 	                   break;
-            case FLOAT:    ent_2_i.put(entity, Float.floatToIntBits(Float.parseFloat(entity))); 
+            case FLOAT:    ent_2_i.putIfAbsent(entity, Float.floatToIntBits(Float.parseFloat(entity))); 
 	                   if (warn_on_float_conflict) checkForFloatConflict(fld_i);
                            break;
-	    case DOMAIN:   ent_2_i.put(entity, Utils.ipAddrToInt("127.0.0.2") + dt_count_lu.get(datatype)); // Put Domains In Unused IPv4 Space
-	                   dt_count_lu.put(datatype, dt_count_lu.get(datatype) + 1);
+	    case DOMAIN:   ent_2_i.intern(entity, dt_count_lu.get(datatype), DOMAIN_BASE); // Put Domains In Unused IPv4 Space
 			   break;
 
 	    // Pray that these don't collide - otherwise x/y scatters will be off...
-	    default:       ent_2_i.put(entity, dt_count_lu.get(datatype));
-	                   dt_count_lu.put(datatype, dt_count_lu.get(datatype) + 1);
+	    default:       ent_2_i.intern(entity, dt_count_lu.get(datatype), 0);
 			   break;
           }
 	}
 	// Map out the derivatives so that they will have values int the lookups
-	// - Create the post processors
-	if (post_processors == null) {
-	  String post_proc_strs[] = BundlesDT.listEnabledPostProcessors();
-	  post_processors = new PostProc[post_proc_strs.length];
-	  for (int i=0;i<post_processors.length;i++) post_processors[i] = BundlesDT.createPostProcessor(post_proc_strs[i], this);
-	}
 	// - Run all of the post procs against their correct types
-        if (fld_i != -1) for (int i=0;i<post_processors.length;i++) {
-          if (post_processors[i].type() == datatype) {
-	    String strs[] = post_processors[i].postProcess(entity);
+        if (fld_i != -1) { PostProc pps[] = postProcessors(); for (int i=0;i<pps.length;i++) {
+          if (pps[i].type() == datatype) {
+	    String strs[] = pps[i].postProcess(entity);
 	    for (int j=0;j<strs.length;j++) {
               if (entity.equals(strs[j]) == false) addFieldEntity(-1, strs[j]);
 	    }
           }
-	}
-      } else if (ent_2_i.containsKey(entity) == false) {
-        ent_2_i.put(entity, not_assoc.size());
-	not_assoc.add(entity);
-      }
+	} }
+      } else ent_2_i.intern(entity, not_assoc, 0);
     }
   }
 
+  /**
+   * Base integer for domains -- domains are placed in unused IPv4 space
+   */
+  private static final int DOMAIN_BASE = Utils.ipAddrToInt("127.0.0.2");
+
   /**
    * Check for the float / integer mixture problem.
    *
@@ -397,18 +689,43 @@ public class BundlesG {
    * @param  entity entity of the string to lookup
    * @return        corresponding integer for the entity
    */
-  public int toInt(String entity) { return ent_2_i.get(entity); }
+  public int toInt(String entity) {
+    int value = ent_2_i.get(entity, Integer.MIN_VALUE);
+    if (value == Integer.MIN_VALUE && ent_2_i.containsKey(entity) == false) throw new NullPointerException("No Integer For Entity \"" + entity + "\"");
+    return value;
+  }
+
+  /**
+   * Memoized post processor outputs -- invalidated whenever the transforms change
+   */
+  private final PostMemo post_memo = new PostMemo(this);
+
+  /**
+   * Set when a transform mapping changes -- the next reset rebuilds different lookups and has
+   * to drop the memoized outputs again
+   */
+  private volatile boolean transforms_changed = false;
+
+  /**
+   * Return the memo of the post processor outputs.
+   *
+   *@return post processor memo
+   */
+  PostMemo postMemo() { return post_memo; }
 
   /**
    * Transform Table Members.  First represents the original transform value.
    * - Example:  datatype | trans | var            | result
    * - Example:  IPv4CIDR | SPACE | 192.168.0.0/16 | PRIVATE
    */
-  Map<BundlesDT.DT,Map<String,Map<String,String>>> transforms  = new HashMap<BundlesDT.DT,Map<String,Map<String,String>>>(),
+  Map<BundlesDT.DT,Map<String,Map<String,String>>> transforms  = new HashMap<BundlesDT.DT,Map<String,Map<String,String>>>();
+
   /**
-   * Transform Table Members.  Second represents derivative transform values.
+   * Transform Table Members.  Second represents derivative transform values.  Filled in lazily by
+   * {@link #transform} -- render workers call it concurrently, so the per-transform maps are concurrent
+   * and the whole table is replaced (never modified in place) by {@link #resetTransforms}.
    */
-                                                               transforms2 = new HashMap<BundlesDT.DT,Map<String,Map<String,String>>>();
+  volatile Map<BundlesDT.DT,Map<String,ConcurrentMap<String,String>>> transforms2 = new HashMap<BundlesDT.DT,Map<String,ConcurrentMap<String,String>>>();
 
   /**
    * Add a new transform for the overall data set.  Transforms are simple lookups based on
@@ -423,7 +740,8 @@ public class BundlesG {
     // System.err.println("" + datatype + " : " + trans + " : " + var + " => " + result);
     if (transforms.containsKey(datatype)            == false) transforms.put(datatype, new HashMap<String,Map<String,String>>());
     if (transforms.get(datatype).containsKey(trans) == false) transforms.get(datatype).put(trans,new HashMap<String,String>());
-    transforms.get(datatype).get(trans).put(var,result);
+    String previous = transforms.get(datatype).get(trans).put(var,result);
+    if (previous == null || previous.equals(result) == false) { transforms_changed = true; post_memo.invalidate(); }
     // By default, an IPv4CIDR transform is also an IPv4 transform
     if (datatype == BundlesDT.DT.IPv4CIDR) addTransform(BundlesDT.DT.IPv4,trans,var,result);
   }
@@ -433,20 +751,21 @@ public class BundlesG {
    * data set.
    */
   public void resetTransforms() { 
-    transforms2 = new HashMap<BundlesDT.DT,Map<String,Map<String,String>>>(); 
-    transforms2.put(BundlesDT.DT.IPv4,     new HashMap<String,Map<String,String>>());
-    transforms2.put(BundlesDT.DT.IPv4CIDR, new HashMap<String,Map<String,String>>());
+    Map<BundlesDT.DT,Map<String,ConcurrentMap<String,String>>> derived = new HashMap<BundlesDT.DT,Map<String,ConcurrentMap<String,String>>>(); 
+    derived.put(BundlesDT.DT.IPv4,     new HashMap<String,ConcurrentMap<String,String>>());
+    derived.put(BundlesDT.DT.IPv4CIDR, new HashMap<String,ConcurrentMap<String,String>>());
     if (transforms.containsKey(BundlesDT.DT.IPv4)) {
       Iterator<String> it = transforms.get(BundlesDT.DT.IPv4).keySet().iterator();
-      while (it.hasNext()) transforms2.get(BundlesDT.DT.IPv4).put(it.next(), new HashMap<String,String>());
+      while (it.hasNext()) derived.get(BundlesDT.DT.IPv4).put(it.next(), new ConcurrentHashMap<String,String>());
     }
+    Map<String,CIDRRec[]> sorted = sorted_cidr_trans;
     if (transforms.containsKey(BundlesDT.DT.IPv4CIDR)) {
-      sorted_cidr_trans = new HashMap<String,CIDRRec[]>();
+      sorted = new HashMap<String,CIDRRec[]>();
       Iterator<String> it = transforms.get(BundlesDT.DT.IPv4CIDR).keySet().iterator();
       while (it.hasNext()) {
         String trans = it.next();
-        transforms2.get(BundlesDT.DT.IPv4).put(trans, new HashMap<String,String>());
-        transforms2.get(BundlesDT.DT.IPv4CIDR).put(trans, new HashMap<String,String>());
+        derived.get(BundlesDT.DT.IPv4).put(trans, new ConcurrentHashMap<String,String>());
+        derived.get(BundlesDT.DT.IPv4CIDR).put(trans, new ConcurrentHashMap<String,String>());
 	CIDRRec recs[] = new CIDRRec[transforms.get(BundlesDT.DT.IPv4CIDR).get(trans).keySet().size()];
 	Iterator<String> it_cidr = transforms.get(BundlesDT.DT.IPv4CIDR).get(trans).keySet().iterator();
 	for (int i=0;i<recs.length;i++) {
@@ -454,9 +773,14 @@ public class BundlesG {
 	  recs[i] = new CIDRRec(cidr,transforms.get(BundlesDT.DT.IPv4CIDR).get(trans).get(cidr));
         }
 	Arrays.sort(recs);
-	sorted_cidr_trans.put(trans,recs);
+	sorted.put(trans,recs);
       }
     }
+    // Publish the cidr records before the table that refers to them
+    sorted_cidr_trans = sorted; transforms2 = derived;
+    // Drop the memoized outputs only if the mappings changed since the last reset (outputs computed
+    // in between may have used the old cidr tables)
+    if (transforms_changed) { transforms_changed = false; post_memo.invalidate(); }
   }
 
   /**
@@ -486,7 +810,7 @@ public class BundlesG {
    * most specific match for a transformation occurs before more general CIDR
    * strings.
    */
-  Map<String,CIDRRec[]> sorted_cidr_trans = new HashMap<String,CIDRRec[]>();
+  volatile Map<String,CIDRRec[]> sorted_cidr_trans = new HashMap<String,CIDRRec[]>();
 
   /**
    * Class to contains a sortable version of a CIDR string.
@@ -523,29 +847,25 @@ public class BundlesG {
         // System.err.println("dt:" + datatype + " => trans:" + trans + " => var:" + var);
         // System.err.println("transforms2.containsKey("+datatype+") = "                + transforms2.containsKey(datatype));
         // System.err.println("transforms2.get("+datatype+").containsKey("+trans+") = " + transforms2.get(datatype).containsKey(trans));
-	if (transforms2.get(datatype).get(trans).containsKey(var)) return toArray(transforms2.get(datatype).get(trans).get(var)); else {
-	  // Look for a transform
-          if (transforms.containsKey(BundlesDT.DT.IPv4CIDR) && transforms.get(BundlesDT.DT.IPv4CIDR).containsKey(trans) == false) {
-	    transforms2.get(datatype).get(trans).put(var,BundlesDT.NOTSET);
-	    return toArray(BundlesDT.NOTSET);
-	  } else {
-	    // Make the integer version of the ip address
-	    int ip = (datatype == BundlesDT.DT.IPv4) ? Utils.ipAddrToInt(var) : Utils.ipAddrToInt((new StringTokenizer(var,"/")).nextToken());
-	    // Get the sorted cidr recs
-            CIDRRec recs[] = sorted_cidr_trans.get(trans);
-	    // If they exist, try for a match
-	    if (recs != null) {
-	      for (int i=0;i<recs.length;i++) {
-                if (recs[i].matches(ip)) {
-	          transforms2.get(datatype).get(trans).put(var,recs[i].getResult());
-                  return toArray(recs[i].getResult());
-                }
-	      }
+        ConcurrentMap<String,String> derived = transforms2.get(datatype).get(trans);
+	String cached = derived.get(var); if (cached != null) return toArray(cached);
+	// Look for a transform
+	String result = BundlesDT.NOTSET;
+        if (transforms.containsKey(BundlesDT.DT.IPv4CIDR) == false || transforms.get(BundlesDT.DT.IPv4CIDR).containsKey(trans)) {
+	  // Make the integer version of the ip address
+	  int ip = (datatype == BundlesDT.DT.IPv4) ? Utils.ipAddrToInt(var) : Utils.ipAddrToInt((new StringTokenizer(var,"/")).nextToken());
+	  // Get the sorted cidr recs
+          CIDRRec recs[] = sorted_cidr_trans.get(trans);
+	  // If they exist, try for a match
+	  if (recs != null) {
+	    for (int i=0;i<recs.length;i++) {
+              if (recs[i].matches(ip)) { result = recs[i].getResult(); break; }
 	    }
-	    transforms2.get(datatype).get(trans).put(var,BundlesDT.NOTSET);
-	    return toArray(BundlesDT.NOTSET);
 	  }
 	}
+	// Concurrent callers may race to the same variable -- every caller returns the first published result
+	cached = derived.putIfAbsent(var, result);
+	return toArray(cached == null ? result : cached);
       } else return toArray(val);
     } else {
       String val = transforms.get(datatype).get(trans).get(var);
@@ -566,7 +886,7 @@ public class BundlesG {
   /**
    * Set of the type-value type tags.
    */
-  Set<String> tag_types = new HashSet<String>();
+  Set<String> tag_types = Collections.synchronizedSet(new HashSet<String>());
 
   /**
    * Return an iterator over the types in the tag type-value pairs.
@@ -597,7 +917,7 @@ public class BundlesG {
    * @paran  fld field name
    * @return     corresponding field index
    */
-  public int                   fieldIndex(String fld)                       { if (flds_lu.containsKey(fld)) return flds_lu.get(fld); else return -1; }
+  public int                   fieldIndex(String fld)                       { return flds_lu.get(fld, -1);        }
 
   /**
    * Return the number of fields in the application.
@@ -611,7 +931,7 @@ public class BundlesG {
    *
    * @return Iterator over the field headers
    */
-  public Iterator<String>      fieldIterator()                              { return flds_lu.keySet().iterator(); }
+  public Iterator<String>      fieldIterator()                              { return flds_lu.keys().iterator();   }
 
   /**
    * Return the field data associated with this field index.  If more than one
@@ -659,11 +979,11 @@ public class BundlesG {
   public Set<String>       getCIDRMatches(String cidr)                  { 
     Set<String>  set = new HashSet<String>();  
     int cidr_mask = Utils.cidrMask(cidr), cidr_bits = Utils.cidrBits(cidr);
-    Iterator<String> it  = ent_2_i.keySet().iterator();
+    Iterator<String> it  = ent_2_i.keys().iterator();
     while (it.hasNext()) {
       String entity = it.next();
       if (BundlesDT.getEntityDataType(entity) == BundlesDT.DT.IPv4) {
-        int ip = ent_2_i.get(entity);
+        int ip = ent_2_i.get(entity, 0);
 	if (Utils.cidrMatch(ip, cidr_bits, cidr_mask)) set.add(entity);
       }
     }
@@ -681,11 +1001,11 @@ public class BundlesG {
   public Set<SubText>      getCIDRMatches(SubText subtext, String cidr) { 
     Set<SubText> set = new HashSet<SubText>(); 
     int cidr_mask = Utils.cidrMask(subtext.toString()), cidr_bits = Utils.cidrBits(subtext.toString());
-    Iterator<String> it  = ent_2_i.keySet().iterator();
+    Iterator<String> it  = ent_2_i.keys().iterator();
     while (it.hasNext()) {
       String entity = it.next();
       if (BundlesDT.getEntityDataType(entity) == BundlesDT.DT.IPv4) {
-        int ip = ent_2_i.get(entity);
+        int ip = ent_2_i.get(entity, 0);
 	if (Utils.cidrMatch(ip, cidr_bits, cidr_mask)) set.add(new Entity(subtext.getFullText(), entity, BundlesDT.DT.IPv4, subtext.getIndex0(), subtext.getIndex1()));
       }
     }
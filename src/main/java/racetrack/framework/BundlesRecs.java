@@ -54,9 +54,9 @@ public class BundlesRecs extends Bundles {
   private Set<Tablet> tablet_set = new HashSet<Tablet>();
 
   /**
-   * Set of {@link Bundle} within this data set
+   * Set of {@link Bundle} within this data set -- bitmap over the record ordinals
    */
-  private Set<Bundle> bundle_set = new HashSet<Bundle>();
+  private Set<Bundle> bundle_set = new BundleBitmapSet();
 
   /**
    * Default constructor
@@ -170,7 +170,9 @@ public class BundlesRecs extends Bundles {
    */
   /**
    * Create a new data set based on a subset of the bundles provided.  This is
-   * the primary method for data filtering operations.
+   * the primary method for data filtering operations.  The record sets are
+   * bitmaps over the record ordinals so each subset's memory scales with its
+   * selectivity rather than with the number of records.
    *
    * @param  set subset of bundles to use to create the new set
    * @return new {@link Bundles} object encapsulating the subset
@@ -458,7 +460,30 @@ public class BundlesRecs extends Bundles {
      *
      *@param s new strings for bundle
      */
-    void     setStrs(String s[]) { strs = s; }
+    void     setStrs(String s[]) { strs = s; codes = null; }
+
+    /**
+     * Dictionary codes for the strings (plus one -- zero means not looked up yet).  A coded
+     * string is swapped for the dictionary's instance so that the code is only used while the
+     * string is that same instance (the tag operations replace the strings in place).
+     */
+    private int codes[];
+
+    /**
+     * Return the code of this field's value in the field's dictionary -- memoized per record.
+     *
+     * @param  fld_i field index
+     * @return       dictionary code
+     */
+    int toCode(int fld_i) {
+      String my_strs[] = strs; int local_i = ((MyTablet) tablet).fields[fld_i], my_codes[] = codes;
+      BundlesG globals = tablet.getBundles().getGlobals();
+      if (my_codes == null || my_codes.length != my_strs.length) codes = my_codes = new int[my_strs.length];
+      String str = my_strs[local_i]; int code = my_codes[local_i] - 1;
+      if (code >= 0 && globals.dictionary(fld_i).toString(code) == str) return code;
+      code = globals.intern(fld_i, str); my_strs[local_i] = globals.dictionary(fld_i).toString(code); my_codes[local_i] = code + 1;
+      return code;
+    }
   
     /**
      * Return the string within the specified field index of this bundle.
@@ -652,9 +677,9 @@ public class BundlesRecs extends Bundles {
     private Bundles         bundles        = null;
   
     /**
-     * Set of the actual bundles in this tablet.  Used to iterate over.
+     * Set of the actual bundles in this tablet (bitmap over the record ordinals).  Used to iterate over.
      */
-    private Set<Bundle>     bundle_set     = new HashSet<Bundle>();
+    private Set<Bundle>     bundle_set     = new BundleBitmapSet();
   
     /**
      * Mapping of the fields indices to the corresponding field inside
@@ -956,13 +981,27 @@ public class BundlesRecs extends Bundles {
       // Check for the basics
       if (hasTimeStamps() &&                   timestamp     == null) return null;
       if (hasTimeStamps() && hasDurations() && timestamp_end == null) return null;
-  
+      return addBundle(attr, hasTimeStamps() ? Utils.parseTimeStamp(timestamp)     : 0L, 
+                             hasDurations()  ? Utils.parseTimeStamp(timestamp_end) : 0L);
+    }
+
+    /**
+     * Add a new bundle with timestamps that were already parsed.
+     * Note that for this method to succeed, all fields in this tablet must be satisfied.
+     *
+     *@param attr attribute mapping
+     *@param ts0  timestamp -- ignored if the tablet doesn't have timestamps
+     *@param ts1  end timestamp -- ignored if the tablet doesn't have durations
+     *
+     *@return the created bundle if successful, null otherwise
+     */
+    public Bundle addBundle(Map<String,String> attr, long ts0, long ts1) {
       // Allocate the correct time of bundle
-      Bundle bundle = createBundle();
+      Bundle bundle = createBundle(); bundles.getGlobals().registerOrdinal(bundle);
   
       // Set the timestamps if they exist in this type of bundle
-      if (bundle.hasTime())     bundle.setTS0(Utils.parseTimeStamp(timestamp));
-      if (bundle.hasDuration()) bundle.setTS1(Utils.parseTimeStamp(timestamp_end));
+      if (bundle.hasTime())     bundle.setTS0(ts0);
+      if (bundle.hasDuration()) bundle.setTS1(ts1);
   
       // Allocate the strings
       ((MyBundle) bundle).setStrs(new String[attr.keySet().size()]);
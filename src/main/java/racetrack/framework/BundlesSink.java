@@ -0,0 +1,146 @@
+/*
+
+Copyright 2013 David Trimm
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package racetrack.framework;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import racetrack.gui.RT;
+import racetrack.util.CSVReader;
+import racetrack.util.LineConverter;
+
+/**
+ * Destination for a {@link LineConverter} that loads the converted records directly into a
+ * {@link Bundles} -- no intermediate csv file.  Each table gets its own {@link CSVParser} so
+ * that the rows of interleaved tables land in their own tablets.
+ *
+ *@author  D. Trimm
+ *@version 1.0
+ */
+public class BundlesSink implements LineConverter.Sink {
+  /**
+   * Data to load into
+   */
+  private Bundles bundles;
+
+  /**
+   * Application (for tags and markers) -- may be null
+   */
+  private RT rt;
+
+  /**
+   * Records that were loaded
+   */
+  private Set<Bundle> set = new HashSet<Bundle>();
+
+  /**
+   * Parser for each table
+   */
+  private Map<String,CSVParser> parsers = new LinkedHashMap<String,CSVParser>();
+
+  /**
+   * Line counter for the parser messages
+   */
+  private int line_no = 0;
+
+  /**
+   * Column projection and row predicates (null for none)
+   */
+  private LoadFilter filter;
+
+  /**
+   * Fields with a declared datatype (from a schema)
+   */
+  private Set<Integer> declared = new HashSet<Integer>();
+
+  /**
+   * Construct the sink.
+   *
+   *@param bundles data to load into
+   *@param rt      application (may be null)
+   */
+  public BundlesSink(Bundles bundles, RT rt) { this(bundles, rt, null); }
+
+  /**
+   * Construct the sink with a load filter.
+   *
+   *@param bundles data to load into
+   *@param rt      application (may be null)
+   *@param filter  projection and predicates (null for none)
+   */
+  public BundlesSink(Bundles bundles, RT rt, LoadFilter filter) { this.bundles = bundles; this.rt = rt; this.filter = filter; }
+
+  /**
+   * Start (or restart) a table -- a restart ends the previous section with a blank line.
+   */
+  public void header(String table, String header) {
+    CSVParser parser = parsers.get(table);
+    if (parser == null) parsers.put(table, parser = new CSVParser(bundles, rt, set, 0, filter));
+    else                parser.consume(new String[0], "", ++line_no);
+    parser.consume(CSVReader.tokenize(header, ",", true), header, ++line_no);
+  }
+
+  /**
+   * Add a row to a table.
+   */
+  public void row(String table, String line) {
+    if (parsers.containsKey(table) == false) header(table, table);
+    parsers.get(table).consume(CSVReader.tokenize(line, ",", true, bundles.getGlobals().entityDictionary()), line, ++line_no);
+  }
+
+  /**
+   * Add a record prepared by a {@link SchemaIngest}.  The first record of a table starts its parser
+   * with the schema's header and declares the schema's datatypes for the fields -- the following
+   * records share the header so the parser adds their prepared attributes directly.
+   *
+   *@param rec prepared record
+   */
+  void commit(SchemaIngest.Record rec) {
+    SchemaIngest.Schema schema = rec.schema; CSVParser parser = parsers.get(schema.table);
+    if (parser == null) {
+      parsers.put(schema.table, parser = new CSVParser(bundles, rt, set, 0, filter));
+      parser.consume(schema.hdr, schema.line(), ++line_no);
+      BundlesG globals = bundles.getGlobals();
+      for (int i=0;i<schema.hdr.length;i++) {
+        if (schema.dts[i] == null || i == schema.time_i || i == schema.time_end_i) continue;
+        int fld_i = globals.fieldIndex(schema.hdr[i]); if (fld_i >= 0) { globals.declareFieldDataType(fld_i, schema.dts[i]); declared.add(fld_i); }
+      }
+    }
+    parser.consume(rec, ++line_no);
+  }
+
+  /**
+   * Hand the tags/markers to the application and rebuild the transform lookups.  The declared
+   * datatypes only apply to this load.
+   */
+  public void close() {
+    Iterator<Integer> it_fld = declared.iterator(); while (it_fld.hasNext()) bundles.getGlobals().declareFieldDataType(it_fld.next(), null);
+    Iterator<CSVParser> it = parsers.values().iterator(); while (it.hasNext()) it.next().addListsToRT();
+    bundles.getGlobals().resetTransforms();
+  }
+
+  /**
+   * Return the records that were loaded.
+   *
+   *@return set of records
+   */
+  public Set<Bundle> getBundlesAdded() { return set; }
+}
@@ -0,0 +1,520 @@
+/*
+
+Copyright 2013 David Trimm
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package racetrack.framework;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import racetrack.gui.RT;
+import racetrack.gui.TimeMarker;
+import racetrack.kb.EntityTag;
+import racetrack.kb.RTComment;
+import racetrack.util.Utils;
+
+/**
+ * Binary snapshot of a loaded dataset.  A snapshot holds the records by tablet as
+ * columns of dictionary ids (plus the timestamp columns), the string dictionary
+ * with the datatype of each value, the field metadata, the transforms, and the
+ * entity tags, time markers, comments, and application configuration.  Reopening
+ * a snapshot maps the file ({@link FileChannel#map}) and rebuilds the records without
+ * tokenizing, url-decoding, timestamp parsing, or datatype probing -- for the columnar
+ * backend, the code columns are loaded straight into the tablets.  Snapshots are written
+ * to a temporary file that then replaces the target, so a failed write leaves the old
+ * snapshot intact.
+ *
+ * File layout (big-endian):
+ *
+ *   header     - magic, version, section offsets, record count
+ *   dictionary - datatype names; then per string:  datatype index (byte), length (int), utf-8 bytes
+ *   fields     - per field:  name id (int), scalar flag (byte) -- in field index order
+ *   transforms - per entry:  datatype id, transform id, variable id, result id (ints)
+ *   tablets    - per tablet: header ids, record count, ts0 column (longs), ts1 column (longs), field columns (ints)
+ *   lists      - entity tag, time marker, comment, application configuration, and load filter lines (string ids)
+ *
+ * The version is incremented whenever the layout changes -- older snapshots are rejected
+ * rather than misread.
+ *
+ *@author  D. Trimm
+ *@version 1.0
+ */
+public class BundlesSnapshot {
+  /**
+   * File extension for snapshots
+   */
+  public static final String EXTENSION = ".rtsnap";
+
+  /**
+   * Magic number ("RTSN")
+   */
+  static final int MAGIC   = 0x5254534e;
+
+  /**
+   * Layout version
+   */
+  static final int VERSION = 2;
+
+  /**
+   * Header size in bytes -- magic, version, five section offsets, record count
+   */
+  static final int HEADER  = 4 + 4 + 5*8 + 8;
+
+  /**
+   * Datatype index for strings that aren't entity values
+   */
+  static final byte NO_DT  = -1;
+
+  /**
+   * Determine if a file is a snapshot (by extension).
+   *
+   *@param  file file to check
+   *
+   *@return true if the file name ends with the snapshot extension
+   */
+  public static boolean isSnapshot(File file) { return file.getName().toLowerCase().endsWith(EXTENSION); }
+
+  //
+  // Writing
+  //
+
+  /**
+   * Write the records (and the application lists) to a snapshot.
+   *
+   *@param bs       records to write
+   *@param rt       application (for the tags, markers, and comments) -- may be null
+   *@param appconfs application configuration lines -- may be null
+   *@param file     file to write -- replaced once the snapshot is complete
+   *
+   *@return number of records written
+   */
+  public static long write(Bundles bs, RT rt, List<String> appconfs, File file) throws IOException {
+    BundlesG globals = bs.getGlobals();
+
+    // Collect the tablets, their headers, and the list lines
+    List<Tablet> tablets = new ArrayList<Tablet>(); List<int[]> tablet_flds = new ArrayList<int[]>();
+    Iterator<Tablet> it_tab = bs.tabletIterator(); while (it_tab.hasNext()) {
+      Tablet tablet = it_tab.next(); if (tablet.size() == 0) continue;
+      tablets.add(tablet); tablet_flds.add(fieldsInLocalOrder(tablet));
+    }
+    List<String> tags = new ArrayList<String>(), markers = new ArrayList<String>(), comments = new ArrayList<String>();
+    if (rt != null) {
+      for (int i=0;i<rt.getNumberOfEntityTags();i++)  tags.add(rt.getEntityTag(i).asFileLine());
+      for (int i=0;i<rt.getNumberOfTimeMarkers();i++) markers.add(rt.getTimeMarker(i).asFileLine());
+      Iterator<RTComment> it = rt.commentsIterator(); while (it.hasNext()) comments.add(it.next().asFileLine());
+    }
+    if (appconfs == null) appconfs = new ArrayList<String>();
+
+    // Build the dictionary -- values first so that their datatypes are recorded
+    Dictionary dict = new Dictionary();
+    for (int t=0;t<tablets.size();t++) {
+      int flds[] = tablet_flds.get(t);
+      Iterator<Bundle> it = tablets.get(t).bundleIterator(); while (it.hasNext()) { Bundle bundle = it.next(); for (int i=0;i<flds.length;i++) dict.value(bundle.toString(flds[i])); }
+    }
+    for (int fld_i=0;fld_i<globals.numberOfFields();fld_i++) dict.id(globals.fieldHeader(fld_i));
+    List<String[]> transforms = new ArrayList<String[]>();
+    Iterator<BundlesDT.DT> it_dt = globals.transforms.keySet().iterator(); while (it_dt.hasNext()) {
+      BundlesDT.DT dt = it_dt.next(); Iterator<String> it_trans = globals.transforms.get(dt).keySet().iterator(); while (it_trans.hasNext()) {
+        String trans = it_trans.next(); Map<String,String> map = globals.transforms.get(dt).get(trans);
+        Iterator<String> it_var = map.keySet().iterator(); while (it_var.hasNext()) {
+          String var = it_var.next(); String entry[] = new String[] { "" + dt, trans, var, map.get(var) }; transforms.add(entry);
+          for (int i=0;i<entry.length;i++) dict.id(entry[i]);
+    } } }
+    for (int t=0;t<tablets.size();t++) { String hdr[] = header(tablets.get(t), tablet_flds.get(t)); for (int i=0;i<hdr.length;i++) dict.id(hdr[i]); }
+    List<List<String>> lists = new ArrayList<List<String>>(); lists.add(tags); lists.add(markers); lists.add(comments); lists.add(appconfs); lists.add(globals.getLoadFilters());
+    for (int l=0;l<lists.size();l++) for (int i=0;i<lists.get(l).size();i++) dict.id(lists.get(l).get(i));
+
+    // Write the sections -- into a temporary file in the same directory
+    File tmp = File.createTempFile(file.getName() + ".", ".tmp", file.getAbsoluteFile().getParentFile()); boolean replaced = false;
+    RandomAccessFile raf = new RandomAccessFile(tmp, "rw"); long records = 0L;
+    try {
+      raf.setLength(0L);
+      Output out = new Output(raf.getChannel()); out.position(HEADER); long offsets[] = new long[5];
+
+      // Dictionary
+      offsets[0] = out.position();
+      BundlesDT.DT dts[] = BundlesDT.DT.values(); out.putInt(dts.length); for (int i=0;i<dts.length;i++) out.putString(dts[i].name());
+      out.putInt(dict.strs.size());
+      for (int i=0;i<dict.strs.size();i++) { BundlesDT.DT dt = dict.dts.get(i); out.put(dt == null ? NO_DT : (byte) dt.ordinal()); out.putString(dict.strs.get(i)); }
+
+      // Fields
+      offsets[1] = out.position(); out.putInt(globals.numberOfFields());
+      for (int fld_i=0;fld_i<globals.numberOfFields();fld_i++) { out.putInt(dict.id(globals.fieldHeader(fld_i))); out.put((byte) (globals.isScalar(fld_i) ? 1 : 0)); }
+
+      // Transforms
+      offsets[2] = out.position(); out.putInt(transforms.size());
+      for (int i=0;i<transforms.size();i++) { String entry[] = transforms.get(i); for (int j=0;j<entry.length;j++) out.putInt(dict.id(entry[j])); }
+
+      // Tablets -- columns
+      offsets[3] = out.position(); out.putInt(tablets.size());
+      for (int t=0;t<tablets.size();t++) {
+        Tablet tablet = tablets.get(t); int flds[] = tablet_flds.get(t); String hdr[] = header(tablet, flds);
+        out.putInt(hdr.length); for (int i=0;i<hdr.length;i++) out.putInt(dict.id(hdr[i]));
+        List<Bundle> recs = new ArrayList<Bundle>(tablet.size()); Iterator<Bundle> it = tablet.bundleIterator(); while (it.hasNext()) recs.add(it.next());
+        out.putInt(recs.size()); records += recs.size();
+        if (tablet.hasTimeStamps()) for (int i=0;i<recs.size();i++) out.putLong(recs.get(i).ts0());
+        if (tablet.hasDurations())  for (int i=0;i<recs.size();i++) out.putLong(recs.get(i).ts1());
+        for (int f=0;f<flds.length;f++) for (int i=0;i<recs.size();i++) out.putInt(dict.id(recs.get(i).toString(flds[f])));
+      }
+
+      // Lists
+      offsets[4] = out.position();
+      for (int l=0;l<lists.size();l++) { out.putInt(lists.get(l).size()); for (int i=0;i<lists.get(l).size();i++) out.putInt(dict.id(lists.get(l).get(i))); }
+      out.flush();
+
+      // Header
+      ByteBuffer hdr_bb = ByteBuffer.allocate(HEADER); hdr_bb.putInt(MAGIC); hdr_bb.putInt(VERSION);
+      for (int i=0;i<offsets.length;i++) hdr_bb.putLong(offsets[i]);
+      hdr_bb.putLong(records); hdr_bb.flip();
+      while (hdr_bb.hasRemaining()) raf.getChannel().write(hdr_bb, hdr_bb.position());
+      raf.close();
+
+      // Replace the target -- some platforms won't rename over an existing file
+      if (tmp.renameTo(file) == false) {
+        if (file.exists() && file.delete() == false) throw new IOException("Unable To Replace Snapshot: " + file);
+        if (tmp.renameTo(file) == false)             throw new IOException("Unable To Rename " + tmp + " To " + file);
+      }
+      replaced = true;
+    } finally { raf.close(); if (replaced == false) tmp.delete(); }
+    return records;
+  }
+
+  /**
+   * Return the global field indices of a tablet in the tablet's local order.
+   */
+  private static int[] fieldsInLocalOrder(Tablet tablet) {
+    int fields[] = tablet.getFields(); List<long[]> al = new ArrayList<long[]>();
+    for (int fld_i=0;fld_i<fields.length;fld_i++) if (fields[fld_i] >= 0) al.add(new long[] { fields[fld_i], fld_i });
+    Collections.sort(al, new Comparator<long[]>() { public int compare(long a[], long b[]) { return a[0] < b[0] ? -1 : (a[0] > b[0] ? 1 : 0); } } );
+    int flds[] = new int[al.size()]; for (int i=0;i<flds.length;i++) flds[i] = (int) al.get(i)[1];
+    return flds;
+  }
+
+  /**
+   * Return the header (as it would appear in a file) for a tablet.
+   */
+  private static String[] header(Tablet tablet, int flds[]) {
+    List<String> al = new ArrayList<String>();
+    if (tablet.hasTimeStamps()) al.add("timestamp");
+    if (tablet.hasDurations())  al.add("timestamp_end");
+    for (int i=0;i<flds.length;i++) al.add(tablet.getBundles().getGlobals().fieldHeader(flds[i]));
+    String strs[] = new String[al.size()]; for (int i=0;i<strs.length;i++) strs[i] = al.get(i);
+    return strs;
+  }
+
+  /**
+   * String dictionary for writing -- values carry their datatype.
+   */
+  static class Dictionary {
+    Map<String,Integer> lu   = new HashMap<String,Integer>();
+    List<String>        strs = new ArrayList<String>();
+    List<BundlesDT.DT>  dts  = new ArrayList<BundlesDT.DT>();
+    int id(String str) {
+      Integer id = lu.get(str); if (id != null) return id;
+      lu.put(str, strs.size()); strs.add(str); dts.add(null); return strs.size()-1;
+    }
+    void value(String str) {
+      int id = id(str); if (dts.get(id) == null && str.equals(BundlesDT.NOTSET) == false) dts.set(id, BundlesDT.getEntityDataType(str));
+    }
+  }
+
+  /**
+   * Buffered output to a file channel that keeps a long position.
+   */
+  static class Output {
+    FileChannel channel; ByteBuffer bb = ByteBuffer.allocate(1 << 20); long position = 0L;
+    Output(FileChannel channel) { this.channel = channel; }
+    long position()              { return position + bb.position(); }
+    void position(long pos) throws IOException { flush(); position = pos; }
+    void ensure(int n)      throws IOException { if (bb.remaining() < n) flush(); }
+    void put(byte b)        throws IOException { ensure(1); bb.put(b); }
+    void putInt(int i)      throws IOException { ensure(4); bb.putInt(i); }
+    void putLong(long l)    throws IOException { ensure(8); bb.putLong(l); }
+    void putString(String str) throws IOException {
+      byte bytes[] = str.getBytes("UTF-8"); putInt(bytes.length);
+      int i = 0; while (i < bytes.length) { ensure(1); int n = Math.min(bb.remaining(), bytes.length - i); bb.put(bytes, i, n); i += n; }
+    }
+    void flush() throws IOException {
+      bb.flip(); while (bb.hasRemaining()) position += channel.write(bb, position); bb.clear();
+    }
+  }
+
+  //
+  // Reading
+  //
+
+  /**
+   * Read a snapshot into the application.  The records are added to the bundles
+   * (along with the fields and transforms).  The tags, markers, and comments are
+   * added to the application (if not null).  The whole file is checked (section
+   * offsets, counts, lengths, and dictionary ids) before anything is added -- a
+   * corrupt snapshot leaves the bundles and the application unchanged.
+   *
+   *@param bundles  application data (output)
+   *@param rt       application -- may be null
+   *@param file     snapshot file
+   *@param appconfs application configuration lines (output) -- may be null
+   *
+   *@return records that were loaded
+   *
+   *@throws IOException if the file isn't a snapshot of this version or is corrupt (e.g., truncated)
+   */
+  public static Set<Bundle> read(Bundles bundles, RT rt, File file, List<String> appconfs) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      Mapped in = new Mapped(raf.getChannel(), file);
+      if (in.size < HEADER || in.getInt(0) != MAGIC) throw new IOException("Not A RACETrack Snapshot: " + file);
+      if (in.getInt(4) != VERSION)                   throw new IOException("Unsupported Snapshot Version " + in.getInt(4) + " (Expected " + VERSION + "): " + file);
+      long offsets[] = new long[5]; for (int i=0;i<offsets.length;i++) { offsets[i] = in.getLong(8 + 8*i); if (offsets[i] < HEADER || offsets[i] > in.size) throw in.corrupt("Section Offset " + offsets[i]); }
+      long records   = in.getLong(8 + 8*offsets.length);
+
+      // Dictionary -- the stored datatypes are handed to the globals so that the values aren't probed again
+      long pos = offsets[0];
+      int dt_n = in.getCount(pos, 4); pos += 4; BundlesDT.DT dt_lu[] = new BundlesDT.DT[dt_n];
+      for (int i=0;i<dt_n;i++) { int len = in.getInt(pos); pos += 4; String name = in.getString(pos, len); pos += len; dt_lu[i] = parseDT(name); }
+      int str_n = in.getCount(pos, 5); pos += 4; String dict[] = new String[str_n]; Map<String,BundlesDT.DT> known = new HashMap<String,BundlesDT.DT>();
+      for (int i=0;i<str_n;i++) {
+        byte dt = in.get(pos); pos += 1; int len = in.getInt(pos); pos += 4; dict[i] = in.getString(pos, len); pos += len;
+        if (dt != NO_DT && dt >= 0 && dt < dt_lu.length && dt_lu[dt] != null && fitsStoredType(dict[i], dt_lu[dt])) known.put(dict[i], dt_lu[dt]);
+      }
+
+      // Check the other sections before anything is added -- every id must be in the dictionary
+      pos = offsets[1]; int fld_n = in.getCount(pos, 5); pos += 4;
+      for (int i=0;i<fld_n;i++) { in.getId(pos, str_n); pos += 5; }
+      pos = offsets[2]; int trans_n = in.getCount(pos, 16); pos += 4;
+      for (int i=0;i<4*trans_n;i++) { in.getId(pos, str_n); pos += 4; }
+      pos = offsets[3]; int tab_n = in.getCount(pos, 8); pos += 4;
+      String hdrs[][] = new String[tab_n][]; int tab_recs[] = new int[tab_n]; long tab_base[] = new long[tab_n]; long total = 0L;
+      for (int t=0;t<tab_n;t++) {
+        int hdr_n = in.getCount(pos, 4); pos += 4; String hdr[] = hdrs[t] = new String[hdr_n]; for (int i=0;i<hdr_n;i++) { hdr[i] = dict[in.getId(pos, str_n)]; pos += 4; }
+        int rec_n = tab_recs[t] = in.getInt(pos); pos += 4; if (rec_n < 0) throw in.corrupt("Record Count " + rec_n);
+        int flds_n = 0; for (int i=0;i<hdr_n;i++) if (isTimeHeader(hdr[i]) == false) flds_n++;
+        long cols = pos + 8L*rec_n*((hasTimeStamps(hdr) ? 1 : 0) + (hasDurations(hdr) ? 1 : 0)); tab_base[t] = pos;
+        pos = cols + 4L*rec_n*flds_n; if (pos > in.size) throw in.corrupt("Tablet " + t + " Extends Past The End");
+        for (long p=cols;p<pos;p+=4) in.getId(p, str_n);
+        total += rec_n;
+      }
+      if (total != records) throw in.corrupt("Record Count Mismatch (Expected " + records + ", Found " + total + ")");
+      pos = offsets[4];
+      for (int l=0;l<5;l++) { int n = in.getCount(pos, 4); pos += 4; for (int i=0;i<n;i++) { in.getId(pos, str_n); pos += 4; } }
+
+      // Fields -- created in the same order so that an empty root gets the same indices
+      BundlesG globals = bundles.getGlobals();
+      pos = offsets[1] + 4;
+      for (int i=0;i<fld_n;i++) { String fld = dict[in.getInt(pos)]; boolean scalar = in.get(pos+4) != 0; pos += 5; globals.getOrCreateField(fld, scalar); }
+
+      // Transforms
+      pos = offsets[2] + 4;
+      for (int i=0;i<trans_n;i++) {
+        BundlesDT.DT dt = parseDT(dict[in.getInt(pos)]);
+        if (dt != null) globals.addTransform(dt, dict[in.getInt(pos+4)], dict[in.getInt(pos+8)], dict[in.getInt(pos+12)]);
+        pos += 16;
+      }
+
+      // Tablets
+      Set<Bundle> set = new HashSet<Bundle>();
+      globals.setKnownDataTypes(known);
+      // Columnar -- snapshot id to field code, for the field that last used the id
+      int code_of[] = null, code_fld[] = null;
+      if (bundles instanceof BundlesColumnar) { code_of = new int[str_n]; code_fld = new int[str_n]; Arrays.fill(code_fld, -1); }
+      try {
+        for (int t=0;t<tab_n;t++) {
+          String hdr[] = hdrs[t]; int rec_n = tab_recs[t]; pos = tab_base[t];
+          Tablet tablet = tablet(bundles, hdr); boolean has_ts = hasTimeStamps(hdr), has_dur = hasDurations(hdr);
+          long ts0_base = pos;                             if (has_ts)  pos += 8L*rec_n;
+          long ts1_base = pos;                             if (has_dur) pos += 8L*rec_n;
+          List<String> flds = new ArrayList<String>(); for (int i=0;i<hdr.length;i++) if (isTimeHeader(hdr[i]) == false) flds.add(hdr[i]);
+          long col_base[] = new long[flds.size()]; for (int f=0;f<col_base.length;f++) { col_base[f] = pos; pos += 4L*rec_n; }
+          if (tablet instanceof BundlesColumnar.ColTablet) {
+            // Load the columns directly -- each distinct value is added to the globals once per field
+            int fld_is[] = new int[flds.size()], codes[][] = new int[flds.size()][rec_n];
+            for (int f=0;f<fld_is.length;f++) {
+              int fld_i = fld_is[f] = globals.fieldIndex(flds.get(f)); boolean tags = flds.get(f).equals(BundlesDT.TAGS);
+              for (int r=0;r<rec_n;r++) {
+                int id = in.getInt(col_base[f] + 4L*r);
+                if (code_fld[id] != fld_i) {
+                  String val = tags ? Utils.normalizeTag(dict[id]) : dict[id];
+                  globals.addFieldEntity(fld_i, val); code_of[id] = globals.intern(fld_i, val); code_fld[id] = fld_i;
+                }
+                codes[f][r] = code_of[id];
+              }
+            }
+            long ts0s[] = has_ts  ? new long[rec_n] : null; if (has_ts)  for (int r=0;r<rec_n;r++) ts0s[r] = in.getLong(ts0_base + 8L*r);
+            long ts1s[] = has_dur ? new long[rec_n] : null; if (has_dur) for (int r=0;r<rec_n;r++) ts1s[r] = in.getLong(ts1_base + 8L*r);
+            set.addAll(((BundlesColumnar.ColTablet) tablet).addRows(fld_is, codes, ts0s, ts1s, rec_n));
+            continue;
+          }
+          Map<String,String> attr = new HashMap<String,String>(); // Reused -- the tablets copy the values out
+          for (int r=0;r<rec_n;r++) {
+            for (int f=0;f<col_base.length;f++) attr.put(flds.get(f), dict[in.getInt(col_base[f] + 4L*r)]);
+            Bundle bundle = tablet.addBundle(attr, has_ts ? in.getLong(ts0_base + 8L*r) : 0L, has_dur ? in.getLong(ts1_base + 8L*r) : 0L);
+            if (bundle != null) set.add(bundle);
+          }
+        }
+      } finally { globals.setKnownDataTypes(null); }
+
+      // Lists
+      pos = offsets[4]; List<List<String>> lists = new ArrayList<List<String>>();
+      for (int l=0;l<5;l++) { int n = in.getInt(pos); pos += 4; List<String> list = new ArrayList<String>(); for (int i=0;i<n;i++) { list.add(dict[in.getInt(pos)]); pos += 4; } lists.add(list); }
+      if (rt != null) {
+        List<EntityTag>  tags     = new ArrayList<EntityTag>();  for (int i=0;i<lists.get(0).size();i++) { EntityTag  tag     = new EntityTag (lists.get(0).get(i)); if (tag.valid())     tags.add(tag);         }
+        List<TimeMarker> markers  = new ArrayList<TimeMarker>(); for (int i=0;i<lists.get(1).size();i++) { TimeMarker marker  = new TimeMarker(lists.get(1).get(i)); if (marker.valid())  markers.add(marker);   }
+        List<RTComment>  comments = new ArrayList<RTComment>();  for (int i=0;i<lists.get(2).size();i++) { RTComment  comment = new RTComment (lists.get(2).get(i)); if (comment.valid()) comments.add(comment); }
+        if (tags.size()     > 0) rt.addEntityTags(tags);
+        if (markers.size()  > 0) rt.addTimeMarkers(markers);
+        if (comments.size() > 0) rt.addRTComments(comments);
+      }
+      if (appconfs != null) appconfs.addAll(lists.get(3));
+      globals.addLoadFilters(lists.get(4));
+
+      // Re-run the transforms for the fast lookup tables
+      globals.resetTransforms();
+      return set;
+    } finally { raf.close(); }
+  }
+
+  /**
+   * Determine if a header field is one of the timestamp fields.
+   */
+  private static boolean isTimeHeader(String hdr) { return hdr.equals("beg") || hdr.equals("timestamp") || hdr.equals("end") || hdr.equals("timestamp_end"); }
+
+  /**
+   * Determine if a value fits its stored datatype.  The numeric and address datatypes are parsed
+   * when the value is added to the globals -- a (corrupted) value that doesn't fit is left out of
+   * the known datatypes and probed like any other value.
+   */
+  private static boolean fitsStoredType(String value, BundlesDT.DT dt) {
+    switch (dt) {
+      case INTEGER: case FLOAT: case IPv4: case IPv4CIDR: return BundlesDT.fitsDataType(value, dt);
+      default:                                            return true;
+    }
+  }
+
+  /**
+   * Determine if a header has timestamps (and so a ts0 column) -- same as {@link #tablet}.
+   */
+  private static boolean hasTimeStamps(String hdr[]) { for (int i=0;i<hdr.length;i++) if (isTimeHeader(hdr[i])) return true; return false; }
+
+  /**
+   * Determine if a header has durations (and so a ts1 column) -- same as {@link #tablet}.
+   */
+  private static boolean hasDurations(String hdr[]) { for (int i=0;i<hdr.length;i++) if (hdr[i].equals("end") || hdr[i].equals("timestamp_end")) return true; return false; }
+
+  /**
+   * Parse a datatype name.
+   *
+   *@return datatype or null if this version doesn't know the datatype
+   */
+  private static BundlesDT.DT parseDT(String name) { try { return BundlesDT.DT.valueOf(name); } catch (IllegalArgumentException iae) { return null; } }
+
+  /**
+   * Find or create the tablet for a header.  Mirrors the header handling in {@link CSVParser}.
+   */
+  private static Tablet tablet(Bundles bundles, String hdr[]) {
+    Tablet tablet = bundles.createTablet(); int j = 0;
+    for (int i=0;i<hdr.length;i++) {
+      if        (hdr[i].equals("beg") || hdr[i].equals("timestamp"))     { tablet.setHasTimeStamps();
+      } else if (hdr[i].equals("end") || hdr[i].equals("timestamp_end")) { tablet.setHasTimeStamps(); tablet.setHasDurations();
+      } else { int fld_i = bundles.getGlobals().getOrCreateField(hdr[i], Utils.isAllUpper(hdr[i])); tablet.setFieldIndex(fld_i, j++); }
+    }
+    Iterator<Tablet> it = bundles.tabletIterator(); while (it.hasNext()) { Tablet compare = it.next(); if (compare.sameSchema(tablet)) return compare; }
+    bundles.add(tablet);
+    return tablet;
+  }
+
+  /**
+   * Read-only view of a file mapped in windows.  Values are read by absolute position;
+   * reads that straddle two windows are assembled byte by byte.  Reads outside of the
+   * file throw an IOException (instead of the buffer's IndexOutOfBoundsException).
+   */
+  static class Mapped {
+    /**
+     * Window size (1GB) -- keeps each mapping under the 2GB buffer limit
+     */
+    static final int  WINDOW_BITS = 30;
+    static final long WINDOW      = 1L << WINDOW_BITS, WINDOW_MASK = WINDOW - 1;
+
+    File file; long size; MappedByteBuffer windows[];
+
+    Mapped(FileChannel channel, File file) throws IOException {
+      this.file = file; size = channel.size(); windows = new MappedByteBuffer[(int) ((size + WINDOW - 1) >>> WINDOW_BITS)];
+      for (int i=0;i<windows.length;i++) { long base = ((long) i) << WINDOW_BITS; windows[i] = channel.map(FileChannel.MapMode.READ_ONLY, base, Math.min(WINDOW, size - base)); }
+    }
+
+    /**
+     * Create the exception for a corrupt file.
+     */
+    IOException corrupt(String what) { return new IOException("Corrupt Snapshot (" + what + "): " + file); }
+
+    /**
+     * Check that a read lies within the file.
+     */
+    void check(long pos, long len) throws IOException { if (pos < 0 || len < 0 || pos > size - len) throw corrupt("Read Of " + len + " Bytes At " + pos + " Past The End At " + size); }
+
+    byte get(long pos) throws IOException { check(pos, 1); return windows[(int) (pos >>> WINDOW_BITS)].get((int) (pos & WINDOW_MASK)); }
+
+    int getInt(long pos) throws IOException {
+      check(pos, 4); MappedByteBuffer bb = windows[(int) (pos >>> WINDOW_BITS)]; int off = (int) (pos & WINDOW_MASK);
+      if (off + 4 <= bb.limit()) return bb.getInt(off);
+      int v = 0; for (int i=0;i<4;i++) v = (v << 8) | (get(pos+i) & 0xff); return v;
+    }
+
+    long getLong(long pos) throws IOException {
+      check(pos, 8); MappedByteBuffer bb = windows[(int) (pos >>> WINDOW_BITS)]; int off = (int) (pos & WINDOW_MASK);
+      if (off + 8 <= bb.limit()) return bb.getLong(off);
+      long v = 0L; for (int i=0;i<8;i++) v = (v << 8) | (get(pos+i) & 0xffL); return v;
+    }
+
+    /**
+     * Read a count -- each counted entry takes at least min_bytes, so the count can't exceed what's left of the file.
+     */
+    int getCount(long pos, int min_bytes) throws IOException {
+      int n = getInt(pos); if (n < 0 || n > (size - pos - 4)/min_bytes) throw corrupt("Count " + n + " At " + pos); return n;
+    }
+
+    /**
+     * Read a dictionary id -- must be less than the number of dictionary strings.
+     */
+    int getId(long pos, int str_n) throws IOException {
+      int id = getInt(pos); if (id < 0 || id >= str_n) throw corrupt("Dictionary Id " + id + " At " + pos); return id;
+    }
+
+    byte bytes[] = new byte[256];
+
+    String getString(long pos, int len) throws IOException {
+      check(pos, len);
+      if (bytes.length < len) bytes = new byte[Math.max(len, 2*bytes.length)];
+      MappedByteBuffer bb = windows[(int) (pos >>> WINDOW_BITS)]; int off = (int) (pos & WINDOW_MASK);
+      if (off + len <= bb.limit()) { ByteBuffer dup = bb.duplicate(); dup.position(off); dup.get(bytes, 0, len); }
+      else                         { for (int i=0;i<len;i++) bytes[i] = get(pos+i); }
+      return new String(bytes, 0, len, "UTF-8");
+    }
+  }
+}
@@ -24,6 +24,7 @@ import java.io.FileInputStream;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -34,6 +35,7 @@ import java.util.zip.GZIPInputStream;
 
 import racetrack.gui.RT;
 import racetrack.util.CSVReader;
+import racetrack.util.UpdateMonitor;
 
 /**
  * Utilities for the classes in this file.
@@ -42,6 +44,33 @@ import racetrack.util.CSVReader;
  * @version 1.0
  */
 public class BundlesUtils {
+  /**
+   * Flag to indicate that new data sets should use the columnar backend ({@link BundlesColumnar})
+   * instead of the record-based backend ({@link BundlesRecs}).
+   */
+  private static boolean columnar_backend = false;
+
+  /**
+   * Select the backend used for new data sets.  Should be set prior to loading data.
+   *
+   *@param columnar true to use the columnar, dictionary-encoded backend
+   */
+  public static void    setColumnarBackend(boolean columnar) { columnar_backend = columnar; }
+
+  /**
+   * Return true if the columnar backend is selected.
+   *
+   *@return columnar backend flag
+   */
+  public static boolean columnarBackend()                    { return columnar_backend; }
+
+  /**
+   * Create a new, empty data set using the selected backend.
+   *
+   *@return new bundles instance
+   */
+  public static Bundles createBundles() { if (columnar_backend) return new BundlesColumnar(); else return new BundlesRecs(); }
+
   /**
    * Parse a data file and load it into the application.
    *
@@ -76,30 +105,154 @@ public class BundlesUtils {
    *
    * @return         set of the bundles (records) that were loaded
    */
-  public static Set<Bundle> parse(Bundles bundles, RT rt, File file, List<String> appconfs, int max_lines) {
-    // Determine if the delimiter is commas, tabs, or pipes
-    BufferedReader in = null; Map<String,Map<Integer,Integer>> map = new HashMap<String,Map<Integer,Integer>>();
-    map.put(",",  new HashMap<Integer,Integer>()); map.put("|",  new HashMap<Integer,Integer>()); map.put("\t", new HashMap<Integer,Integer>());
+  public static Set<Bundle> parse(Bundles bundles, RT rt, File file, List<String> appconfs, int max_lines) { return parse(bundles, rt, file, appconfs, max_lines, null); }
+
+  /**
+   * Parse a data file and load it into the application.
+   *
+   * @param  bundles    application data (output)
+   * @param  rt         application class
+   * @param  file       file to parse
+   * @param  appconfigs lines from the parsed file that may indicate application configuration information (output)
+   * @param  max_lines  maximum number of lines to parse, 0 indicates unlimited
+   * @param  monitor    monitor for the load throughput (null for none)
+   *
+   * @return         set of the bundles (records) that were loaded
+   */
+  public static Set<Bundle> parse(Bundles bundles, RT rt, File file, List<String> appconfs, int max_lines, UpdateMonitor monitor) { return parse(bundles, rt, file, appconfs, max_lines, monitor, null); }
+
+  /**
+   * Parse a data file and load it into the application -- only the rows and columns that pass the
+   * filter are loaded.  The filter is recorded with the data (see {@link BundlesG#getLoadFilters()}).
+   * Zeek logs and JSON lines are read natively (see {@link ZeekIngest} and {@link JSONLinesIngest}).
+   *
+   * @param  bundles    application data (output)
+   * @param  rt         application class
+   * @param  file       file to parse
+   * @param  appconfigs lines from the parsed file that may indicate application configuration information (output)
+   * @param  max_lines  maximum number of lines to parse, 0 indicates unlimited
+   * @param  monitor    monitor for the load throughput (null for none)
+   * @param  filter     column projection and row predicates (null for none) -- doesn't apply to snapshots
+   *
+   * @return         set of the bundles (records) that were loaded
+   */
+  public static Set<Bundle> parse(Bundles bundles, RT rt, File file, List<String> appconfs, int max_lines, UpdateMonitor monitor, LoadFilter filter) {
+    // Snapshots are read directly
+    if (BundlesSnapshot.isSnapshot(file)) {
+      if (filter != null && filter.isEmpty() == false) System.err.println("  Load Filter Not Applied To Snapshot : " + file);
+      try { return BundlesSnapshot.read(bundles, rt, file, appconfs);
+      } catch (IOException ioe) { System.err.println("IOException: " + ioe); ioe.printStackTrace(System.err); return new HashSet<Bundle>(); }
+    }
+
+    // Zeek logs and JSON lines describe their own records
+    List<String> first_lines = firstLines(file); SchemaIngest<?> schema_ingest = schemaIngest(file, first_lines);
+    if (schema_ingest != null) {
+      if (max_lines > 0) System.err.println("  Maximum Lines Not Applied To " + schema_ingest.getClass().getSimpleName() + " : " + file);
+      Set<Bundle> set = new HashSet<Bundle>(); schema_ingest.setLoadFilter(filter);
+      try { set = schema_ingest.load(bundles, rt, file);
+      } catch (IOException ioe) { System.err.println("IOException: " + ioe); ioe.printStackTrace(System.err); }
+      if (filter != null && filter.isEmpty() == false) bundles.getGlobals().addLoadFilter(file.getName(), filter);
+      return set;
+    }
+
+    // Determine if the delimiter is commas, tabs, or pipes -- uses the first ten lines or so
+    String delims = detectDelimiter(first_lines);
+
+    // Create the set for storage
+    Set<Bundle> set = new HashSet<Bundle>();
+    // Execute the parser
+    CSVParser csv_parser = null;
+    try { 
+      new CSVIngest(file, csv_parser = new CSVParser(bundles, rt, set, max_lines, filter), delims, true, monitor);
+    } catch (IOException ioe) { 
+      System.err.println("IOException: " + ioe); ioe.printStackTrace(System.err); 
+    }
+    // Record the projection that produced the data
+    if (filter != null && filter.isEmpty() == false) bundles.getGlobals().addLoadFilter(file.getName(), filter);
+    // Make sure that the class had a chance to add the lists to main class
+    if (csv_parser != null) { csv_parser.addListsToRT(); if (appconfs != null) appconfs.addAll(csv_parser.getAppConfigs()); }
+    // Re-run the transforms for the fast lookup tables
+    bundles.getGlobals().resetTransforms();
+    return set;
+  }
+
+  /**
+   * Read the first (ten or so) lines of a file.
+   *
+   *@param  file file to read -- .gz files are decompressed
+   *
+   *@return first lines
+   */
+  private static List<String> firstLines(File file) {
+    BufferedReader in = null; List<String> first_lines = new ArrayList<String>();
     try {
       if (file.getName().toLowerCase().endsWith(".gz")) in = new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(file)))); 
       else                                              in = new BufferedReader(new FileReader(file)); 
-      
-      // Parse the first ten lines or so to determine the delimiter
-      String line; int i = 0;
-      while ((line = in.readLine()) != null && line.equals("") == false && i < 10) {
-        i++;
-        int commas = count(line, ','), pipes  = count(line, '|'), tabs   = count(line, '\t');
-        // System.err.println("commas=" + commas + " pipes=" + pipes + " tabs=" + tabs + " \"" + line + "\"");
-        if (commas > 0) { if (!map.get(",").containsKey(commas))  map.get(",").put(commas, 0);  map.get(",").put(commas,  map.get(",").get(commas)  + 1); }
-        if (pipes  > 0) { if (!map.get("|").containsKey(pipes))   map.get("|").put(pipes,  0);  map.get("|").put(pipes,   map.get("|").get(pipes)   + 1); }
-        if (tabs   > 0) { if (!map.get("\t").containsKey(tabs))   map.get("\t").put(tabs,  0);  map.get("\t").put(tabs,   map.get("\t").get(tabs)   + 1); }
-      }
+      String line; while ((line = in.readLine()) != null && first_lines.size() < 10) first_lines.add(line);
     } catch (IOException ioe) {
       System.err.println("IOException: " + ioe);
       ioe.printStackTrace(System.err);
     } finally {
       if (in != null) try { in.close(); } catch (IOException ioe) { } 
     }
+    return first_lines;
+  }
+
+  /**
+   * Pick the reader for a self-describing file -- zeek logs start with their "#separator" line and
+   * JSON lines start with an object (or have a .json, .jsonl, or .ndjson extension).
+   *
+   *@param  file        file to examine
+   *@param  first_lines first lines of the file
+   *
+   *@return reader for the file -- null if it's a csv file
+   */
+  static SchemaIngest<?> schemaIngest(File file, List<String> first_lines) {
+    String name = file.getName().toLowerCase(); if (name.endsWith(".gz")) name = name.substring(0, name.length() - 3);
+    String first = null; for (int i=0;i<first_lines.size() && first == null;i++) if (first_lines.get(i).trim().length() > 0) first = first_lines.get(i).trim();
+    if (first != null && first.startsWith("#separator")) return new ZeekIngest();
+    if ((first != null && first.startsWith("{")) || name.endsWith(".json") || name.endsWith(".jsonl") || name.endsWith(".ndjson")) return new JSONLinesIngest();
+    return null;
+  }
+
+  /**
+   * Return the columns of the first header in a file -- used to offer a projection before loading.
+   *
+   *@param  file file to examine
+   *
+   *@return header tokens -- empty if the file doesn't start with a header in the first lines
+   */
+  public static String[] header(File file) {
+    if (BundlesSnapshot.isSnapshot(file)) return new String[0];
+    List<String> first_lines = firstLines(file); SchemaIngest<?> schema_ingest = schemaIngest(file, first_lines);
+    if (schema_ingest != null) return schema_ingest.header(first_lines);
+    String delims = detectDelimiter(first_lines);
+    for (int i=0;i<first_lines.size();i++) {
+      String line = first_lines.get(i); if (line.startsWith("#")) continue;
+      String tokens[] = CSVReader.tokenize(line, delims, true); if (tokens.length > 0) return tokens;
+    }
+    return new String[0];
+  }
+
+  /**
+   * Determine if the delimiter is commas, pipes, or tabs from the first lines of a file.  The
+   * delimiter with a consistent (and most frequent) count per line wins -- commas by default.
+   *
+   *@param  lines first lines of the file -- examination stops at the first blank line or after ten lines
+   *
+   *@return delimiter
+   */
+  public static String detectDelimiter(List<String> lines) {
+    Map<String,Map<Integer,Integer>> map = new HashMap<String,Map<Integer,Integer>>();
+    map.put(",",  new HashMap<Integer,Integer>()); map.put("|",  new HashMap<Integer,Integer>()); map.put("\t", new HashMap<Integer,Integer>());
+    for (int i=0;i<lines.size() && i < 10;i++) {
+      String line = lines.get(i); if (line.equals("")) break;
+      int commas = count(line, ','), pipes  = count(line, '|'), tabs   = count(line, '\t');
+      // System.err.println("commas=" + commas + " pipes=" + pipes + " tabs=" + tabs + " \"" + line + "\"");
+      if (commas > 0) { if (!map.get(",").containsKey(commas))  map.get(",").put(commas, 0);  map.get(",").put(commas,  map.get(",").get(commas)  + 1); }
+      if (pipes  > 0) { if (!map.get("|").containsKey(pipes))   map.get("|").put(pipes,  0);  map.get("|").put(pipes,   map.get("|").get(pipes)   + 1); }
+      if (tabs   > 0) { if (!map.get("\t").containsKey(tabs))   map.get("\t").put(tabs,  0);  map.get("\t").put(tabs,   map.get("\t").get(tabs)   + 1); }
+    }
 
     // Determine the strongest pattern for the delimiter -- checks for comma, pipe, and tab
     String delims = ","; int c_strength, p_strength, t_strength;
@@ -111,23 +264,7 @@ public class BundlesUtils {
     else if (p_strength > c_strength && p_strength > c_strength) delims = "|";
     else if (t_strength > p_strength && t_strength > c_strength) delims = "\t";
     // System.err.println("c=" + c_strength + " | p=" + p_strength + " | t=" + t_strength); // DEBUG
-
-    // Create the set for storage
-    Set<Bundle> set = new HashSet<Bundle>();
-    // Execute the parser
-    CSVParser csv_parser = null;
-    try { 
-      // System.err.println("Creating CSVReader..."); // DEBUG
-      CSVReader reader = new CSVReader(file, csv_parser = new CSVParser(bundles, rt, set, max_lines), delims, true); 
-      // System.err.println("  CSVReader Complete!"); // DEBUG
-    } catch (IOException ioe) { 
-      System.err.println("IOException: " + ioe); ioe.printStackTrace(System.err); 
-    }
-    // Make sure that the class had a chance to add the lists to main class
-    if (csv_parser != null) { csv_parser.addListsToRT(); if (appconfs != null) appconfs.addAll(csv_parser.getAppConfigs()); }
-    // Re-run the transforms for the fast lookup tables
-    bundles.getGlobals().resetTransforms();
-    return set;
+    return delims;
   }
 
   /**
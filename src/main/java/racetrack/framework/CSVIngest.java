@@ -0,0 +1,380 @@
+/*
+
+Copyright 2013 David Trimm
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package racetrack.framework;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.zip.GZIPInputStream;
+
+import racetrack.gui.TimeMarker;
+import racetrack.kb.EntityTag;
+import racetrack.kb.RTComment;
+import racetrack.util.CSVReader;
+import racetrack.util.ChunkPipeline;
+import racetrack.util.InternTable;
+import racetrack.util.SliceTokenizer;
+import racetrack.util.TimeStampParser;
+import racetrack.util.UpdateMonitor;
+import racetrack.util.WorkerPool;
+
+/**
+ * Pipelined version of the {@link CSVReader} for loading files into a {@link CSVParser}.
+ * A reader thread splits the file (or the decompressed .gz stream) into line-aligned
+ * chunks (see {@link ChunkPipeline}).  The {@link WorkerPool} splits the chunks into lines, tokenizes them (as slices of
+ * the decoded chunk -- see {@link SliceTokenizer}), and prepares the data lines (attribute map
+ * and parsed timestamps) for the header that they fall under.  The calling thread commits
+ * the lines to the parser in file order -- so the records, the field order, and the entity
+ * order are the same as the sequential reader.
+ *
+ * The header in effect at the start of a chunk is speculated from the earlier chunks.  The
+ * parser only uses a preparation if it's in the data section of that header -- otherwise the
+ * line is consumed from its tokens just like the sequential reader.
+ *
+ *@author  D. Trimm
+ *@version 1.0
+ */
+class CSVIngest {
+  /**
+   * Default chunk size (bytes of the uncompressed file)
+   */
+  static final int CHUNK_BYTES = 256*1024;
+
+  /**
+   * A line from the file.  Data lines include the preparation for the header that they were tokenized under.
+   */
+  static class Row {
+    /**
+     * Original line
+     */
+    String             line;
+    /**
+     * Tokens -- null for comment lines
+     */
+    String             tokens[];
+    /**
+     * Header that the row was prepared against -- null if not prepared
+     */
+    String             hdr[];
+    /**
+     * Attribute map (header to token) excluding the timestamps
+     */
+    Map<String,String> attr;
+    /**
+     * Parsed timestamps -- in the order that the parser hands them to the tablet
+     */
+    long               ts0, ts1;
+    /**
+     * Flags indicating that the timestamps were present
+     */
+    boolean            has_ts0, has_ts1;
+    /**
+     * Flag indicating that the prepared row failed the load filter
+     */
+    boolean            rejected;
+  }
+
+  /**
+   * Header of a section of the file
+   */
+  static class Header {
+    /**
+     * Header tokens -- the same array that's handed to the parser
+     */
+    String  tokens[];
+    /**
+     * Indices of the timestamps
+     */
+    int     time_i = -1, time_end_i = -1;
+    /**
+     * Parsers for the timestamp columns -- each learns the layout of its column
+     */
+    TimeStampParser time_parser = new TimeStampParser(), time_end_parser = new TimeStampParser();
+    /**
+     * Flag indicating that the section is a regular (tablet) section -- not tags, markers, comments, or a lookup table
+     */
+    boolean data;
+    /**
+     * Load filter compiled for the header -- null if there's no filter
+     */
+    LoadFilter.Section section;
+
+    /**
+     * Construct the header -- mirrors the header handling in the {@link CSVParser}.
+     *
+     *@param line   header line
+     *@param tokens header tokens
+     *@param filter load filter (null for none)
+     */
+    Header(String line, String tokens[], LoadFilter filter) {
+      this.tokens = tokens;
+      if (line.equals(TimeMarker.getFileHeader()) || line.equals(EntityTag.getFileHeader()) || line.equals(RTComment.getFileHeader())) return;
+      int dt_header_count = 0;
+      for (int i=0;i<tokens.length;i++) {
+        if      (BundlesDT.parseDataType(tokens[i]) != null)                     dt_header_count++;
+        if      (tokens[i].equals("beg") || tokens[i].equals("timestamp"))     time_i     = i;
+        else if (tokens[i].equals("end") || tokens[i].equals("timestamp_end")) time_end_i = i;
+      }
+      data = (dt_header_count != 1);
+      if (data && filter != null) section = filter.section(tokens);
+    }
+  }
+
+  /**
+   * Chunk of the file -- the bytes in, the rows out
+   */
+  static class Chunk {
+    /**
+     * Chunk number within the file
+     */
+    int       index;
+    /**
+     * Bytes of the chunk (ends on a line boundary)
+     */
+    byte      bytes[]; int len;
+    /**
+     * Flag indicating that the previous chunk ended with a blank line (i.e., this chunk starts with a header)
+     */
+    boolean   after_blank;
+    /**
+     * Position within the (possibly compressed) file after reading this chunk
+     */
+    long      file_pos;
+    /**
+     * Rows of the chunk
+     */
+    List<Row> rows = new ArrayList<Row>();
+    /**
+     * Exception thrown while tokenizing the row after the last row (null if none)
+     */
+    Throwable failure;
+  }
+
+  /**
+   * Parser to commit to
+   */
+  private CSVParser     parser;
+
+  /**
+   * Delimiter and space stripping -- see {@link CSVReader}
+   */
+  private String        delim; private boolean strip_spaces;
+
+  /**
+   * Known entities -- tokens already in the lookup reuse its strings
+   */
+  private InternTable   dict;
+
+  /**
+   * Chunks in file order -- stopped once the parser halts or the commit fails
+   */
+  private ChunkPipeline<Chunk> pipeline;
+
+  /**
+   * Most recent header known at the end of a chunk -- used to speculate the header for later chunks
+   */
+  private Header latest = null; private int latest_index = -1;
+
+  /**
+   * Statistics
+   */
+  private long rows = 0L, bytes = 0L, t0;
+
+  /**
+   * Construct the ingest and run it through the file.
+   *
+   *@param file         csv file to parse
+   *@param parser       parser to commit the lines to
+   *@param delim        delimiter
+   *@param strip_spaces remove spaces at the beginning and ending of the tokens
+   *@param monitor      monitor for the throughput (null for none)
+   */
+  public CSVIngest(File file, CSVParser parser, String delim, boolean strip_spaces, UpdateMonitor monitor) throws IOException {
+    this(file, parser, delim, strip_spaces, monitor, CHUNK_BYTES);
+  }
+
+  /**
+   * Construct the ingest and run it through the file.
+   *
+   *@param file         csv file to parse
+   *@param parser       parser to commit the lines to
+   *@param delim        delimiter
+   *@param strip_spaces remove spaces at the beginning and ending of the tokens
+   *@param monitor      monitor for the throughput (null for none)
+   *@param chunk_bytes  chunk size
+   */
+  CSVIngest(File file, CSVParser parser, String delim, boolean strip_spaces, UpdateMonitor monitor, int chunk_bytes) throws IOException {
+    this.parser = parser; this.delim = delim; this.strip_spaces = strip_spaces; dict = parser.bundles.getGlobals().entityDictionary(); t0 = System.currentTimeMillis();
+    pipeline = new ChunkPipeline<Chunk>("Ingest", new Reader(file, chunk_bytes));
+    try { commit(file, monitor); } finally { pipeline.stop(); }
+    long t1 = System.currentTimeMillis();
+    System.err.println("  Ingest : " + status(file, t1));
+  }
+
+  /**
+   * Commit the chunks to the parser in file order.
+   *
+   *@param file    file being parsed
+   *@param monitor monitor for the throughput (null for none)
+   */
+  private void commit(File file, UpdateMonitor monitor) throws IOException {
+    int line_no = 1; long file_len = file.length();
+    while (true) {
+      Chunk chunk = pipeline.take(); if (chunk == null) return;
+
+      for (int i=0;i<chunk.rows.size();i++) { line_no++;
+        Row row = chunk.rows.get(i);
+        if (row.tokens == null) { parser.commentLine(row.line); continue; }
+        rows++;
+        if (parser.consume(row, line_no) == false) return;
+      }
+      if (chunk.failure != null) ChunkPipeline.rethrow(chunk.failure);
+
+      bytes += chunk.len;
+      if (monitor != null) {
+        monitor.updateStatusMessage(status(file, System.currentTimeMillis()));
+        if (file_len > 0L) monitor.updateProgress((float) Math.min(1.0, ((double) chunk.file_pos)/file_len));
+      }
+    }
+  }
+
+  /**
+   * Return a one line summary of the throughput.
+   */
+  private String status(File file, long t) {
+    double secs = Math.max(1L, t - t0)/1000.0;
+    return file.getName() + " : " + rows + " rows (" + String.format("%.0f", rows/secs) + " rows/sec, " + String.format("%.1f", (bytes/(1024.0*1024.0))/secs) + " MB/sec)";
+  }
+
+  /**
+   * Reader -- splits the file into line-aligned chunks and hands them to the workers.
+   */
+  class Reader implements ChunkPipeline.Reader<Chunk> {
+    File file; int chunk_bytes;
+    Reader(File file, int chunk_bytes) { this.file = file; this.chunk_bytes = chunk_bytes; }
+    public void read(ChunkPipeline<Chunk> pipeline) throws IOException {
+      FileInputStream fis = null;
+      try {
+        fis = new FileInputStream(file);
+        InputStream in = file.getName().toLowerCase().endsWith(".gz") ? new GZIPInputStream(fis, 64*1024) : fis;
+        byte buf[] = new byte[chunk_bytes]; int len = 0, index = 0; boolean after_blank = false;
+        while (pipeline.stopped() == false) {
+          // Fill the buffer
+          int n = 0; while (len < buf.length && (n = in.read(buf, len, buf.length - len)) >= 0) len += n;
+          boolean eof = (n < 0);
+          // Cut at the last line ending -- a line longer than the buffer grows the buffer
+          int cut = len - 1; if (eof == false) while (cut >= 0 && buf[cut] != '\n') cut--;
+          if (cut < 0 && eof == false) { byte grown[] = new byte[buf.length*2]; System.arraycopy(buf, 0, grown, 0, len); buf = grown; continue; }
+          if (cut >= 0) {
+            Chunk chunk = new Chunk(); chunk.index = index++; chunk.bytes = buf; chunk.len = cut + 1; chunk.after_blank = after_blank; chunk.file_pos = fis.getChannel().position();
+            after_blank = (cut >= 1 && (buf[cut-1] == '\n' || (buf[cut-1] == '\r' && cut >= 2 && buf[cut-2] == '\n')));
+            // Carry the partial line into the next buffer
+            byte next[] = new byte[Math.max(chunk_bytes, len - chunk.len)]; System.arraycopy(buf, chunk.len, next, 0, len - chunk.len); len = len - chunk.len; buf = next;
+            if (pipeline.submit(new Worker(chunk, pipeline)) == false) return;
+          }
+          if (eof) break;
+        }
+      } finally { if (fis != null) try { fis.close(); } catch (IOException ioe) { }
+      }
+    }
+  }
+
+  /**
+   * Return the header known at the end of the chunks before the specified one.
+   */
+  private synchronized Header speculate(int index) { return (latest_index < index) ? latest : null; }
+
+  /**
+   * Record the header known at the end of a chunk.
+   */
+  private synchronized void publish(int index, Header header) { if (index > latest_index) { latest = header; latest_index = index; } }
+
+  /**
+   * Worker -- splits a chunk into lines, tokenizes them, and prepares the data lines.
+   */
+  class Worker implements Callable<Chunk> {
+    Chunk chunk; ChunkPipeline<Chunk> pipeline;
+    Worker(Chunk chunk, ChunkPipeline<Chunk> pipeline) { this.chunk = chunk; this.pipeline = pipeline; }
+    public Chunk call() {
+      if (pipeline.stopped()) return chunk;
+      // Decode the chunk once -- the lines are tokenized as slices of the decoded characters
+      CharBuffer cb       = Charset.defaultCharset().decode(ByteBuffer.wrap(chunk.bytes, 0, chunk.len)); chunk.bytes = null;
+      char       text[]   = cb.array();
+      boolean    awaiting = (chunk.index == 0 || chunk.after_blank);
+      Header     header   = awaiting ? null : speculate(chunk.index);
+      SliceTokenizer st   = delim.length() == 1 ? new SliceTokenizer(delim.charAt(0), strip_spaces) : null;
+      int i = cb.arrayOffset() + cb.position(), n = i + cb.remaining();
+      while (i < n) {
+        // Find the end of the line -- same line endings as BufferedReader.readLine()
+        int j = i; while (j < n && text[j] != '\n' && text[j] != '\r') j++;
+        Row row = new Row(); row.line = new String(text, i, j - i); int line_i = i;
+        i = j + 1; if (j < n && text[j] == '\r' && i < n && text[i] == '\n') i++;
+
+        if (row.line.startsWith("#")) { chunk.rows.add(row); continue; }
+        try { if (st == null) row.tokens = CSVReader.tokenize(row.line, delim, strip_spaces);
+              else          { st.window(text, line_i, j - line_i); row.tokens = st.tokens(dict); }
+        } catch (Throwable t) { chunk.failure = t; break; }
+        chunk.rows.add(row);
+
+        if      (awaiting)                { if (row.tokens.length > 0) { header = new Header(row.line, row.tokens, parser.filter); awaiting = false; } }
+        else if (row.tokens.length == 0)  { header = null; awaiting = true; }
+        else if (header != null && header.data) prepare(row, header);
+      }
+      publish(chunk.index, awaiting ? null : header);
+      return chunk;
+    }
+  }
+
+  /**
+   * Prepare a data row -- mirrors the data section handling in the {@link CSVParser}.
+   * Rows that would fail in the parser are left unprepared so that the parser reports them.
+   *
+   *@param row    row to prepare
+   *@param header header that the row falls under
+   */
+  private void prepare(Row row, Header header) {
+    String tokens[] = row.tokens, hdr[] = header.tokens;
+    if (tokens.length > hdr.length || header.time_i >= tokens.length || header.time_end_i >= tokens.length) return;
+    String ts0_str = (header.time_i     == -1) ? null : tokens[header.time_i],
+           ts1_str = (header.time_end_i == -1) ? null : tokens[header.time_end_i];
+    // The parser hands the end timestamp over as the start if that's all there is
+    String first   = (ts0_str != null) ? ts0_str : ts1_str,
+           second  = (ts0_str != null) ? ts1_str : null;
+    try {
+      if (first  != null) row.ts0 = (ts0_str != null ? header.time_parser : header.time_end_parser).parse(first);
+      if (second != null) row.ts1 = header.time_end_parser.parse(second);
+    } catch (Throwable t) { return; }
+    // Rows that fail the load filter are marked (and skip the attributes) -- the parser still counts them
+    LoadFilter.Section section = header.section;
+    row.rejected = (section != null && section.accepts(tokens, row.ts0) == false);
+    Map<String,String> attr = new HashMap<String,String>();
+    if (row.rejected == false) for (int i=0;i<tokens.length;i++) {
+      if (hdr[i].equals("beg") || hdr[i].equals("timestamp")) { } else if (hdr[i].equals("end") || hdr[i].equals("timestamp_end")) { } else if (section == null || section.keep(i)) { attr.put(hdr[i], tokens[i]); }
+    }
+    row.hdr = hdr; row.attr = attr; row.has_ts0 = (first != null); row.has_ts1 = (second != null);
+  }
+}
@@ -125,6 +125,16 @@ class CSVParser implements CSVTokenConsumer {
    */
   int max_lines = 0;
 
+  /**
+   * Projection and predicates applied to the data rows (null for none)
+   */
+  LoadFilter filter = null;
+
+  /**
+   * Filter compiled for the current header (null if there's no filter)
+   */
+  LoadFilter.Section section = null;
+
   /**
    * Constructor - just capture the inital variables.
    *
@@ -133,7 +143,20 @@ class CSVParser implements CSVTokenConsumer {
    * @param set       bundles (records) that get parsed
    * @param max_lines maximum number of lines to parse -- zero indicates to parse all lines
    */
-  public CSVParser(Bundles bundles, RT rt, Set<Bundle> set, int max_lines) { this.bundles = bundles; this.rt = rt; this.set = set; this.max_lines = max_lines; }
+  public CSVParser(Bundles bundles, RT rt, Set<Bundle> set, int max_lines) { this(bundles, rt, set, max_lines, null); }
+
+  /**
+   * Constructor with a load filter -- excluded columns aren't created as fields and excluded rows aren't added.
+   *
+   * @param bundles   global data structure
+   * @param rt        application control
+   * @param set       bundles (records) that get parsed
+   * @param max_lines maximum number of lines to parse -- zero indicates to parse all lines
+   * @param filter    projection and predicates (null for none)
+   */
+  public CSVParser(Bundles bundles, RT rt, Set<Bundle> set, int max_lines, LoadFilter filter) { 
+    this.bundles = bundles; this.rt = rt; this.set = set; this.max_lines = max_lines; this.filter = (filter == null || filter.isEmpty()) ? null : filter; 
+  }
 
   /**
    * Consume comment lines.  For this implmentation, comments will include information about the application state.
@@ -186,11 +209,12 @@ class CSVParser implements CSVTokenConsumer {
           // See if we need a new tablet or if we can match an existing tablet
           tablet = bundles.createTablet();
           /* Figure out the index mapping */
-          lu = new int[tokens.length]; hdr = tokens;
+          lu = new int[tokens.length]; hdr = tokens; section = (filter == null) ? null : filter.section(tokens);
           int j = 0;
           for (int i=0;i<tokens.length;i++) {
             if        (tokens[i].equals("beg") || tokens[i].equals("timestamp"))     { time_i     = i; tablet.setHasTimeStamps();
 	    } else if (tokens[i].equals("end") || tokens[i].equals("timestamp_end")) { time_end_i = i; tablet.setHasTimeStamps(); tablet.setHasDurations();
+	    } else if (section != null && section.keep(i) == false)                 { // Projected out
 	    } else {
 	      // isAllUpper indicates a scalar field (integer)
               int fld_i = bundles.getGlobals().getOrCreateField(tokens[i], Utils.isAllUpper(tokens[i]));
@@ -204,7 +228,7 @@ class CSVParser implements CSVTokenConsumer {
           Iterator<Tablet> it = bundles.tabletIterator(); boolean found_match = false;
           while (it.hasNext() && found_match == false) {
             Tablet compare = it.next();
-            if (compare.equals(tablet)) { found_match = true; tablet = compare; }
+            if (compare.sameSchema(tablet)) { found_match = true; tablet = compare; }
           }
 
           /* Give some stats to user */
@@ -216,6 +240,7 @@ class CSVParser implements CSVTokenConsumer {
             for (int i=0;i<tokens.length;i++) {
               if        (tokens[i].equals("beg") || tokens[i].equals("timestamp"))     { time_i     = i; tablet.setHasTimeStamps();
 	      } else if (tokens[i].equals("end") || tokens[i].equals("timestamp_end")) { time_end_i = i; tablet.setHasTimeStamps(); tablet.setHasDurations();
+	      } else if (section != null && section.keep(i) == false)                 { // Projected out
 	      } else {
 	        // isAllUpper indicates a scalar field (integer)
                 int fld_i = bundles.getGlobals().getOrCreateField(tokens[i], Utils.isAllUpper(tokens[i]));
@@ -230,7 +255,7 @@ class CSVParser implements CSVTokenConsumer {
       first_line = false;
     } else if (tokens.length == 0)   { 
       addListsToRT();
-      first_line = true; time_i = -1; time_end_i = -1; tablet = null; lu = null; lookup_table = false;
+      first_line = true; time_i = -1; time_end_i = -1; tablet = null; lu = null; lookup_table = false; section = null;
       bundles.getGlobals().resetTransforms();
     } else if (entity_tags  != null) {
       EntityTag  entity_tag  = new EntityTag(line);   if (entity_tag.valid())  entity_tags.add(entity_tag);
@@ -255,9 +280,17 @@ class CSVParser implements CSVTokenConsumer {
       String ts0_str = (time_i     == -1) ? null : tokens[time_i],
              ts1_str = (time_end_i == -1) ? null : tokens[time_end_i];
 
+      // Apply the predicates before anything reaches the globals
+      if (section != null) {
+        String first = (ts0_str != null) ? ts0_str : ts1_str;
+        if (section.accepts(tokens, (section.timed() && first != null) ? Utils.parseTimeStamp(first) : 0L) == false) {
+          if (max_lines > 0 && line_no >= max_lines) return false; else return true;
+        }
+      }
+
       Map<String,String> attr = new HashMap<String,String>(); int len = (hdr.length < tokens.length) ? hdr.length : tokens.length;
       for (int i=0;i<tokens.length;i++) {
-        if (hdr[i].equals("beg") || hdr[i].equals("timestamp")) { } else if (hdr[i].equals("end") || hdr[i].equals("timestamp_end")) { } else { attr.put(hdr[i], tokens[i]); }
+        if (hdr[i].equals("beg") || hdr[i].equals("timestamp")) { } else if (hdr[i].equals("end") || hdr[i].equals("timestamp_end")) { } else if (section == null || section.keep(i)) { attr.put(hdr[i], tokens[i]); }
       }
 
       Bundle bundle;
@@ -320,6 +353,30 @@ class CSVParser implements CSVTokenConsumer {
    if (max_lines > 0 && line_no >= max_lines) return false; else return true;
   }
 
+  /**
+   * Consume a row from the {@link CSVIngest}.  If the row was prepared for the header that this parser
+   * is using, the prepared attributes and timestamps go straight to the tablet -- otherwise, the row
+   * is consumed from its tokens.
+   *
+   * @param row     tokenized (and possibly prepared) row
+   * @param line_no line number from file (helps to find problems with data)
+   */
+  public boolean consume(CSVIngest.Row row, int line_no) {
+    if (row.attr == null || row.hdr != hdr || first_line || entity_tags != null || time_markers != null || comments != null || lookup_table) 
+      return consume(row.tokens, row.line, line_no);
+    try {
+      Bundle bundle;
+      if      (tablet.hasTimeStamps() &&                           row.has_ts0 == false) bundle = null;
+      else if (tablet.hasTimeStamps() && tablet.hasDurations() && row.has_ts1 == false) bundle = null;
+      else if (row.rejected)                                                         bundle = null;
+      else bundle = tablet.addBundle(row.attr, tablet.hasTimeStamps() ? row.ts0 : 0L, tablet.hasDurations() ? row.ts1 : 0L);
+      if (bundle != null) set.add(bundle);
+    } catch (Throwable t) { System.err.println("Throwable: " + t + " @ Line No " + line_no); t.printStackTrace(System.err); }
+
+    // Halt the parsing if the max_lines variable is set
+    if (max_lines > 0 && line_no >= max_lines) return false; else return true;
+  }
+
   /**
    * Flush data elements to the main applications.  Elements flushed include 
    * {@link EntityTag}, {@link TimeMarker}, and {@link RTComment}.
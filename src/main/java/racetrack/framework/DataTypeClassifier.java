@@ -0,0 +1,385 @@
+/*
+
+Copyright 2013 David Trimm
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package racetrack.framework;
+
+/**
+ * Classifies entity strings into the built-in datatypes without the regular expressions.
+ * A single scan summarizes the character classes of the string, which rules out most of
+ * the datatypes.  The remaining candidates are checked (in the same precedence order as
+ * {@link BundlesDT}) by hand-written matchers that follow the structure of each regex in
+ * {@link racetrack.util.Utils} -- each is a linear scan with no backtracking.
+ *
+ * The results must be identical to the regular expressions.  Any change to those
+ * expressions needs the same change here (see racetrack.test.DataTypeClassifierDiff).
+ *
+ *@author  D. Trimm
+ *@version 1.0
+ */
+public class DataTypeClassifier {
+  /**
+   * Character classes for the summary scan
+   */
+  static final int DIGIT    = 0x0001, HEXALPHA = 0x0002, ALPHA    = 0x0004, DOT      = 0x0008,
+                   COLON    = 0x0010, SLASH    = 0x0020, DASH     = 0x0040, AT       = 0x0080,
+                   PLUS     = 0x0100, UNDER    = 0x0200, SPACE    = 0x0400, PAREN    = 0x0800,
+                   URLPUNCT = 0x1000, OTHER    = 0x2000, TERM     = 0x4000, WS       = 0x8000;
+
+  /**
+   * Character class lookup for ascii
+   */
+  static final int ascii[] = new int[128];
+  static {
+    for (int c=0;c<128;c++) ascii[c] = OTHER;
+    for (int c='0';c<='9';c++) ascii[c] = DIGIT;
+    for (int c='a';c<='z';c++) ascii[c] = (c <= 'f') ? HEXALPHA : ALPHA;
+    for (int c='A';c<='Z';c++) ascii[c] = (c <= 'F') ? HEXALPHA : ALPHA;
+    ascii['.']  = DOT;   ascii[':'] = COLON;  ascii['/']  = SLASH; ascii['-'] = DASH; ascii['@'] = AT; ascii['+'] = PLUS; ascii['_'] = UNDER;
+    ascii[' ']  = SPACE; ascii['('] = PAREN;  ascii[')']  = PAREN;
+    ascii['\t'] = WS;    ascii[0x0b] = WS;    ascii['\f'] = WS;    ascii['\n'] = TERM; ascii['\r'] = TERM;
+    String url = ",?^=%&;~#"; for (int i=0;i<url.length();i++) ascii[url.charAt(i)] = URLPUNCT;
+  }
+
+  /**
+   * Combinations of the classes
+   */
+  static final int HEX = DIGIT | HEXALPHA, ALNUM = HEX | ALPHA;
+
+  /**
+   * Classify a string.  Equivalent to checking the regex of each datatype in precedence order.
+   *
+   *@param  s entity string (not the notset string)
+   *
+   *@return datatype
+   */
+  public static BundlesDT.DT classify(String s) {
+    int n = s.length(); if (n == 0) return BundlesDT.DT.UNKNOWN;
+
+    // Summarize the string -- the character classes present, the dots and colons
+    int mask = 0, dots = 0, colons = 0;
+    for (int i=0;i<n;i++) {
+      char c = s.charAt(i); int cls = (c < 128) ? ascii[c] : ((c == 0x0085 || c == 0x2028 || c == 0x2029) ? TERM : OTHER);
+      mask |= cls; if (cls == DOT) dots++; else if (cls == COLON) colons++;
+    }
+
+    if ((mask & (COLON|SLASH)) == (COLON|SLASH) && isURL(s))                                          return BundlesDT.DT.URL;
+    if ((mask & ~(DIGIT|DOT|SLASH)) == 0 && dots == 3 && isIPv4CIDR(s))                               return BundlesDT.DT.IPv4CIDR;
+    if ((mask & ~(DIGIT|DOT))       == 0 && dots == 3 && isIPv4(s, 0, n))                              return BundlesDT.DT.IPv4;
+    if (colons >= 2 && isIPv6(s))                                                                      return BundlesDT.DT.IPv6;
+    if ((mask & AT) != 0 && isEmail(s))                                                                return BundlesDT.DT.EMAIL;
+    if ((mask & TERM) == 0 && (mask & (SLASH|PAREN|ALPHA|HEXALPHA)) != 0 && isUserAgent(s))            return BundlesDT.DT.USERAGENT;
+    if ((mask & ~(DIGIT|PLUS|DASH)) == 0 && isInteger(s))                                              return BundlesDT.DT.INTEGER;
+    if ((mask & ~(DIGIT|PLUS|DASH|DOT)) == 0 && dots == 1 && isFloat(s))                               return BundlesDT.DT.FLOAT;
+    if (isTimeStamp(s))                                                                                return BundlesDT.DT.TIMESTAMP;
+    if ((mask & ~(ALNUM|DASH|DOT)) == 0 && dots >= 1 && isDomain(s))                                   return BundlesDT.DT.DOMAIN;
+    if ((n == 12 || n == 17) && isMAC(s))                                                              return BundlesDT.DT.MACADDRESS;
+    if ((n == 32 || n == 33) && isMD5(s))                                                              return BundlesDT.DT.MD5;
+    return BundlesDT.DT.UNKNOWN;
+  }
+
+  //
+  // Character tests
+  //
+  static boolean is(char c, int classes) { return c < 128 && (ascii[c] & classes) != 0; }
+  static boolean isDigit(char c)         { return c >= '0' && c <= '9'; }
+  static boolean isHex(char c)           { return is(c, HEX); }
+  static boolean isWordOrDash(char c)    { return is(c, ALNUM|UNDER|DASH); }
+  static boolean isSpace(char c)         { return c == ' ' || c == '\t' || c == '\n' || c == 0x0b || c == '\f' || c == '\r'; }
+  static boolean isTerminator(char c)    { return c == '\n' || c == '\r' || c == 0x0085 || c == 0x2028 || c == 0x2029; }
+
+  /**
+   * Return the end of the run of characters (starting at i) in the specified classes.
+   */
+  static int run(String s, int i, int e, int classes) { while (i < e && is(s.charAt(i), classes)) i++; return i; }
+
+  /**
+   * Integer -- [+-]{0,1}[0-9]+
+   */
+  static boolean isInteger(String s) {
+    int n = s.length(), i = (s.charAt(0) == '+' || s.charAt(0) == '-') ? 1 : 0;
+    return i < n && run(s, i, n, DIGIT) == n;
+  }
+
+  /**
+   * Float -- [+-]{0,1}[0-9]+[.][0-9]+
+   */
+  static boolean isFloat(String s) {
+    int n = s.length(), i = (s.charAt(0) == '+' || s.charAt(0) == '-') ? 1 : 0;
+    int j = run(s, i, n, DIGIT); if (j == i || j >= n || s.charAt(j) != '.') return false;
+    int k = run(s, j+1, n, DIGIT); return k > j+1 && k == n;
+  }
+
+  /**
+   * IPv4 -- four octets of (25[0-5]|2[0-4][0-9]|[01][0-9][0-9]|[0-9][0-9]|[0-9])
+   */
+  static boolean isIPv4(String s, int b, int e) {
+    int i = b;
+    for (int octet=0;octet<4;octet++) {
+      if (octet > 0) { if (i >= e || s.charAt(i) != '.') return false; i++; }
+      int j = run(s, i, e, DIGIT), len = j - i;
+      if (len == 0 || len > 3) return false;
+      if (len == 3) {
+        char c0 = s.charAt(i), c1 = s.charAt(i+1), c2 = s.charAt(i+2);
+        if (c0 == '2') { if (c1 > '5' || (c1 == '5' && c2 > '5')) return false; } else if (c0 != '0' && c0 != '1') return false;
+      }
+      i = j;
+    }
+    return i == e;
+  }
+
+  /**
+   * IPv4 CIDR -- ipv4 [/] (3[0-2]|[0-2][0-9]|[0-9])
+   */
+  static boolean isIPv4CIDR(String s) {
+    int n = s.length(), slash = s.indexOf('/'); if (slash < 0 || isIPv4(s, 0, slash) == false) return false;
+    int len = n - slash - 1;
+    if (len == 1) return isDigit(s.charAt(slash+1));
+    if (len == 2) { char c0 = s.charAt(slash+1), c1 = s.charAt(slash+2); return isDigit(c1) && ((c0 >= '0' && c0 <= '2') || (c0 == '3' && c1 <= '2')); }
+    return false;
+  }
+
+  /**
+   * Octet within an IPv6 address -- (25[0-5]|2[0-4]\d|1\d\d|[1-9]?\d)
+   */
+  static boolean isV6Octet(String s, int b, int e) {
+    int len = e - b; if (len < 1 || len > 3 || run(s, b, e, DIGIT) != e) return false;
+    char c0 = s.charAt(b);
+    if (len == 2) return c0 != '0';
+    if (len == 3) { char c1 = s.charAt(b+1), c2 = s.charAt(b+2); return c0 == '1' || (c0 == '2' && (c1 < '5' || (c1 == '5' && c2 <= '5'))); }
+    return true;
+  }
+
+  /**
+   * Dotted quad within an IPv6 address
+   */
+  static boolean isV6Quad(String s, int b, int e) {
+    int i = b;
+    for (int octet=0;octet<4;octet++) {
+      int j = i; while (j < e && s.charAt(j) != '.') j++;
+      if (isV6Octet(s, i, j) == false) return false;
+      if (octet < 3) { if (j >= e) return false; i = j + 1; } else if (j != e) return false;
+    }
+    return true;
+  }
+
+  /**
+   * Hex group -- [0-9A-Fa-f]{1,4} -- exactly filling the range
+   */
+  static boolean isHexGroup(String s, int b, int e) { return e - b >= 1 && e - b <= 4 && run(s, b, e, HEX) == e; }
+
+  /**
+   * Tail of an IPv6 address after the leading groups -- (:H){1,max_h} | (:H){0,max_v}:V4 | :
+   */
+  static boolean isV6Tail(String s, int p, int e, int max_h, int max_v) {
+    if (e - p == 1 && s.charAt(p) == ':') return true;
+    int pieces = 0;
+    while (p < e) {
+      if (s.charAt(p) != ':') return false; p++;
+      int q = p; while (q < e && s.charAt(q) != ':') q++;
+      pieces++;
+      if (q == e) {
+        if (isHexGroup(s, p, q)) return pieces <= max_h;
+        return pieces - 1 <= max_v && isV6Quad(s, p, q);
+      }
+      if (isHexGroup(s, p, q) == false) return false;
+      p = q;
+    }
+    return false;
+  }
+
+  /**
+   * IPv6 -- \s*(address)(%.+)?\s* where the address alternatives are keyed on the number of leading "H:" groups
+   */
+  static boolean isIPv6(String s) {
+    int n = s.length(), b = 0; while (b < n && isSpace(s.charAt(b))) b++;
+    int e = run(s, b, n, HEX|COLON|DOT); if (e == b) return false;
+
+    // Whatever follows the address -- whitespace, or a zone (%.+) followed by whitespace
+    if (e < n) {
+      if (s.charAt(e) == '%') {
+        if (e + 1 >= n) return false;
+        int t = n; while (t > e + 1 && isSpace(s.charAt(t-1))) t--;
+        int j = Math.max(e + 2, t); for (int i=e+1;i<j;i++) if (isTerminator(s.charAt(i))) return false;
+      } else { for (int i=e;i<n;i++) if (isSpace(s.charAt(i)) == false) return false; }
+    }
+
+    // The address
+    int pos = b;
+    for (int k=0;k<=7;k++) {
+      if (k > 0) {
+        int q = run(s, pos, e, HEX); if (q == pos || q - pos > 4 || q >= e || s.charAt(q) != ':') return false;
+        pos = q + 1;
+      }
+      boolean match;
+      if        (k == 7) { match = isHexGroup(s, pos, e) || (e - pos == 1 && s.charAt(pos) == ':');
+      } else if (k == 6) { match = (e - pos == 1 && s.charAt(pos) == ':') || (pos < e && s.charAt(pos) == ':' && isHexGroup(s, pos+1, e)) || isV6Quad(s, pos, e);
+      } else if (k == 0) { match = pos < e && s.charAt(pos) == ':' && isV6Tail(s, pos+1, e, 7, 5);
+      } else             { match = isV6Tail(s, pos, e, 7 - k, 5 - k); }
+      if (match) return true;
+    }
+    return false;
+  }
+
+  /**
+   * Email -- [a-zA-Z0-9.-]+[@]([a-zA-Z]+[.])+[a-zA-Z0-9]+
+   */
+  static boolean isEmail(String s) {
+    int n = s.length(), at = run(s, 0, n, ALNUM|DOT|DASH);
+    if (at == 0 || at >= n || s.charAt(at) != '@') return false;
+    int i = at + 1, pieces = 0;
+    while (true) {
+      int j = run(s, i, n, ALNUM); if (j == i) return false;
+      pieces++;
+      if (j == n) return pieces >= 2;
+      if (s.charAt(j) != '.' || run(s, i, j, HEXALPHA|ALPHA) != j) return false;
+      i = j + 1;
+    }
+  }
+
+  /**
+   * Domain -- [A-Za-z0-9-]+(\.[A-Za-z0-9-]+)*(\.[A-Za-z]{2,})
+   */
+  static boolean isDomain(String s) {
+    int n = s.length(), i = 0, pieces = 0;
+    while (true) {
+      int j = run(s, i, n, ALNUM|DASH); if (j == i) return false;
+      pieces++;
+      if (j == n) return pieces >= 2 && j - i >= 2 && run(s, i, j, HEXALPHA|ALPHA) == j;
+      if (s.charAt(j) != '.') return false;
+      i = j + 1;
+    }
+  }
+
+  /**
+   * MAC -- (([a-fA-F0-9]{2}[:-]){5}([a-fA-F0-9]{2}))|([a-fA-F0-9]{12})
+   */
+  static boolean isMAC(String s) {
+    int n = s.length();
+    if (n == 12) return run(s, 0, n, HEX) == n;
+    for (int i=0;i<17;i++) {
+      char c = s.charAt(i);
+      if (i % 3 == 2) { if (c != ':' && c != '-') return false; } else if (isHex(c) == false) return false;
+    }
+    return true;
+  }
+
+  /**
+   * MD5 -- [a-fA-F0-9]{32}($|[ \t\r\n])
+   */
+  static boolean isMD5(String s) {
+    int n = s.length(); if (run(s, 0, 32, HEX) != 32) return false;
+    if (n == 32) return true;
+    char c = s.charAt(32); return c == ' ' || c == '\t' || c == '\r' || c == '\n';
+  }
+
+  /**
+   * URL -- (http|ftp|https)://[\w\-_]+(\.[\w\-_]+)+([\w\-\.,@?^=%&amp;:/~\+#]*[\w\-\@?^=%&amp;/~\+#])?
+   * The host's characters are all allowed in the path -- so the shortest host (first label, dot, one
+   * character) decides the match.
+   */
+  static boolean isURL(String s) {
+    int n = s.length(), p;
+    if      (s.regionMatches(true, 0, "http://",  0, 7)) p = 7;
+    else if (s.regionMatches(true, 0, "https://", 0, 8)) p = 8;
+    else if (s.regionMatches(true, 0, "ftp://",   0, 6)) p = 6;
+    else return false;
+    int i = p; while (i < n && isWordOrDash(s.charAt(i))) i++;
+    if (i == p || i + 1 >= n || s.charAt(i) != '.' || isWordOrDash(s.charAt(i+1)) == false) return false;
+    int q = i + 2; if (q == n) return true;
+    for (int j=q;j<n;j++) if (is(s.charAt(j), ALNUM|UNDER|DASH|DOT|COLON|SLASH|AT|PLUS|URLPUNCT) == false) return false;
+    char last = s.charAt(n-1); return last != '.' && last != ',' && last != ':';
+  }
+
+  /**
+   * User agent -- five alternatives:  name/1.0 ([...] )(...)... | Lynx/... | Mozil.../... | Outlook... | ...(compatible...)...
+   * No alternative allows a line terminator.
+   */
+  static boolean isUserAgent(String s) {
+    int n = s.length();
+    for (int i=0;i<n;i++) if (isTerminator(s.charAt(i))) return false;
+    if (s.startsWith("Lynx/") || s.startsWith("Outlook"))                       return true;
+    if (s.startsWith("Mozil") && s.indexOf('/', 5) >= 0)                        return true;
+    int compat = s.indexOf("(compatible"); if (compat >= 0 && s.indexOf(')', compat + 11) >= 0) return true;
+    // Name/major.minor followed by an optional bracket section and a parenthesized section
+    int i = run(s, 0, n, HEXALPHA|ALPHA);                  if (i == 0 || i >= n || s.charAt(i) != '/') return false;
+    int j = run(s, i+1, n, DIGIT);                         if (j == i+1 || j >= n || s.charAt(j) != '.') return false;
+    int k = run(s, j+1, n, DIGIT);                         if (k == j+1 || k >= n || s.charAt(k) != ' ') return false;
+    int r = k + 1, close = s.lastIndexOf(')');
+    if (r < n && s.charAt(r) == '(') return close >= r + 2;
+    if (r < n && s.charAt(r) == '[') {
+      int m = s.indexOf("] (", r + 2); return m >= 0 && close >= m + 4;
+    }
+    return false;
+  }
+
+  //
+  // Timestamp pieces
+  //
+  static boolean isMonth(String s, int b, int e)   { int len = e - b; char c0 = s.charAt(b);
+    return (len == 1 && c0 >= '1') || (len == 2 && ((c0 == '0' && s.charAt(b+1) >= '1') || (c0 == '1' && s.charAt(b+1) <= '2'))); }
+  static boolean isDay(String s, int b, int e)     { int len = e - b; char c0 = s.charAt(b);
+    return (len == 1 && c0 >= '1') || (len == 2 && ((c0 == '0' && s.charAt(b+1) >= '1') || c0 == '1' || c0 == '2' || (c0 == '3' && s.charAt(b+1) <= '1'))); }
+  static boolean isHour(String s, int b, int e)    { int len = e - b; char c0 = s.charAt(b);
+    return len == 1 || (len == 2 && (c0 == '0' || c0 == '1' || (c0 == '2' && s.charAt(b+1) <= '3'))); }
+  static boolean isSixty(String s, int b)          { return b + 1 < s.length() && s.charAt(b) >= '0' && s.charAt(b) <= '5' && isDigit(s.charAt(b+1)); }
+  static boolean isYMD8(String s)                  {
+    char m0 = s.charAt(4), m1 = s.charAt(5), d0 = s.charAt(6), d1 = s.charAt(7);
+    return ((m0 == '0' && m1 >= '1') || (m0 == '1' && m1 <= '2')) && ((d0 == '0' && d1 >= '1') || d0 == '1' || d0 == '2' || (d0 == '3' && d1 <= '1'));
+  }
+  static boolean isHH(String s, int b)             { char c0 = s.charAt(b), c1 = s.charAt(b+1); return c0 == '0' || c0 == '1' || (c0 == '2' && c1 <= '3'); }
+  static final String weekdays[] = { "Sat ", "Sun ", "Mon ", "Tue ", "Wed ", "Thu ", "Fri " },
+                      months[]   = { "Jan ", "Feb ", "Mar ", "Apr ", "May ", "Jun ", "Jul ", "Aug ", "Sep ", "Oct ", "Nov ", "Dec " };
+
+  /**
+   * Timestamp -- YYYY[-./]M[-./]D([ T]H(:MM(:SS([.][0-9]*)?Z?)?)?)? | YYYYMMDD | YYYYMMDD HHMMZ | YYYYMMDD HHMMSSZ | Www Mmm D H:MM:SS YYYY
+   */
+  static boolean isTimeStamp(String s) {
+    int n = s.length();
+    if (n >= 4 && run(s, 0, 4, DIGIT) == 4) {
+      if (n > 4 && (s.charAt(4) == '-' || s.charAt(4) == '.' || s.charAt(4) == '/')) {
+        int m = run(s, 5, n, DIGIT);     if (m == 5 || m >= n || isMonth(s, 5, m) == false) return false;
+        char sep = s.charAt(m);          if (sep != '-' && sep != '.' && sep != '/') return false;
+        int d = run(s, m+1, n, DIGIT);   if (d == m+1 || isDay(s, m+1, d) == false) return false;
+        if (d == n) return true;
+        if (s.charAt(d) != ' ' && s.charAt(d) != 'T') return false;
+        int h = run(s, d+1, n, DIGIT);   if (h == d+1 || isHour(s, d+1, h) == false) return false;
+        if (h == n) return true;
+        if (s.charAt(h) != ':' || isSixty(s, h+1) == false) return false;
+        int i = h + 3; if (i == n) return true;
+        if (s.charAt(i) != ':' || isSixty(s, i+1) == false) return false;
+        i += 3; if (i < n && s.charAt(i) == '.') i = run(s, i+1, n, DIGIT);
+        if (i < n && s.charAt(i) == 'Z') i++;
+        return i == n;
+      }
+      if (n == 8)  return run(s, 0, 8, DIGIT) == 8 && isYMD8(s);
+      if (n == 14) return run(s, 0, 8, DIGIT) == 8 && isYMD8(s) && s.charAt(8) == ' ' && run(s, 9, 13, DIGIT) == 13 && isHH(s, 9) && isSixty(s, 11) && s.charAt(13) == 'Z';
+      if (n == 16) return run(s, 0, 8, DIGIT) == 8 && isYMD8(s) && s.charAt(8) == ' ' && run(s, 9, 15, DIGIT) == 15 && isHH(s, 9) && isSixty(s, 11) && isSixty(s, 13) && s.charAt(15) == 'Z';
+      return false;
+    }
+    // Www Mmm D H:MM:SS YYYY
+    if (n < 8) return false;
+    boolean wd = false; for (int i=0;i<weekdays.length && wd == false;i++) wd = s.startsWith(weekdays[i]);
+    boolean mn = false; for (int i=0;i<months.length   && mn == false;i++) mn = s.startsWith(months[i], 4);
+    if (wd == false || mn == false) return false;
+    int d = run(s, 8, n, DIGIT);     if (d == 8 || d >= n || isDay(s, 8, d) == false || s.charAt(d) != ' ') return false;
+    int h = run(s, d+1, n, DIGIT);   if (h == d+1 || isHour(s, d+1, h) == false) return false;
+    if (h >= n || s.charAt(h) != ':' || isSixty(s, h+1) == false) return false;
+    int i = h + 3; if (i >= n || s.charAt(i) != ':' || isSixty(s, i+1) == false) return false;
+    i += 3; if (i >= n || s.charAt(i) != ' ') return false;
+    return n == i + 5 && run(s, i+1, n, DIGIT) == n;
+  }
+}
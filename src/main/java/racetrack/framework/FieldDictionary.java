@@ -0,0 +1,131 @@
+/*
+
+Copyright 2013 David Trimm
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+
+package racetrack.framework;
+
+import racetrack.util.InternTable;
+
+/**
+ * Per-field dictionary that converts the strings within a field into dense
+ * integer codes.  Used by the columnar backend ({@link BundlesColumnar}) so that
+ * each record only has to hold an integer per field.  The dictionary also caches
+ * the {@link BundlesG#toInt(String)} value for each code -- the cache is tagged
+ * with the globals entity generation so that a cleanse (or an index override)
+ * causes the value to be looked up again.
+ *
+ * Codes are never reclaimed; once a string is interned, its code is valid for
+ * the life of the globals.
+ *
+ * @author  D. Trimm
+ * @version 1.0
+ */
+class FieldDictionary {
+  /**
+   * Globals that own this dictionary
+   */
+  private BundlesG            globals;
+
+  /**
+   * Lookup from string to code -- read without locking
+   */
+  private InternTable         str_2_code = new InternTable();
+
+  /**
+   * Code to string lookup -- replaced (never modified in place below count) when grown
+   */
+  private volatile String     strs[]     = new String[16];
+
+  /**
+   * Cached integer values -- upper 32 bits are the generation plus one, lower 32 bits the value
+   */
+  private volatile long       vals[]     = new long[16];
+
+  /**
+   * Number of codes issued
+   */
+  private volatile int        count      = 0;
+
+  /**
+   * Construct the dictionary for the specified globals.
+   *
+   *@param globals owning globals
+   */
+  public FieldDictionary(BundlesG globals) { this.globals = globals; }
+
+  /**
+   * Return the code for a string, creating a new code if the string is not already present.
+   *
+   *@param  str string to intern
+   *
+   *@return dense code for the string
+   */
+  public int intern(String str) {
+    int code = str_2_code.get(str, -1); if (code != -1) return code;
+    synchronized (this) { return internLocked(str); }
+  }
+
+  /**
+   * Issue a code for a string under the dictionary lock.  The string is written into the
+   * lookup arrays before it is published to the lock-free lookup.
+   *
+   *@param  str string to intern
+   *
+   *@return dense code for the string
+   */
+  private int internLocked(String str) {
+    int code = str_2_code.get(str, -1); if (code != -1) return code;
+    if (count == strs.length) {
+      String new_strs[] = new String[strs.length*2]; System.arraycopy(strs, 0, new_strs, 0, count);
+      long   new_vals[] = new long  [strs.length*2]; System.arraycopy(vals, 0, new_vals, 0, count);
+      vals = new_vals; strs = new_strs;
+    }
+    code = count; strs[code] = str; count = code + 1; str_2_code.put(str, code);
+    return code;
+  }
+
+  /**
+   * Return the number of distinct strings in this dictionary.
+   *
+   *@return number of codes
+   */
+  public int size() { return count; }
+
+  /**
+   * Return the string for the specified code.
+   *
+   *@param  code dictionary code
+   *
+   *@return corresponding string
+   */
+  public String toString(int code) { return strs[code]; }
+
+  /**
+   * Return the integer value (as defined by the globals) for the specified code.
+   *
+   *@param  code dictionary code
+   *
+   *@return corresponding integer value
+   */
+  public int toValue(int code) {
+    long my_vals[] = vals; long packed = my_vals[code]; int tag = globals.entityGeneration() + 1;
+    if ((int) (packed >>> 32) == tag) return (int) packed;
+    int value = globals.toInt(strs[code]);
+    my_vals[code] = (((long) tag) << 32) | (value & 0xffffffffL);
+    return value;
+  }
+}
@@ -0,0 +1,489 @@
+/*
+
+Copyright 2013 David Trimm
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package racetrack.framework;
+
+import java.awt.EventQueue;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+
+import racetrack.gui.RT;
+import racetrack.gui.RenderScheduler;
+import racetrack.util.CSVReader;
+
+/**
+ * Follows (tails) growing csv files and adds the appended records to the root bundles.  A
+ * daemon thread polls the files at a fixed interval, reads only the complete lines appended
+ * since the last poll, and tokenizes them.  The tokenized rows are then committed on the event
+ * dispatch thread (like a normal load) -- through the same {@link CSVParser} state machine -- so
+ * that the gui, and the tags, markers, and comments that the parser adds, only change on that
+ * thread.  The readers of the root off the event dispatch thread are held off for the commit:  the
+ * renders are paused (see {@link RenderScheduler#pause()}) and the other readers (e.g., expression
+ * evaluation) are kept out with the write side of {@link RT#getRootLock()}.  The panels are then
+ * told about the new records via {@link RT#updatePanelsForNewBundles(Set)}.
+ *
+ * Back-pressure:  at most max_rows rows are committed per interval (across all of the files).
+ * The follower waits for each commit to finish before reading more, so a burst of lines stays
+ * in the file instead of in memory.  The rows go to the event dispatch thread in batches of
+ * {@link #COMMIT_ROWS} so that the gui handles its events between the batches.
+ *
+ * Rotation:  the file is read through an open handle.  Once the handle is caught up, the path
+ * is checked -- if the file at the path is a different file (by its file system key, e.g. the
+ * inode, where the platform provides one), is shorter than the bytes already read, or starts
+ * with different bytes, the file was rotated (renamed or recreated) and the path is reopened
+ * from the start with a fresh parser.  A file truncated in place is also reread from the start.
+ * Compressed files can't be followed.
+ *
+ *@author  D. Trimm
+ *@version 1.0
+ */
+public class FileFollower implements Runnable {
+  /**
+   * Default milliseconds between polls
+   */
+  public static final long DEFAULT_INTERVAL = 1000L;
+
+  /**
+   * Default maximum number of rows committed per poll
+   */
+  public static final int  DEFAULT_MAX_ROWS = 10000;
+
+  /**
+   * Number of leading bytes kept to recognize a rotated file
+   */
+  static final int         SIGNATURE_BYTES  = 512;
+
+  /**
+   * Initial read buffer size -- grows for very long lines
+   */
+  static final int         READ_BYTES       = 1 << 20;
+
+  /**
+   * Rows committed per trip to the event dispatch thread
+   */
+  static final int         COMMIT_ROWS      = 1000;
+
+  /**
+   * Application (may be null -- the records are then committed on the follower thread)
+   */
+  private final RT      rt;
+
+  /**
+   * Bundles to add to when there's no application
+   */
+  private final Bundles bundles;
+
+  /**
+   * Milliseconds between polls
+   */
+  private final long    interval;
+
+  /**
+   * Maximum rows committed per poll
+   */
+  private final int     max_rows;
+
+  /**
+   * Files being followed
+   */
+  private final List<Followed> followed = new ArrayList<Followed>();
+
+  /**
+   * Thread polling the files -- started with the first file
+   */
+  private Thread           thread  = null;
+
+  /**
+   * Flag to stop the polling
+   */
+  private volatile boolean running = true;
+
+  /**
+   * Total rows committed
+   */
+  private volatile long    rows    = 0L;
+
+  /**
+   * Construct a follower that adds to the application's root bundles.
+   *
+   *@param rt       application
+   *@param interval milliseconds between polls
+   *@param max_rows maximum rows to commit per poll
+   */
+  public FileFollower(RT rt, long interval, int max_rows) { this(rt, null, interval, max_rows); }
+
+  /**
+   * Construct a follower.
+   *
+   *@param rt       application (null to add directly to the bundles)
+   *@param bundles  bundles to add to if there is no application
+   *@param interval milliseconds between polls
+   *@param max_rows maximum rows to commit per poll
+   */
+  public FileFollower(RT rt, Bundles bundles, long interval, int max_rows) {
+    this.rt = rt; this.bundles = bundles; this.interval = Math.max(10L, interval); this.max_rows = Math.max(1, max_rows);
+  }
+
+  /**
+   * Start following a file from its beginning.  The file doesn't have to exist yet.
+   *
+   *@param file file to follow
+   */
+  public synchronized void follow(File file) throws IOException {
+    if (file.getName().toLowerCase().endsWith(".gz")) throw new IOException("Compressed File \"" + file.getName() + "\" Cannot Be Followed");
+    followed.add(new Followed(file));
+    if (thread == null) { thread = new Thread(this, "RT Follow"); thread.setDaemon(true); thread.start(); }
+  }
+
+  /**
+   * Return the files being followed.
+   *
+   *@return files
+   */
+  public synchronized List<File> files() {
+    List<File> list = new ArrayList<File>(); for (int i=0;i<followed.size();i++) list.add(followed.get(i).file);
+    return list;
+  }
+
+  /**
+   * Return the total number of rows committed.
+   *
+   *@return rows committed
+   */
+  public long rows() { return rows; }
+
+  /**
+   * Stop following the files.  Rows already read are still committed.
+   */
+  public void stop() {
+    running = false;
+    Thread my_thread; synchronized (this) { my_thread = thread; }
+    if (my_thread != null) my_thread.interrupt();
+  }
+
+  /**
+   * Poll the files until stopped.
+   */
+  public void run() {
+    while (running) {
+      try {
+        List<Followed> my_followed; synchronized (this) { my_followed = new ArrayList<Followed>(followed); }
+        // Read (and tokenize) up to the row limit across the files
+        int budget = max_rows; boolean any = false;
+        for (int i=0;i<my_followed.size() && budget > 0;i++) {
+          Followed f = my_followed.get(i);
+          try { budget -= f.read(budget); any |= f.lines.size() > 0; } catch (IOException ioe) { System.err.println("  Follow : " + f.file + " : IOException: " + ioe); f.close(); }
+        }
+        if (any) commit(my_followed);
+        Thread.sleep(interval);
+      } catch (InterruptedException ie) {
+      } catch (Throwable t) { System.err.println("Throwable: " + t); t.printStackTrace(System.err); }
+    }
+    synchronized (this) { for (int i=0;i<followed.size();i++) followed.get(i).close(); }
+  }
+
+  /**
+   * Commit the rows that were read.  Without an application, the records are added on this
+   * thread.  Otherwise, the records are added on the event dispatch thread in batches -- with the
+   * root locked and the renders paused (from this thread, so the gui doesn't wait on them).
+   *
+   *@param my_followed files with rows
+   */
+  private void commit(final List<Followed> my_followed) {
+    final Bundles     root = (rt != null) ? rt.getRootBundles() : bundles;
+    final Set<Bundle> set  = new HashSet<Bundle>();
+    if (rt == null) {
+      for (int i=0;i<my_followed.size();i++) rows += my_followed.get(i).commit(root, set, Integer.MAX_VALUE);
+      root.getGlobals().resetTransforms();
+      return;
+    }
+    Lock lock = rt.getRootLock().writeLock(); lock.lock();
+    try {
+      RenderScheduler.pause();
+      try {
+        for (int i=0;i<my_followed.size();i++) {
+          final Followed f = my_followed.get(i);
+          while (f.lines.size() > f.committed) { if (onEventThread(new Runnable() { public void run() { rows += f.commit(root, set, COMMIT_ROWS); } }) == false) break; }
+        }
+        onEventThread(new Runnable() { public void run() {
+          root.getGlobals().resetTransforms();
+          if (set.size() > 0) rt.updatePanelsForNewBundles(set);
+        } } );
+      } finally { RenderScheduler.resume(); }
+    } finally { lock.unlock(); }
+  }
+
+  /**
+   * Run on the event dispatch thread and wait for it to finish.  An interrupt doesn't end the
+   * wait -- the root is only released once the records are in.
+   *
+   *@param  runnable work to run
+   *
+   *@return false if the work threw an exception
+   */
+  private static boolean onEventThread(Runnable runnable) {
+    if (EventQueue.isDispatchThread()) { runnable.run(); return true; }
+    boolean interrupted = false, ok = true;
+    while (true) {
+      try { EventQueue.invokeAndWait(runnable); break;
+      } catch (InterruptedException ie) { interrupted = true; runnable = WAIT;
+      } catch (InvocationTargetException ite) { System.err.println("InvocationTargetException: " + ite.getCause()); ite.getCause().printStackTrace(System.err); ok = false; break; }
+    }
+    if (interrupted) Thread.currentThread().interrupt();
+    return ok;
+  }
+
+  /**
+   * Posted after an interrupted {@link #onEventThread(Runnable)} -- the event queue runs it after the
+   * interrupted work, so waiting for it waits for that work.
+   */
+  private static final Runnable WAIT = new Runnable() { public void run() { } };
+
+  /**
+   * Return the file system key (e.g., the device and inode) of a file.  Looked up through
+   * java.nio.file reflectively so that the source still builds for Java 6.
+   *
+   *@param  file file to look up
+   *
+   *@return file key or null if the platform (or file system) doesn't provide one
+   */
+  static Object fileKey(File file) {
+    try {
+      Class<?> files = Class.forName("java.nio.file.Files"), path = Class.forName("java.nio.file.Path"), 
+               attrs = Class.forName("java.nio.file.attribute.BasicFileAttributes"), link = Class.forName("java.nio.file.LinkOption");
+      Object   no_links = Array.newInstance(link, 0);
+      Object   read     = files.getMethod("readAttributes", path, Class.class, no_links.getClass()).invoke(null, File.class.getMethod("toPath").invoke(file), attrs, no_links);
+      return attrs.getMethod("fileKey").invoke(read);
+    } catch (Exception e) { return null; }
+  }
+
+  /**
+   * State for one followed file
+   */
+  class Followed {
+    /**
+     * File path
+     */
+    final File       file;
+
+    /**
+     * Open handle -- keeps reading the original file after a rename
+     */
+    RandomAccessFile raf       = null;
+
+    /**
+     * File system key of the file when the handle was opened -- null if not available
+     */
+    Object           key       = null;
+
+    /**
+     * Position after the last complete line
+     */
+    long             pos       = 0L;
+
+    /**
+     * Leading bytes of the file (for rotation checks)
+     */
+    byte             sig[]     = new byte[SIGNATURE_BYTES];
+
+    /**
+     * Number of valid signature bytes
+     */
+    int              sig_len   = 0;
+
+    /**
+     * Read buffer
+     */
+    byte             buf[]     = new byte[READ_BYTES];
+
+    /**
+     * Delimiter -- determined from the first lines
+     */
+    String           delims    = null;
+
+    /**
+     * Parser for the file -- recreated when the file rotates so that the header is read again
+     */
+    CSVParser        parser    = null;
+
+    /**
+     * Bundles that the parser adds to -- the parser is rebuilt when the application's root changes
+     */
+    Bundles          parser_root = null;
+
+    /**
+     * Header line (and its tokens) that the parser is using -- replayed into a rebuilt parser
+     */
+    String           header    = null;
+    String           header_tokens[] = null;
+
+    /**
+     * Line number within the current file
+     */
+    int              line_no   = 1;
+
+    /**
+     * Lines (and their tokens) read but not yet committed
+     */
+    List<String>     lines     = new ArrayList<String>();
+    List<String[]>   tokens    = new ArrayList<String[]>();
+
+    /**
+     * Number of the lines that were committed (the lists are cleared once all are)
+     */
+    int              committed = 0;
+
+    /**
+     * Rows read since the last rotation (for the delimiter detection)
+     */
+    List<String>     first     = new ArrayList<String>();
+
+    /**
+     * Construct the state for a file.
+     *
+     *@param file file to follow
+     */
+    Followed(File file) { this.file = file; }
+
+    /**
+     * Read the complete lines appended since the last read.
+     *
+     *@param  budget maximum number of lines to read
+     *
+     *@return number of lines read
+     */
+    int read(int budget) throws IOException {
+      if (raf == null) { if (file.exists() == false) return 0; key = fileKey(file); raf = new RandomAccessFile(file, "r"); }
+      long len = raf.length();
+      if (len < pos) { System.err.println("  Follow : " + file + " : Truncated -- Rereading"); restart(); }
+
+      int count = 0; boolean caught_up = false;
+      while (count < budget) {
+        int want = (int) Math.min(buf.length, len - pos); if (want <= 0) { caught_up = true; break; }
+        raf.seek(pos); raf.readFully(buf, 0, want);
+        if (pos < SIGNATURE_BYTES) { int n = (int) Math.min(want, SIGNATURE_BYTES - pos); System.arraycopy(buf, 0, sig, (int) pos, n); sig_len = Math.max(sig_len, (int) pos + n); }
+        int start = 0;
+        for (int i=0;i<want && count < budget;i++) {
+          if (buf[i] != '\n') continue;
+          int end = (i > start && buf[i-1] == '\r') ? i-1 : i;
+          addLine(new String(buf, start, end - start)); count++; start = i+1;
+        }
+        if (start == 0) {
+          if (want == len - pos) { caught_up = true; break; } // Partial line -- wait for the rest
+          buf = new byte[buf.length*2]; continue;             // Line longer than the buffer
+        }
+        pos += start;
+      }
+
+      // Once caught up, check to see if the path now refers to a different file
+      if (caught_up && count == 0 && rotated()) {
+        System.err.println("  Follow : " + file + " : Rotated -- Reopening");
+        raf.close(); raf = null; restart();
+      }
+      return count;
+    }
+
+    /**
+     * Add a line read from the file -- tokenize it once the delimiter is known.
+     *
+     *@param line line to add
+     */
+    void addLine(String line) {
+      lines.add(line);
+      if (delims == null) {
+        first.add(line);
+        if (first.size() < 10 && line.equals("") == false) { tokens.add(null); return; }
+        delims = BundlesUtils.detectDelimiter(first);
+        for (int i=0;i<tokens.size();i++) if (tokens.get(i) == null) tokens.set(i, tokenize(lines.get(i)));
+      }
+      tokens.add(tokenize(line));
+    }
+
+    /**
+     * Tokenize a line (comment lines aren't tokenized).
+     */
+    String[] tokenize(String line) { return line.startsWith("#") ? null : CSVReader.tokenize(line, delims, true); }
+
+    /**
+     * Determine if the path refers to a different file than the open handle.
+     *
+     *@return true if rotated
+     */
+    boolean rotated() throws IOException {
+      if (file.exists() == false) return false; // Wait for the new file to show up
+      Object other_key = fileKey(file); if (key != null && other_key != null && key.equals(other_key) == false) return true;
+      RandomAccessFile other = new RandomAccessFile(file, "r");
+      try {
+        if (other.length() < pos) return true;
+        byte check[] = new byte[sig_len]; other.readFully(check, 0, sig_len);
+        return Arrays.equals(check, Arrays.copyOf(sig, sig_len)) == false;
+      } finally { other.close(); }
+    }
+
+    /**
+     * Start over from the beginning of the file.
+     */
+    void restart() { pos = 0L; sig_len = 0; delims = null; parser = null; header = null; header_tokens = null; line_no = 1; first.clear(); }
+
+    /**
+     * Close the handle.
+     */
+    void close() { if (raf != null) try { raf.close(); } catch (IOException ioe) { } raf = null; }
+
+    /**
+     * Commit the next lines that were read.  Called on the event dispatch thread (on the follower
+     * thread if there is no application) while the follower thread waits.
+     *
+     *@param  root bundles to add to
+     *@param  set  set for the new records
+     *@param  max  maximum number of lines to commit
+     *
+     *@return number of rows committed
+     */
+    int commit(Bundles root, Set<Bundle> set, int max) {
+      // Not enough lines to determine the delimiter yet -- use what's there
+      if (delims == null && lines.size() > 0) { delims = BundlesUtils.detectDelimiter(first); for (int i=0;i<tokens.size();i++) if (tokens.get(i) == null) tokens.set(i, tokenize(lines.get(i))); }
+      if (parser == null || parser_root != root) {
+        // New file or new root -- a parser for a new root picks up with the current header
+        parser = new CSVParser(root, rt, set, 0); parser_root = root;
+        if (header != null) parser.consume(header_tokens, header, 0);
+      }
+      parser.set = set;
+      int n = Math.min(max, lines.size() - committed);
+      for (int i=committed;i<committed+n;i++) {
+        String line = lines.get(i); line_no++;
+        if (line.startsWith("#")) { parser.commentLine(line); continue; }
+        boolean at_header = parser.first_line && tokens.get(i) != null && tokens.get(i).length > 0;
+        parser.consume(tokens.get(i), line, line_no);
+        if      (at_header)         { header = line; header_tokens = tokens.get(i); }
+        else if (parser.first_line) { header = null; header_tokens = null; } // End of the section
+      }
+      parser.addListsToRT();
+      committed += n; if (committed == lines.size()) { lines.clear(); tokens.clear(); committed = 0; }
+      return n;
+    }
+  }
+}
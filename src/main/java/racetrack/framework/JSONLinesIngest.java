@@ -0,0 +1,225 @@
+/*
+
+Copyright 2013 David Trimm
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package racetrack.framework;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import racetrack.util.NormalizeBroLogs;
+import racetrack.util.TimeStampParser;
+import racetrack.util.Utils;
+
+/**
+ * Native reader for JSON lines (one object per line -- e.g., zeek's json logs or an event
+ * export).  Nested objects are flattened into dotted field names ("id" : { "orig_h" : ... }
+ * becomes "id.orig_h"), arrays of values are joined with commas, and arrays of objects are
+ * kept as their JSON text.  Null values are notset.
+ *
+ * The "ts" (or "timestamp") field is the record time -- numbers are seconds since the epoch
+ * and strings are parsed as timestamps.  A "duration" (in seconds) gives the end time -- the
+ * end is the start when it's null.  Other fields with the parser's time names get a trailing
+ * underscore.  The scalar fields of the zeek logs are in caps (see {@link NormalizeBroLogs#SCALAR_FIELDS}).
+ *
+ * Records with the same fields (in the same order) share a schema -- its datatypes come from
+ * the first of those records:  integers and floats are declared, strings are probed.
+ *
+ *@author  D. Trimm
+ *@version 1.0
+ */
+public class JSONLinesIngest extends SchemaIngest<String> {
+  /**
+   * Schemas by field list -- created by the workers, so the first one wins
+   */
+  private ConcurrentHashMap<String,Schema> schemas = new ConcurrentHashMap<String,Schema>();
+
+  /**
+   * Parser for the string timestamps
+   */
+  private TimeStampParser timestamp_parser = new TimeStampParser();
+
+  @Override
+  protected String start(String name) { return name; }
+
+  /**
+   * Convert a line into its prepared row.
+   */
+  @Override
+  protected void convertLine(String file, String line, int line_no, Output out) {
+    int i = 0, n = line.length(); while (i < n && Character.isWhitespace(line.charAt(i))) i++;
+    if (i == n) return;
+    List<String> names = new ArrayList<String>(), values = new ArrayList<String>(); List<BundlesDT.DT> dts = new ArrayList<BundlesDT.DT>();
+    try {
+      Parser parser = new Parser(line, i);
+      parser.object("", names, values, dts);
+      parser.space(); if (parser.i != n) throw parser.error("Extra Characters After The Object");
+    } catch (RuntimeException re) { out.warn("File \"" + file + "\", Line " + line_no + " - " + re.getMessage()); return; }
+
+    // Timestamps
+    int ts_i = names.indexOf("ts"); if (ts_i < 0) ts_i = names.indexOf("timestamp");
+    int du_i = (ts_i < 0) ? -1 : names.indexOf("duration");
+    long ts0 = 0L, ts1 = 0L;
+    if (ts_i >= 0) {
+      String ts = values.get(ts_i);
+      if (ts == BundlesDT.NOTSET) { out.warn("File \"" + file + "\", Line " + line_no + " - Null Timestamp"); return; }
+      try { ts0 = ts1 = (dts.get(ts_i) == null) ? timestamp_parser.parse(ts) : seconds(ts);
+            if (du_i >= 0 && values.get(du_i) != BundlesDT.NOTSET) ts1 = ts0 + seconds(values.get(du_i));
+      } catch (RuntimeException re) { out.warn("File \"" + file + "\", Line " + line_no + " - Bad Timestamp \"" + ts + "\""); return; }
+    }
+
+    // Header key -- the time fields are renamed so that the parser picks them up
+    StringBuilder key = new StringBuilder();
+    for (int j=0;j<names.size();j++) {
+      String name = names.get(j);
+      if      (j == ts_i)                                                   name = "timestamp";
+      else if (LoadFilter.isTimeHeader(name))                               name = name + "_";
+      else if (NormalizeBroLogs.SCALAR_FIELDS.contains(name.toLowerCase())) name = name.toUpperCase();
+      names.set(j, name); if (j > 0) key.append(','); key.append(name);
+    }
+    if (ts_i >= 0 && du_i >= 0) { names.add("timestamp_end"); values.add(BundlesDT.NOTSET); dts.add(null); key.append(",timestamp_end"); }
+
+    Schema schema = schemas.get(key.toString());
+    if (schema == null) {
+      Schema created = new Schema("json:" + key, names.toArray(new String[names.size()]), dts.toArray(new BundlesDT.DT[dts.size()]), filter);
+      schema = schemas.putIfAbsent(key.toString(), created); if (schema == null) schema = created;
+    }
+    out.row(schema.table, prepare(schema, values.toArray(new String[values.size()]), ts0, ts1));
+  }
+
+  /**
+   * Convert a JSON number of seconds into milliseconds.
+   */
+  private static long seconds(String secs) {
+    if (secs.indexOf('e') >= 0 || secs.indexOf('E') >= 0) return Math.round(Double.parseDouble(secs) * 1000.0);
+    return NormalizeBroLogs.secondFractionsToMillis(secs);
+  }
+
+  /**
+   * Minimal JSON parser -- flattens an object into (name, value, datatype) triples.
+   */
+  static class Parser {
+    final String line; int i;
+    Parser(String line, int i) { this.line = line; this.i = i; }
+
+    RuntimeException error(String msg) { return new RuntimeException(msg + " @ Column " + (i+1)); }
+
+    void space() { while (i < line.length() && Character.isWhitespace(line.charAt(i))) i++; }
+
+    char peek() { space(); if (i >= line.length()) throw error("Unexpected End Of Line"); return line.charAt(i); }
+
+    void expect(char c) { if (peek() != c) throw error("Expected '" + c + "'"); i++; }
+
+    /**
+     * Parse an object -- the fields are added with the prefix.
+     */
+    void object(String prefix, List<String> names, List<String> values, List<BundlesDT.DT> dts) {
+      expect('{'); if (peek() == '}') { i++; return; }
+      while (true) {
+        if (peek() != '"') throw error("Expected A Field Name");
+        String name = prefix + string();
+        expect(':');
+        char c = peek();
+        if (c == '{') object(name + ".", names, values, dts);
+        else {
+          int at = names.indexOf(name); if (at >= 0) { names.remove(at); values.remove(at); dts.remove(at); } // Last one wins
+          names.add(name);
+          if (c == '[') { values.add(array()); dts.add(null); } else value(values, dts);
+        }
+        char d = peek(); i++;
+        if (d == '}') return; if (d != ',') { i--; throw error("Expected ',' Or '}'"); }
+      }
+    }
+
+    /**
+     * Parse a scalar value.
+     */
+    void value(List<String> values, List<BundlesDT.DT> dts) {
+      char c = peek();
+      if (c == '"')                            { String str = Utils.stripSpaces(string()); values.add(str.length() == 0 ? BundlesDT.NOTSET : str); dts.add(null); }
+      else if (line.startsWith("null",  i))    { i += 4; values.add(BundlesDT.NOTSET); dts.add(null); }
+      else if (line.startsWith("true",  i))    { i += 4; values.add("true");           dts.add(BundlesDT.DT.UNKNOWN); }
+      else if (line.startsWith("false", i))    { i += 5; values.add("false");          dts.add(BundlesDT.DT.UNKNOWN); }
+      else {
+        int j = i; boolean integer = true;
+        while (i < line.length() && "+-0123456789.eE".indexOf(line.charAt(i)) >= 0) { if ("0123456789-".indexOf(line.charAt(i)) < 0) integer = false; i++; }
+        if (i == j) throw error("Unexpected Character '" + c + "'");
+        String num = line.substring(j, i);
+        if (integer) { values.add(clampInt(num)); dts.add(BundlesDT.DT.INTEGER); } else { values.add(num); dts.add(BundlesDT.DT.FLOAT); }
+      }
+    }
+
+    /**
+     * Parse an array -- values are joined with commas, arrays with objects are kept as JSON text.
+     */
+    String array() {
+      int start = i; expect('['); List<String> values = new ArrayList<String>(); List<BundlesDT.DT> dts = new ArrayList<BundlesDT.DT>(); boolean text = false;
+      if (peek() == ']') { i++; return BundlesDT.NOTSET; }
+      while (true) {
+        char c = peek();
+        if (c == '{' || c == '[') { skip(); text = true; } else value(values, dts);
+        char d = peek(); i++;
+        if (d == ']') break; if (d != ',') { i--; throw error("Expected ',' Or ']'"); }
+      }
+      if (text) return line.substring(start, i).trim();
+      StringBuilder sb = new StringBuilder();
+      for (int j=0;j<values.size();j++) { if (values.get(j) == BundlesDT.NOTSET) continue; if (sb.length() > 0) sb.append(','); sb.append(values.get(j)); }
+      return sb.length() == 0 ? BundlesDT.NOTSET : sb.toString();
+    }
+
+    /**
+     * Skip over a nested object or array.
+     */
+    void skip() {
+      int depth = 0;
+      do {
+        char c = peek();
+        if      (c == '"')             { string(); continue; }
+        else if (c == '{' || c == '[') depth++;
+        else if (c == '}' || c == ']') depth--;
+        i++;
+      } while (depth > 0);
+    }
+
+    /**
+     * Parse a string (the opening quote is next).
+     */
+    String string() {
+      expect('"'); StringBuilder sb = null; int start = i;
+      while (true) {
+        if (i >= line.length()) throw error("Unterminated String");
+        char c = line.charAt(i);
+        if (c == '"') { String str = (sb == null) ? line.substring(start, i) : sb.toString(); i++; return str; }
+        if (c == '\\') {
+          if (sb == null) sb = new StringBuilder(line.substring(start, i));
+          if (++i >= line.length()) throw error("Unterminated String");
+          char e = line.charAt(i++);
+          switch (e) {
+            case 'b': sb.append('\b'); break;
+            case 'f': sb.append('\f'); break;
+            case 'n': sb.append('\n'); break;
+            case 'r': sb.append('\r'); break;
+            case 't': sb.append('\t'); break;
+            case 'u': if (i + 4 > line.length()) throw error("Bad Unicode Escape");
+                      sb.append((char) Integer.parseInt(line.substring(i, i+4), 16)); i += 4; break;
+            default:  sb.append(e); break;
+          }
+        } else { if (sb != null) sb.append(c); i++; }
+      }
+    }
+  }
+}
@@ -18,19 +18,25 @@ limitations under the License.
 
 package racetrack.framework;
 
+import java.text.DateFormatSymbols;
+import java.text.DecimalFormatSymbols;
 import java.text.SimpleDateFormat;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Calendar;
 import java.util.Comparator;
 import java.util.Date;
+import java.util.GregorianCalendar;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.TimeZone;
+import java.util.concurrent.ConcurrentMap;
 
+import racetrack.util.CivilTime;
 import racetrack.util.Utils;
 
 /**
@@ -308,10 +314,89 @@ public class KeyMaker {
      * @return        array of the strings once they've been created
      */
     public String[] stringKeys(Bundle bundle); 
+
+    /**
+     * Write the key ids for a bundle/record -- see {@link KeyMaker#keyIds(Bundle,int[])}.
+     *
+     * @param  bundle record (bundle) to create
+     * @param  keys   buffer for the key ids
+     * @return        number of keys
+     */
+    public int keyIds(Bundle bundle, int keys[]);
+  }
+
+  /**
+   * Copy key ids into a buffer -- only the ids that fit are written.
+   *
+   *@param  ids  key ids to copy
+   *@param  keys buffer
+   *@param  at   position in the buffer
+   *
+   *@return position after the ids
+   */
+  static int emit(int ids[], int keys[], int at) {
+    for (int i=0;i<ids.length;i++,at++) if (at < keys.length) keys[at] = ids[i];
+    return at;
   }
 
   /**
-   * Very simple maker to count bundles.
+   * Write a single key id into a buffer.
+   *
+   *@param  id   key id
+   *@param  keys buffer
+   *
+   *@return number of keys (one)
+   */
+  static int emit(int id, int keys[]) { if (keys.length > 0) keys[0] = id; return 1; }
+
+  /**
+   * Memo from a source code (a field dictionary code) to the key ids that it produces.  Readers
+   * don't lock -- the table is copied when it grows, and the ids are published by the volatile
+   * write in {@link #put(int,int[])}.
+   */
+  static final class KeyMemo {
+    private volatile int memo[][] = new int[64][];
+
+    /**
+     * Generation of the post processor outputs that the ids came from (see {@link PostMemo#generation()})
+     */
+    final int gen;
+
+    KeyMemo()        { this(0); }
+    KeyMemo(int gen) { this.gen = gen; }
+
+    /**
+     * Return the key ids for a code -- null if they haven't been memoized.
+     */
+    int[] get(int code) { int m[][] = memo; return (code >= 0 && code < m.length) ? m[code] : null; }
+
+    /**
+     * Memoize the key ids for a code.
+     */
+    synchronized void put(int code, int ids[]) {
+      if (code < 0) return;
+      int m[][] = memo;
+      if (code >= m.length) { int grown[][] = new int[Math.max(code+1, m.length*2)][]; System.arraycopy(m, 0, grown, 0, m.length); m = grown; }
+      m[code] = ids; memo = m;
+    }
+  }
+
+  /**
+   * Intern key strings into the key dictionary.
+   *
+   *@param  strs key strings
+   *
+   *@return key ids
+   */
+  int[] intern(String strs[]) {
+    FieldDictionary dict = keyDictionary(); int ids[] = new int[strs.length];
+    for (int i=0;i<ids.length;i++) ids[i] = dict.intern(strs[i]);
+    return ids;
+  }
+
+  /**
+   * Very simple maker to count bundles.  The key ids are the record ordinals -- one key per
+   * record would otherwise fill the key dictionary (see {@link KeyMaker#keyString(int)}).
    */
   class RecordCountMaker implements Maker {
     public String[] stringKeys(Bundle bundle) { 
@@ -319,6 +404,7 @@ public class KeyMaker {
       strs[0] = "" + ((Object) bundle);
       return strs; 
     } 
+    public int keyIds(Bundle bundle, int keys[]) { return emit(bundle.ordinal(), keys); }
   }
 
   /**
@@ -330,7 +416,7 @@ public class KeyMaker {
    * Simple maker that just returns the tablet header.
    */
   class TabletSepMaker implements Maker {
-    Tablet tablet; String hdr; int hdr_i;
+    Tablet tablet; String hdr; int hdr_i, hdr_id = -1;
     public TabletSepMaker      (Tablet tablet) { this.tablet = tablet; 
                                                  this.hdr    = tablet.fileHeader(); 
 						 if (tablethdr_to_i.containsKey(this.hdr) == false) tablethdr_to_i.put(this.hdr, tablethdr_to_i.keySet().size()+1); 
@@ -340,6 +426,7 @@ public class KeyMaker {
                                                }
     public String[] stringKeys (Bundle bundle) { String strs[] = new String[1]; strs[0] = hdr;   return strs; }
     public int[]    intKeys    (Bundle bundle) { int    is[]   = new int[1];    is[0]   = hdr_i; return is; }
+    public int      keyIds     (Bundle bundle, int keys[]) { if (hdr_id == -1) hdr_id = keyDictionary().intern(hdr); return emit(hdr_id, keys); }
   }
 
   /**
@@ -353,6 +440,7 @@ public class KeyMaker {
       for (int fld_i=0;fld_i<flds.length;fld_i++) {
         if (flds[fld_i] >= 0 && globals.isScalar(fld_i) == false) fld_is.add(fld_i);
       }
+      memos = new KeyMemo[fld_is.size()]; for (int i=0;i<memos.length;i++) memos[i] = new KeyMemo();
     }
     public String[] stringKeys(Bundle bundle) {
       String results[] = new String[fld_is.size()];
@@ -364,6 +452,16 @@ public class KeyMaker {
       for (int i=0;i<results.length;i++) results[i] = bundle.toValue(fld_is.get(i));
       return results;
     }
+    final KeyMemo memos[];
+    public int      keyIds    (Bundle bundle, int keys[]) {
+      int at = 0;
+      for (int i=0;i<memos.length;i++) {
+        int fld_i = fld_is.get(i), code = bundle.toCode(fld_i), ids[] = memos[i].get(code);
+        if (ids == null) { ids = new int[1]; ids[0] = keyDictionary().intern(bundle.toString(fld_i)); memos[i].put(code, ids); }
+        at = emit(ids, keys, at);
+      }
+      return at;
+    }
   }
 
   /**
@@ -382,6 +480,7 @@ public class KeyMaker {
      */
     public SimpleMaker(String fld)            { fld_i = tablet.getBundles().getGlobals().fieldIndex(fld); }
     public String[] stringKeys(Bundle bundle) { String strs[] = new String[1]; strs[0] = bundle.toString(fld_i); return strs; }
+    public int      keyIds    (Bundle bundle, int keys[]) { return emit(bundle.toCode(fld_i), keys); }
   }
 
   /**
@@ -403,6 +502,16 @@ public class KeyMaker {
      */
     boolean     needs_check = false;
 
+    /**
+     * Memo of the post processor outputs and the id of the post processor
+     */
+    PostMemo    post_memo; int post_id;
+
+    /**
+     * Key ids by the code of the field -- dropped when the post processor outputs change
+     */
+    volatile KeyMemo memo = new KeyMemo(-1);
+
     /**
      * Constructor
      *
@@ -412,6 +521,7 @@ public class KeyMaker {
     public SimplePostMaker(String fld, String post) { 
       simple_maker = new SimpleMaker(fld);
       post_proc    = BundlesDT.createPostProcessor(post, tablet.getBundles().getGlobals()); 
+      post_memo    = tablet.getBundles().getGlobals().postMemo(); post_id = post_memo.procId(post);
       int fld_i = tablet.getBundles().getGlobals().fieldIndex(fld);
       if (tablet.getBundles().getGlobals().getFieldDataType(fld_i) == null) needs_check = true;
     }
@@ -419,18 +529,25 @@ public class KeyMaker {
     /**
      * 
      */
-    public String[] stringKeys(Bundle bundle) {
-      String strs[] = simple_maker.stringKeys(bundle); List<String> al = new ArrayList<String>();
-      for (int i=0;i<strs.length;i++) {
-        if (needs_check && BundlesDT.getEntityDataType(strs[i]) != post_proc.type()) {
-          al.add(BundlesDT.NOTSET);
-        } else {
-          String post[] = post_proc.postProcess(strs[i]);
-	  for (int j=0;j<post.length;j++) al.add(post[j]);
-        }
-      }
-      strs = new String[al.size()]; for (int i=0;i<al.size();i++) strs[i] = al.get(i);
-      return strs;
+    public String[] stringKeys(Bundle bundle) { return post(bundle.toString(simple_maker.fld_i)).clone(); }
+
+    /**
+     * Post process a field value into its keys.
+     *
+     *@param  str field value
+     *
+     *@return keys
+     */
+    String[] post(String str) {
+      if (needs_check && BundlesDT.getEntityDataType(str) != post_proc.type()) { String strs[] = new String[1]; strs[0] = BundlesDT.NOTSET; return strs; }
+      return post_memo.postProcess(post_proc, post_id, str);
+    }
+
+    public int keyIds(Bundle bundle, int keys[]) {
+      int gen = post_memo.generation(); KeyMemo m = memo; if (m.gen != gen) memo = m = new KeyMemo(gen);
+      int code = bundle.toCode(simple_maker.fld_i), ids[] = m.get(code);
+      if (ids == null) { ids = intern(post(bundle.toString(simple_maker.fld_i))); m.put(code, ids); }
+      return emit(ids, keys, 0);
     }
   }
 
@@ -447,8 +564,23 @@ public class KeyMaker {
      * Constructor
      */
     public MultiTagMaker()                    { fld_i = tablet.getBundles().getGlobals().fieldIndex(BundlesDT.TAGS); }
-    public String[] stringKeys(Bundle bundle) { 
-      List<String> al = Utils.tokenizeTags(bundle.toString(fld_i));
+    public String[] stringKeys(Bundle bundle) { return tags(bundle.toString(fld_i)); }
+
+    /**
+     * Key ids by the code of the tag field
+     */
+    KeyMemo memo = new KeyMemo();
+    public int keyIds(Bundle bundle, int keys[]) {
+      int code = bundle.toCode(fld_i), ids[] = memo.get(code);
+      if (ids == null) { ids = intern(tags(bundle.toString(fld_i))); memo.put(code, ids); }
+      return emit(ids, keys, 0);
+    }
+
+    /**
+     * Break a tag field into its tags (and the hierarchical components of those tags).
+     */
+    String[] tags(String tags) {
+      List<String> al = Utils.tokenizeTags(tags);
       // Breakdown the hierarhical tags
       int i, sz=al.size();
       for (i=0;i<sz;i++) {
@@ -489,8 +621,23 @@ public class KeyMaker {
      * @param type specific type field to use to match type-value tags
      */
     public TypeTagMaker(String type)          { fld_i = tablet.getBundles().getGlobals().fieldIndex(BundlesDT.TAGS); this.type = type; }
-    public String[] stringKeys(Bundle bundle) { 
-      List<String> al = Utils.tokenizeTags(bundle.toString(fld_i)), al2 = new ArrayList<String>();
+    public String[] stringKeys(Bundle bundle) { return values(bundle.toString(fld_i)); }
+
+    /**
+     * Key ids by the code of the tag field
+     */
+    KeyMemo memo = new KeyMemo();
+    public int keyIds(Bundle bundle, int keys[]) {
+      int code = bundle.toCode(fld_i), ids[] = memo.get(code);
+      if (ids == null) { ids = intern(values(bundle.toString(fld_i))); memo.put(code, ids); }
+      return emit(ids, keys, 0);
+    }
+
+    /**
+     * Return the values of the type-value tags that match the type.
+     */
+    String[] values(String tags) {
+      List<String> al = Utils.tokenizeTags(tags), al2 = new ArrayList<String>();
       for (int i=0;i<al.size();i++) {
         if (Utils.tagIsTypeValue(al.get(i))) {
           // System.err.println("type=\"" + type + "\" - Tag = \"" + al.get(i) + "\"");
@@ -560,6 +707,7 @@ public class KeyMaker {
       // Convert to arrays for speed
       fld_is = new int[ints.size()]; needs_check = new boolean[checks.size()];
       for (int i=0;i<fld_is.length;i++) { fld_is[i] = ints.get(i); needs_check[i] = checks.get(i); }
+      memos = new KeyMemo[fld_is.length]; for (int i=0;i<memos.length;i++) memos[i] = new KeyMemo();
     }
     public String[] stringKeys(Bundle bundle) {
       // Optimize the case where no checks are needed
@@ -581,6 +729,25 @@ public class KeyMaker {
 	return strs;
       }
     }
+
+    /**
+     * Key ids by the code of each field -- empty when the value fails the datatype check
+     */
+    final KeyMemo memos[];
+    public int keyIds(Bundle bundle, int keys[]) {
+      int at = 0;
+      for (int i=0;i<fld_is.length;i++) {
+        int code = bundle.toCode(fld_is[i]), ids[] = memos[i].get(code);
+        if (ids == null) {
+          String str = bundle.toString(fld_is[i]);
+          if (needs_check[i] && BundlesDT.stringIsType(str,datatype) == false) ids = new int[0];
+          else { ids = new int[1]; ids[0] = keyDictionary().intern(str); }
+          memos[i].put(code, ids);
+        }
+        at = emit(ids, keys, at);
+      }
+      return at;
+    }
   }
 
   /**
@@ -603,17 +770,45 @@ public class KeyMaker {
      * @param fld  global field header name
      * @param post string name of post processor
      */
+    /**
+     * Memo of the post processor outputs and the id of the post processor
+     */
+    PostMemo post_memo; int post_id;
+
+    /**
+     * Key ids by the code of each field -- dropped when the post processor outputs change
+     */
+    volatile KeyMemo memos[];
+
     public MultiPostMaker(String fld, String post) { multi_maker = new MultiMaker(fld);
-                                                     post_proc   = BundlesDT.createPostProcessor(post, tablet.getBundles().getGlobals()); }
+                                                     post_proc   = BundlesDT.createPostProcessor(post, tablet.getBundles().getGlobals());
+                                                     post_memo   = tablet.getBundles().getGlobals().postMemo(); post_id = post_memo.procId(post);
+                                                     memos       = memos(-1); }
     public String[] stringKeys(Bundle bundle) {
       String strs[] = multi_maker.stringKeys(bundle); List<String> al = new ArrayList<String>();
       for (int i=0;i<strs.length;i++) {
-        String post[] = post_proc.postProcess(strs[i]);
+        String post[] = post_memo.postProcess(post_proc, post_id, strs[i]);
 	for (int j=0;j<post.length;j++) al.add(post[j]);
       }
       strs = new String[al.size()]; for (int i=0;i<strs.length;i++) strs[i] = al.get(i);
       return strs;
     }
+    private KeyMemo[] memos(int gen) { KeyMemo m[] = new KeyMemo[multi_maker.fld_is.length]; for (int i=0;i<m.length;i++) m[i] = new KeyMemo(gen); return m; }
+    public int keyIds(Bundle bundle, int keys[]) {
+      int gen = post_memo.generation(); KeyMemo m[] = memos; if (m.length > 0 && m[0].gen != gen) memos = m = memos(gen);
+      int at = 0;
+      for (int i=0;i<m.length;i++) {
+        int fld_i = multi_maker.fld_is[i], code = bundle.toCode(fld_i), ids[] = m[i].get(code);
+        if (ids == null) {
+          String str = bundle.toString(fld_i);
+          if (multi_maker.needs_check[i] && BundlesDT.stringIsType(str,multi_maker.datatype) == false) ids = new int[0];
+          else ids = intern(post_memo.postProcess(post_proc, post_id, str));
+          m[i].put(code, ids);
+        }
+        at = emit(ids, keys, at);
+      }
+      return at;
+    }
   }
 
   /**
@@ -631,6 +826,18 @@ public class KeyMaker {
       strs[0] = ""+div;                                      // Embed as a string for return
       return strs;
     }
+
+    /**
+     * Key ids (plus one) of the small durations -- zero if not interned yet
+     */
+    final int small[] = new int[1024];
+    public int keyIds(Bundle bundle, int keys[]) {
+      long diff = (bundle.ts1() - bundle.ts0()); int div = 0;
+      if (diff != 0L) { div = (int) (diff/dur); int mod = (int) (diff%dur); if (mod > dur/2) div++; }
+      if (div < 0 || div >= small.length) return emit(keyDictionary().intern(""+div), keys);
+      int id = small[div] - 1; if (id < 0) { id = keyDictionary().intern(""+div); small[div] = id + 1; }
+      return emit(id, keys);
+    }
   }
 
   final int MILLIS  = 1;
@@ -641,18 +848,65 @@ public class KeyMaker {
   final int WEEKS   = 7*DAYS;
 
   /**
-   * {@link Maker} used to convert to a date representation.
+   * Label of a time bucket -- immutable so that the label cache can be updated without locks
+   */
+  static final class TimeLabel { final long id; final String str; final int key; TimeLabel(long id, String str, int key) { this.id = id; this.str = str; this.key = key; } }
+
+  /**
+   * {@link Maker} used to convert to a date representation.  The buckets and their labels are
+   * computed with GMT date arithmetic ({@link CivilTime}) -- the labels are the same strings that
+   * a {@link SimpleDateFormat} would produce, but each one is only built once per distinct bucket.
+   * No calendar or formatter is shared, so a time maker can be used by parallel renders.
+   * Timestamps before {@link CivilTime#GREGORIAN_SAFE} fall back to the calendar classes.
    */
   public class TimeMaker implements Maker {
+    /**
+     * Label layouts -- the date layouts are ordered by precision
+     */
+    static final int YR = 0, YR_MO = 1, YR_MO_DY = 2, YR_MO_DY_HR = 3, YR_MO_DY_HR_MN = 4, YR_MO_DY_HR_MN_SC = 5, STRAIGHT = 6,
+                     MO = 7, MO_DY = 8, DOW  = 9, DOW_HR = 10, HR = 11, HR_MN = 12, MN = 13, MN_SC = 14, SC = 15, MS = 16;
+
+    /**
+     * Number of cached labels (power of two)
+     */
+    static final int LABEL_CACHE = 1024;
+
     /**
      * Format to convert into
      */
     String format;
 
     /**
-     * Simple date formater to use for the dates
+     * Date format pattern that the labels match
+     */
+    String pattern;
+
+    /**
+     * Label layout for the pattern
+     */
+    int layout;
+
+    /**
+     * Labels can be built arithmetically -- false if the default locale doesn't format with
+     * gregorian years or ascii digits
+     */
+    boolean arithmetic;
+
+    /**
+     * Short weekday names from the default locale (indexed by the calendar day of the week)
+     */
+    String weekdays[];
+
+    /**
+     * Labels of the recently seen buckets -- direct mapped
+     */
+    final TimeLabel labels[] = new TimeLabel[LABEL_CACHE];
+
+    /**
+     * Per-thread formatter for the timestamps that can't be labeled arithmetically
      */
-    SimpleDateFormat sdf;
+    ThreadLocal<SimpleDateFormat> fallback_sdf = new ThreadLocal<SimpleDateFormat>() {
+      protected SimpleDateFormat initialValue() { SimpleDateFormat sdf = new SimpleDateFormat(pattern); sdf.setTimeZone(TimeZone.getTimeZone("GMT")); return sdf; } };
 
     /**
      * Conversion class to change the time-based string into a long timestamp-like value
@@ -678,25 +932,29 @@ public class KeyMaker {
       }
 
       this.format = format;
-      if      (format.equals(BY_YEAR_STR))                        { sdf = new SimpleDateFormat("yyyy");                    conv = new FormatConversion();      }
-      else if (format.equals(BY_YEAR_MONTH_STR))                  { sdf = new SimpleDateFormat("yyyy-MM");                 conv = new FormatConversion();      }
-      else if (format.equals(BY_YEAR_MONTH_DAY_STR))              { sdf = new SimpleDateFormat("yyyy-MM-dd");              conv = new FormatConversion();      }
-      else if (format.equals(BY_YEAR_MONTH_DAY_HOUR_STR))         { sdf = new SimpleDateFormat("yyyy-MM-dd HH");           conv = new FormatConversion();      }
-      else if (format.equals(BY_YEAR_MONTH_DAY_HOUR_MIN_STR))     { sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm");        conv = new FormatConversion();      }
-      else if (format.equals(BY_YEAR_MONTH_DAY_HOUR_MIN_SEC_STR)) { sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");     conv = new FormatConversion();      }
-      else if (format.equals(BY_MONTH_STR))                       { sdf = new SimpleDateFormat("MM");                      conv = new MonthConversion(false);  }
-      else if (format.equals(BY_MONTH_DAY_STR))                   { sdf = new SimpleDateFormat("MM-dd");                   conv = new MonthConversion(true);   }
-      else if (format.equals(BY_DAYOFWEEK_STR))                   { sdf = new SimpleDateFormat("EEE");                     conv = new WeeklyConversion(false); }
-      else if (format.equals(BY_DAYOFWEEK_HOUR_STR))              { sdf = new SimpleDateFormat("EEE HH");                  conv = new WeeklyConversion(true);  }
-      else if (format.equals(BY_HOUR_STR))                        { sdf = new SimpleDateFormat("HH");                      conv = new PeriodicConversion(DAYS,    HOURS);   }
-      else if (format.equals(BY_HOUR_MINUTE_STR))                 { sdf = new SimpleDateFormat("HH:mm");                   conv = new PeriodicConversion(DAYS,    MINUTES); }
-      else if (format.equals(BY_MINUTE_STR))                      { sdf = new SimpleDateFormat("mm");                      conv = new PeriodicConversion(HOURS,   MINUTES); }
-      else if (format.equals(BY_MINUTE_SECOND_STR))               { sdf = new SimpleDateFormat("mm:ss");                   conv = new PeriodicConversion(HOURS,   SECONDS); }
-      else if (format.equals(BY_SECOND_STR))                      { sdf = new SimpleDateFormat("ss");                      conv = new PeriodicConversion(MINUTES, SECONDS); }
-      else if (format.equals(BY_MILLIS_STR))                      { sdf = new SimpleDateFormat("SSS");                     conv = new PeriodicConversion(SECONDS, 0);  }
-      else if (format.equals(BY_STRAIGHT_STR))                    { sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS"); conv = new StraightConversion();      }
-      else                                                        { sdf = new SimpleDateFormat("yyyy");                    conv = new FormatConversion();      }
-      sdf.setTimeZone(TimeZone.getTimeZone("GMT")); 
+      if      (format.equals(BY_YEAR_STR))                        { pattern = "yyyy";                    layout = YR;                conv = new FormatConversion();      }
+      else if (format.equals(BY_YEAR_MONTH_STR))                  { pattern = "yyyy-MM";                 layout = YR_MO;             conv = new FormatConversion();      }
+      else if (format.equals(BY_YEAR_MONTH_DAY_STR))              { pattern = "yyyy-MM-dd";              layout = YR_MO_DY;          conv = new FormatConversion();      }
+      else if (format.equals(BY_YEAR_MONTH_DAY_HOUR_STR))         { pattern = "yyyy-MM-dd HH";           layout = YR_MO_DY_HR;       conv = new FormatConversion();      }
+      else if (format.equals(BY_YEAR_MONTH_DAY_HOUR_MIN_STR))     { pattern = "yyyy-MM-dd HH:mm";        layout = YR_MO_DY_HR_MN;    conv = new FormatConversion();      }
+      else if (format.equals(BY_YEAR_MONTH_DAY_HOUR_MIN_SEC_STR)) { pattern = "yyyy-MM-dd HH:mm:ss";     layout = YR_MO_DY_HR_MN_SC; conv = new FormatConversion();      }
+      else if (format.equals(BY_MONTH_STR))                       { pattern = "MM";                      layout = MO;                conv = new MonthConversion(false);  }
+      else if (format.equals(BY_MONTH_DAY_STR))                   { pattern = "MM-dd";                   layout = MO_DY;             conv = new MonthConversion(true);   }
+      else if (format.equals(BY_DAYOFWEEK_STR))                   { pattern = "EEE";                     layout = DOW;               conv = new WeeklyConversion(false); }
+      else if (format.equals(BY_DAYOFWEEK_HOUR_STR))              { pattern = "EEE HH";                  layout = DOW_HR;            conv = new WeeklyConversion(true);  }
+      else if (format.equals(BY_HOUR_STR))                        { pattern = "HH";                      layout = HR;                conv = new PeriodicConversion(DAYS,    HOURS);   }
+      else if (format.equals(BY_HOUR_MINUTE_STR))                 { pattern = "HH:mm";                   layout = HR_MN;             conv = new PeriodicConversion(DAYS,    MINUTES); }
+      else if (format.equals(BY_MINUTE_STR))                      { pattern = "mm";                      layout = MN;                conv = new PeriodicConversion(HOURS,   MINUTES); }
+      else if (format.equals(BY_MINUTE_SECOND_STR))               { pattern = "mm:ss";                   layout = MN_SC;             conv = new PeriodicConversion(HOURS,   SECONDS); }
+      else if (format.equals(BY_SECOND_STR))                      { pattern = "ss";                      layout = SC;                conv = new PeriodicConversion(MINUTES, SECONDS); }
+      else if (format.equals(BY_MILLIS_STR))                      { pattern = "SSS";                     layout = MS;                conv = new PeriodicConversion(SECONDS, 0);  }
+      else if (format.equals(BY_STRAIGHT_STR))                    { pattern = "yyyy-MM-dd HH:mm:ss.SSS"; layout = STRAIGHT;          conv = new StraightConversion();      }
+      else                                                        { pattern = "yyyy";                    layout = YR;                conv = new FormatConversion();      }
+
+      // The labels match the formatter in the default locale
+      SimpleDateFormat sdf = new SimpleDateFormat(pattern);
+      arithmetic = (sdf.getCalendar() instanceof GregorianCalendar) && DecimalFormatSymbols.getInstance().getZeroDigit() == '0';
+      weekdays   = DateFormatSymbols.getInstance().getShortWeekdays();
     }
 
     /**
@@ -755,7 +1013,7 @@ public class KeyMaker {
      *@return date formatted string
      */
     public String[] stringKeys(Bundle bundle) {
-      String strs[] = new String[1]; strs[0] = sdf.format(new Date(bundle.ts0()));  return strs; 
+      String strs[] = new String[1]; strs[0] = label(bundle.ts0());  return strs; 
     }
     
     /**
@@ -767,6 +1025,96 @@ public class KeyMaker {
      */
     public String toString(long l) { return conv.toString(l); }
 
+    /**
+     * Return the label for a timestamp -- the same string as the pattern's formatter.
+     *
+     *@param  ts timestamp as epoch
+     *
+     *@return label of the timestamp's bucket
+     */
+    public String label(long ts) {
+      if (arithmetic == false || ts < CivilTime.GREGORIAN_SAFE) return fallback_sdf.get().format(new Date(ts));
+      return timeLabel(ts).str;
+    }
+
+    /**
+     * Write the key id of the bundle's timestamp.
+     */
+    public int keyIds(Bundle bundle, int keys[]) {
+      long ts = bundle.ts0();
+      if (arithmetic == false || ts < CivilTime.GREGORIAN_SAFE) return emit(keyDictionary().intern(fallback_sdf.get().format(new Date(ts))), keys);
+      return emit(timeLabel(ts).key, keys);
+    }
+
+    /**
+     * Return the cached label for a timestamp's bucket -- only for timestamps that can be labeled arithmetically.
+     */
+    private TimeLabel timeLabel(long ts) {
+      long id = bucket(ts);
+      int  h  = (int) (id ^ (id >>> 32)); h ^= (h >>> 16); h *= 0x45d9f3b; h ^= (h >>> 16); int slot = h & (LABEL_CACHE - 1);
+      TimeLabel cached = labels[slot]; if (cached != null && cached.id == id) return cached;
+      String str = buildLabel(id); cached = new TimeLabel(id, str, keyDictionary().intern(str)); labels[slot] = cached;
+      return cached;
+    }
+
+    /**
+     * Return the bucket for a timestamp -- the start of the bucket for the date layouts and the
+     * position within the period for the periodic ones.
+     *
+     *@param  ts timestamp as epoch
+     *
+     *@return bucket identifier
+     */
+    long bucket(long ts) {
+      switch (layout) {
+        case YR:                return CivilTime.floorYear(ts);
+        case YR_MO:             return CivilTime.floorMonth(ts);
+        case YR_MO_DY:          return ts - CivilTime.floorMod(ts, CivilTime.DAY);
+        case YR_MO_DY_HR:       return ts - CivilTime.floorMod(ts, CivilTime.HOUR);
+        case YR_MO_DY_HR_MN:    return ts - CivilTime.floorMod(ts, CivilTime.MINUTE);
+        case YR_MO_DY_HR_MN_SC: return ts - CivilTime.floorMod(ts, CivilTime.SECOND);
+        case STRAIGHT:          return ts;
+        case MO:                { long c = CivilTime.civilFromDays(CivilTime.floorDiv(ts, CivilTime.DAY)); return CivilTime.month(c) - 1; }
+        case MO_DY:             { long c = CivilTime.civilFromDays(CivilTime.floorDiv(ts, CivilTime.DAY)); return (CivilTime.month(c) - 1)*31 + CivilTime.day(c) - 1; }
+        case DOW:               return CivilTime.dayOfWeek(ts);
+        case DOW_HR:            return CivilTime.dayOfWeek(ts)*24 + CivilTime.floorMod(ts, CivilTime.DAY)/CivilTime.HOUR;
+        case HR:                return CivilTime.floorMod(ts, CivilTime.DAY)    / CivilTime.HOUR;
+        case HR_MN:             return CivilTime.floorMod(ts, CivilTime.DAY)    / CivilTime.MINUTE;
+        case MN:                return CivilTime.floorMod(ts, CivilTime.HOUR)   / CivilTime.MINUTE;
+        case MN_SC:             return CivilTime.floorMod(ts, CivilTime.HOUR)   / CivilTime.SECOND;
+        case SC:                return CivilTime.floorMod(ts, CivilTime.MINUTE) / CivilTime.SECOND;
+        case MS:                return CivilTime.floorMod(ts, CivilTime.SECOND);
+        default:                throw new RuntimeException("TimeMaker.bucket() - Unknown Layout " + layout);
+      }
+    }
+
+    /**
+     * Build the label for a bucket.
+     */
+    private String buildLabel(long id) {
+      StringBuilder sb = new StringBuilder(24);
+      switch (layout) {
+        case MO:     return CivilTime.pad(sb, id + 1, 2).toString();
+        case MO_DY:  CivilTime.pad(sb, id/31 + 1, 2).append('-');  return CivilTime.pad(sb, id%31 + 1, 2).toString();
+        case DOW:    return weekdays[(int) id + 1];
+        case DOW_HR: sb.append(weekdays[(int) (id/24) + 1]).append(' '); return CivilTime.pad(sb, id%24, 2).toString();
+        case HR:     return CivilTime.pad(sb, id, 2).toString();
+        case HR_MN:  CivilTime.pad(sb, id/60, 2).append(':');      return CivilTime.pad(sb, id%60, 2).toString();
+        case MN:     return CivilTime.pad(sb, id, 2).toString();
+        case MN_SC:  CivilTime.pad(sb, id/60, 2).append(':');      return CivilTime.pad(sb, id%60, 2).toString();
+        case SC:     return CivilTime.pad(sb, id, 2).toString();
+        case MS:     return CivilTime.pad(sb, id, 3).toString();
+      }
+      long days = CivilTime.floorDiv(id, CivilTime.DAY), tod = id - days*CivilTime.DAY, c = CivilTime.civilFromDays(days);
+      CivilTime.pad(sb, CivilTime.year(c), 4);                                              if (layout == YR)             return sb.toString();
+      CivilTime.pad(sb.append('-'), CivilTime.month(c), 2);                                 if (layout == YR_MO)          return sb.toString();
+      CivilTime.pad(sb.append('-'), CivilTime.day(c),   2);                                 if (layout == YR_MO_DY)       return sb.toString();
+      CivilTime.pad(sb.append(' '), tod/CivilTime.HOUR, 2);                                 if (layout == YR_MO_DY_HR)    return sb.toString();
+      CivilTime.pad(sb.append(':'), (tod%CivilTime.HOUR)/CivilTime.MINUTE, 2);              if (layout == YR_MO_DY_HR_MN) return sb.toString();
+      CivilTime.pad(sb.append(':'), (tod%CivilTime.MINUTE)/CivilTime.SECOND, 2);            if (layout == YR_MO_DY_HR_MN_SC) return sb.toString();
+      return CivilTime.pad(sb.append('.'), tod%CivilTime.SECOND, 3).toString();
+    }
+
     class Conversion { 
       public long    timeStampKey(Bundle bundle)    { return 0L;   } 
       public long    endTimeStampKey(Bundle bundle) { return 0L;   } 
@@ -784,29 +1132,40 @@ public class KeyMaker {
       public long    timeStampKey   (Bundle bundle) { return timeStampKey(bundle.ts0()); }
       public long    endTimeStampKey(Bundle bundle) { return timeStampKey(bundle.ts1()); }
       public long    timeStampKey   (long l)        { return l; }
-      public String  toString       (long l)        { return sdf.format(new Date(l)); }
+      public String  toString       (long l)        { return label(l); }
     }
 
     /**
      * Conversion class for most-significant date portions.  Enables yearly down to year-month-day-hour-min conversions.
      */
     class FormatConversion extends Conversion { 
-      Calendar gmtcal; { gmtcal = Calendar.getInstance(TimeZone.getTimeZone("GMT")); }
+      /**
+       * Calendar fields to nullify -- only used for the timestamps before {@link CivilTime#GREGORIAN_SAFE}
+       */
       Map<Integer,Integer> calsettings = new HashMap<Integer,Integer>();
+      /**
+       * Unit the timestamps are floored to (years and months are done by date)
+       */
+      long unit = CivilTime.SECOND;
       public FormatConversion() { 
         // Figure out which settings to nullify when a new date is converted
         calsettings.put(Calendar.MILLISECOND,  0);
-        if (format.equals(BY_YEAR_STR))                    { calsettings.put(Calendar.SECOND, 0); calsettings.put(Calendar.MINUTE, 0); calsettings.put(Calendar.HOUR_OF_DAY, 0); calsettings.put(Calendar.DAY_OF_MONTH, 1); calsettings.put(Calendar.MONTH,        0); }
-        if (format.equals(BY_YEAR_MONTH_STR))              { calsettings.put(Calendar.SECOND, 0); calsettings.put(Calendar.MINUTE, 0); calsettings.put(Calendar.HOUR_OF_DAY, 0); calsettings.put(Calendar.DAY_OF_MONTH, 1); }
-        if (format.equals(BY_YEAR_MONTH_DAY_STR))          { calsettings.put(Calendar.SECOND, 0); calsettings.put(Calendar.MINUTE, 0); calsettings.put(Calendar.HOUR_OF_DAY, 0); }
-        if (format.equals(BY_YEAR_MONTH_DAY_HOUR_STR))     { calsettings.put(Calendar.SECOND, 0); calsettings.put(Calendar.MINUTE, 0); }
-        if (format.equals(BY_YEAR_MONTH_DAY_HOUR_MIN_STR)) { calsettings.put(Calendar.SECOND, 0); }
+        if (format.equals(BY_YEAR_STR))                    { calsettings.put(Calendar.SECOND, 0); calsettings.put(Calendar.MINUTE, 0); calsettings.put(Calendar.HOUR_OF_DAY, 0); calsettings.put(Calendar.DAY_OF_MONTH, 1); calsettings.put(Calendar.MONTH,        0); unit = 0L; }
+        if (format.equals(BY_YEAR_MONTH_STR))              { calsettings.put(Calendar.SECOND, 0); calsettings.put(Calendar.MINUTE, 0); calsettings.put(Calendar.HOUR_OF_DAY, 0); calsettings.put(Calendar.DAY_OF_MONTH, 1); unit = -1L; }
+        if (format.equals(BY_YEAR_MONTH_DAY_STR))          { calsettings.put(Calendar.SECOND, 0); calsettings.put(Calendar.MINUTE, 0); calsettings.put(Calendar.HOUR_OF_DAY, 0); unit = CivilTime.DAY;    }
+        if (format.equals(BY_YEAR_MONTH_DAY_HOUR_STR))     { calsettings.put(Calendar.SECOND, 0); calsettings.put(Calendar.MINUTE, 0); unit = CivilTime.HOUR;   }
+        if (format.equals(BY_YEAR_MONTH_DAY_HOUR_MIN_STR)) { calsettings.put(Calendar.SECOND, 0); unit = CivilTime.MINUTE; }
       }
       public long timeStampKey(long l) {
-        gmtcal.setTimeInMillis(l);
-	Iterator<Integer> it = calsettings.keySet().iterator();
-	while (it.hasNext()) { int field = it.next(); int value = calsettings.get(field); gmtcal.set(field,value); }
-	return gmtcal.getTimeInMillis();
+        if (l < CivilTime.GREGORIAN_SAFE) {
+          Calendar gmtcal = Calendar.getInstance(TimeZone.getTimeZone("GMT")); gmtcal.setTimeInMillis(l);
+	  Iterator<Integer> it = calsettings.keySet().iterator();
+	  while (it.hasNext()) { int field = it.next(); int value = calsettings.get(field); gmtcal.set(field,value); }
+	  return gmtcal.getTimeInMillis();
+        }
+        if      (unit ==  0L) return CivilTime.floorYear(l);
+        else if (unit == -1L) return CivilTime.floorMonth(l);
+        else                  return l - CivilTime.floorMod(l, unit);
       }
       public long timeStampKey(Bundle bundle) {
         return timeStampKey(bundle.ts0());
@@ -815,7 +1174,7 @@ public class KeyMaker {
         return timeStampKey(bundle.ts1());
       }
       public String toString(long l) {
-        return sdf.format(new Date(l));
+        return label(l);
       }
     }
 
@@ -823,12 +1182,14 @@ public class KeyMaker {
      * Conversion class for monthly (and monthly-day) conversions.
      */
     class MonthConversion extends Conversion { 
-      Calendar gmtcal; { gmtcal = Calendar.getInstance(TimeZone.getTimeZone("GMT")); }  boolean include_days;
+      boolean include_days;
       public MonthConversion(boolean include_days) { this.include_days = include_days; }
       public long timeStampKey(Bundle bundle) {
-        gmtcal.setTimeInMillis(bundle.ts0());
-	if (include_days) { return gmtcal.get(Calendar.MONTH)*31 + gmtcal.get(Calendar.DAY_OF_MONTH) - 1; // Day is one-based
-	} else            { return gmtcal.get(Calendar.MONTH); }
+        long ts = bundle.ts0(); int month, day;
+        if (ts < CivilTime.GREGORIAN_SAFE) { Calendar gmtcal = Calendar.getInstance(TimeZone.getTimeZone("GMT")); gmtcal.setTimeInMillis(ts); month = gmtcal.get(Calendar.MONTH); day = gmtcal.get(Calendar.DAY_OF_MONTH); }
+        else                               { long c = CivilTime.civilFromDays(CivilTime.floorDiv(ts, CivilTime.DAY)); month = CivilTime.month(c) - 1; day = CivilTime.day(c); }
+	if (include_days) { return month*31 + day - 1; // Day is one-based
+	} else            { return month; }
       }
       public boolean linearTime()       { return false; }
       public long    minPeriodicValue() { return 0L; }
@@ -866,17 +1227,14 @@ public class KeyMaker {
      * Conversion class for weekly (and weekly-hour) conversions.
      */
     class WeeklyConversion extends Conversion { 
-      Calendar gmtcal; { gmtcal = Calendar.getInstance(TimeZone.getTimeZone("GMT")); } boolean include_hours;
+      boolean include_hours;
       public WeeklyConversion(boolean include_hours) { this.include_hours = include_hours; }
-      public long timeStampKey(Bundle bundle) {
-        gmtcal.setTimeInMillis(bundle.ts0());
-	if (include_hours) { return 24*(gmtcal.get(Calendar.DAY_OF_WEEK) - 1) + gmtcal.get(Calendar.HOUR_OF_DAY);
-	} else             { return     gmtcal.get(Calendar.DAY_OF_WEEK) - 1; }
-      }
-      public long endTimeStampKey(Bundle bundle) {
-        gmtcal.setTimeInMillis(bundle.ts1());
-	if (include_hours) { return 24*(gmtcal.get(Calendar.DAY_OF_WEEK) - 1) + gmtcal.get(Calendar.HOUR_OF_DAY);
-	} else             { return     gmtcal.get(Calendar.DAY_OF_WEEK) - 1; }
+      public long timeStampKey(Bundle bundle)    { return key(bundle.ts0()); }
+      public long endTimeStampKey(Bundle bundle) { return key(bundle.ts1()); }
+      // The day of the week and the hour don't change across the julian cutover
+      private long key(long ts) {
+	if (include_hours) { return 24*CivilTime.dayOfWeek(ts) + CivilTime.floorMod(ts, CivilTime.DAY)/CivilTime.HOUR;
+	} else             { return    CivilTime.dayOfWeek(ts); }
       }
       public boolean linearTime() { return false; }
       public long    minPeriodicValue() { return 0L; }
@@ -960,6 +1318,32 @@ public class KeyMaker {
    */
   private Maker  maker;
 
+  /**
+   * Dictionary of the key ids -- created on first use (see {@link #keyDictionary()})
+   */
+  private volatile FieldDictionary keys;
+
+  /**
+   * Key dictionaries to draw from -- null for the current ones in the globals
+   */
+  private ConcurrentMap<String,FieldDictionary> key_dicts;
+
+  /**
+   * Return the dictionary of the key ids.  A straight field uses the field's own dictionary
+   * (so the columnar records already hold the ids) -- everything else uses the blank's
+   * key dictionary from the globals.
+   *
+   *@return key dictionary
+   */
+  FieldDictionary keyDictionary() {
+    FieldDictionary dict = keys; if (dict != null) return dict;
+    BundlesG globals = tablet.getBundles().getGlobals();
+    if (maker instanceof SimpleMaker) dict = globals.getOrCreateDictionary(((SimpleMaker) maker).fld_i);
+    else if (key_dicts != null)       dict = globals.keyDictionary(key_dicts, blank);
+    else                              dict = globals.keyDictionary(blank);
+    return keys = dict;
+  }
+
   /**
    * Create a Keymaker based on the specific tablet and blank.  Some amount
    * of parsing is required to find the right {@link Maker}.
@@ -967,8 +1351,17 @@ public class KeyMaker {
    * @param tablet tablet for the conversions
    * @param blank  specified blank
    */
-  public KeyMaker(Tablet tablet, String blank) {
-    this.tablet = tablet; this.blank = blank;
+  public KeyMaker(Tablet tablet, String blank) { this(tablet, blank, null); }
+
+  /**
+   * Create a Keymaker whose key ids come from specific key dictionaries (see {@link BundlesG#keyDictionaries()}).
+   *
+   * @param tablet    tablet for the conversions
+   * @param blank     specified blank
+   * @param key_dicts key dictionaries -- null for the current ones in the globals
+   */
+  KeyMaker(Tablet tablet, String blank, ConcurrentMap<String,FieldDictionary> key_dicts) {
+    this.tablet = tablet; this.blank = blank; this.key_dicts = key_dicts;
     if        (blank.equals(TABLET_SEP_STR))         {
                                                 maker = new TabletSepMaker(tablet);
     } else if (blank.equals(ALL_ENTITIES_STR))       {
@@ -1076,12 +1469,67 @@ public class KeyMaker {
    * @return        array of strings after the conversion to keys
    */
   public String[] stringKeys(Bundle bundle) { return maker.stringKeys(bundle); }
+
+  /**
+   * Write a bundle's keys as key ids -- the ids are dense and stable for the blank (across
+   * tablets), so they can index arrays directly.  Nothing is allocated once the distinct
+   * values have been seen, and the strings are only looked up when they're needed (see
+   * {@link #keyString(int)}).  If the number of keys is more than the buffer holds, only
+   * the ones that fit are written -- grow the buffer and call again.
+   *
+   * @param  bundle bundle/record to convert
+   * @param  keys   buffer for the key ids
+   * @return        number of keys
+   */
+  public int      keyIds    (Bundle bundle, int keys[]) { return maker.keyIds(bundle, keys); }
+
+  /**
+   * Return the key string for a key id.
+   *
+   * @param  id key id from {@link #keyIds(Bundle,int[])}
+   * @return    key string -- the same as {@link #stringKeys(Bundle)} produces
+   */
+  public String   keyString (int id) { 
+    if (maker instanceof RecordCountMaker) return "" + ((Object) tablet.getBundles().getGlobals().ordinalBundle(id));
+    return keyDictionary().toString(id); 
+  }
+
+  /**
+   * Return the integer value of a key id -- the same as the globals would convert the key string to.
+   *
+   * @param  id key id from {@link #keyIds(Bundle,int[])}
+   * @return    integer value
+   */
+  public int      keyValue  (int id) { 
+    if (maker instanceof RecordCountMaker) return tablet.getBundles().getGlobals().toInt(keyString(id));
+    return keyDictionary().toValue(id); 
+  }
+
+  /**
+   * Return the number of key ids issued for the blank -- every id is less than this.
+   *
+   * @return number of key ids
+   */
+  public int      keyCount  ()       { 
+    if (maker instanceof RecordCountMaker) return tablet.getBundles().getGlobals().ordinalCount();
+    return keyDictionary().size(); 
+  }
   
   /**
    * Reverse lookup to convert integers back to strings
    */
   public Map<Integer,String> reverse_lu = new HashMap<Integer,String>();
 
+  /**
+   * Buffer for {@link #intKeys(Bundle)} -- like the reverse lookup, only used by one thread
+   */
+  private int int_keys[] = new int[8];
+
+  /**
+   * Key ids that have been added to the reverse lookup
+   */
+  private BitSet reversed = new BitSet();
+
   /**
    * Convert a bundle over to the specific keys as integers.  Keep track
    * of the conversions in case they need to be converted back.  
@@ -1090,11 +1538,12 @@ public class KeyMaker {
    * @return        array of integers after the conversion
    */
   public int[]    intKeys   (Bundle bundle) { 
-    String strs[] = stringKeys(bundle);
-    int    ints[] = new int[strs.length];
-    for (int i=0;i<strs.length;i++) {
-      ints[i] = tablet.getBundles().getGlobals().toInt(strs[i]);
-      reverse_lu.put(ints[i], strs[i]);
+    int n = keyIds(bundle, int_keys);
+    if (n > int_keys.length) { int_keys = new int[Math.max(n, int_keys.length*2)]; n = keyIds(bundle, int_keys); }
+    int    ints[] = new int[n];
+    for (int i=0;i<n;i++) {
+      int id = int_keys[i]; ints[i] = keyValue(id);
+      if (reversed.get(id) == false) { reversed.set(id); reverse_lu.put(ints[i], keyString(id)); }
     }
     return ints;
   }
@@ -0,0 +1,278 @@
+/*
+
+Copyright 2013 David Trimm
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package racetrack.framework;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.StringTokenizer;
+
+import racetrack.util.Utils;
+
+/**
+ * Column projection and row predicates applied while a file is parsed -- excluded columns
+ * never become fields and excluded rows never become records.  A filter is described by a
+ * specification of semicolon separated clauses:
+ *
+ * <pre>
+ *   columns=sip,dip,dpt                    keep only these columns (timestamps are always kept)
+ *   timestamp=2014-01-06..2014-01-07       record start time in [from,to) -- either end may be left off
+ *   dpt=80,443                             field equals one of the values
+ *   sip~10.0.0.0/8,192.168.0.0/16          field is an IPv4 address in one of the CIDRs
+ * </pre>
+ *
+ * Predicates only apply to the sections (headers) of a file that have the field -- so a
+ * multi-table file keeps the rows of the tables that don't have it.  Lookup tables, tags,
+ * markers, and comments aren't filtered.  Filters are immutable (and safe to share across
+ * threads).  The specification (see {@link #toString()}) is recorded with the loaded data.
+ *
+ *@author  D. Trimm
+ *@version 1.0
+ */
+public class LoadFilter {
+  /**
+   * Columns to keep -- null for all of them
+   */
+  private final Set<String> columns;
+
+  /**
+   * Time range -- [from, to)
+   */
+  private final long from, to; private final boolean timed;
+
+  /**
+   * Field predicates
+   */
+  private final List<Predicate> predicates;
+
+  /**
+   * Original clauses (normalized) for the specification
+   */
+  private final String spec;
+
+  /**
+   * Predicate on a single field -- equals one of a set of values or falls within one of a set of CIDRs
+   */
+  static final class Predicate {
+    final String field; final Set<String> values; final int cidr_bits[], cidr_masks[];
+    Predicate(String field, Set<String> values) { this.field = field; this.values = values; cidr_bits = cidr_masks = null; }
+    Predicate(String field, int bits[], int masks[]) { this.field = field; this.values = null; cidr_bits = bits; cidr_masks = masks; }
+    boolean accepts(String value) {
+      if (values != null) return values.contains(value);
+      long ip = ipv4(value); if (ip < 0) return false;
+      for (int i=0;i<cidr_bits.length;i++) if (Utils.cidrMatch((int) ip, cidr_bits[i], cidr_masks[i])) return true;
+      return false;
+    }
+  }
+
+  /**
+   * Parse a filter specification.
+   *
+   *@param  spec specification -- see the class description
+   *
+   *@return filter
+   *
+   *@throws IllegalArgumentException if a clause can't be parsed
+   */
+  public static LoadFilter parse(String spec) {
+    Set<String> columns = null; long from = Long.MIN_VALUE, to = Long.MAX_VALUE; boolean timed = false;
+    List<Predicate> predicates = new ArrayList<Predicate>(); StringBuilder normalized = new StringBuilder();
+    StringTokenizer st = new StringTokenizer(spec, ";");
+    while (st.hasMoreTokens()) {
+      String clause = st.nextToken().trim(); if (clause.length() == 0) continue;
+      int eq = clause.indexOf('='), ti = clause.indexOf('~'), op = (eq < 0) ? ti : (ti < 0 ? eq : Math.min(eq, ti));
+      if (op <= 0) throw new IllegalArgumentException("LoadFilter : Expected \"field=values\" or \"field~cidrs\" -- \"" + clause + "\"");
+      String field = clause.substring(0, op).trim(), rhs = clause.substring(op+1).trim(); List<String> values = list(rhs);
+      if (clause.charAt(op) == '~') {
+        int bits[] = new int[values.size()], masks[] = new int[values.size()];
+        for (int i=0;i<values.size();i++) {
+          String cidr = values.get(i);
+          if (Utils.isIPv4CIDR(cidr) == false) throw new IllegalArgumentException("LoadFilter : Not An IPv4 CIDR -- \"" + cidr + "\"");
+          masks[i] = Utils.cidrMask(cidr); bits[i] = Utils.cidrBits(cidr);
+        }
+        predicates.add(new Predicate(field, bits, masks));
+      } else if (field.equals("columns")) {
+        if (columns == null) columns = new LinkedHashSet<String>(); columns.addAll(values);
+      } else if (isTimeHeader(field))     {
+        int dots = rhs.indexOf(".."); if (dots < 0) throw new IllegalArgumentException("LoadFilter : Expected \"timestamp=from..to\" -- \"" + clause + "\"");
+        String from_str = rhs.substring(0, dots).trim(), to_str = rhs.substring(dots+2).trim();
+        if (from_str.length() > 0) from = Utils.parseTimeStamp(from_str);
+        if (to_str.length()   > 0) to   = Utils.parseTimeStamp(to_str);
+        timed = true;
+      } else predicates.add(new Predicate(field, new HashSet<String>(values)));
+      if (normalized.length() > 0) normalized.append(';'); normalized.append(clause);
+    }
+    return new LoadFilter(columns, from, to, timed, predicates, normalized.toString());
+  }
+
+  /**
+   * Create a filter that only keeps the specified columns.
+   *
+   *@param  columns columns to keep
+   *
+   *@return filter
+   */
+  public static LoadFilter project(String... columns) {
+    StringBuilder sb = new StringBuilder("columns=");
+    for (int i=0;i<columns.length;i++) { if (i > 0) sb.append(','); sb.append(columns[i]); }
+    return parse(sb.toString());
+  }
+
+  /**
+   * Construct the filter.
+   */
+  private LoadFilter(Set<String> columns, long from, long to, boolean timed, List<Predicate> predicates, String spec) {
+    this.columns = columns; this.from = from; this.to = to; this.timed = timed; this.predicates = predicates; this.spec = spec;
+  }
+
+  /**
+   * Split a comma separated list.
+   */
+  private static List<String> list(String str) {
+    List<String> list = new ArrayList<String>(); StringTokenizer st = new StringTokenizer(str, ",");
+    while (st.hasMoreTokens()) { String s = st.nextToken().trim(); if (s.length() > 0) list.add(s); }
+    return list;
+  }
+
+  /**
+   * Determine if a header field is one of the timestamp fields.
+   */
+  static boolean isTimeHeader(String hdr) { return hdr.equals("beg") || hdr.equals("timestamp") || hdr.equals("end") || hdr.equals("timestamp_end"); }
+
+  /**
+   * Parse a dotted quad.
+   *
+   *@return address as an unsigned value, -1 if the string isn't an IPv4 address
+   */
+  static long ipv4(String str) {
+    long ip = 0L; int octet = -1, octets = 0;
+    for (int i=0;i<str.length();i++) {
+      char c = str.charAt(i);
+      if (c >= '0' && c <= '9') { octet = (octet < 0 ? 0 : octet*10) + (c - '0'); if (octet > 255) return -1L; }
+      else if (c == '.' && octet >= 0 && octets < 3) { ip = (ip << 8) | octet; octet = -1; octets++; }
+      else return -1L;
+    }
+    if (octet < 0 || octets != 3) return -1L;
+    return (ip << 8) | octet;
+  }
+
+  /**
+   * Determine if the filter doesn't exclude anything.
+   *
+   *@return true if there are no clauses
+   */
+  public boolean isEmpty() { return columns == null && timed == false && predicates.size() == 0; }
+
+  /**
+   * Return the columns kept by the projection.
+   *
+   *@return columns -- null if all columns are kept
+   */
+  public Set<String> getColumns() { return columns; }
+
+  /**
+   * Return the specification -- parsing it produces an equivalent filter.
+   *
+   *@return specification
+   */
+  @Override
+  public String toString() { return spec; }
+
+  /**
+   * Compile the filter for a section header.
+   *
+   *@param  hdr header tokens
+   *
+   *@return compiled filter for the rows under the header
+   */
+  public Section section(String hdr[]) { return new Section(hdr); }
+
+  /**
+   * Filter compiled against a header -- the column indices are resolved once per header.
+   */
+  public class Section {
+    /**
+     * Columns to keep (by header index)
+     */
+    private final boolean keep[];
+
+    /**
+     * Header index for each predicate that applies (predicates on absent fields are dropped)
+     */
+    private final int pred_i[]; private final Predicate preds[];
+
+    /**
+     * Apply the time range
+     */
+    private final boolean check_time;
+
+    /**
+     * Construct the section.
+     *
+     *@param hdr header tokens
+     */
+    Section(String hdr[]) {
+      keep = new boolean[hdr.length]; boolean has_time = false;
+      for (int i=0;i<hdr.length;i++) {
+        boolean time = isTimeHeader(hdr[i]); has_time |= time;
+        keep[i] = time || columns == null || columns.contains(hdr[i]);
+      }
+      List<Integer> is = new ArrayList<Integer>(); List<Predicate> ps = new ArrayList<Predicate>();
+      for (int p=0;p<predicates.size();p++) {
+        int i = Arrays.asList(hdr).indexOf(predicates.get(p).field);
+        if (i >= 0) { is.add(i); ps.add(predicates.get(p)); }
+      }
+      pred_i = new int[is.size()]; for (int i=0;i<pred_i.length;i++) pred_i[i] = is.get(i);
+      preds  = ps.toArray(new Predicate[ps.size()]);
+      check_time = timed && has_time;
+    }
+
+    /**
+     * Determine if a column is kept.
+     *
+     *@param  i header index
+     *
+     *@return true if the column becomes a field
+     */
+    public boolean keep(int i) { return i >= keep.length || keep[i]; }
+
+    /**
+     * Determine if the rows need their timestamp for {@link #accepts(String[],long)}.
+     *
+     *@return true if the time range applies to this section
+     */
+    public boolean timed() { return check_time; }
+
+    /**
+     * Determine if a row passes the predicates.
+     *
+     *@param  tokens row tokens
+     *@param  ts0    record start time -- only used if {@link #timed()}
+     *
+     *@return true if the row should be loaded
+     */
+    public boolean accepts(String tokens[], long ts0) {
+      if (check_time && (ts0 < from || ts0 >= to)) return false;
+      for (int p=0;p<preds.length;p++) { int i = pred_i[p]; if (i >= tokens.length || preds[p].accepts(tokens[i]) == false) return false; }
+      return true;
+    }
+  }
+}
@@ -0,0 +1,171 @@
+/*
+
+Copyright 2013 David Trimm
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+
+package racetrack.framework;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Memo of the {@link PostProc} outputs by (entity id, post processor id).  Post processors
+ * (cidr masks, geoip lookups, user agent parsing, transforms, ...) are pure functions of the
+ * entity until the transforms change -- so each distinct entity only has to be processed once
+ * per post processor no matter how many records (or tablets, or key makers) it shows up in.
+ *
+ * Lookups don't lock.  Each output is published through an atomic array element; the tables
+ * are copied when they grow and the copies are published by a volatile write -- a published
+ * table is never modified.  Two threads may process the same entity, but the results are the
+ * same.  {@link #invalidate()} swaps in an empty memo (with a new generation) when the transforms
+ * change; key makers that derive from the outputs compare the generation to know when to
+ * drop what they've derived.  The memo also starts over (keeping its generation since the
+ * outputs are still valid) when the globals' entities are cleansed or once it holds
+ * {@link #MAX_ENTITIES} entities.
+ *
+ * The output arrays are shared -- callers must not modify them.
+ *
+ * @author  D. Trimm
+ * @version 1.0
+ */
+class PostMemo {
+  /**
+   * Most entities to memoize before starting over
+   */
+  static final int MAX_ENTITIES = 1 << 20;
+
+  /**
+   * Globals that own this memo
+   */
+  private final BundlesG                          globals;
+
+  /**
+   * Post processor ids by post processor description (see {@link BundlesDT#createPostProcessor(String,BundlesG)})
+   */
+  private final ConcurrentHashMap<String,Integer> proc_ids = new ConcurrentHashMap<String,Integer>();
+
+  /**
+   * Memo for the current generation
+   */
+  private volatile Table                          table;
+
+  /**
+   * Construct the memo for the specified globals.
+   *
+   *@param globals owning globals
+   */
+  public PostMemo(BundlesG globals) { this.globals = globals; table = new Table(0, globals.entityGeneration()); }
+
+  /**
+   * Entity ids and outputs for one generation of the transforms
+   */
+  private class Table {
+    /**
+     * Generation of this table and the entity generation of the globals when it was created
+     */
+    final int                gen, ent_gen;
+
+    /**
+     * Entity ids
+     */
+    final FieldDictionary    ents = new FieldDictionary(globals);
+
+    /**
+     * Outputs by post processor id then entity id.  The outer table is replaced (never modified
+     * in place) when a post processor is added or its outputs grow -- the outputs themselves are
+     * set in the atomic arrays.
+     */
+    volatile AtomicReferenceArray<String[]> outs[] = newOuts(0);
+
+    Table(int gen, int ent_gen) { this.gen = gen; this.ent_gen = ent_gen; }
+
+    @SuppressWarnings({"unchecked","rawtypes"})
+    AtomicReferenceArray<String[]>[] newOuts(int n) { return (AtomicReferenceArray<String[]>[]) new AtomicReferenceArray[n]; }
+
+    /**
+     * Memoize an output.
+     */
+    synchronized void put(int proc_id, int ent, String out[]) {
+      AtomicReferenceArray<String[]> o[] = outs, per = (proc_id < o.length) ? o[proc_id] : null;
+      if (per == null || ent >= per.length()) {
+        AtomicReferenceArray<String[]> grown = new AtomicReferenceArray<String[]>(Math.max(ent+1, per == null ? 64 : per.length()*2));
+        if (per != null) for (int i=0;i<per.length();i++) grown.set(i, per.get(i));
+        AtomicReferenceArray<String[]> copy[] = newOuts(Math.max(proc_id+1, o.length)); System.arraycopy(o, 0, copy, 0, o.length);
+        per = copy[proc_id] = grown; outs = copy;
+      }
+      per.set(ent, out);
+    }
+  }
+
+  /**
+   * Return the id of a post processor.
+   *
+   *@param  post post processor description
+   *
+   *@return post processor id
+   */
+  public int procId(String post) {
+    Integer id = proc_ids.get(post); if (id != null) return id;
+    synchronized (proc_ids) {
+      id = proc_ids.get(post); if (id == null) { id = proc_ids.size(); proc_ids.put(post, id); }
+      return id;
+    }
+  }
+
+  /**
+   * Return the generation of the memo -- changes when the memo is invalidated.
+   *
+   *@return generation
+   */
+  public int generation() { return table.gen; }
+
+  /**
+   * Return the post processed output for an entity -- processed on the first request.
+   *
+   *@param  proc    post processor
+   *@param  proc_id id of the post processor (see {@link #procId(String)})
+   *@param  entity  entity to process
+   *
+   *@return output (shared -- don't modify)
+   */
+  public String[] postProcess(PostProc proc, int proc_id, String entity) {
+    Table t = table; if (t.ent_gen != globals.entityGeneration() || t.ents.size() >= MAX_ENTITIES) t = restart(t);
+    int ent = t.ents.intern(entity);
+    AtomicReferenceArray<String[]> o[] = t.outs;
+    if (proc_id < o.length && o[proc_id] != null && ent < o[proc_id].length()) { String out[] = o[proc_id].get(ent); if (out != null) return out; }
+    String out[] = proc.postProcess(entity); t.put(proc_id, ent, out);
+    return out;
+  }
+
+  /**
+   * Start the memo over with the same generation -- the entities were cleansed or the memo is full.
+   *
+   *@param  t table that needs to be replaced
+   *
+   *@return current table
+   */
+  private synchronized Table restart(Table t) {
+    if (table == t) table = new Table(t.gen, globals.entityGeneration());
+    return table;
+  }
+
+  /**
+   * Drop the memoized outputs -- called when the transforms (or the cidr tables) change.
+   */
+  public void invalidate() {
+    synchronized (this) { Table t = table; if (t.ents.size() > 0) table = new Table(t.gen + 1, globals.entityGeneration()); }
+  }
+}
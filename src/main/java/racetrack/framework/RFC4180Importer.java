@@ -28,7 +28,7 @@ import java.util.Map;
 import java.util.Set;
 
 import racetrack.util.CSVTokenConsumer;
-import racetrack.util.RFC4180CSVReader;
+import racetrack.util.RFC4180ParallelReader;
 import racetrack.util.Utils;
 
 /**
@@ -127,13 +127,13 @@ public class RFC4180Importer implements CSVTokenConsumer {
       Iterator<Tablet> it_tab = bundles.tabletIterator(); boolean found_match = false;
       while (it_tab.hasNext() && found_match == false) {
         Tablet compare = it_tab.next();
-        if (compare.equals(tablet)) { found_match = true; tablet = compare; }
+        if (compare.sameSchema(tablet)) { found_match = true; tablet = compare; }
       }
       if (found_match == false) bundles.add(tablet);
       // Prepare the parser
       first_line_flag = true; caveats = new HashSet<String>();
-      // Parse the file
-      RFC4180CSVReader reader = new RFC4180CSVReader(file,this,encoding);
+      // Parse the file -- chunks are parsed across the worker pool, records are consumed in file order
+      new RFC4180ParallelReader(file,this,encoding);
       // Reset the transforms to force the lookups to be created
       System.err.println("**\n** Probably Need To Include Cached Bundles...\n**");
       Set<Bundles> bundles_set = new HashSet<Bundles>(); bundles_set.add(bundles);
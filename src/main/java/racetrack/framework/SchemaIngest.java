@@ -0,0 +1,186 @@
+/*
+
+Copyright 2013 David Trimm
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package racetrack.framework;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import racetrack.gui.RT;
+import racetrack.util.LineConverter;
+import racetrack.util.Utils;
+
+/**
+ * Base for the readers of self-describing logs (see {@link ZeekIngest} and {@link JSONLinesIngest}).
+ * The workers of the {@link LineConverter} turn each line into a record that's already prepared
+ * for its {@link Schema} -- attribute map and parsed timestamps -- and the records are committed
+ * in order through a {@link BundlesSink} to the same {@link CSVParser} path that the csv files use.
+ * The datatypes declared by the schema are handed to the {@link BundlesG} so that the values
+ * aren't probed.
+ *
+ *@author  D. Trimm
+ *@version 1.0
+ */
+public abstract class SchemaIngest<S> extends LineConverter<S> {
+  /**
+   * Column projection and row predicates (null for none)
+   */
+  protected LoadFilter filter = null;
+
+  /**
+   * Set the filter applied to the records.
+   *
+   *@param filter column projection and row predicates (null for none)
+   */
+  public void setLoadFilter(LoadFilter filter) { this.filter = (filter == null || filter.isEmpty()) ? null : filter; }
+
+  /**
+   * Layout of the records of a table -- the header handed to the parser and the declared datatypes.
+   * Records of a table share the instance so that the parser uses their preparation.
+   */
+  public static class Schema {
+    /**
+     * Table (parser) that the records go to
+     */
+    final String       table;
+    /**
+     * Header -- with "timestamp" (and "timestamp_end") for the time columns
+     */
+    final String       hdr[];
+    /**
+     * Declared datatype for each column (null for columns that are probed)
+     */
+    final BundlesDT.DT dts[];
+    /**
+     * Indices of the time columns (-1 if absent)
+     */
+    final int          time_i, time_end_i;
+    /**
+     * Load filter compiled for the header (null for none)
+     */
+    final LoadFilter.Section section;
+
+    /**
+     * Construct the schema.
+     *
+     *@param table  table name
+     *@param hdr    header
+     *@param dts    declared datatypes
+     *@param filter load filter (null for none)
+     */
+    Schema(String table, String hdr[], BundlesDT.DT dts[], LoadFilter filter) {
+      this.table = table; this.hdr = hdr; this.dts = dts; int t0 = -1, t1 = -1;
+      for (int i=0;i<hdr.length;i++) { if (hdr[i].equals("timestamp")) t0 = i; else if (hdr[i].equals("timestamp_end")) t1 = i; }
+      time_i = t0; time_end_i = t1; section = (filter == null) ? null : filter.section(hdr);
+    }
+
+    /**
+     * Return the header as a csv line.
+     *
+     *@return header line
+     */
+    String line() { StringBuilder sb = new StringBuilder(); for (int i=0;i<hdr.length;i++) { if (i > 0) sb.append(','); sb.append(hdr[i]); } return sb.toString(); }
+  }
+
+  /**
+   * Prepared record with its schema
+   */
+  static class Record extends CSVIngest.Row { Schema schema; }
+
+  /**
+   * Prepare a record -- mirrors {@link CSVIngest} so that the parser adds it directly to the tablet.
+   *
+   *@param  schema schema of the record
+   *@param  values value for each header column (time columns may hold anything)
+   *@param  ts0    start time (if the schema has one)
+   *@param  ts1    end time (if the schema has one)
+   *
+   *@return record ready to commit
+   */
+  protected static Record prepare(Schema schema, String values[], long ts0, long ts1) {
+    Record rec = new Record(); rec.schema = schema; rec.hdr = schema.hdr; rec.tokens = values;
+    boolean has_ts0 = schema.time_i != -1, has_ts1 = schema.time_end_i != -1;
+    // The parser hands the end timestamp over as the start if that's all there is
+    rec.ts0 = has_ts0 ? ts0 : ts1; rec.ts1 = has_ts0 ? ts1 : 0L; rec.has_ts0 = has_ts0 || has_ts1; rec.has_ts1 = has_ts0 && has_ts1;
+    LoadFilter.Section section = schema.section;
+    rec.rejected = (section != null && section.accepts(values, rec.ts0) == false);
+    Map<String,String> attr = new HashMap<String,String>();
+    if (rec.rejected == false) for (int i=0;i<values.length;i++) {
+      if (i != schema.time_i && i != schema.time_end_i && (section == null || section.keep(i))) attr.put(schema.hdr[i], values[i]);
+    }
+    rec.attr = attr;
+    return rec;
+  }
+
+  /**
+   * Hand a prepared record to the {@link BundlesSink}.
+   */
+  @Override
+  protected void commit(String table, Object row, Sink sink) throws IOException {
+    if (row instanceof Record && sink instanceof BundlesSink) ((BundlesSink) sink).commit((Record) row);
+    else throw new IOException("SchemaIngest.commit() - Records Can Only Be Committed To A BundlesSink");
+  }
+
+  /**
+   * Replace integers that don't fit in an int with the maximum int -- the same as the bro normalization.
+   *
+   *@param  value value to check
+   *
+   *@return value or the maximum int as a string
+   */
+  protected static String clampInt(String value) {
+    if (value.length() > 9 && Utils.allNumbers(value)) { try { Integer.parseInt(value); } catch (NumberFormatException nfe) { return "" + Integer.MAX_VALUE; } }
+    return value;
+  }
+
+  /**
+   * Return the header that the first lines of a file produce -- used to offer a projection before loading.
+   *
+   *@param  lines first lines of the file
+   *
+   *@return header of the first record -- empty if there isn't one
+   */
+  public String[] header(List<String> lines) {
+    final Schema found[] = new Schema[1];
+    Output out = new Output() { @Override public void row(String table, Object row) { if (found[0] == null && row instanceof Record) found[0] = ((Record) row).schema; } };
+    S state = start("");
+    for (int i=0;i<lines.size() && found[0] == null;i++) {
+      String line = lines.get(i); if (line.length() == 0) continue;
+      if (line.charAt(0) == controlPrefix()) state = controlLine(state, line, i+1, out); else convertLine(state, line, i+1, out);
+    }
+    return (found[0] == null) ? new String[0] : found[0].hdr.clone();
+  }
+
+  /**
+   * Load a file into the bundles.
+   *
+   *@param  bundles data to load into
+   *@param  rt      application (for tags and markers) -- may be null
+   *@param  file    file to load (.gz files are decompressed)
+   *
+   *@return records that were loaded
+   */
+  public Set<Bundle> load(Bundles bundles, RT rt, File file) throws IOException {
+    BundlesSink sink = new BundlesSink(bundles, rt, filter);
+    try { convert(file, sink); } finally { sink.close(); }
+    return sink.getBundlesAdded();
+  }
+}
@@ -129,6 +129,16 @@ public abstract class Tablet {
    */
   abstract void removeFields(Set<String> flds);
 
+  /**
+   * Determine if this tablet has the same schema (named fields and timestamps) as another.
+   * Used to find an existing tablet for a header.
+   *
+   *@param other tablet to compare to
+   *
+   *@return true if the schemas are exactly the same
+   */
+  public boolean sameSchema(Tablet other) { return equals(other); }
+
   /**
    * Returns if this tablet contains timestamped records.
    *
@@ -223,5 +233,17 @@ public abstract class Tablet {
    *@return The created bundle if successful, null otherwise
    */
   public abstract Bundle addBundle(Map<String,String> attr);
+
+  /**
+   * Add a new bundle with timestamps that were already parsed (e.g., from a snapshot).
+   * Note that for this method to succeed, all fields in this tablet must be satisfied.
+   *
+   *@param attr attribute mapping
+   *@param ts0  timestamp -- ignored if the tablet doesn't have timestamps
+   *@param ts1  end timestamp -- ignored if the tablet doesn't have durations
+   *
+   *@return the created bundle if successful, null otherwise
+   */
+  public abstract Bundle addBundle(Map<String,String> attr, long ts0, long ts1);
 }
 
@@ -0,0 +1,180 @@
+/*
+
+Copyright 2013 David Trimm
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package racetrack.framework;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.StringTokenizer;
+
+import racetrack.util.NormalizeBroLogs;
+import racetrack.util.Utils;
+
+/**
+ * Native reader for Zeek (bro) tab separated logs -- the "#fields" and "#types" lines describe
+ * the records, so the values go to the tablets without a normalized csv in between.  Produces
+ * the same header as {@link NormalizeBroLogs} ("ts" becomes the timestamp, the duration gives
+ * the end timestamp, the scalar fields are in caps, and the path is in "parse_filetype") so
+ * that the records land in the same tablets as the normalized logs.  The declared types are
+ * mapped to datatypes:
+ *
+ * <pre>
+ *   addr                   IPv4
+ *   subnet                 IPv4CIDR
+ *   port, count, int       INTEGER
+ *   double, interval, time FLOAT
+ *   enum, bool, string,    probed
+ *   set, vector
+ * </pre>
+ *
+ * The dns answers and the ssl/certificate tables that the normalizer captures aren't produced.
+ *
+ *@author  D. Trimm
+ *@version 1.0
+ */
+public class ZeekIngest extends SchemaIngest<ZeekIngest.Section> {
+  /**
+   * Schemas by table -- the records of a table share one instance (reader thread only)
+   */
+  private Map<String,Schema> schemas = new HashMap<String,Schema>();
+
+  /**
+   * Metafile settings in effect for the records that follow them
+   */
+  static class Section {
+    String  file;
+    char    sep           = '\t';
+    String  separator     = "\t";
+    String  empty_str     = "(empty)";
+    String  unset_str     = "-";
+    String  path_str      = "";
+    String  fields[]      = null;
+    String  types[]       = null;
+    int     timestamp_i   = -1;
+    int     duration_i    = -1;
+    Schema  schema        = null;
+    Section(String file) { this.file = file; }
+    Section copy() {
+      Section s = new Section(file);
+      s.sep = sep; s.separator = separator; s.empty_str = empty_str; s.unset_str = unset_str; s.path_str = path_str;
+      s.fields = fields; s.types = types; s.timestamp_i = timestamp_i; s.duration_i = duration_i; s.schema = schema;
+      return s;
+    }
+  }
+
+  @Override
+  protected Section start(String name) { return new Section(name); }
+
+  @Override
+  protected int controlPrefix() { return '#'; }
+
+  /**
+   * Parse the metafile lines -- the schema is rebuilt when the fields, types, or path change.
+   */
+  @Override
+  protected Section controlLine(Section section, String line, int line_no, Output out) {
+    Section s = section.copy();
+    StringTokenizer st = new StringTokenizer(line, s.separator); if (st.hasMoreTokens() == false) return s;
+    String first = st.nextToken();
+    if        (first.equals("#separator"))     { s.separator = parseSeparator(st.nextToken()); s.sep = s.separator.charAt(0);
+    } else if (first.equals("#empty_field"))   { s.empty_str = st.nextToken();
+    } else if (first.equals("#unset_field"))   { s.unset_str = st.nextToken();
+    } else if (first.equals("#path"))          { s.path_str  = st.nextToken(); s.schema = schema(s);
+    } else if (first.equals("#fields"))        {
+      String fields[] = new String[st.countTokens()]; for (int i=0;i<fields.length;i++) fields[i] = st.nextToken();
+      s.fields = fields; s.types = null; s.schema = schema(s);
+    } else if (first.equals("#types"))         {
+      String types[] = new String[st.countTokens()]; for (int i=0;i<types.length;i++) types[i] = st.nextToken();
+      s.types = types; s.schema = schema(s);
+    } // #set_separator, #open, #close, and anything else don't change the records
+    return s;
+  }
+
+  /**
+   * Parse a separator specification (e.g., "\x09").
+   */
+  private static String parseSeparator(String str) {
+    if (str.startsWith("\\x")) return "" + (char) Integer.parseInt(str.substring(2), 16);
+    throw new RuntimeException("ZeekIngest.parseSeparator() - Do Not Know How To Parse Separator \"" + str + "\"");
+  }
+
+  /**
+   * Build (or reuse) the schema for the current fields and types.
+   */
+  private Schema schema(Section s) {
+    if (s.fields == null) return null;
+    String fields[] = s.fields; s.timestamp_i = s.duration_i = -1;
+    for (int i=0;i<fields.length;i++) { if (fields[i].equals("ts")) s.timestamp_i = i; else if (fields[i].equals("duration")) s.duration_i = i; }
+    boolean has_end = s.timestamp_i != -1 && s.duration_i != -1;
+
+    // Same layout as the normalized logs -- fields, parse_filetype, and (maybe) timestamp_end
+    String hdr[] = new String[fields.length + (has_end ? 2 : 1)]; BundlesDT.DT dts[] = new BundlesDT.DT[hdr.length];
+    for (int i=0;i<fields.length;i++) {
+      String fld = (i == s.timestamp_i) ? "timestamp" : fields[i];
+      hdr[i] = NormalizeBroLogs.SCALAR_FIELDS.contains(fld.toLowerCase()) ? fld.toUpperCase() : fld.toLowerCase();
+      if (s.types != null && i < s.types.length) dts[i] = dataType(s.types[i]);
+    }
+    hdr[fields.length] = "parse_filetype"; if (has_end) hdr[fields.length+1] = "timestamp_end";
+
+    StringBuilder key = new StringBuilder(s.path_str); for (int i=0;i<hdr.length;i++) key.append(',').append(hdr[i]).append(':').append(dts[i]);
+    Schema schema = schemas.get(key.toString());
+    if (schema == null) schemas.put(key.toString(), schema = new Schema("zeek" + schemas.size(), hdr, dts, filter));
+    return schema;
+  }
+
+  /**
+   * Map a zeek type to a datatype.
+   *
+   *@param  type zeek type from the "#types" line
+   *
+   *@return datatype -- null if the values are probed
+   */
+  static BundlesDT.DT dataType(String type) {
+    if      (type.equals("addr"))                                                      return BundlesDT.DT.IPv4;
+    else if (type.equals("subnet"))                                                    return BundlesDT.DT.IPv4CIDR;
+    else if (type.equals("port")   || type.equals("count")    || type.equals("int"))  return BundlesDT.DT.INTEGER;
+    else if (type.equals("double") || type.equals("interval") || type.equals("time")) return BundlesDT.DT.FLOAT;
+    else                                                                               return null;
+  }
+
+  /**
+   * Convert a record into its prepared row.
+   */
+  @Override
+  protected void convertLine(Section s, String line, int line_no, Output out) {
+    Schema schema = s.schema;
+    if (schema == null) { out.warn("File \"" + s.file + "\", Line " + line_no + " - Record Before The #fields Line"); return; }
+    String st[] = split(line, s.sep);
+    if (st.length != s.fields.length) { out.warn("File \"" + s.file + "\", Line " + line_no + " - Incorrect Token Count\n  Line \"" + line + "\""); return; }
+
+    String values[] = new String[schema.hdr.length]; long ts0 = 0L, ts1 = 0L;
+    for (int i=0;i<st.length;i++) {
+      String value = st[i];
+      if (value.equals(s.empty_str) || value.equals(s.unset_str)) value = BundlesDT.NOTSET;
+      else { value = Utils.stripSpaces(clampInt(value)); if (value.length() == 0) value = BundlesDT.NOTSET; }
+      values[i] = value;
+    }
+    values[st.length] = s.path_str.length() == 0 ? BundlesDT.NOTSET : s.path_str;
+
+    // Timestamps -- the end is the start when the duration is unset
+    if (s.timestamp_i != -1) {
+      ts0 = ts1 = NormalizeBroLogs.secondFractionsToMillis(st[s.timestamp_i]);
+      if (s.duration_i != -1 && st[s.duration_i].equals(s.unset_str) == false) ts1 = ts0 + NormalizeBroLogs.secondFractionsToMillis(st[s.duration_i]);
+    }
+    out.row(schema.table, prepare(schema, values, ts0, ts1));
+  }
+}
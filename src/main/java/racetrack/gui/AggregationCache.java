@@ -0,0 +1,218 @@
+/*
+
+Copyright 2013 David Trimm
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package racetrack.gui;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import racetrack.framework.Bundle;
+import racetrack.framework.Bundles;
+
+/**
+ * Cache of aggregations (counter contexts and their lookups) shared across the
+ * panels.  Entries are keyed by the identity of the {@link Bundles} and a string
+ * that describes the aggregation (e.g., the bin_by, count_by, and color_by fields).
+ * Panels that ask for the same aggregation of the same records share a single
+ * computation -- if the computation is already in progress on another render
+ * thread, the request waits for that result rather than repeating the work.
+ *
+ * When records are appended to a bundles (e.g., another file is loaded into the
+ * root), the entries for that bundles are kept along with the new records.  The
+ * next request folds just the new records into the aggregation.
+ *
+ * Cached values are shared and are never modified -- a fold produces a new value
+ * that replaces the cached one once it is complete.
+ * The owner ({@link RT}) evicts the entries as the bundles stack changes.
+ *
+ *@author  D. Trimm
+ *@version 1.0
+ */
+public class AggregationCache {
+  /**
+   * Computation of an aggregation.
+   */
+  public interface Computation<T> {
+    /**
+     * Compute the aggregation.
+     *
+     *@return aggregation or null if the computation was abandoned (e.g., the render was superseded)
+     */
+    public T compute();
+
+    /**
+     * Fold records that were appended to the bundles into a new version of a previously computed
+     * aggregation.  The aggregation itself must not be modified since other renders may still
+     * be reading it -- the new version should share what the added records don't change (e.g.,
+     * {@link racetrack.framework.BundlesCounterContext#fork()}) rather than copy it.  Called on
+     * one thread at a time for an aggregation.  The added records may include records that the
+     * aggregation already counted.
+     *
+     *@param  aggregation aggregation to update
+     *@param  added       records appended since the aggregation was computed
+     *
+     *@return updated aggregation (the same one if there was nothing to add) or null if the aggregation should be discarded and recomputed
+     */
+    public T fold(T aggregation, Set<Bundle> added);
+  }
+
+  /**
+   * Cached aggregation
+   */
+  static class Entry {
+    /**
+     * Aggregation -- null while being computed
+     */
+    Object      value;
+    /**
+     * Records appended since the value was computed -- null if none
+     */
+    Set<Bundle> pending;
+    /**
+     * Flag indicating that a thread is computing or folding the value
+     */
+    boolean     busy;
+    /**
+     * Flag indicating that records were appended while the value was being computed
+     */
+    boolean     stale;
+  }
+
+  /**
+   * Cached aggregations -- bundles (by identity) to aggregation key to entry
+   */
+  private final Map<Bundles,Map<String,Entry>> cache = new IdentityHashMap<Bundles,Map<String,Entry>>();
+
+  /**
+   * Statistics
+   */
+  private long hits = 0L, misses = 0L, folds = 0L, folded_records = 0L;
+
+  /**
+   * Return the aggregation for the records, computing (and caching) it if necessary.
+   * Records appended since the aggregation was computed are folded in first.
+   *
+   *@param bs          records being aggregated
+   *@param key         description of the aggregation
+   *@param computation method to compute (or fold into) the aggregation
+   *
+   *@return aggregation -- null only if the computation was abandoned
+   */
+  @SuppressWarnings("unchecked")
+  public <T> T aggregate(Bundles bs, String key, Computation<T> computation) {
+    while (true) {
+      Entry entry; Set<Bundle> added = null;
+      synchronized (this) {
+        while ((entry = lookup(bs, key)) != null && entry.busy) {
+          try { wait(); } catch (InterruptedException ie) { Thread.currentThread().interrupt(); return computation.compute(); }
+        }
+        if (entry == null) {
+          misses++; entry = new Entry(); entry.busy = true;
+          Map<String,Entry> map = cache.get(bs); if (map == null) cache.put(bs, map = new HashMap<String,Entry>());
+          map.put(key, entry);
+        } else if (entry.pending == null) {
+          hits++; return (T) entry.value;
+        } else {
+          folds++; folded_records += entry.pending.size(); added = entry.pending; entry.pending = null; entry.busy = true;
+        }
+      }
+
+      // Compute the aggregation
+      if (added == null) {
+        T result = null;
+        try { result = computation.compute(); return result;
+        } finally {
+          synchronized (this) {
+            if (result != null && entry.stale == false && lookup(bs, key) == entry) { entry.value = result; entry.busy = false; } else remove(bs, key, entry);
+            notifyAll();
+          }
+        }
+      }
+
+      // Fold in the appended records and publish the result -- on failure, discard the entry and compute it again
+      T folded = null;
+      try { folded = computation.fold((T) entry.value, added);
+      } finally {
+        synchronized (this) { entry.busy = false; if (folded == null) remove(bs, key, entry); else entry.value = folded; notifyAll(); }
+      }
+      if (folded != null) return folded;
+    }
+  }
+
+  /**
+   * Look up an entry.  Called with the lock held.
+   */
+  private Entry lookup(Bundles bs, String key) { Map<String,Entry> map = cache.get(bs); return map == null ? null : map.get(key); }
+
+  /**
+   * Remove an entry if it's still cached.  Called with the lock held.
+   */
+  private void remove(Bundles bs, String key, Entry entry) {
+    Map<String,Entry> map = cache.get(bs);
+    if (map != null && map.get(key) == entry) { map.remove(key); if (map.size() == 0) cache.remove(bs); }
+  }
+
+  /**
+   * Note that records were appended to a bundles.  The aggregations for that bundles
+   * will fold the records in on their next request.
+   *
+   *@param bs    bundles that grew
+   *@param added records that were appended
+   */
+  public synchronized void appended(Bundles bs, Set<Bundle> added) {
+    Map<String,Entry> map = cache.get(bs); if (map == null || added.size() == 0) return;
+    Iterator<Entry> it = map.values().iterator(); while (it.hasNext()) {
+      Entry entry = it.next();
+      if      (entry.value   == null) entry.stale = true;
+      else if (entry.pending == null) entry.pending = new HashSet<Bundle>(added);
+      else                            entry.pending.addAll(added);
+    }
+  }
+
+  /**
+   * Evict the aggregations for any records not in the specified collection.
+   *
+   *@param live records whose aggregations should be kept
+   */
+  public synchronized void retain(Collection<Bundles> live) {
+    Set<Bundles> keep = Collections.newSetFromMap(new IdentityHashMap<Bundles,Boolean>()); keep.addAll(live);
+    Iterator<Bundles> it = cache.keySet().iterator(); boolean evicted = false;
+    while (it.hasNext()) if (keep.contains(it.next()) == false) { it.remove(); evicted = true; }
+    if (evicted) notifyAll();
+  }
+
+  /**
+   * Evict all of the aggregations.
+   */
+  public synchronized void clear() { cache.clear(); notifyAll(); }
+
+  /**
+   * Return a one line summary of the cache statistics.
+   *
+   *@return statistics
+   */
+  public synchronized String stats() {
+    int entries = 0; Iterator<Map<String,Entry>> it = cache.values().iterator(); while (it.hasNext()) entries += it.next().size();
+    return "Aggregation Cache: bundles=" + cache.size() + " entries=" + entries + " hits=" + hits + " misses=" + misses + " folds=" + folds + " (" + folded_records + " records)";
+  }
+}
@@ -30,6 +30,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import javax.swing.JFrame;
 import javax.swing.JOptionPane;
@@ -41,11 +43,14 @@ import javax.swing.text.StyleConstants;
 import javax.swing.text.StyleContext;
 
 import racetrack.framework.Bundle;
+import racetrack.framework.BundleBitmapSet;
 import racetrack.framework.Bundles;
 import racetrack.framework.BundlesDT;
 import racetrack.framework.BundlesG;
-import racetrack.framework.BundlesRecs;
+import racetrack.framework.BundlesSnapshot;
 import racetrack.framework.BundlesUtils;
+import racetrack.framework.FileFollower;
+import racetrack.framework.LoadFilter;
 import racetrack.kb.EntityTag;
 import racetrack.kb.RTComment;
 import racetrack.transform.GeoData;
@@ -55,6 +60,7 @@ import racetrack.util.Interval;
 import racetrack.util.Relationship;
 import racetrack.util.SubText;
 import racetrack.util.TimeStamp;
+import racetrack.util.UpdateMonitor;
 import racetrack.util.Utils;
 import racetrack.visualization.StatsOverlay;
 import racetrack.visualization.RTColorManager;
@@ -169,7 +175,8 @@ public class RT extends JFrame {
    */
   public void    setRootBundles(Bundles new_root, Set<Bundles> actives) {
     synchronized (bundles_stack) { 
-      bundles_stack.clear(); bundles_stack.add(new_root); bundles_stack_i = 0; 
+      bundles_stack.clear(); bundles_stack.add(new_root); bundles_stack_i = 0; aggregation_cache.clear();
+      new_root.getGlobals().clearKeyDictionaries();
       // Clean out the lookup tables
       if (actives != null) {
         Set<Bundles> bundles_set = new HashSet<Bundles>(); bundles_set.add(new_root); bundles_set.addAll(actives);
@@ -222,10 +229,11 @@ public class RT extends JFrame {
 					   for (int i=0;i<bundles_stack.size();i++) {
 					     if (bundles_stack.get(i) == bs) { bundles_stack_i = i; found = true; }
 					   }
-					   if (found) { refreshAll(); return; }
+					   if (found) { evictAggregations(); refreshAll(); return; }
 
                                            // Otherwise, figure out where to add it
                                            while (bundles_stack.size() > (bundles_stack_i+1)) bundles_stack.remove(bundles_stack.size()-1);
+                                           evictAggregations();
 					   if (bundles_stack.size() > 0 && bs.equals(bundles_stack.get(bundles_stack.size()-1))) return;
                                            bundles_stack.add(bs); bundles_stack_i = bundles_stack.size() - 1;
                                            System.err.println("Pushing [" + bundles_stack.size() + "/" + bundles_stack_i + "] \"" + bs + "\""); refreshAll(); } }
@@ -243,7 +251,7 @@ public class RT extends JFrame {
    * are already the current visible set causes no change.
    */
   public void    pop()                 { synchronized (bundles_stack) {
-                                           if (bundles_stack_i > 0) bundles_stack_i--;
+                                           if (bundles_stack_i > 0) bundles_stack_i--; evictAggregations();
                                            System.err.println("Popping [" + bundles_stack.size() + "/" + bundles_stack_i + "] \"" + top() +"\"");
                                            refreshAll(); } }
 
@@ -251,7 +259,7 @@ public class RT extends JFrame {
    * Return to the root bundles.
    */
   public void    popAll()              { synchronized (bundles_stack) {
-                                           bundles_stack_i = 0;
+                                           bundles_stack_i = 0; evictAggregations();
                                            System.err.println("Pop All \"" + top() + "\" [" + bundles_stack.size() + "/" + bundles_stack_i + "]");
                                            refreshAll(); } }
 
@@ -262,12 +270,29 @@ public class RT extends JFrame {
    */
   public Bundles top()                 { synchronized (bundles_stack) { return bundles_stack.get(bundles_stack_i); } }
 
+  /**
+   * Aggregations shared across the panels -- entries are evicted as levels are popped from the stack
+   */
+  AggregationCache aggregation_cache = new AggregationCache();
+
+  /**
+   * Return the aggregation cache shared across the panels.
+   *
+   *@return aggregation cache
+   */
+  public AggregationCache getAggregationCache() { return aggregation_cache; }
+
+  /**
+   * Release the aggregations for any stack levels above the visible level.  Called with the stack locked.
+   */
+  private void   evictAggregations()   { aggregation_cache.retain(bundles_stack.subList(0, bundles_stack_i+1)); }
+
 
   /**
    * Clear all of the data elements from the 
    */
   public void    zeroizeRoot()         { synchronized (bundles_stack) {
-                                           setRootBundles(new BundlesRecs()); } }
+                                           setRootBundles(BundlesUtils.createBundles()); } }
 
   /**
    * List of active rendering panels for notifying when the dataset changes.
@@ -306,7 +331,7 @@ public class RT extends JFrame {
    */
   public RT() {
     super("RACETrack");
-    push(new BundlesRecs());
+    push(BundlesUtils.createBundles());
     rt_control_frame = new RTControlFrame(this);
 
     // Animation Thread - For Entity Highlights...  doesn't seem to work correctly
@@ -425,7 +450,7 @@ public class RT extends JFrame {
     }
     comments.add(comment); comments_lu.put(comment.getUUID(), comment);
     Iterator<RTPanel> it = rtPanelIterator();
-    while (it.hasNext()) { RTPanel panel = it.next(); if (panel instanceof RTReports) (new Thread(new RefreshThread(panel))).start(); }
+    while (it.hasNext()) { RTPanel panel = it.next(); if (panel instanceof RTReports) panel.setBundles(top()); }
   }
 
   /**
@@ -437,7 +462,7 @@ public class RT extends JFrame {
   public void deleteRTComment(RTComment to_delete) {
     comments_lu.remove(to_delete.getUUID()); comments.remove(to_delete);
     Iterator<RTPanel> it = rtPanelIterator();
-    while (it.hasNext()) { RTPanel panel = it.next(); if (panel instanceof RTReports) (new Thread(new RefreshThread(panel))).start(); }
+    while (it.hasNext()) { RTPanel panel = it.next(); if (panel instanceof RTReports) panel.setBundles(top()); }
   }
 
   /**
@@ -449,7 +474,7 @@ public class RT extends JFrame {
     Iterator<RTComment> itc = to_delete.iterator();
     while (itc.hasNext()) { RTComment comment = itc.next(); comments_lu.remove(comment.getUUID()); comments.remove(comment); }
     Iterator<RTPanel> it = rtPanelIterator();
-    while (it.hasNext()) { RTPanel panel = it.next(); if (panel instanceof RTReports) (new Thread(new RefreshThread(panel))).start(); }
+    while (it.hasNext()) { RTPanel panel = it.next(); if (panel instanceof RTReports) panel.setBundles(top()); }
   }
 
   /**
@@ -513,33 +538,24 @@ public class RT extends JFrame {
     } else if (highlights == null)                { highlights = set; need_update = true;
     } else if (set        == null)                { highlights = set; need_update = true;
     } else if (highlights.size() != set.size())   { highlights = set; need_update = true;
-    } else                                        { Iterator<Bundle> it;
-                                                    boolean differ = false;
-                                                    it = set.iterator(); while (it.hasNext()) { Bundle bundle = it.next(); if (highlights.contains(bundle) == false) { differ = true; break; } }
-                                                    if (differ) { highlights = set; need_update = true; } }
+    } else if (BundleBitmapSet.sameRecords(highlights, set) == false) { highlights = set; need_update = true; }
     // Second order (p)
     if        (need_update)                           { highlights_p = set_p;
     } else if (highlights_p == null && set_p == null) {
     } else if (highlights_p == null)                  { highlights_p = set_p; need_update = true;
     } else if (set_p        == null)                  { highlights_p = set_p; need_update = true;
     } else if (highlights_p.size() != set_p.size())   { highlights = set_p; need_update = true;
-    } else                                            { Iterator<Bundle> it;
-                                                        boolean differ = false; it = set_p.iterator(); 
-                                                        while (it.hasNext()) { Bundle bundle = it.next(); if (highlights_p.contains(bundle) == false) { differ = true; break; } }
-                                                        if (differ) { highlights_p = set_p; need_update = true; } }
+    } else if (BundleBitmapSet.sameRecords(highlights_p, set_p) == false) { highlights_p = set_p; need_update = true; }
     // Third order (pp)
     if        (need_update)                             { highlights_pp = set_pp;
     } else if (highlights_pp == null && set_pp == null) {
     } else if (highlights_pp == null)                   { highlights_pp = set_pp; need_update = true;
     } else if (set_pp        == null)                   { highlights_pp = set_pp; need_update = true;
     } else if (highlights_pp.size() != set_pp.size())   { highlights = set_pp; need_update = true;
-    } else                                              { Iterator<Bundle> it;
-                                                          boolean differ = false; it = set_pp.iterator(); 
-                                                          while (it.hasNext()) { Bundle bundle = it.next(); if (highlights_pp.contains(bundle) == false) { differ = true; break; } }
-                                                          if (differ) { highlights_pp = set_pp; need_update = true; } }
+    } else if (BundleBitmapSet.sameRecords(highlights_pp, set_pp) == false) { highlights_pp = set_pp; need_update = true; }
     boolean re_render = false;
     if (rt_control_frame.highlightsReplace()) {
-      Set<Bundle> all = new HashSet<Bundle>();
+      Set<Bundle> all = new BundleBitmapSet();
       if (highlights    != null && highlights.size()    > 0) all.addAll(highlights);
       if (highlights_p  != null && highlights_p.size()  > 0) all.addAll(highlights_p);
       if (highlights_pp != null && highlights_pp.size() > 0) all.addAll(highlights_pp);
@@ -1304,20 +1320,12 @@ System.err.println("tagSelectedEntities() - Need (1) fix timeframe frame for tag
   public String getCountBy() { return rt_control_frame.getCountBy(); }
 
   /**
-   * Runnable class to refresh the views concurrently.
-   */
-  class RefreshThread implements Runnable {
-    RTPanel panel;
-    public RefreshThread(RTPanel panel) { this.panel = panel; }
-    public void run() { panel.setBundles(top()); }
-  }
-
-  /**
-   * Method to create multiple threads that refresh the known panels (visualizations).
+   * Refresh the known panels (visualizations).  The renders are queued with the
+   * shared {@link RenderScheduler} -- focused and visible panels are rendered first.
    */
   public void refreshAll() {
     Iterator<RTPanel> it = panels.iterator();
-    while (it.hasNext()) (new Thread(new RefreshThread(it.next()))).start();
+    while (it.hasNext()) it.next().setBundles(top());
     if (rt_control_frame != null) rt_control_frame.repaint();
   }
 
@@ -1339,17 +1347,38 @@ System.err.println("tagSelectedEntities() - Need (1) fix timeframe frame for tag
    *
    *@return application configuration data embedded in the loaded file
    */
-  public List<String> load(File file) throws IOException {
+  public List<String> load(File file) throws IOException { return load(file, null); }
+
+  /**
+   * Load a data file.
+   *
+   *@param file       file to load
+   *@param monitor    monitor for the load throughput (null for none)
+   *
+   *@return application configuration data embedded in the loaded file
+   */
+  public List<String> load(File file, UpdateMonitor monitor) throws IOException { return load(file, monitor, load_filter); }
+
+  /**
+   * Load a data file through a filter -- only the columns and rows that pass the filter are loaded.
+   *
+   *@param file       file to load
+   *@param monitor    monitor for the load throughput (null for none)
+   *@param filter     column projection and row predicates (null for none)
+   *
+   *@return application configuration data embedded in the loaded file
+   */
+  public List<String> load(File file, UpdateMonitor monitor, LoadFilter filter) throws IOException {
     // Take the real data out of line
     Bundles       root       = getRootBundles(); 
     List<Bundles> orig_stack = bundles_stack, 
                   tmp_stack  = new ArrayList<Bundles>();
-                  tmp_stack.add(new BundlesRecs());
+                  tmp_stack.add(BundlesUtils.createBundles());
     bundles_stack_i = 0; bundles_stack = tmp_stack;
     // Load the file
-    System.err.println("Loading File : " + file);
+    System.err.println("Loading File : " + file); if (filter != null && filter.isEmpty() == false) System.err.println("  Load Filter : " + filter);
     List<String> appconfs = new ArrayList<String>(); long t0 = System.currentTimeMillis();
-    Set<Bundle> set = BundlesUtils.parse(root, this, file, appconfs);
+    Set<Bundle> set = BundlesUtils.parse(root, this, file, appconfs, 0, monitor, filter);
     long t1 = System.currentTimeMillis(); System.err.println("  Done Loading File : " + file + " (" + (t1-t0) + " milliseconds)");
     // Put the real data back in line
     bundles_stack = orig_stack;
@@ -1359,14 +1388,90 @@ System.err.println("tagSelectedEntities() - Need (1) fix timeframe frame for tag
     return appconfs;
   }
 
+  /**
+   * Filter applied to loaded files (null for none) -- set from the command line
+   */
+  private LoadFilter   load_filter = null;
+
+  /**
+   * Set the filter applied by {@link #load(File)}.
+   *
+   *@param filter column projection and row predicates (null for none)
+   */
+  public void setLoadFilter(LoadFilter filter) { load_filter = filter; }
+
+  /**
+   * Lock for the root records.  Threads other than the event dispatch thread that iterate over
+   * the root (e.g., the expression evaluation) hold the read lock -- the {@link FileFollower} holds
+   * the write lock while it adds records.  The renders are held off with {@link RenderScheduler#pause()}
+   * instead.
+   */
+  private final ReadWriteLock root_lock = new ReentrantReadWriteLock();
+
+  /**
+   * Return the lock for the root records.
+   *
+   *@return root lock
+   */
+  public ReadWriteLock getRootLock() { return root_lock; }
+
+  /**
+   * Follower for growing files -- created when the first file is followed
+   */
+  private FileFollower follower = null;
+
+  /**
+   * Milliseconds between polls of the followed files
+   */
+  private long         follow_interval = FileFollower.DEFAULT_INTERVAL;
+
+  /**
+   * Maximum number of rows added per poll of the followed files
+   */
+  private int          follow_max_rows = FileFollower.DEFAULT_MAX_ROWS;
+
+  /**
+   * Set the batching for followed files.  Applies to the next follower created.
+   *
+   *@param interval milliseconds between polls
+   *@param max_rows maximum number of rows added per poll
+   */
+  public void setFollowBatching(long interval, int max_rows) { follow_interval = interval; follow_max_rows = max_rows; }
+
+  /**
+   * Follow a growing file -- the existing contents are loaded and then appended records are
+   * added to the root as the file grows.
+   *
+   *@param file file to follow
+   */
+  public synchronized void follow(File file) throws IOException {
+    if (follower == null) follower = new FileFollower(this, follow_interval, follow_max_rows);
+    System.err.println("Following File : " + file);
+    follower.follow(file);
+  }
+
+  /**
+   * Return the files being followed.
+   *
+   *@return followed files (empty if none)
+   */
+  public synchronized List<File> followedFiles() { return follower == null ? new ArrayList<File>() : follower.files(); }
+
+  /**
+   * Stop following all files.
+   */
+  public synchronized void stopFollowing() { if (follower != null) { follower.stop(); follower = null; } }
+
   /**
    * Update the "bys" and tell all of the panels about the new bundles.
    *
    *@param set new bundle set
    */
   public void updatePanelsForNewBundles(Set<Bundle> set) {
+    // Aggregations of the root fold in just the new records on their next request
+    aggregation_cache.appended(getRootBundles(), set);
     // Update the panels
-    updateBys();
+    updateByLists();
     // Let panels know that new bundles were added
     Iterator<RTPanel> it = panels.iterator(); while (it.hasNext()) it.next().newBundlesAdded(set);
   }
@@ -1376,6 +1481,15 @@ System.err.println("tagSelectedEntities() - Need (1) fix timeframe frame for tag
    * or transforms are enabled.
    */
   public void updateBys() {
+    // Fields or transforms changed -- aggregations (and the key ids they used) are no longer valid
+    aggregation_cache.clear(); getRootBundles().getGlobals().clearKeyDictionaries();
+    updateByLists();
+  }
+
+  /**
+   * Update the "bys" of the control panel and the other panels.
+   */
+  private void updateByLists() {
     // Update the main control panel
     rt_control_frame.updateBys();
     // Update the other panels
@@ -1463,22 +1577,45 @@ System.err.println("tagSelectedEntities() - Need (1) fix timeframe frame for tag
     printLicense();
     printLibraries();
     try {
-      List<File> files = new ArrayList<File>();
+      List<File> files = new ArrayList<File>(), follows = new ArrayList<File>(); File snapshot = null;
+      long follow_interval = FileFollower.DEFAULT_INTERVAL; int follow_max_rows = FileFollower.DEFAULT_MAX_ROWS;
+      StringBuilder filter_spec = new StringBuilder();
       for (int i=0;i<args.length;i++) {
-        if (args[i].equals("-nogeo")) {
+        if        (args[i].equals("-nogeo"))    {
           GeoData.disableGeoService();
+        } else if (args[i].equals("-columnar")) {
+          BundlesUtils.setColumnarBackend(true);
+        } else if (args[i].equals("-snapshot") && i < args.length-1) {
+          snapshot = new File(args[++i]);
+        } else if (args[i].equals("-follow") && i < args.length-1) {
+          follows.add(new File(args[++i]));
+        } else if (args[i].equals("-followinterval") && i < args.length-1) {
+          follow_interval = Long.parseLong(args[++i]);
+        } else if (args[i].equals("-followmax") && i < args.length-1) {
+          follow_max_rows = Integer.parseInt(args[++i]);
+        } else if (args[i].equals("-columns") && i < args.length-1) {
+          filter_spec.append(";columns=").append(args[++i]);
+        } else if (args[i].equals("-where") && i < args.length-1) {
+          filter_spec.append(';').append(args[++i]);
         } else {
 	  File file = new File(args[i]);
 	  if (file.exists()) { files.add(file); } else System.err.println("File \"" + args[i] + "\" Doesn't Exist!");
         }
       }
       RT rt = new RT(); List<String> last_appconf = null;
+      if (filter_spec.length() > 0) rt.setLoadFilter(LoadFilter.parse(filter_spec.toString()));
       rt.getControlPanel().disableRenders();
       for (int i=0;i<files.size();i++) {
         try { 
           last_appconf = rt.load(files.get(i));
 	} catch (IOException ioe) { System.err.println("IOException : " + ioe); }
       }
+      if (snapshot != null) {
+        try {
+          long t0 = System.currentTimeMillis(), records = BundlesSnapshot.write(rt.getRootBundles(), rt, last_appconf, snapshot);
+          System.err.println("Wrote Snapshot : " + snapshot + " (" + records + " records, " + (System.currentTimeMillis()-t0) + " milliseconds)");
+	} catch (IOException ioe) { System.err.println("IOException : " + ioe); }
+      }
       if (last_appconf != null && last_appconf.size() > 0) {
         if (JOptionPane.showConfirmDialog(rt.getControlPanel(), "Apply GUI Configuration From File?", "Apply GUI Config", JOptionPane.YES_NO_OPTION) == JOptionPane.YES_OPTION) {
           rt.getControlPanel().applyGUIConfiguration(last_appconf, true);
@@ -1491,6 +1628,10 @@ System.err.println("tagSelectedEntities() - Need (1) fix timeframe frame for tag
 	}
       }
       rt.getControlPanel().enableRenders();
+      rt.setFollowBatching(follow_interval, follow_max_rows);
+      for (int i=0;i<follows.size();i++) {
+        try { rt.follow(follows.get(i)); } catch (IOException ioe) { System.err.println("IOException : " + ioe); }
+      }
     } catch (Throwable t) {
       System.err.println("Throwable: " + t);
       t.printStackTrace(System.err);
@@ -64,6 +64,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.StringTokenizer;
 import java.util.TimeZone;
+import java.util.concurrent.locks.Lock;
 import java.util.zip.GZIPOutputStream;
 
 import javax.swing.BorderFactory;
@@ -78,33 +79,43 @@ import javax.swing.JDialog;
 import javax.swing.JFileChooser;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
+import javax.swing.JList;
 import javax.swing.JMenu;
 import javax.swing.JMenuBar;
 import javax.swing.JMenuItem;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JPopupMenu;
+import javax.swing.JProgressBar;
 import javax.swing.JRadioButtonMenuItem;
 import javax.swing.JScrollPane;
 import javax.swing.JTabbedPane;
 import javax.swing.JTable;
 import javax.swing.JTextField;
 import javax.swing.ListSelectionModel;
+import javax.swing.SwingUtilities;
 import javax.swing.WindowConstants;
 import javax.swing.event.CaretEvent;
 import javax.swing.event.CaretListener;
 import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import javax.swing.event.TableModelEvent;
 import javax.swing.event.TableModelListener;
 import javax.swing.table.TableModel;
 
 import racetrack.analysis.NetflowAnalytics;
 import racetrack.framework.Bundle;
+import racetrack.framework.BundleBitmapSet;
 import racetrack.framework.Bundles;
 import racetrack.framework.BundlesG;
 import racetrack.framework.BundlesDT;
+import racetrack.framework.BundlesSink;
+import racetrack.framework.BundlesSnapshot;
+import racetrack.framework.BundlesUtils;
 import racetrack.framework.KeyMaker;
+import racetrack.framework.LoadFilter;
 import racetrack.framework.RFC4180Importer;
 import racetrack.framework.Tablet;
 import racetrack.kb.EntityTag;
@@ -114,9 +125,13 @@ import racetrack.util.CaseInsensitiveComparator;
 import racetrack.util.CSVTokenConsumer;
 import racetrack.util.JREMemComponent;
 import racetrack.util.JTextFieldHistory;
+import racetrack.util.LineConverter;
+import racetrack.util.NormalizeBroLogs;
 import racetrack.util.RFC4180CSVReader;
 import racetrack.util.ShuntingYardAlgorithm;
 import racetrack.util.StrSet;
+import racetrack.util.TCPDumpToCSV;
+import racetrack.util.UpdateMonitor;
 import racetrack.util.Utils;
 import racetrack.visualization.RTColorManager;
 
@@ -238,6 +253,16 @@ public class RTControlFrame extends JFrame implements MouseListener {
    */
   JTextField           expression_tf;
 
+  /**
+   * Progress of the expression evaluation
+   */
+  JProgressBar         expression_pb;
+
+  /**
+   * Expression currently being evaluated (null if none) -- cancelled if the user edits the expression
+   */
+  volatile ShuntingYardAlgorithm expression_sya = null;
+
   /**
    * List of the post proc checkbox menu items
    */
@@ -287,11 +312,17 @@ public class RTControlFrame extends JFrame implements MouseListener {
 
     // File Menu
     JMenu     file_menu = new JMenu("File");       menu_bar.add(file_menu);
-      file_menu.add(mi = new JMenuItem("Load File..."));          mi.addActionListener(new ActionListener() { public void actionPerformed(ActionEvent ae) { loadFile(); } } );
+      file_menu.add(mi = new JMenuItem("Load File..."));          mi.addActionListener(new ActionListener() { public void actionPerformed(ActionEvent ae) { loadFile(false); } } );
+      file_menu.add(mi = new JMenuItem("Load File (Filtered)...")); mi.addActionListener(new ActionListener() { public void actionPerformed(ActionEvent ae) { loadFile(true); } } );
       file_menu.add(mi = new JMenuItem("Import RFC4180 CSV...")); mi.addActionListener(new ActionListener() { public void actionPerformed(ActionEvent ae) { loadRFC4180CSV(); } } );
+      file_menu.add(mi = new JMenuItem("Import Bro Logs..."));    mi.addActionListener(new ActionListener() { public void actionPerformed(ActionEvent ae) { importConverted(new NormalizeBroLogs()); } } );
+      file_menu.add(mi = new JMenuItem("Import TCPDump Text...")); mi.addActionListener(new ActionListener() { public void actionPerformed(ActionEvent ae) { importConverted(new TCPDumpToCSV()); } } );
+      file_menu.add(mi = new JMenuItem("Follow File..."));        mi.addActionListener(new ActionListener() { public void actionPerformed(ActionEvent ae) { followFile(); } } );
+      file_menu.add(mi = new JMenuItem("Stop Following Files"));  mi.addActionListener(new ActionListener() { public void actionPerformed(ActionEvent ae) { getRTParent().stopFollowing(); } } );
       file_menu.addSeparator();
       file_menu.add(mi = new JMenuItem("Save Root To File...")); mi.addActionListener(new ActionListener() { public void actionPerformed(ActionEvent ae) { saveFile(getRTParent().getRootBundles(), false); } } );
       file_menu.add(mi = new JMenuItem("Save Visible To File...")); mi.addActionListener(new ActionListener() { public void actionPerformed(ActionEvent ae) { saveFile(getRTParent().getVisibleBundles(), true); } } );
+      file_menu.add(mi = new JMenuItem("Save Root To Snapshot...")); mi.addActionListener(new ActionListener() { public void actionPerformed(ActionEvent ae) { saveSnapshot(getRTParent().getRootBundles()); } } );
       file_menu.addSeparator();
 
       // Entity Tag Menu Items
@@ -338,6 +369,8 @@ public class RTControlFrame extends JFrame implements MouseListener {
       pref_menu.add(darken_cbmi   = new JCheckBoxMenuItem("Darken During Highlights",      true));
       pref_menu.addSeparator();
       pref_menu.add(render_cbmi   = new JCheckBoxMenuItem("Render", true));
+      pref_menu.add(mi = new JMenuItem("Render Metrics...")); mi.addActionListener(new ActionListener() { public void actionPerformed(ActionEvent ae) {
+        JOptionPane.showMessageDialog(RTControlFrame.this, RenderScheduler.metrics() + "\n" + rt.getAggregationCache().stats(), "Render Metrics", JOptionPane.INFORMATION_MESSAGE); } } );
 
     // Highlights Menu
     JMenu     highlights_menu = new JMenu("Highlights"); menu_bar.add(highlights_menu); ButtonGroup bg = new ButtonGroup();
@@ -504,6 +537,7 @@ public class RTControlFrame extends JFrame implements MouseListener {
     JPanel expr_panel  = new JPanel(new BorderLayout(5,5)); 
            expr_panel.add("West", new JLabel("Expr"));
            expr_panel.add("Center", expression_tf = new JTextField()); new JTextFieldHistory(expression_tf);
+           expr_panel.add("East",   expression_pb = new JProgressBar(0, 100)); expression_pb.setVisible(false);
            stack_panel.add("South", expr_panel);
     tabs.add("Stack",    stack_panel);
     tabs.add("Entities", new JScrollPane(entity_table = new JTable(entity_tm = new EntityTableModel()))); entity_table.setAutoCreateRowSorter(true);
@@ -573,6 +607,10 @@ public class RTControlFrame extends JFrame implements MouseListener {
     entity_table.addMouseListener (entity_popup = new PopupListener(entity_popup_menu, entity_table));
     addWindowListener(new WindowAdapter() { public void windowClosing(WindowEvent we) { exit(); } } );
     expression_tf.addActionListener(new ActionListener() { public void actionPerformed(ActionEvent ae) { applyExpression(); } } );
+    expression_tf.getDocument().addDocumentListener(new DocumentListener() {
+      public void insertUpdate (DocumentEvent de) { cancelExpression(); }
+      public void removeUpdate (DocumentEvent de) { cancelExpression(); }
+      public void changedUpdate(DocumentEvent de) { cancelExpression(); } } );
 
     // Show it
     pack(); setSize(500,300); setVisible(true);
@@ -617,17 +655,65 @@ public class RTControlFrame extends JFrame implements MouseListener {
   }
 
   /**
-   * Apply the expression in the textfield to the visible data.
+   * Apply the expression in the textfield to the visible data.  The evaluation runs on a
+   * separate thread (in parallel across the worker pool) so that the gui stays responsive --
+   * editing the expression cancels it.
    */
   public void applyExpression() {
     String expr = expression_tf.getText(); if (Utils.stripSpaces(expr).equals("")) return;
     try {
-      ShuntingYardAlgorithm sya = new ShuntingYardAlgorithm(expr);
-      Set<Bundle> matches = sya.matches(getRTParent().getVisibleBundles().bundleSet());
-      if (matches.size() > 0) rt.push(getRTParent().getVisibleBundles().subset(matches));
+      cancelExpression();
+      final ShuntingYardAlgorithm sya     = new ShuntingYardAlgorithm(expr);
+      final Bundles               visible = getRTParent().getVisibleBundles();
+      expression_sya = sya; expression_pb.setValue(0); expression_pb.setVisible(true); expression_pb.getParent().validate();
+      (new Thread(new Runnable() { public void run() {
+        try {
+          // Followed files add records to the root -- keep them out while the records are evaluated
+          final Set<Bundle> matches; Lock lock = rt.getRootLock().readLock(); lock.lock();
+          try { matches = sya.matches(visible, false, new ExpressionMonitor(sya)); } finally { lock.unlock(); }
+          SwingUtilities.invokeLater(new Runnable() { public void run() {
+            expressionFinished(sya);
+            if (matches != null && matches.size() > 0 && sya.cancelled() == false) rt.push(visible.subset(matches));
+          } } );
+        } catch (final Throwable t) {
+          SwingUtilities.invokeLater(new Runnable() { public void run() {
+            expressionFinished(sya);
+            JOptionPane.showMessageDialog(file_chooser, "Throwable: " + t, "Expression Error", JOptionPane.ERROR_MESSAGE);
+          } } );
+        }
+      } }, "RT Expression")).start();
     } catch (Throwable t) { JOptionPane.showMessageDialog(file_chooser, "Throwable: " + t, "Expression Error", JOptionPane.ERROR_MESSAGE); }
   }
 
+  /**
+   * Cancel the expression evaluation in progress (if any).
+   */
+  public void cancelExpression() {
+    ShuntingYardAlgorithm sya = expression_sya;
+    if (sya != null) { sya.cancel(); expressionFinished(sya); }
+  }
+
+  /**
+   * Hide the progress bar if the specified evaluation is still the current one.  Must be called from the swing thread.
+   *
+   *@param sya evaluation that finished
+   */
+  private void expressionFinished(ShuntingYardAlgorithm sya) {
+    if (expression_sya == sya) { expression_sya = null; expression_pb.setVisible(false); expression_pb.getParent().validate(); }
+  }
+
+  /**
+   * Progress monitor that forwards updates from the evaluation thread to the progress bar.
+   */
+  class ExpressionMonitor implements UpdateMonitor {
+    ShuntingYardAlgorithm sya; ExpressionMonitor(ShuntingYardAlgorithm sya) { this.sya = sya; }
+    public void updateStatusMessage(final String str) { 
+      SwingUtilities.invokeLater(new Runnable() { public void run() { if (expression_sya == sya) expression_pb.setToolTipText(str); } } ); }
+    public void updateProgress(final float perc) { 
+      SwingUtilities.invokeLater(new Runnable() { public void run() { if (expression_sya == sya) expression_pb.setValue((int) (perc * 100)); } } ); }
+    public void updateError(String error_msg) { System.err.println("Expression Error: " + error_msg); }
+  }
+
   /**
    * For a named GUI layout, retrieve the settings and apply them.
    *
@@ -812,20 +898,70 @@ public class RTControlFrame extends JFrame implements MouseListener {
     }
   }
 
+  /**
+   * Convert raw sensor files (bro logs, tcpdump text -- plain or gzipped) and load the records
+   * directly into the root bundles.
+   *
+   *@param converter converter for the files
+   */
+  private void importConverted(LineConverter<?> converter) {
+    file_chooser.setMultiSelectionEnabled(true);
+    if (file_chooser.showOpenDialog(this) == JFileChooser.APPROVE_OPTION) {
+      boolean prev_render_state = renderVisualizations();
+      try {
+        disableRenders();
+        BundlesSink sink = new BundlesSink(getRTParent().getRootBundles(), getRTParent());
+        File files[] = file_chooser.getSelectedFiles();
+        try {
+          for (int i=0;i<files.length;i++) {
+            if (files[i].exists()) converter.convert(files[i], sink); else throw new IOException("File \"" + files[i].getName() + "\" Not Found");
+          }
+        } finally { sink.close(); }
+        getRTParent().updatePanelsForNewBundles(sink.getBundlesAdded());
+      } catch (IOException ioe) {
+        JOptionPane.showMessageDialog(file_chooser, "IOException: " + ioe, "File Import Error", JOptionPane.ERROR_MESSAGE);
+      } catch (RuntimeException re) {
+        JOptionPane.showMessageDialog(file_chooser, "Conversion Error: " + re, "File Import Error", JOptionPane.ERROR_MESSAGE);
+      } finally { 
+        if (prev_render_state) enableRenders(); 
+      }
+    }
+  }
+
+  /**
+   * Follow growing data files -- the current contents are loaded and appended records
+   * are added as the files grow (see {@link racetrack.framework.FileFollower}).
+   */
+  private void followFile() {
+    file_chooser.setMultiSelectionEnabled(true);
+    if (file_chooser.showOpenDialog(this) == JFileChooser.APPROVE_OPTION) {
+      try {
+        File files[] = file_chooser.getSelectedFiles();
+        for (int i=0;i<files.length;i++) getRTParent().follow(files[i]);
+      } catch (IOException ioe) {
+        JOptionPane.showMessageDialog(file_chooser, "IOException: " + ioe, "File Follow Error", JOptionPane.ERROR_MESSAGE);
+      }
+    }
+  }
+
   /**
    * Load a data file by providing the user with a file chooser dialog and then
    * having the application parse the file.
+   *
+   *@param filtered ask for a column projection and row predicates before loading
    */
-  private void loadFile() {
+  private void loadFile(boolean filtered) {
     file_chooser.setMultiSelectionEnabled(true);
     if (file_chooser.showOpenDialog(this) == JFileChooser.APPROVE_OPTION) {
+      File files[] = file_chooser.getSelectedFiles(); LoadFilter filter = null;
+      if (filtered && files.length > 0) { if ((filter = promptLoadFilter(files[0])) == null) return; }
       boolean prev_render_state = renderVisualizations();
       try {
         disableRenders();
-        File files[] = file_chooser.getSelectedFiles(); List<String> last_appconf = null;
+        List<String> last_appconf = null;
 	for (int i=0;i<files.length;i++) {
           if (files[i].exists()) {
-	    last_appconf = getRTParent().load(files[i]);
+	    last_appconf = filtered ? getRTParent().load(files[i], null, filter) : getRTParent().load(files[i]);
 	  } else throw new IOException("File \"" + files[i].getName() + "\" Not Found");
         }
 	// If there are no panels open, try to apply the application configuration information (if available)
@@ -842,6 +978,38 @@ public class RTControlFrame extends JFrame implements MouseListener {
     }
   }
 
+  /**
+   * Ask for the columns to keep and the rows to load -- the columns are offered from the first
+   * header of the file.  See {@link LoadFilter} for the predicate syntax.
+   *
+   *@param  file first file to load
+   *
+   *@return filter -- null if the user cancelled
+   */
+  private LoadFilter promptLoadFilter(File file) {
+    String columns[] = BundlesUtils.header(file);
+    JList<String> columns_ls = new JList<String>(columns); columns_ls.setSelectionMode(ListSelectionModel.MULTIPLE_INTERVAL_SELECTION);
+    if (columns.length > 0) columns_ls.setSelectionInterval(0, columns.length-1);
+    JTextField from_tf    = new JTextField(20), to_tf = new JTextField(20), where_tf = new JTextField(30);
+    JPanel panel = new JPanel(new BorderLayout(5,5)), south = new JPanel(new GridLayout(3,2,5,5));
+    panel.add("North",  new JLabel("Columns To Load (Timestamps Always Load)"));
+    panel.add("Center", new JScrollPane(columns_ls));
+    south.add(new JLabel("From (Inclusive)"));              south.add(from_tf);
+    south.add(new JLabel("To (Exclusive)"));                south.add(to_tf);
+    south.add(new JLabel("Where (e.g., dpt=80,443;sip~10.0.0.0/8)")); south.add(where_tf);
+    panel.add("South",  south);
+    while (JOptionPane.showConfirmDialog(this, panel, "Load Filter", JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE) == JOptionPane.OK_OPTION) {
+      StringBuilder spec = new StringBuilder(); int sel[] = columns_ls.getSelectedIndices();
+      if (sel.length < columns.length) { spec.append("columns="); for (int i=0;i<sel.length;i++) { if (i > 0) spec.append(','); spec.append(columns[sel[i]]); } }
+      String from = from_tf.getText().trim(), to = to_tf.getText().trim(), where = where_tf.getText().trim();
+      if (from.length() > 0 || to.length() > 0) spec.append(";timestamp=").append(from).append("..").append(to);
+      if (where.length() > 0)                   spec.append(';').append(where);
+      try { return LoadFilter.parse(spec.toString());
+      } catch (RuntimeException re) { JOptionPane.showMessageDialog(this, "Load Filter Error: " + re.getMessage(), "Load Filter Error", JOptionPane.ERROR_MESSAGE); }
+    }
+    return null;
+  }
+
   /**
    * Apply a set of configuration lines to the current instance.  Abort if there are already existing panels.
    */
@@ -917,6 +1085,25 @@ public class RTControlFrame extends JFrame implements MouseListener {
     if (file_chooser.showSaveDialog(this) == JFileChooser.APPROVE_OPTION) 
       saveFile(bundles, file_chooser.getSelectedFile(), save_visible_only);
   }
+  /**
+   * Save the dataset to a binary snapshot ({@link BundlesSnapshot}).  The entity tags,
+   * time markers, comments, and GUI configuration are included.  Snapshots reopen
+   * much faster than the text formats.
+   *
+   *@param bundles bundles (records) to save
+   */
+  private void saveSnapshot(Bundles bundles) {
+    if (file_chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) return;
+    File file = file_chooser.getSelectedFile();
+    if (BundlesSnapshot.isSnapshot(file) == false) file = new File(file.getParentFile(), file.getName() + BundlesSnapshot.EXTENSION);
+    try {
+      long records = BundlesSnapshot.write(bundles, getRTParent(), getGUIConfiguration(true, false), file);
+      System.err.println("  Snapshot Save Successful! (" + records + " records)");
+    } catch (IOException ioe) {
+      JOptionPane.showMessageDialog(this, "IOException: " + ioe, "Snapshot Save Error", JOptionPane.ERROR_MESSAGE);
+    }
+  }
+
   /**
    * Save the specific dataset to the specified file.  In addition to saving
    * the dataset, the entity tags, time markers, and comments are also included
@@ -1249,12 +1436,8 @@ System.err.println("winpos = " + win_x + " " + win_y + " " + win_w + " " + win_h
     Bundles root = getRTParent().getRootBundles();    Set<Bundle> root_set = root.bundleSet();
     Bundles vis  = getRTParent().getVisibleBundles(); Set<Bundle> vis_set  = vis.bundleSet();
 
-    // Create the subset
-    Set<Bundle> subset = new HashSet<Bundle>();
-    Iterator<Bundle> it = root_set.iterator(); while (it.hasNext()) {
-      Bundle bundle = it.next(); 
-      if (vis_set.contains(bundle) == false) subset.add(bundle);
-    }
+    // Create the subset (word-wise andNot when both are bitmap-backed)
+    Set<Bundle> subset = BundleBitmapSet.andNot(root_set, vis_set);
 
     // Update the stack
     stackTop(); rt.push(root.subset(subset));
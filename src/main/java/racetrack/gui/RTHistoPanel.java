@@ -72,6 +72,7 @@ import javax.swing.event.CaretEvent;
 import javax.swing.event.CaretListener;
 
 import racetrack.framework.Bundle;
+import racetrack.framework.BundleBitmapSet;
 import racetrack.framework.Bundles;
 import racetrack.framework.BundlesG;
 import racetrack.framework.BundlesCounterContext;
@@ -1037,12 +1038,16 @@ public class RTHistoPanel extends RTPanel {
       Set<Shape> set = new HashSet<Shape>();
       RenderContext myrc = (RenderContext) rc;
       if (myrc != null) {
+        Map<Tablet,KeyMaker[]> binners = new HashMap<Tablet,KeyMaker[]>();
         Iterator<Bundle> it = bundles.iterator();
 	while (it.hasNext()) {
 	  Bundle bundle = it.next();
-          String bins[] = myrc.bundle_to_bins.get(bundle);
+          String bins[] = myrc.bins(binners, bundle);
 	  if (bins != null && bins.length > 0) {
-	    for (int i=0;i<bins.length;i++) set.addAll(myrc.bin_to_shapes.get(bins[i]));
+	    for (int i=0;i<bins.length;i++) {
+              Set<Bundle> counted = myrc.counter_context.getBundles(bins[i]); Set<Rectangle2D> shapes = myrc.bin_to_shapes.get(bins[i]);
+              if (counted != null && shapes != null && counted.contains(bundle)) set.addAll(shapes);
+            }
 	  }
 	}
       }
@@ -1279,10 +1284,6 @@ public class RTHistoPanel extends RTPanel {
        * Lookup to convert a shape into the underlying bins
        */
       Map<Shape,Set<String>>       shape_to_bins  = new HashMap<Shape,Set<String>>();
-      /**
-       * Lookup to convert a single bundle into the bins that contain it
-       */
-      Map<Bundle,String[]>         bundle_to_bins = new HashMap<Bundle,String[]>();
       /**
        * Minimum size bar length
        */
@@ -1295,7 +1296,6 @@ public class RTHistoPanel extends RTPanel {
         counter_context = null;
 	bin_to_shapes.clear();
 	shape_to_bins.clear();
-	bundle_to_bins.clear();
       }
       /**
        * Enable limited scrolling in the histogram without re-calculating all of the bins.
@@ -1338,46 +1338,170 @@ public class RTHistoPanel extends RTPanel {
         entity_based = bs.getGlobals().isScalar(bs.getGlobals().fieldIndex(bin_by)) == false && bin_by2 == null;
         // Set the bin offset if it exists
         String bin_offset_key = getConfig() + "::" + bs.hashCode(); if (bin_offset_map.containsKey(bin_offset_key)) bin_offset = bin_offset_map.get(bin_offset_key);
-	// Get the counter context
-	counter_context = new BundlesCounterContext(bs, count_by, color_by);
+	// Get the counter context -- shared with other panels aggregating the same records the same way
+        Aggregation agg = getRTParent().getAggregationCache().aggregate(bs, "histo|" + bin_by + "|" + bin_by2 + "|" + count_by + "|" + color_by, 
+          new AggregationCache.Computation<Aggregation>() { 
+            public Aggregation compute()                                 { return computeAggregation(); }
+            public Aggregation fold(Aggregation agg, Set<Bundle> added) { return foldAggregation(agg, added); } } );
+        if (agg == null) { counter_context = new BundlesCounterContext(bs, count_by, color_by); return; } // Superseded
+        counter_context = agg.counter_context; addToNoMappingSet(agg.no_mapping);
+      }
+
+      /**
+       * Records that could not be binned
+       */
+      Set<Bundle> agg_no_mapping;
+
+      /**
+       * Count the records into a new counter context.
+       *
+       *@return aggregation or null if the render was superseded
+       */
+      private Aggregation computeAggregation() {
+	counter_context = new BundlesCounterContext(bs, count_by, color_by); agg_no_mapping = new BundleBitmapSet();
 	// Go through the bundles
-        Iterator<Tablet> tablet_i = bs.tabletIterator();
-        while (tablet_i.hasNext() && currentRenderID() == getRenderID()) {
-	  Tablet tablet = tablet_i.next();
-          boolean tablet_can_count = count_by.equals(KeyMaker.RECORD_COUNT_STR) || KeyMaker.tabletCompletesBlank(tablet, count_by);
-	  // Differentiate binning by time
-          if (KeyMaker.tabletCompletesBlank(tablet, bin_by) && (count_by.equals(KeyMaker.RECORD_COUNT_STR) || KeyMaker.tabletCompletesBlank(tablet, count_by))) {
+        List<Partial> partials = aggregate(bs, counter_context.mergeable(), new RenderPartialFactory<Partial>() { 
+          public Partial create(boolean primary) { return new Partial(primary); } } );
+        for (int i=0;i<partials.size() && currentRenderID() == getRenderID();i++) partials.get(i).merge();
+        if (currentRenderID() != getRenderID() || Thread.currentThread().isInterrupted()) return null;
+        return new Aggregation(counter_context, agg_no_mapping);
+      }
+
+      /**
+       * Count records appended to the root into the next version of a previously computed aggregation
+       * (see {@link BundlesCounterContext#fork()}).  Records that the aggregation already includes are
+       * skipped.  The shared aggregation is left as is since other renders may still be drawing from it --
+       * the new version shares the bins (and the unmapped records) that the appended records don't change,
+       * so the fold costs time proportional to the appended records rather than to the aggregation.  The
+       * fold runs to completion even if the render is superceded.
+       *
+       *@param  agg   aggregation to update
+       *@param  added appended records
+       *
+       *@return updated aggregation or null if the counter context has no versions or the fold was interrupted (recompute instead)
+       */
+      private Aggregation foldAggregation(Aggregation agg, Set<Bundle> added) {
+        Set<Bundle> set = new HashSet<Bundle>(); Map<Tablet,KeyMaker[]> binners = new HashMap<Tablet,KeyMaker[]>();
+        Iterator<Bundle> it = added.iterator(); while (it.hasNext()) {
+          Bundle bundle = it.next(); if (agg.no_mapping.contains(bundle)) continue;
+          String bins[] = bins(binners, bundle); Set<Bundle> counted = (bins == null || bins.length == 0) ? null : agg.counter_context.getBundles(bins[0]);
+          if (counted == null || counted.contains(bundle) == false) set.add(bundle);
+        }
+        if (set.size() == 0) return agg;
+        if (agg.counter_context.mergeable() == false) return null;
+        counter_context = agg.counter_context.fork(); agg_no_mapping = BundleBitmapSet.share(agg.no_mapping);
+        List<Partial> partials = aggregate(bs.subset(set), true, false, new RenderPartialFactory<Partial>() { 
+          public Partial create(boolean primary) { return new Partial(primary); } } );
+        if (Thread.currentThread().isInterrupted()) return null; // Aborted -- don't publish a partial fold
+        for (int i=0;i<partials.size();i++) partials.get(i).merge();
+        return new Aggregation(counter_context, agg_no_mapping);
+      }
+
+      /**
+       * Return the bin_by (and bin_by2) key makers for a tablet -- null if the tablet's records can't be binned or counted.
+       *
+       *@param  tablet tablet of the records
+       *
+       *@return key makers (the second is null without a bin_by2 for the tablet)
+       */
+      KeyMaker[] binners(Tablet tablet) {
+        boolean can_count = count_by.equals(KeyMaker.RECORD_COUNT_STR) || KeyMaker.tabletCompletesBlank(tablet, count_by);
+        if (can_count == false || KeyMaker.tabletCompletesBlank(tablet, bin_by) == false) return null;
+        KeyMaker kms[] = new KeyMaker[2]; kms[0] = new KeyMaker(tablet, bin_by);
+        if (bin_by2 != null && KeyMaker.tabletCompletesBlank(tablet, bin_by2)) kms[1] = new KeyMaker(tablet, bin_by2);
+        return kms;
+      }
+
+      /**
+       * Return the bins for a record -- with a bin_by2, the bins are the combinations of both fields.
+       *
+       *@param  binner  bin_by key maker
+       *@param  binner2 bin_by2 key maker (null if none)
+       *@param  bundle  record
+       *
+       *@return bins for the record
+       */
+      String[] bins(KeyMaker binner, KeyMaker binner2, Bundle bundle) {
+        String bins[] = binner.stringKeys(bundle);
+        if (bins != null && bins.length > 0 && binner2 != null) {
+	  String seconds[]  = binner2.stringKeys(bundle);
+	  String new_bins[] = new String[bins.length * seconds.length];
+	  int k=0;
+	  for (int i=0;i<bins.length;i++) for (int j=0;j<seconds.length;j++)
+	    new_bins[k++] = bins[i] + " " + BundlesDT.DELIM + " " + seconds[j];
+	  bins = new_bins;
+        }
+        return bins;
+      }
+
+      /**
+       * Return the bins that a record was counted into -- the key makers are cached per tablet in the
+       * lookup.  Null if the record's tablet can't be binned.
+       *
+       *@param  binners per tablet key makers (from {@link #binners(Tablet)})
+       *@param  bundle  record
+       *
+       *@return bins for the record
+       */
+      String[] bins(Map<Tablet,KeyMaker[]> binners, Bundle bundle) {
+        Tablet tablet = bundle.getTablet(); KeyMaker kms[] = binners.get(tablet);
+        if (kms == null && binners.containsKey(tablet) == false) binners.put(tablet, kms = binners(tablet));
+        return kms == null ? null : bins(kms[0], kms[1], bundle);
+      }
+
+      /**
+       * Add records to the unmapped records of the aggregation -- kept as a bitmap unless a record has no ordinal.
+       *
+       *@param set records that couldn't be binned
+       */
+      void addNoMapping(Set<Bundle> set) {
+        Iterator<Bundle> it = set.iterator(); while (it.hasNext()) {
+          Bundle bundle = it.next();
+          if (bundle.ordinal() < 0 && agg_no_mapping instanceof BundleBitmapSet) agg_no_mapping = new HashSet<Bundle>(agg_no_mapping);
+          agg_no_mapping.add(bundle);
+        }
+      }
+
+      /**
+       * Aggregation of a portion of the records.  The primary partial accumulates directly into the
+       * render context -- the others accumulate separately and are merged back in afterwards.
+       */
+      class Partial implements RenderPartial {
+        boolean               primary;
+        BundlesCounterContext partial_cc;
+        Set<Bundle>           no_mapping      = new HashSet<Bundle>();
+        KeyMaker              partial_binner, binner2;
+        boolean               tablet_can_bin;
+
+        public Partial(boolean primary) {
+          this.primary = primary;
+          partial_cc   = primary ? counter_context : counter_context.newPartial();
+        }
+
+        public void tablet(Tablet tablet) {
+          KeyMaker kms[] = binners(tablet);
+          tablet_can_bin   = (kms != null);
+          if (tablet_can_bin) {
 	    // Make the binner
-	    binner = new KeyMaker(tablet, bin_by);
-	    KeyMaker binner2 = null; if (bin_by2 != null && KeyMaker.tabletCompletesBlank(tablet, bin_by2)) binner2 = new KeyMaker(tablet, bin_by2);
-            // Go through the bundles
-	    Iterator<Bundle> bundle_i = tablet.bundleIterator();
-	    while (bundle_i.hasNext() && currentRenderID() == getRenderID()) {
-	      Bundle bundle = bundle_i.next();
-              String bins[] = binner.stringKeys(bundle);
-	      if (bins != null && bins.length > 0) {
-	        if (binner2 != null) {
-	          String seconds[]  = binner2.stringKeys(bundle);
-		  String new_bins[] = new String[bins.length * seconds.length];
-		  int k=0;
-		  for (int i=0;i<bins.length;i++) for (int j=0;j<seconds.length;j++)
-		    new_bins[k++] = bins[i] + " " + BundlesDT.DELIM + " " + seconds[j];
-		  bins = new_bins;
-	        }
-	        bundle_to_bins.put(bundle,bins);
-	        for (int i=0;i<bins.length;i++) {
-                  if (tablet_can_count) counter_context.count(bundle, bins[i]);
-                }
-	      }
-	    }
-	  } else { // Put the other bundles into the no mapping set
-	    Iterator<Bundle> bundle_i = tablet.bundleIterator();
-	    while (bundle_i.hasNext() && currentRenderID() == getRenderID()) {
-	      Bundle bundle = bundle_i.next();
-              addToNoMappingSet(bundle);
-            }
+	    binner = partial_binner = kms[0]; binner2 = kms[1];
           }
         }
+
+        public void bundle(Bundle bundle) {
+          if (tablet_can_bin == false) { no_mapping.add(bundle); return; } // Put the other bundles into the no mapping set
+          String bins[] = bins(partial_binner, binner2, bundle);
+	  if (bins != null && bins.length > 0) {
+	    for (int i=0;i<bins.length;i++) partial_cc.count(bundle, bins[i]);
+	  }
+        }
+
+        /**
+         * Fold the partial back into the render context.
+         */
+        public void merge() {
+          addNoMapping(no_mapping); if (primary) return;
+          counter_context.merge(partial_cc);
+        }
       }
 
     /**
@@ -1641,5 +1765,15 @@ public class RTHistoPanel extends RTPanel {
       }
     }
   }
+
+  /**
+   * Counts for a histogram -- shared across panels through the {@link AggregationCache}
+   * and not modified once computed.
+   */
+  static class Aggregation {
+    BundlesCounterContext counter_context; Set<Bundle> no_mapping;
+    public Aggregation(BundlesCounterContext counter_context, Set<Bundle> no_mapping) {
+      this.counter_context = counter_context; this.no_mapping = no_mapping; }
+  }
 }
 
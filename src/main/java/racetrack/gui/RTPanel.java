@@ -30,6 +30,7 @@ import java.awt.GridLayout;
 import java.awt.RenderingHints;
 import java.awt.Shape;
 import java.awt.Stroke;
+import java.awt.Window;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.InputEvent;
@@ -63,6 +64,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import javax.imageio.ImageIO;
 
@@ -85,6 +88,7 @@ import javax.swing.JScrollPane;
 import javax.swing.JSlider;
 import javax.swing.JTextArea;
 import javax.swing.JTextField;
+import javax.swing.SwingUtilities;
 import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
 import javax.swing.event.ListSelectionEvent;
@@ -99,6 +103,7 @@ import racetrack.framework.Tablet;
 import racetrack.kb.RTComment;
 
 import racetrack.util.SubText;
+import racetrack.util.WorkerPool;
 import racetrack.util.Utils;
 
 import racetrack.visualization.RTColorManager;
@@ -139,6 +144,67 @@ public abstract class RTPanel extends JPanel {
    */
   RTPanelFrame.Type win_type;
 
+  /**
+   * Split the record aggregation for renders across the worker pool
+   */
+  private static boolean parallel_aggregation = true;
+
+  /**
+   * Set whether render contexts aggregate the records in parallel.
+   *
+   *@param b true to use the worker pool
+   */
+  public static void    setParallelAggregation(boolean b) { parallel_aggregation = b; }
+
+  /**
+   * Return true if render contexts aggregate the records in parallel.
+   *
+   *@return parallel aggregation flag
+   */
+  public static boolean parallelAggregation() { return parallel_aggregation; }
+
+  /**
+   * Number of records in each piece of work for a parallel aggregation.  Record sets smaller than
+   * two chunks are aggregated on the rendering thread.
+   */
+  public static final int AGGREGATION_CHUNK = 16384;
+
+  /**
+   * Aggregation of a portion of the records for a render context.  Each partial keeps its
+   * own counter context (and other lookups) so that partials can run concurrently -- the
+   * render context merges them (in record order) once they finish.
+   */
+  interface RenderPartial {
+    /**
+     * Prepare for a run of records from the tablet (e.g., create the key makers).  Always called
+     * on the rendering thread.
+     *
+     *@param tablet tablet for the records that follow
+     */
+    public void tablet(Tablet tablet);
+
+    /**
+     * Aggregate a single record.  Called from a worker thread for parallel aggregations.
+     *
+     *@param bundle record to aggregate
+     */
+    public void bundle(Bundle bundle);
+  }
+
+  /**
+   * Factory for creating the partials.
+   */
+  interface RenderPartialFactory<P extends RenderPartial> {
+    /**
+     * Create a partial.
+     *
+     *@param  primary true if this is the only partial -- it can accumulate directly into the render context
+     *
+     *@return new partial
+     */
+    public P create(boolean primary);
+  }
+
   /**
    * Return the parent window's type.
    *
@@ -1333,7 +1399,7 @@ public abstract class RTPanel extends JPanel {
      * long running renders in the case that another operation has
      * superceded the render
      */
-    short current_render_id = 0; 
+    volatile short current_render_id = 0; 
 
     /**
      * Return the current render id.  This is used to abort long
@@ -1345,29 +1411,56 @@ public abstract class RTPanel extends JPanel {
     public short currentRenderID() { return current_render_id; }
 
     /**
-     * Implements a threaded version of the the render operation.  Uses
-     * a render id to abort renders that are superceded.  Method assumes
-     * that the short increment operator is atomic in nature.
+     * Advance the render id -- aborts any render in progress.
+     *
+     *@return new render id
      */
-    class RenderRunnable implements Runnable { 
-      @Override
-      public void run() { 
-        RTRenderContext myrc = render(++current_render_id); 
-        if (myrc != null && myrc.getRenderID() == currentRenderID()) {
-          getRTComponent().rc = myrc;
-          getRTComponent().repaint();
-        }
-    } }
+    synchronized short nextRenderID() { return ++current_render_id; }
+
+    /**
+     * Perform the render on the calling thread.  Called by the {@link RenderScheduler}.
+     * Uses a render id to abort renders that are superceded.
+     */
+    void renderNow() {
+      RTRenderContext myrc = render(nextRenderID());
+      if (myrc != null && myrc.getRenderID() == currentRenderID()) {
+        getRTComponent().rc = myrc;
+        getRTComponent().repaint();
+      }
+    }
+
+    /**
+     * Return the scheduling priority for this component's renders -- 2 if the
+     * user is interacting with it, 1 if it's showing, 0 otherwise.  Reads the
+     * Swing state, so only call on the event dispatch thread.
+     *
+     *@return render priority
+     */
+    int renderPriority() {
+      if (isShowing() == false) return 0;
+      Window window = SwingUtilities.getWindowAncestor(this);
+      if (mouse_in || isFocusOwner() || (window != null && window.isFocused())) return 2;
+      return 1;
+    }
 
     /**
-     * Render (or re-render) the current view.  Initiates a
-     * thread to make the operations occur concurrently across
-     * all of the views.
+     * Render (or re-render) the current view.  Queues the component
+     * with the shared {@link RenderScheduler} so that the renders
+     * across all of the views share a bounded number of threads.
+     * The priority is captured on the event dispatch thread -- requests
+     * from other threads are passed over to it.
      */
     public void render() { 
-      if (getRTParent().getControlPanel().renderVisualizations()) (new Thread(new RenderRunnable())).start(); 
+      if (SwingUtilities.isEventDispatchThread() == false) { SwingUtilities.invokeLater(new Runnable() { public void run() { render(); } }); return; }
+      if (getRTParent().getControlPanel().renderVisualizations()) RenderScheduler.schedule(this, renderPriority());
     }
 
+    /**
+     * Render from within a paint -- only if a render isn't already queued
+     * or in progress (that render will deliver the new context).
+     */
+    private void paintRender() { if (RenderScheduler.busy(this) == false) render(); }
+
     /**
      * The last image that was rendered.  Used to not repeat renders
      * if nothing has changed since the last render.
@@ -1397,15 +1490,15 @@ public abstract class RTPanel extends JPanel {
 */
       if (myrc == null || myrc.getRCWidth() != getWidth() || myrc.getRCHeight() != getHeight() || myrc.getRenderID() != currentRenderID()) { 
         if (last_bi != null) g.drawImage(last_bi,0,0,null); else { g2d.setColor(Color.white); g2d.fillRect(0,0,getWidth(),getHeight()); }
-        render();
+        paintRender();
         return;
       }
 
       // Draw / render the base image
       BufferedImage bi = myrc.getBase(); if (bi != null) { 
         g.drawImage(last_bi = bi,0,0,null); 
-        if (getWidth() != bi.getWidth() || getHeight() != bi.getHeight()) { render(); }
-      } else { render(); if (last_bi != null) g.drawImage(last_bi,0,0,null); else { g2d.setColor(Color.white); g2d.fillRect(0,0,getWidth(),getHeight()); } }
+        if (getWidth() != bi.getWidth() || getHeight() != bi.getHeight()) { paintRender(); }
+      } else { paintRender(); if (last_bi != null) g.drawImage(last_bi,0,0,null); else { g2d.setColor(Color.white); g2d.fillRect(0,0,getWidth(),getHeight()); } }
 
       // Describe modifier keys
       if (last_shft_down == true && last_ctrl_down == false) {
@@ -1576,6 +1669,84 @@ public abstract class RTPanel extends JPanel {
        */
       public short    render_id = 0;
 
+      /**
+       * Aggregate the records through partials.  If parallel aggregation is enabled (and the records are
+       * numerous enough), the tablets are cut into chunks that are each handled by a separate partial
+       * on the worker pool -- otherwise, a single primary partial is run over all of the records on this
+       * thread.  All of the workers abort when the render is superceded.
+       *
+       *@param  bs       records to aggregate
+       *@param  parallel true if the caller can merge non-primary partials
+       *@param  factory  creates the partials
+       *
+       *@return partials in record order (a single primary partial for the sequential case) -- empty if aborted
+       */
+      protected <P extends RenderPartial> List<P> aggregate(Bundles bs, boolean parallel, RenderPartialFactory<P> factory) {
+        return aggregate(bs, parallel, true, factory);
+      }
+
+      /**
+       * Aggregate the records through partials.  Same as {@link #aggregate(Bundles,boolean,RenderPartialFactory)}
+       * but the abort on a superceded render can be disabled -- needed when the partials fold into an
+       * aggregation that is shared with other renders.  The aggregation is aborted (and no partials are
+       * returned) if the render is superceded or the thread is interrupted while waiting for the workers.
+       *
+       *@param  bs        records to aggregate
+       *@param  parallel  true if the caller can merge non-primary partials
+       *@param  abortable true to abort if the render is superceded
+       *@param  factory   creates the partials
+       *
+       *@return partials in record order (a single primary partial for the sequential case) -- empty if aborted
+       */
+      protected <P extends RenderPartial> List<P> aggregate(Bundles bs, boolean parallel, final boolean abortable, RenderPartialFactory<P> factory) {
+        List<P> partials = new ArrayList<P>();
+        if (parallel == false || parallel_aggregation == false || WorkerPool.threads() == 1 || bs.size() < 2*AGGREGATION_CHUNK) {
+          P partial = factory.create(true); partials.add(partial);
+          Iterator<Tablet> it_tab = bs.tabletIterator(); while (it_tab.hasNext() && current(abortable)) {
+            Tablet tablet = it_tab.next(); partial.tablet(tablet);
+            Iterator<Bundle> it = tablet.bundleIterator(); while (it.hasNext() && current(abortable)) partial.bundle(it.next());
+          }
+          if (current(abortable) == false) partials.clear();
+          return partials;
+        }
+
+        // Cut into chunks -- the partials are prepared here so that key maker construction stays on one thread
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        Iterator<Tablet> it_tab = bs.tabletIterator(); while (it_tab.hasNext() && current(abortable)) {
+          Tablet tablet = it_tab.next(); Iterator<Bundle> it = tablet.bundleIterator();
+          while (it.hasNext() && current(abortable)) {
+            final Bundle chunk[] = new Bundle[Math.max(1, Math.min(AGGREGATION_CHUNK, tablet.size()))]; int n = 0;
+            while (n < chunk.length && it.hasNext()) chunk[n++] = it.next();
+            final P partial = factory.create(false); partial.tablet(tablet); partials.add(partial); final int len = n;
+            futures.add(WorkerPool.pool().submit(new Runnable() { public void run() {
+              for (int i=0;i<len;i++) {
+                if ((i & 0xff) == 0 && current(abortable) == false) return;
+                partial.bundle(chunk[i]);
+              }
+            } }));
+          }
+        }
+
+        // Wait for the workers -- partially filled partials aren't returned
+        boolean interrupted = false;
+        try {
+          for (int i=0;i<futures.size();i++) futures.get(i).get();
+        } catch (InterruptedException ie) { Thread.currentThread().interrupt(); interrupted = true;
+        } catch (ExecutionException  ee) { WorkerPool.rethrow(ee);
+        } finally { for (int i=0;i<futures.size();i++) futures.get(i).cancel(false); }
+        if (interrupted || current(abortable) == false) partials.clear();
+        return partials;
+      }
+
+      /**
+       * Determine if aggregation should continue.
+       *
+       *@param  abortable true if a superceded render should stop
+       *
+       *@return true to continue
+       */
+      private boolean current(boolean abortable) { return abortable == false || currentRenderID() == getRenderID(); }
+
       /**
        * Return the {@link BufferedImage} created by this render context.
        *
@@ -24,6 +24,7 @@ import racetrack.framework.BundlesG;
 import racetrack.framework.KeyMaker;
 import racetrack.framework.Tablet;
 
+import racetrack.util.IndexSort;
 import racetrack.util.Utils;
 
 import racetrack.visualization.RTColorManager;
@@ -62,6 +63,7 @@ import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JRadioButtonMenuItem;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -71,6 +73,7 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.RandomAccess;
 import java.util.Set;
 import java.util.StringTokenizer;
 
@@ -1255,7 +1258,7 @@ public class RTTableCPanel extends RTPanel {
         Iterator<Bundle> it = bundles.iterator(); while (it.hasNext()) {
 	  Bundle bundle = it.next();
 	  if (myrc.bundle_to_geom.containsKey(bundle))    shapes.add(myrc.bundle_to_geom.get(bundle));
-	  if (myrc.sb_bundle_to_geom.containsKey(bundle)) shapes.add(myrc.sb_bundle_to_geom.get(bundle));
+	  Shape sb_geom = myrc.scrollBarGeom(bundle); if (sb_geom != null) shapes.add(sb_geom);
 	}
       }
       return shapes;
@@ -1272,7 +1275,7 @@ public class RTTableCPanel extends RTPanel {
       if (myrc != null) {
         Set<Shape> set = new HashSet<Shape>();
         set.addAll(myrc.geom_to_bundle.keySet());
-	set.addAll(myrc.sb_geom_to_bundles.keySet());
+	set.addAll(myrc.sb_y_to_geom.values());
         return set;
       } else return new HashSet<Shape>(); 
     }
@@ -1322,9 +1325,9 @@ public class RTTableCPanel extends RTPanel {
               rc_h;
 
       /**
-       * Bundles as a list
+       * Bundles (records) in the display order
        */
-      List<Bundle> bundle_list = new ArrayList<Bundle>();
+      RowModel bundle_list;
 
       /**
        * Construct the render context
@@ -1341,112 +1344,107 @@ public class RTTableCPanel extends RTPanel {
 	// Find the top bundle if it has been stored off previously
 	top_render_bundle = retrieveTopBundle(bs);
 
-	// Convert to list
-	Tablet tablet = null;
+	// Convert to an array
+	Tablet tablet = null; List<Bundle> list = new ArrayList<Bundle>();
 	Iterator<Tablet> it_tab = bs.tabletIterator(); while (it_tab.hasNext()) {
           Tablet tab = it_tab.next(); if (tab.fileHeader().equals(tablet_str)) {
 	    tablet = tab;
-	    bundle_list.addAll(tab.bundleSet());
+	    list.addAll(tab.bundleSet());
 	  }
 	}
+	Bundle rows[] = list.toArray(new Bundle[list.size()]); list = null;
 
-	// Sort
+	// Sort -- the keys are pulled once per record, then just the row indices are sorted
+        int order[] = null;
         if (sort_1 != null) {
-          Comparator<Bundle> comparator = new MyComparator(tablet, sort_1, sort_1_inv, sort_2, sort_2_inv, sort_3, sort_3_inv);
-          Collections.sort(bundle_list, comparator);
+          List<String> flds = new ArrayList<String>(); List<Boolean> invs = new ArrayList<Boolean>();
+                                                          { flds.add(sort_1); invs.add(sort_1_inv); }
+          if (sort_2 != null)                             { flds.add(sort_2); invs.add(sort_2_inv); }
+          if (sort_2 != null && sort_3 != null)           { flds.add(sort_3); invs.add(sort_3_inv); }
+          long keys[][] = new long[flds.size()][]; boolean missing[][] = new boolean[flds.size()][rows.length], inverts[] = new boolean[flds.size()];
+          for (int i=0;i<keys.length;i++) { keys[i] = sortKeys(tablet, rows, flds.get(i), missing[i]); inverts[i] = invs.get(i); }
+          order = IndexSort.order(keys, missing, inverts, rows.length);
         }
+        bundle_list = new RowModel(rows, order);
 
         // Scan for which bundle should be on top
         if (top_render_bundle != null) {
-          for (int i=0;i<bundle_list.size();i++) {
-	    if (bundle_list.get(i) == top_render_bundle) { top_render_bundle_i = i; break; }
-	  }
+          int i = bundle_list.rowOf(top_render_bundle); if (i >= 0) top_render_bundle_i = i;
         }
       }
 
       /**
-       * Comparator for the bundles
+       * Pull the sort key of a column for each record.  Timestamps sort by their value, scalars by
+       * their integer, and everything else by the rank of its string -- each distinct string is only
+       * compared once.  Records without a key (or with a scalar that isn't a number) are flagged
+       * as missing so that they sort last in either direction.
+       *
+       *@param  tablet  tablet of the records
+       *@param  rows    records
+       *@param  fld     column to sort by
+       *@param  missing filled in with true for the records that don't have a key
+       *
+       *@return sort key for each record
        */
-      class MyComparator implements Comparator<Bundle> {
-        KeyMaker km_sort[]; boolean inverts[]; String s[]; BundlesG globals = getRTParent().getRootBundles().getGlobals();
-        public MyComparator(Tablet tablet, String s1, boolean s1_inv, String s2, boolean s2_inv, String s3, boolean s3_inv) {
-	  if      (s2 == null) { km_sort = new KeyMaker[1]; inverts = new boolean[1]; s = new String[1]; }
-	  else if (s3 == null) { km_sort = new KeyMaker[2]; inverts = new boolean[2]; s = new String[2]; }
-	  else                 { km_sort = new KeyMaker[3]; inverts = new boolean[3]; s = new String[3]; }
-
-                          { if (s1.equals(TS0_FLD) || s1.equals(TS1_FLD)) { } else { km_sort[0] = new KeyMaker(tablet, s1); } inverts[0] = s1_inv; s[0] = s1; }
-	  if (s2 != null) { if (s2.equals(TS0_FLD) || s2.equals(TS1_FLD)) { } else { km_sort[1] = new KeyMaker(tablet, s2); } inverts[1] = s2_inv; s[1] = s2; }
-	  if (s3 != null) { if (s3.equals(TS0_FLD) || s3.equals(TS1_FLD)) { } else { km_sort[2] = new KeyMaker(tablet, s3); } inverts[2] = s3_inv; s[2] = s3; }
+      private long[] sortKeys(Tablet tablet, Bundle rows[], String fld, boolean missing[]) {
+        long keys[] = new long[rows.length];
+        if        (fld.equals(TS0_FLD)) { for (int i=0;i<rows.length;i++) keys[i] = rows[i].ts0(); return keys;
+        } else if (fld.equals(TS1_FLD)) { for (int i=0;i<rows.length;i++) keys[i] = rows[i].ts1(); return keys; }
+
+        // First key of each record as a key id
+        final KeyMaker km = new KeyMaker(tablet, fld); int ids[] = new int[rows.length], buf[] = new int[4];
+        for (int i=0;i<rows.length;i++) {
+          int n = km.keyIds(rows[i], buf); if (n > buf.length) { buf = new int[n]; km.keyIds(rows[i], buf); }
+          ids[i] = (n > 0) ? buf[0] : -1;
         }
-        public int compare(Bundle b1, Bundle b2) {
-	  for (int i=0;i<km_sort.length;i++) {
-	    //
-	    // Check to see if it's a timestamp field
-	    //
-            if (km_sort[i] == null) {
-              if        (s[i].equals(TS0_FLD)) {
-                long ts1 = b1.ts0(), ts2 = b2.ts0();
-                if        (ts1 > ts2) { if (inverts[i]) return -1; else return  1;
-                } else if (ts1 < ts2) { if (inverts[i]) return  1; else return -1; }
-              } else if (s[i].equals(TS1_FLD)) {
-                long ts1 = b1.ts1(), ts2 = b2.ts1();
-                if        (ts1 > ts2) { if (inverts[i]) return -1; else return  1;
-                } else if (ts1 < ts2) { if (inverts[i]) return  1; else return -1; }
-              } else throw new RuntimeException("Do Not Understand Field \"" + s[i] + "\"");
-	    //
-	    // Otherwise it's a regular field -- use the keymakers
-	    //
-            } else {
-	      String strs1[] = km_sort[i].stringKeys(b1), strs2[] = km_sort[i].stringKeys(b2);
-  
-	      if        (strs1 == null   &&  strs2 == null)    { 
-	      } else if (strs1 == null                    )    { if (inverts[i]) return -1; else return  1;
-	      } else if (                    strs2 == null)    { if (inverts[i]) return  1; else return -1;
-	      } else if (strs1.length > 0 && strs2.length > 0) {
-	        //
-	        // Do the actual compare
-	        //
-	        //
-	        // - Compare ints
-	        //
-	        if     (globals.isScalar(globals.fieldIndex(s[i]))) {
-                  int int1 = Integer.parseInt(strs1[0]), int2 = Integer.parseInt(strs2[0]);
-		  if        (int1 > int2) {
-		    if (inverts[i]) return -1;
-		    else            return  1;
-		  } else if (int1 < int2) {
-		    if (inverts[i]) return  1;
-		    else            return -1;
-		  }
-	        //
-	        // - Compare strings
-	        //
-	        } else                                              {
-	          int value = strs1[0].compareTo(strs2[0]);
-		  if        (value > 0) {
-		    if (inverts[i]) return -1;
-		    else            return  1;
-		  } else if (value < 0) {
-		    if (inverts[i]) return  1;
-		    else            return -1;
-		  }
-	        }
-              } else return 0;
-            }
-	  }
-	  return 0;
+
+        // Sort value of each distinct key id
+        int count = km.keyCount(); boolean used[] = new boolean[count]; int distinct = 0;
+        for (int i=0;i<ids.length;i++) if (ids[i] >= 0 && used[ids[i]] == false) { used[ids[i]] = true; distinct++; }
+        long values[] = new long[count]; boolean bad[] = new boolean[count];
+        BundlesG globals = getRTParent().getRootBundles().getGlobals();
+        if (globals.isScalar(globals.fieldIndex(fld))) {
+          for (int id=0;id<count;id++) if (used[id]) {
+            try { values[id] = Integer.parseInt(km.keyString(id)); } catch (NumberFormatException nfe) { bad[id] = true; }
+          }
+        } else {
+          Integer by_str[] = new Integer[distinct]; int k = 0; for (int id=0;id<count;id++) if (used[id]) by_str[k++] = id;
+          Arrays.sort(by_str, new Comparator<Integer>() { public int compare(Integer i0, Integer i1) { return km.keyString(i0).compareTo(km.keyString(i1)); } });
+          for (int i=0;i<by_str.length;i++) values[by_str[i]] = i;
         }
+
+        for (int i=0;i<rows.length;i++) {
+          if (ids[i] >= 0 && bad[ids[i]] == false) keys[i] = values[ids[i]]; else missing[i] = true;
+        }
+        return keys;
       }
 
       /**
-       * Scrollbar lookups for bundle_to_geom (doesn't change basd on the scroll position)
+       * Scrollbar geometry by y coordinate (doesn't change based on the scroll position) -- each
+       * one stands for the records whose position in the list lands on that y coordinate
        */
-      Map<Bundle,Shape>      sb_bundle_to_geom  = new HashMap<Bundle,Shape>();
+      Map<Integer,Rectangle2D> sb_y_to_geom = new HashMap<Integer,Rectangle2D>();
 
       /**
-       * Scrollbar lookups for geom_to_bundle (doesn't change based on the scroll position)
+       * Return the y coordinate of a position in the list on the scroll bar.
+       *
+       *@param i position in the list
+       *
+       *@return y coordinate
        */
-      Map<Shape,Set<Bundle>> sb_geom_to_bundles = new HashMap<Shape,Set<Bundle>>();
+      int scrollBarY(int i) { return (int) (txt_h + (scroll_bar_all.getHeight() * i) / bundle_list.size()); }
+
+      /**
+       * Return the scroll bar geometry of a record.
+       *
+       *@param bundle record to look up
+       *
+       *@return scroll bar geometry -- null if the record isn't in the list (or the scroll bar isn't drawn)
+       */
+      Shape scrollBarGeom(Bundle bundle) {
+        if (scroll_bar_all == null) return null;
+        int i = bundle_list.rowOf(bundle); return (i < 0) ? null : sb_y_to_geom.get(scrollBarY(i));
+      }
 
       /**
        * Lookup to convert a bundle (record) to a shape on the view
@@ -1773,16 +1771,13 @@ public class RTTableCPanel extends RTPanel {
                 }
               }
 
-	      // If the bundle to scrollbar geometry is empty, fill it (only want to do this once)
-	      Rectangle2D last_rect = null;
-	      if (sb_geom_to_bundles.keySet().size() == 0) {
-	        for (int i=0;i<bundle_list.size();i++) {
-		  int y = (int) (txt_h + (scroll_bar_all.getHeight() * i) / bundle_list.size());
-		  if (last_rect == null || y != (int) last_rect.getY()) last_rect = new Rectangle2D.Double(scroll_bar.getX(), y, scroll_bar_w, 2);
-
-		  if (sb_geom_to_bundles.containsKey(last_rect) == false) sb_geom_to_bundles.put(last_rect, new HashSet<Bundle>());
-		  sb_geom_to_bundles.get(last_rect).add(bundle_list.get(i));
-		  sb_bundle_to_geom.put(bundle_list.get(i), last_rect);
+	      // If the scrollbar geometry is empty, fill it (only want to do this once) -- one per y coordinate with records
+	      if (sb_y_to_geom.size() == 0) {
+	        int n = bundle_list.size(); double h = scroll_bar_all.getHeight();
+	        for (int i=0;i<n;) {
+		  int y = scrollBarY(i);
+		  sb_y_to_geom.put(y, new Rectangle2D.Double(scroll_bar.getX(), y, scroll_bar_w, 2));
+		  i = Math.max(i+1, (int) (((y + 1 - txt_h) * (double) n) / h) - 1); while (i < n && scrollBarY(i) == y) i++; // Skip to the next y
 		}
 	      }
 	    }
@@ -1842,5 +1837,60 @@ public class RTTableCPanel extends RTPanel {
 		  scroll_bar_h;
     }
   }
+
+  /**
+   * Records of the table in display order.  The records are held once and the order is an
+   * array of row indices -- so a sort only rearranges ints, and the renderer only pulls the
+   * records that are in the viewport.
+   */
+  static class RowModel extends AbstractList<Bundle> implements RandomAccess {
+    /**
+     * Records (unsorted)
+     */
+    final Bundle rows[];
+
+    /**
+     * Display order as indices into rows -- null for the unsorted order
+     */
+    final int    order[];
+
+    /**
+     * Display position by bundle ordinal -- built on the first lookup
+     */
+    int          positions[];
+
+    /**
+     * Construct the model.
+     *
+     *@param rows  records
+     *@param order display order (indices into rows) -- null to keep the order of the records
+     */
+    public RowModel(Bundle rows[], int order[]) { this.rows = rows; this.order = order; }
+
+    @Override
+    public Bundle get(int i) { return rows[order == null ? i : order[i]]; }
+
+    @Override
+    public int size() { return rows.length; }
+
+    /**
+     * Return the display position of a record.
+     *
+     *@param  bundle record to find
+     *
+     *@return position -- -1 if the record isn't in the table
+     */
+    public synchronized int rowOf(Bundle bundle) {
+      if (positions == null) {
+        int max = -1; for (int i=0;i<rows.length;i++) max = Math.max(max, rows[i].ordinal());
+        positions = new int[max+1]; Arrays.fill(positions, -1);
+        for (int i=0;i<rows.length;i++) { int ord = get(i).ordinal(); if (ord >= 0) positions[ord] = i; }
+      }
+      int ord = bundle.ordinal();
+      if (ord >= 0) return (ord < positions.length && positions[ord] >= 0 && get(positions[ord]) == bundle) ? positions[ord] : -1;
+      for (int i=0;i<rows.length;i++) if (get(i) == bundle) return i;
+      return -1;
+    }
+  }
 }
 
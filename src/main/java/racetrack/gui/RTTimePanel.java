@@ -1476,9 +1476,14 @@ public class RTTimePanel extends RTPanel {
           if (bin_in_ms == 5*MINUTES) { for (int j=1;j<=4;j++) { x_lu.put(mysdf.format(new Date(ts + j*60L*1000L)), x); } }
 	}
 	public int    getInc() { return inc; }
+	/**
+	 * Per-thread copies of the formatter (records may be mapped from the worker threads)
+	 */
+	ThreadLocal<SimpleDateFormat> local_sdf = new ThreadLocal<SimpleDateFormat>() {
+	  protected SimpleDateFormat initialValue() { return (SimpleDateFormat) mysdf.clone(); } };
 	public String map(Bundle bundle) {
 	  if (bundle.hasTime()) {
-	    String formatted = mysdf.format(new Date(bundle.ts0()));
+	    String formatted = local_sdf.get().format(new Date(bundle.ts0()));
 	    return "" + x_lu.get(formatted);
 	  } else return null;
 	}
@@ -1576,17 +1581,51 @@ public class RTTimePanel extends RTPanel {
         }
 
 	// Go through the bundles adding them to the counter context
-	Iterator<Tablet> it_t = bs.tabletIterator();
-	while (it_t.hasNext()) {
-	  Tablet tablet = it_t.next(); 
+        List<Partial> partials = aggregate(bs, counter_context.mergeable(), new RenderPartialFactory<Partial>() {
+          public Partial create(boolean primary) { return new Partial(primary); } } );
+        for (int i=0;i<partials.size() && currentRenderID() == getRenderID();i++) partials.get(i).merge();
+
+	// aggregate
+	if (aggregate) {
+	  List<Integer> sorted = new ArrayList<Integer>();
+	  Iterator<String> it_str = counter_context.binIterator();
+	  while (it_str.hasNext()) { sorted.add(Integer.parseInt(it_str.next())); }
+	  Collections.sort(sorted);
+	  for (int i=1;i<sorted.size();i++) {
+	    String bin_p = "" + sorted.get(i-1), bin = "" + sorted.get(i);
+	    counter_context.accumulate(bin_p, bin);
+	  }
+	}
+      }
+
+      /**
+       * Aggregation of a portion of the records.  The primary partial accumulates directly into the
+       * render context -- the others accumulate separately and are merged back in afterwards.
+       */
+      class Partial implements RenderPartial {
+        boolean               primary;
+        BundlesCounterContext partial_cc;
+        Map<Bundle,String[]>  partial_b2b;
+        Set<Bundle>           no_mapping      = new HashSet<Bundle>();
+        boolean               tablet_can_count, tablet_has_ts;
+
+        public Partial(boolean primary) {
+          this.primary = primary;
+          partial_cc   = primary ? counter_context : counter_context.newPartial();
+          partial_b2b  = primary ? bundle_to_bins  : new HashMap<Bundle,String[]>();
+        }
+
+        public void tablet(Tablet tablet) {
 	  // Check to see if it has timestamps
-	  if (tablet.hasTimeStamps() == false) { Iterator<Bundle> it = tablet.bundleIterator(); while (it.hasNext()) addToNoMappingSet(it.next()); }
+          tablet_has_ts    = tablet.hasTimeStamps();
 	  // Check if it can count
-	  boolean tablet_can_count = count_by.equals(BundlesDT.COUNT_BY_BUNS) || KeyMaker.tabletCompletesBlank(tablet, count_by);
-	  // Go through the bundles
-          Iterator<Bundle> it = tablet.bundleIterator();
-	  while (it.hasNext() && currentRenderID() == getRenderID()) {
-	    Bundle bundle = it.next();
+	  tablet_can_count = count_by.equals(BundlesDT.COUNT_BY_BUNS) || KeyMaker.tabletCompletesBlank(tablet, count_by);
+        }
+
+        private void noMapping(Bundle bundle) { if (primary) addToNoMappingSet(bundle); else no_mapping.add(bundle); }
+
+        public void bundle(Bundle bundle) {
+          if (tablet_has_ts == false) noMapping(bundle);
 	    String str = mapper.map(bundle);
 	    if (str != null) {
 	      //
@@ -1603,10 +1642,10 @@ public class RTTimePanel extends RTPanel {
 		  if ((i1 - i0 + 1) < 0) System.err.println("RTTimeComponent:  Negative Array Issue W/ String \"" + str + "\""); // DEBUG
 		  String strs[] = new String[i1 - i0 + 1];
 	          for (int i=i0,j=0;i<=i1;i++,j++) {
-                    if (tablet_can_count) counter_context.count(bundle,""+i,(double) (i1 - i0 + 1));
+                    if (tablet_can_count) partial_cc.count(bundle,""+i,(double) (i1 - i0 + 1));
                     strs[j] = ""+i;
                   }
-                  bundle_to_bins.put(bundle,strs);
+                  partial_b2b.put(bundle,strs);
 
                 //
 		// Non-linear duration version
@@ -1618,31 +1657,31 @@ public class RTTimePanel extends RTPanel {
 		  else            top_pixels = (i1 - graph_x_ins + 1) + (graph_x_ins + graph_w - i0);
                   if (wraps > 0) { 
 		    String strs[] = new String[graph_w]; for (int i=0;i<strs.length;i++) strs[i] = "" + (graph_x_ins + i); 
-		    bundle_to_bins.put(bundle,strs);
+		    partial_b2b.put(bundle,strs);
 		    int wrap_single_column_add = wraps * graph_w + top_pixels;
 		    for (int x=graph_x_ins;x<graph_x_ins+graph_w;x++) {
 		      if (tablet_can_count) {
-		        if      (i1 >= i0 && (x >= i0 && x <= i1)) counter_context.count(bundle,""+x,(double) (wrap_single_column_add+1));
-			else if (i1 <  i0 && (x <= i1 || x >= i0)) counter_context.count(bundle,""+x,(double) (wrap_single_column_add+1));
-			else                                       counter_context.count(bundle,""+x,(double) (wrap_single_column_add));
+		        if      (i1 >= i0 && (x >= i0 && x <= i1)) partial_cc.count(bundle,""+x,(double) (wrap_single_column_add+1));
+			else if (i1 <  i0 && (x <= i1 || x >= i0)) partial_cc.count(bundle,""+x,(double) (wrap_single_column_add+1));
+			else                                       partial_cc.count(bundle,""+x,(double) (wrap_single_column_add));
 		      }
 		    }
 		  } else {
 		    String strs[] = new String[top_pixels];
 		    if (i1 >= i0) {
 		      for (int x=i0,i=0;x<=i1;x++,i++) { 
-		        strs[i] = "" + x; if (tablet_can_count) counter_context.count(bundle,""+x,(double) top_pixels);
+		        strs[i] = "" + x; if (tablet_can_count) partial_cc.count(bundle,""+x,(double) top_pixels);
 		      }
 		    } else        {
 		      int i = 0;
 		      for (int x=graph_x_ins;x<=i1;x++) {
-		        strs[i++] = ""+x; if (tablet_can_count) counter_context.count(bundle,""+x,(double) top_pixels);
+		        strs[i++] = ""+x; if (tablet_can_count) partial_cc.count(bundle,""+x,(double) top_pixels);
 		      }
 		      for (int x=i0;x<graph_x_ins+graph_w;x++) {
-		        strs[i++] = ""+x; if (tablet_can_count) counter_context.count(bundle,""+x,(double) top_pixels);
+		        strs[i++] = ""+x; if (tablet_can_count) partial_cc.count(bundle,""+x,(double) top_pixels);
 		      }
 		    }
-		    bundle_to_bins.put(bundle,strs);
+		    partial_b2b.put(bundle,strs);
 		  }
 		}
 
@@ -1650,24 +1689,19 @@ public class RTTimePanel extends RTPanel {
 	      // Non-duration version
 	      //
 	      } else                     { // Non-duration based mapping
-	        if (tablet_can_count) counter_context.count(bundle,str); 
-		String strs[] = new String[1]; strs[0] = str; bundle_to_bins.put(bundle,strs);
+	        if (tablet_can_count) partial_cc.count(bundle,str); 
+		String strs[] = new String[1]; strs[0] = str; partial_b2b.put(bundle,strs);
 	      }
-	    } else addToNoMappingSet(bundle);
-	  }
+	    } else noMapping(bundle);
         }
 
-	// aggregate
-	if (aggregate) {
-	  List<Integer> sorted = new ArrayList<Integer>();
-	  Iterator<String> it_str = counter_context.binIterator();
-	  while (it_str.hasNext()) { sorted.add(Integer.parseInt(it_str.next())); }
-	  Collections.sort(sorted);
-	  for (int i=1;i<sorted.size();i++) {
-	    String bin_p = "" + sorted.get(i-1), bin = "" + sorted.get(i);
-	    counter_context.accumulate(bin_p, bin);
-	  }
-	}
+        /**
+         * Fold a non-primary partial back into the render context.
+         */
+        public void merge() {
+          if (primary) return;
+          counter_context.merge(partial_cc); bundle_to_bins.putAll(partial_b2b); addToNoMappingSet(no_mapping);
+        }
       }
 
       /**
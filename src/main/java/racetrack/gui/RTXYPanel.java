@@ -68,6 +68,7 @@ import racetrack.framework.KeyMaker;
 import racetrack.framework.Tablet;
 import racetrack.util.Utils;
 import racetrack.visualization.ColorScale;
+import racetrack.visualization.DensityRaster;
 import racetrack.visualization.RTColorManager;
 
 /**
@@ -135,6 +136,14 @@ public class RTXYPanel extends RTPanel {
    * Radio button to fix the width of plots to large
    */
 		       width_large_rbmi,
+  /**
+   * Radio button to render the plots as a density raster (log transfer)
+   */
+                       density_log_rbmi,
+  /**
+   * Radio button to render the plots as a density raster (equalized histogram transfer)
+   */
+                       density_eqhist_rbmi,
   /**
    * Radio button to use a rectangular selection
    */
@@ -221,6 +230,8 @@ public class RTXYPanel extends RTPanel {
       getRTPopupMenu().add(width_small_rbmi         = new JRadioButtonMenuItem("Fixed Width (Small)"));        bg.add(width_small_rbmi);
       getRTPopupMenu().add(width_medium_rbmi        = new JRadioButtonMenuItem("Fixed Width (Medium)", true)); bg.add(width_medium_rbmi);
       getRTPopupMenu().add(width_large_rbmi         = new JRadioButtonMenuItem("Fixed Width (Large)"));        bg.add(width_large_rbmi);
+      getRTPopupMenu().add(density_log_rbmi         = new JRadioButtonMenuItem("Density (Log)"));              bg.add(density_log_rbmi);
+      getRTPopupMenu().add(density_eqhist_rbmi      = new JRadioButtonMenuItem("Density (Equalized)"));        bg.add(density_eqhist_rbmi);
       getRTPopupMenu().addSeparator();
       getRTPopupMenu().add(color_cbmi               = new JCheckBoxMenuItem("Vary Color"));
       getRTPopupMenu().addSeparator();
@@ -286,6 +297,8 @@ public class RTXYPanel extends RTPanel {
       defaultListener(width_small_rbmi);
       defaultListener(width_medium_rbmi);
       defaultListener(width_large_rbmi);
+      defaultListener(density_log_rbmi);
+      defaultListener(density_eqhist_rbmi);
       defaultListener(color_cbmi);
       defaultListener(duration_cbmi);
       defaultListener(timemarkers_cbmi);
@@ -336,6 +349,8 @@ public class RTXYPanel extends RTPanel {
     width_small_rbmi         = master.width_small_rbmi;
     width_medium_rbmi        = master.width_medium_rbmi;
     width_large_rbmi         = master.width_large_rbmi;
+    density_log_rbmi         = master.density_log_rbmi;
+    density_eqhist_rbmi      = master.density_eqhist_rbmi;
     color_cbmi               = master.color_cbmi;
     closest_points_cbmi      = master.closest_points_cbmi;
     duration_cbmi            = master.duration_cbmi;
@@ -348,6 +363,8 @@ public class RTXYPanel extends RTPanel {
     defaultListener(width_small_rbmi);
     defaultListener(width_medium_rbmi);
     defaultListener(width_large_rbmi);
+    defaultListener(density_log_rbmi);
+    defaultListener(density_eqhist_rbmi);
     defaultListener(color_cbmi);
     defaultListener(closest_points_cbmi);
     defaultListener(duration_cbmi);
@@ -538,6 +555,8 @@ public class RTXYPanel extends RTPanel {
                                                    else if (width_vary_log_rbmi.isSelected()) return PTWIDTH.VARY_LOG;
                                                    else if (width_small_rbmi.isSelected())    return PTWIDTH.SMALL;
 						   else if (width_medium_rbmi.isSelected())   return PTWIDTH.MEDIUM;
+						   else if (density_log_rbmi.isSelected())    return PTWIDTH.DENSITY_LOG;
+						   else if (density_eqhist_rbmi.isSelected()) return PTWIDTH.DENSITY_EQHIST;
 						   else                                       return PTWIDTH.LARGE; }
   
   /**
@@ -551,6 +570,8 @@ public class RTXYPanel extends RTPanel {
 						       case SMALL:    width_small_rbmi.setSelected(true);    break;
 						       case MEDIUM:   width_medium_rbmi.setSelected(true);   break;
 						       case LARGE:    width_large_rbmi.setSelected(true);    break;
+						       case DENSITY_LOG:    density_log_rbmi.setSelected(true);    break;
+						       case DENSITY_EQHIST: density_eqhist_rbmi.setSelected(true); break;
 						     } }
 
   /**
@@ -563,12 +584,14 @@ public class RTXYPanel extends RTPanel {
                                                       else if (ptwid.equals(""+PTWIDTH.SMALL))    pointWidth(PTWIDTH.SMALL);
 						      else if (ptwid.equals(""+PTWIDTH.MEDIUM))   pointWidth(PTWIDTH.MEDIUM);
 						      else if (ptwid.equals(""+PTWIDTH.LARGE))    pointWidth(PTWIDTH.LARGE);
+						      else if (ptwid.equals(""+PTWIDTH.DENSITY_LOG))    pointWidth(PTWIDTH.DENSITY_LOG);
+						      else if (ptwid.equals(""+PTWIDTH.DENSITY_EQHIST)) pointWidth(PTWIDTH.DENSITY_EQHIST);
                                                     }
 
   /**
-   * Enumeration for point width (plot width)
+   * Enumeration for point width (plot width) -- the density options accumulate the plots per pixel instead
    */
-  enum PTWIDTH { VARY, VARY_LOG, SMALL, MEDIUM, LARGE };
+  enum PTWIDTH { VARY, VARY_LOG, SMALL, MEDIUM, LARGE, DENSITY_LOG, DENSITY_EQHIST };
 
   /**
    * Return a configuration string that encapsulates the panels configuration.  Originally intended
@@ -888,7 +911,7 @@ public class RTXYPanel extends RTPanel {
         int x_data = -1, y_data = -1; int d_data = Integer.MAX_VALUE;
         for (int dy=-3;dy<=3;dy++) for (int dx=-3;dx<=3;dx++) {
 	  int x = mx + dx, y = my + dy;
-	  String skey = x + "," + y; if (myrc.skey_to_geom.containsKey(skey)) {
+	  if (myrc.plotted(x, y)) {
             int d = dx*dx + dy*dy; if (d < d_data) { x_data = x; y_data = y; d_data = d;
 	    }
 	  }
@@ -964,6 +987,7 @@ public class RTXYPanel extends RTPanel {
     @Override
     public Set<Shape>      allShapes()                     { 
       RenderContext myrc = (RenderContext) rc;
+      if (myrc != null && myrc.raster != null) return myrc.rasterGeoms(myrc.raster.occupied());
       if (myrc != null) return myrc.geom_to_skey.keySet(); else return new HashSet<Shape>();
     }
 
@@ -978,6 +1002,7 @@ public class RTXYPanel extends RTPanel {
     public Set<Shape>  shapes(Set<Bundle> bundles) { 
       Set<Shape> shapes = new HashSet<Shape>();
       RenderContext myrc = (RenderContext) rc; if (myrc == null) return shapes;
+      if (myrc.raster != null) return myrc.rasterShapes(bundles);
 
       Iterator<Bundle> it = bundles.iterator();
       while (it.hasNext()) {
@@ -1004,6 +1029,7 @@ public class RTXYPanel extends RTPanel {
     @Override
     public Set<Bundle> shapeBundles(Shape shape)       {
       RenderContext myrc = (RenderContext) rc; if (myrc == null) return new HashSet<Bundle>();
+      if (myrc.raster != null) return myrc.rasterBundles(shape);
       return myrc.screen_counter_context.getBundles(myrc.geom_to_skey.get(shape));
     }
 
@@ -1018,6 +1044,7 @@ public class RTXYPanel extends RTPanel {
     @Override
     public Set<Shape>  overlappingShapes(Shape shape)  { 
       RenderContext myrc = (RenderContext) rc; if (myrc == null) return new HashSet<Shape>();
+      if (myrc.raster != null) return myrc.rasterOverlaps(shape);
       Set<Shape> shapes = new HashSet<Shape>();
       Iterator<Shape> it = myrc.geom_to_skey.keySet().iterator();
       while (it.hasNext()) {
@@ -1343,6 +1370,7 @@ public class RTXYPanel extends RTPanel {
 	bundle_to_skeys.clear();
 	geom_to_skey.clear();
 	skey_to_geom.clear();
+	raster = null; raster_keys = null; raster_bundle_to_geoms = null;
       }
 
       /**
@@ -1374,40 +1402,120 @@ public class RTXYPanel extends RTPanel {
         // Are either time mappers?
         xtime = KeyMaker.isTimeBlank(x_axis) ? new KeyMaker(bs.tabletIterator().next(), x_axis) : null;
 	ytime = KeyMaker.isTimeBlank(y_axis) ? new KeyMaker(bs.tabletIterator().next(), y_axis) : null;
-	// Initialize the values for the mappers
-        Iterator<Tablet> it_tablet = bs.tabletIterator();
-        while (it_tablet.hasNext() && currentRenderID() == getRenderID()) {
-          Tablet tablet = it_tablet.next();
+	// Go through the bundles -- the sort scales depend on the order that the records are counted, so those stay sequential
+        boolean parallel = counter_context.mergeable() && 
+                           x_scale.equals(AxisMapper.SORT_STR) == false && x_scale.equals(AxisMapper.SORT_REVERSE_STR) == false &&
+                           y_scale.equals(AxisMapper.SORT_STR) == false && y_scale.equals(AxisMapper.SORT_REVERSE_STR) == false;
+        List<Partial> partials = aggregate(bs, parallel, new RenderPartialFactory<Partial>() {
+          public Partial create(boolean primary) { return new Partial(primary); } } );
+        for (int i=0;i<partials.size() && currentRenderID() == getRenderID();i++) partials.get(i).merge();
+
+	// Add in the mappings for the time markers if the stars align
+        if (xtime != null && xtime.linearTime() && x_scale.equals(AxisMapper.LINEAR_SCALE_STR) && draw_tms) {
+          Set<TimeMarker> markers = getRTParent().getTimeMarkers(bs.ts0(),bs.ts1()); if (markers != null) {
+	    Iterator<TimeMarker> it_tm = markers.iterator();
+	    while (it_tm.hasNext()) {
+	      TimeMarker tm = it_tm.next();
+	      if (tm.isTimeStamp()) { x_sorter.add(tm.ts0()); } else { x_sorter.add(tm.ts0()); x_sorter.add(tm.ts1()); }
+	    }
+	  }
+        }
+
+	// Calculate the mapping
+        if (currentRenderID() == getRenderID()) {
+          xmap = AxisMapper.calculateMapping(x_scale, x_sorter, x_to_sum, x_to_buns, min_x, max_x);
+          ymap = AxisMapper.calculateMapping(y_scale, y_sorter, y_to_sum, y_to_buns, min_y, max_y);
+        }
+
+	// Calculate the render time
+	rts1 = System.currentTimeMillis();
+      }
+
+      /**
+       * Tablet for the key makers most recently added to the lookup lists
+       */
+      Tablet km_tablet = null;
+
+      /**
+       * Key makers in the lookup lists for {@link #km_tablet} -- later partials for the same tablet fold their
+       * reverse lookups into these
+       */
+      KeyMaker km_x, km_y, km_y2;
+
+      /**
+       * Aggregation of a portion of the records.  The primary partial accumulates directly into the
+       * render context -- the others accumulate separately and are merged back in afterwards.
+       */
+      class Partial implements RenderPartial {
+        boolean               primary;
+        BundlesCounterContext partial_cc;
+        Set<Long>             p_x_set, p_y_set;
+        List<Long>            p_x_sorter, p_y_sorter;
+        Map<String,Long>      p_key_to_x, p_key_to_y;
+        Map<Long,Double>      p_x_to_sum, p_y_to_sum, p_x_to_buns, p_y_to_buns;
+        Map<Long,Set<Bundle>> p_x_to_bs, p_y_to_bs;
+        long                  p_min_x = Long.MAX_VALUE, p_min_y = Long.MAX_VALUE, p_max_x = Long.MIN_VALUE, p_max_y = Long.MIN_VALUE;
+        Set<Bundle>           no_mapping = new HashSet<Bundle>();
+        KeyMaker              p_xtime, p_ytime, x_km, y_km, y2_km, reg_x, reg_y, reg_y2;
+        boolean               tablet_can_count, tablet_can_map;
+
+        public Partial(boolean primary) {
+          this.primary = primary;
+          if (primary) {
+            partial_cc  = counter_context; p_xtime     = xtime;     p_ytime     = ytime;
+            p_x_set     = x_set;           p_y_set     = y_set;     p_x_sorter  = x_sorter;  p_y_sorter  = y_sorter;
+            p_key_to_x  = key_to_x;        p_key_to_y  = key_to_y;  p_x_to_sum  = x_to_sum;  p_y_to_sum  = y_to_sum;
+            p_x_to_buns = x_to_buns;       p_y_to_buns = y_to_buns; p_x_to_bs   = x_to_bs;   p_y_to_bs   = y_to_bs;
+          } else {
+            // Time key makers keep calendar state -- each partial needs its own
+            partial_cc  = counter_context.newPartial();
+            p_xtime     = (xtime == null) ? null : new KeyMaker(bs.tabletIterator().next(), x_axis);
+            p_ytime     = (ytime == null) ? null : new KeyMaker(bs.tabletIterator().next(), y_axis);
+            p_x_set     = new HashSet<Long>();          p_y_set     = new HashSet<Long>(); 
+            p_x_sorter  = new ArrayList<Long>();        p_y_sorter  = new ArrayList<Long>();
+            p_key_to_x  = new HashMap<String,Long>();   p_key_to_y  = new HashMap<String,Long>();
+            p_x_to_sum  = new HashMap<Long,Double>();   p_y_to_sum  = new HashMap<Long,Double>();
+            p_x_to_buns = new HashMap<Long,Double>();   p_y_to_buns = new HashMap<Long,Double>();
+            p_x_to_bs   = new HashMap<Long,Set<Bundle>>(); p_y_to_bs = new HashMap<Long,Set<Bundle>>();
+          }
+        }
+
+        public void tablet(Tablet tablet) {
           // Check to see if this one counts
-	  boolean tablet_can_count = count_by.equals(BundlesDT.COUNT_BY_BUNS) || KeyMaker.tabletCompletesBlank(tablet, count_by);
+	  tablet_can_count = count_by.equals(BundlesDT.COUNT_BY_BUNS) || KeyMaker.tabletCompletesBlank(tablet, count_by);
 	  // Differentiate time-based versus non-time ... probably should write code that differentiates longs versus ints
-	  if (  ((xtime != null && tablet.hasTimeStamps()) || (xtime == null && KeyMaker.tabletCompletesBlank(tablet, x_axis)))
-	        && 
-                ((ytime != null && tablet.hasTimeStamps()) || (ytime == null && KeyMaker.tabletCompletesBlank(tablet, y_axis)))  ) {
-            KeyMaker x_km  = (xtime   == null) ? new KeyMaker(tablet, x_axis) : null, 
-	             y_km  = (ytime   == null) ? new KeyMaker(tablet, y_axis) : null,
-		     y2_km = (y2_axis == null) ? null : (KeyMaker.tabletCompletesBlank(tablet, y2_axis) ? new KeyMaker(tablet, y2_axis) : null);
-            if (x_km  != null) xkms.add(x_km);
-	    if (y_km  != null) ykms.add(y_km);
-	    if (y2_km != null) y2kms.add(y2_km);
-
-	    // Go through the bundles
-            Iterator<Bundle> it_bundle = tablet.bundleIterator();
-	    while (it_bundle.hasNext() && currentRenderID() == getRenderID()) {
-              Bundle bundle = it_bundle.next();
+	  tablet_can_map   = ((xtime != null && tablet.hasTimeStamps()) || (xtime == null && KeyMaker.tabletCompletesBlank(tablet, x_axis)))
+	                     && 
+                             ((ytime != null && tablet.hasTimeStamps()) || (ytime == null && KeyMaker.tabletCompletesBlank(tablet, y_axis)));
+          if (tablet_can_map) {
+            x_km  = (xtime   == null) ? new KeyMaker(tablet, x_axis) : null;
+	    y_km  = (ytime   == null) ? new KeyMaker(tablet, y_axis) : null;
+	    y2_km = (y2_axis == null) ? null : (KeyMaker.tabletCompletesBlank(tablet, y2_axis) ? new KeyMaker(tablet, y2_axis) : null);
+            if (km_tablet != tablet) {
+              km_tablet = tablet; km_x = x_km; km_y = y_km; km_y2 = y2_km;
+              if (x_km  != null) xkms.add(x_km);
+	      if (y_km  != null) ykms.add(y_km);
+	      if (y2_km != null) y2kms.add(y2_km);
+            }
+            reg_x = km_x; reg_y = km_y; reg_y2 = km_y2;
+          }
+        }
+
+        public void bundle(Bundle bundle) {
+          if (tablet_can_map == false) { if (primary) addToNoMappingSet(bundle); else no_mapping.add(bundle); return; }
               long xs[], ys[], y2s[];
-	      if (xtime != null) { 
+	      if (p_xtime != null) { 
 	        if (duration) {
-                  xs = new long[2]; xs[0] = xtime.timeStampKey(bundle); 
-		                    xs[1] = xtime.endTimeStampKey(bundle);
+                  xs = new long[2]; xs[0] = p_xtime.timeStampKey(bundle); 
+		                    xs[1] = p_xtime.endTimeStampKey(bundle);
 		} else {
-                  xs = new long[1]; xs[0] = xtime.timeStampKey(bundle); 
+                  xs = new long[1]; xs[0] = p_xtime.timeStampKey(bundle); 
 	        }
               } else { 
                 xs = Utils.toLongs(x_km.intKeys(bundle)); 
               }
-	      if (ytime != null) { 
-	        ys = new long[1]; ys[0] = ytime.timeStampKey(bundle); // Only allow durations in x-axis...
+	      if (p_ytime != null) { 
+	        ys = new long[1]; ys[0] = p_ytime.timeStampKey(bundle); // Only allow durations in x-axis...
               } else { 
                 ys = Utils.toLongs(y_km.intKeys(bundle)); 
               }
@@ -1430,9 +1538,9 @@ public class RTXYPanel extends RTPanel {
               for (int i=0;i<xs.length;i++) {
 	        for (int j=0;j<ys.length;j++) {
 	          String key = xs[i] + "," + ys[j]; 
-		  key_to_x.put(key,xs[i]); key_to_y.put(key,ys[j]);
+		  p_key_to_x.put(key,xs[i]); p_key_to_y.put(key,ys[j]);
 		  if (xs[i] == ys[j] && x_axis.equals(y_axis) && x_axis.indexOf(BundlesDT.MULTI)>=0) continue; // Don't add diagonals for equal multis
-                  if (tablet_can_count) added = counter_context.count(bundle, key); // Need to keep track of the keys... get what we need to add for later
+                  if (tablet_can_count) added = partial_cc.count(bundle, key); // Need to keep track of the keys... get what we need to add for later
 		}
 	      }
 
@@ -1441,13 +1549,13 @@ public class RTXYPanel extends RTPanel {
 	       */
 	      for (int i=0;i<xs.length;i++) {
 		// Mins and maxes
-                if (min_x > xs[i]) min_x = xs[i]; if (max_x < xs[i]) max_x = xs[i];
+                if (p_min_x > xs[i]) p_min_x = xs[i]; if (p_max_x < xs[i]) p_max_x = xs[i];
 		// x,y sorters
-                if (x_set.contains(xs[i]) == false) { x_sorter.add(xs[i]); x_set.add(xs[i]); }
+                if (p_x_set.contains(xs[i]) == false) { p_x_sorter.add(xs[i]); p_x_set.add(xs[i]); }
 		// x,y sums and item counters
-		if (x_to_sum.containsKey(xs[i]) == false) {
-                  x_to_sum.put(xs[i], added); x_to_buns.put(xs[i], 1.0); x_to_bs.put(xs[i],new HashSet<Bundle>()); x_to_bs.get(xs[i]).add(bundle);
-		} else { x_to_sum.put(xs[i], x_to_sum.get(xs[i]) + added); x_to_buns.put(xs[i], x_to_buns.get(xs[i]) + 1); x_to_bs.get(xs[i]).add(bundle); }
+		if (p_x_to_sum.containsKey(xs[i]) == false) {
+                  p_x_to_sum.put(xs[i], added); p_x_to_buns.put(xs[i], 1.0); p_x_to_bs.put(xs[i],new HashSet<Bundle>()); p_x_to_bs.get(xs[i]).add(bundle);
+		} else { p_x_to_sum.put(xs[i], p_x_to_sum.get(xs[i]) + added); p_x_to_buns.put(xs[i], p_x_to_buns.get(xs[i]) + 1); p_x_to_bs.get(xs[i]).add(bundle); }
 	      }
 	      
 	      /**
@@ -1455,40 +1563,43 @@ public class RTXYPanel extends RTPanel {
 	       */
 	      for (int j=0;j<ys.length;j++) {
 		// Mins and maxes
-                if (min_y > ys[j]) min_y = ys[j]; if (max_y < ys[j]) max_y = ys[j];
+                if (p_min_y > ys[j]) p_min_y = ys[j]; if (p_max_y < ys[j]) p_max_y = ys[j];
 		// x,y sorters
-                if (y_set.contains(ys[j]) == false) { y_sorter.add(ys[j]); y_set.add(ys[j]); }
+                if (p_y_set.contains(ys[j]) == false) { p_y_sorter.add(ys[j]); p_y_set.add(ys[j]); }
 		// x,y sums and item counters
-		if (y_to_sum.containsKey(ys[j]) == false) {
-                  y_to_sum.put(ys[j], added); y_to_buns.put(ys[j], 1.0); y_to_bs.put(ys[j], new HashSet<Bundle>()); y_to_bs.get(ys[j]).add(bundle);
-		} else { y_to_sum.put(ys[j], y_to_sum.get(ys[j]) + added); y_to_buns.put(ys[j], y_to_buns.get(ys[j]) + 1); y_to_bs.get(ys[j]).add(bundle); }
+		if (p_y_to_sum.containsKey(ys[j]) == false) {
+                  p_y_to_sum.put(ys[j], added); p_y_to_buns.put(ys[j], 1.0); p_y_to_bs.put(ys[j], new HashSet<Bundle>()); p_y_to_bs.get(ys[j]).add(bundle);
+		} else { p_y_to_sum.put(ys[j], p_y_to_sum.get(ys[j]) + added); p_y_to_buns.put(ys[j], p_y_to_buns.get(ys[j]) + 1); p_y_to_bs.get(ys[j]).add(bundle); }
               }
-	    }
-	  } else {
-            Iterator<Bundle> it_bundle = tablet.bundleIterator();
-	    while (it_bundle.hasNext() && currentRenderID() == getRenderID()) addToNoMappingSet(it_bundle.next());
-	  }
         }
 
-	// Add in the mappings for the time markers if the stars align
-        if (xtime != null && xtime.linearTime() && x_scale.equals(AxisMapper.LINEAR_SCALE_STR) && draw_tms) {
-          Set<TimeMarker> markers = getRTParent().getTimeMarkers(bs.ts0(),bs.ts1()); if (markers != null) {
-	    Iterator<TimeMarker> it_tm = markers.iterator();
-	    while (it_tm.hasNext()) {
-	      TimeMarker tm = it_tm.next();
-	      if (tm.isTimeStamp()) { x_sorter.add(tm.ts0()); } else { x_sorter.add(tm.ts0()); x_sorter.add(tm.ts1()); }
-	    }
-	  }
+        /**
+         * Fold a non-primary partial back into the render context.
+         */
+        public void merge() {
+          if (primary) return;
+          counter_context.merge(partial_cc); key_to_x.putAll(p_key_to_x); key_to_y.putAll(p_key_to_y); addToNoMappingSet(no_mapping);
+          // Only the tablet's first key makers are in the lookup lists -- the labels for keys first seen here go into them
+          if (x_km  != null && x_km  != reg_x)  reg_x.reverse_lu.putAll(x_km.reverse_lu);
+          if (y_km  != null && y_km  != reg_y)  reg_y.reverse_lu.putAll(y_km.reverse_lu);
+          if (y2_km != null && y2_km != reg_y2) reg_y2.reverse_lu.putAll(y2_km.reverse_lu);
+          if (min_x > p_min_x) min_x = p_min_x; if (max_x < p_max_x) max_x = p_max_x;
+          if (min_y > p_min_y) min_y = p_min_y; if (max_y < p_max_y) max_y = p_max_y;
+          mergeAxis(p_x_sorter, p_x_to_sum, p_x_to_buns, p_x_to_bs, x_set, x_sorter, x_to_sum, x_to_buns, x_to_bs);
+          mergeAxis(p_y_sorter, p_y_to_sum, p_y_to_buns, p_y_to_bs, y_set, y_sorter, y_to_sum, y_to_buns, y_to_bs);
         }
 
-	// Calculate the mapping
-        if (currentRenderID() == getRenderID()) {
-          xmap = AxisMapper.calculateMapping(x_scale, x_sorter, x_to_sum, x_to_buns, min_x, max_x);
-          ymap = AxisMapper.calculateMapping(y_scale, y_sorter, y_to_sum, y_to_buns, min_y, max_y);
+        /**
+         * Merge one axis's lookups (first seen order is kept for the sorter).
+         */
+        private void mergeAxis(List<Long> from_sorter, Map<Long,Double> from_sum, Map<Long,Double> from_buns, Map<Long,Set<Bundle>> from_bs,
+                               Set<Long>  set, List<Long> sorter, Map<Long,Double> sum, Map<Long,Double> buns, Map<Long,Set<Bundle>> bs_lu) {
+          for (int i=0;i<from_sorter.size();i++) {
+            Long v = from_sorter.get(i);
+            if (set.add(v)) { sorter.add(v); sum.put(v, from_sum.get(v)); buns.put(v, from_buns.get(v)); bs_lu.put(v, from_bs.get(v)); }
+            else            { sum.put(v, sum.get(v) + from_sum.get(v)); buns.put(v, buns.get(v) + from_buns.get(v)); bs_lu.get(v).addAll(from_bs.get(v)); }
+          }
         }
-
-	// Calculate the render time
-	rts1 = System.currentTimeMillis();
       }
 
       /**
@@ -1545,6 +1656,118 @@ public class RTXYPanel extends RTPanel {
        * screen key to geometry (one-to-one)
        */
       Map<String,Shape>                skey_to_geom            = new HashMap<String,Shape>();
+      /**
+       * Density raster -- only for the density point widths
+       */
+      DensityRaster                    raster;
+      /**
+       * Bins (counter context keys) of the raster's points -- the raster's point indices index this array
+       */
+      String                           raster_keys[];
+      /**
+       * Raster pixel geometry by bundle -- built on the first lookup
+       */
+      Map<Bundle,Set<Shape>>           raster_bundle_to_geoms;
+
+      /**
+       * Return true if something is plotted at the screen coordinate.
+       */
+      boolean plotted(int sx, int sy) {
+        if (raster != null) return raster.count(sx, sy) > 0; else return skey_to_geom.containsKey(sx + "," + sy);
+      }
+
+      /**
+       * Return the geometry for raster pixels.
+       *
+       *@param  xys pixel coordinates -- { x0, y0, x1, y1, ... }
+       *
+       *@return one shape per pixel
+       */
+      Set<Shape> rasterGeoms(int xys[]) {
+        Set<Shape> set = new HashSet<Shape>(); for (int i=0;i<xys.length;i+=2) set.add(new Rectangle2D.Float(xys[i], xys[i+1], 1, 1));
+        return set;
+      }
+
+      /**
+       * Return the bundles under a raster pixel.
+       *
+       *@param  shape pixel geometry (see {@link #rasterGeoms(int[])})
+       *
+       *@return bundles for the pixel
+       */
+      Set<Bundle> rasterBundles(Shape shape) {
+        Set<Bundle> set = new HashSet<Bundle>(); Rectangle2D bounds = shape.getBounds2D();
+        int pts[] = raster.points((int) bounds.getX(), (int) bounds.getY());
+        for (int i=0;i<pts.length;i++) { Set<Bundle> bin = counter_context.getBundles(raster_keys[pts[i]]); if (bin != null) set.addAll(bin); }
+        return set;
+      }
+
+      /**
+       * Return the raster pixels for a set of bundles.
+       *
+       *@param  bundles bundles to look up
+       *
+       *@return pixel geometry
+       */
+      synchronized Set<Shape> rasterShapes(Set<Bundle> bundles) {
+        if (raster_bundle_to_geoms == null) {
+          raster_bundle_to_geoms = new HashMap<Bundle,Set<Shape>>();
+          int xys[] = raster.occupied();
+          for (int i=0;i<xys.length;i+=2) {
+            Shape geom = new Rectangle2D.Float(xys[i], xys[i+1], 1, 1); int pts[] = raster.points(xys[i], xys[i+1]);
+            for (int j=0;j<pts.length;j++) {
+              Set<Bundle> bin = counter_context.getBundles(raster_keys[pts[j]]); if (bin == null) continue;
+              Iterator<Bundle> it = bin.iterator(); while (it.hasNext()) {
+                Bundle bundle = it.next();
+                if (raster_bundle_to_geoms.containsKey(bundle) == false) raster_bundle_to_geoms.put(bundle, new HashSet<Shape>());
+                raster_bundle_to_geoms.get(bundle).add(geom);
+              }
+            }
+          }
+        }
+        Set<Shape> shapes = new HashSet<Shape>(); Iterator<Bundle> it = bundles.iterator();
+        while (it.hasNext()) { Set<Shape> geoms = raster_bundle_to_geoms.get(it.next()); if (geoms != null) shapes.addAll(geoms); }
+        return shapes;
+      }
+
+      /**
+       * Return the raster pixels that overlap a shape -- only the pixels within the shape's bounds are checked.
+       *
+       *@param  shape generic shape
+       *
+       *@return pixel geometry
+       */
+      Set<Shape> rasterOverlaps(Shape shape) {
+        Rectangle2D bounds = shape.getBounds2D(); Set<Shape> shapes = new HashSet<Shape>();
+        int xys[] = raster.occupied((int) Math.floor(bounds.getMinX()), (int) Math.floor(bounds.getMinY()), (int) Math.ceil(bounds.getMaxX()), (int) Math.ceil(bounds.getMaxY()));
+        Iterator<Shape> it = rasterGeoms(xys).iterator();
+        while (it.hasNext()) { Shape test = it.next(); if (Utils.genericIntersects(test,shape)) shapes.add(test); }
+        return shapes;
+      }
+
+      /**
+       * Accumulate the xy bins into the density raster.  The pixel, weight, and color of each
+       * bin are pulled once and the raster accumulates them in parallel.
+       */
+      private void rasterize() {
+        raster = new DensityRaster(x_lft, y_top, graph_w+1, graph_h+1);
+        int n = key_to_x.size(), px[] = new int[n], rgbs[] = vary_color ? new int[n] : null; float weights[] = new float[n];
+        raster_keys = new String[n]; int k = 0;
+        Iterator<String> it = key_to_x.keySet().iterator();
+        while (it.hasNext() && currentRenderID() == getRenderID()) {
+          String key = it.next(); long x_app = key_to_x.get(key), y_app = key_to_y.get(key);
+          int sx = (int) (x_lft + (xmap.get(x_app)*graph_w)),
+              sy = (int) (y_top + graph_h - (ymap.get(y_app)*graph_h));
+          if (sx_to_xs.containsKey(sx) == false) sx_to_xs.put(sx,new HashSet<Long>()); sx_to_xs.get(sx).add(x_app);
+          if (sy_to_ys.containsKey(sy) == false) sy_to_ys.put(sy,new HashSet<Long>()); sy_to_ys.get(sy).add(y_app);
+          if (counter_context.getBundles(key) == null) continue;
+          raster_keys[k] = key; px[k] = raster.pixel(sx, sy); weights[k] = (float) counter_context.total(key);
+          if (rgbs != null) rgbs[k] = counter_context.binColor(key).getRGB();
+          k++;
+        }
+        raster.accumulate(px, weights, rgbs, k);
+      }
+
       /**
        * Rendered image 
        */
@@ -1603,9 +1826,10 @@ public class RTXYPanel extends RTPanel {
 	  graph_w = w - (x_lft + x_rgt); graph_h = h - (y_top + y_bot);
 	  g2d.setColor(RTColorManager.getColor("axis", "major")); g2d.drawLine(x_lft, y_top, x_lft, y_top + graph_h); g2d.drawLine(x_lft, y_top + graph_h, x_lft + graph_w, y_top + graph_h);
 
-	  // Map the logical to the screen
+	  // Map the logical to the screen -- the density widths accumulate into the raster instead
+	  if (ptwidth == PTWIDTH.DENSITY_LOG || ptwidth == PTWIDTH.DENSITY_EQHIST) rasterize();
           Iterator<String> it = key_to_x.keySet().iterator();
-	  while (it.hasNext() && currentRenderID() == getRenderID()) {
+	  while (raster == null && it.hasNext() && currentRenderID() == getRenderID()) {
 	    String key = it.next(); long x_app = key_to_x.get(key), y_app = key_to_y.get(key);
 	    int sx = (int) (x_lft + (xmap.get(x_app)*graph_w)),
 	        sy = (int) (y_top + graph_h - (ymap.get(y_app)*graph_h));
@@ -1773,6 +1997,16 @@ public class RTXYPanel extends RTPanel {
 	   }
 	  }
 
+	  // Write the density raster
+	  if (raster != null && currentRenderID() == getRenderID()) {
+	    raster.render(base_bi, ptwidth == PTWIDTH.DENSITY_EQHIST ? DensityRaster.Transfer.EQ_HIST : DensityRaster.Transfer.LOG,
+	                  RTColorManager.getContinuousColorScale(), RTColorManager.getColor("data", "default"));
+	    if (draw_sh) {
+	      int xys[] = raster.occupied();
+	      for (int i=0;i<xys.length;i+=2) { double total = raster.weight(xys[i], xys[i+1]); y_sh[xys[i+1]/5] += total; x_sh[xys[i]/5] += total; }
+	    }
+	  }
+
           // Add timestamp if selected and applicable
           if (xtime != null && xtime.linearTime() && x_scale.equals(AxisMapper.LINEAR_SCALE_STR) && draw_tms) {
             int sy0 = y_top, sy1 = y_top + graph_h, sx = -100;
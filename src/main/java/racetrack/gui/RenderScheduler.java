@@ -0,0 +1,244 @@
+/*
+
+Copyright 2013 David Trimm
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package racetrack.gui;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import racetrack.util.WorkerPool;
+
+/**
+ * Shared scheduler for the visualization renders.  A small, fixed number of
+ * render threads services all of the panels.  Requests for the same component
+ * are coalesced -- a component is queued at most once and the render always
+ * reflects the latest state when it starts.  A request for a component that is
+ * currently rendering supersedes that render (via the render id) and queues
+ * another one.  When a thread frees up, it takes the focused components
+ * first, then the visible ones, then the rest -- oldest request first within
+ * each class.  The priority is captured by the requester (on the event dispatch
+ * thread) so that the render threads never read the Swing state.
+ *
+ * The renders can be paused (see {@link #pause()}) while the records that they
+ * iterate over are changed.
+ *
+ * Queue depth and latency (request to finished render) are kept for diagnostics.
+ *
+ *@author  D. Trimm
+ *@version 1.0
+ */
+public class RenderScheduler {
+  /**
+   * Number of render threads.  The renders themselves split their aggregation
+   * across the {@link WorkerPool} so only a few are needed.
+   */
+  public static final int RENDER_THREADS = Math.max(2, Math.min(4, WorkerPool.threads()));
+
+  /**
+   * Queued render -- time of the first request (nanoseconds) and the priority of the latest request
+   */
+  static class Request { final long time; int priority; Request(long time, int priority) { this.time = time; this.priority = priority; } }
+
+  /**
+   * Pending requests in arrival order -- keyed by component
+   */
+  private static final Map<RTPanel.RTComponent,Request> pending = new LinkedHashMap<RTPanel.RTComponent,Request>();
+
+  /**
+   * Components currently being rendered (and the requests that started them)
+   */
+  private static final Map<RTPanel.RTComponent,Request> running = new HashMap<RTPanel.RTComponent,Request>();
+
+  /**
+   * Number of outstanding pauses -- no renders start while paused
+   */
+  private static int paused = 0;
+
+  /**
+   * Flag indicating that the render threads have been started
+   */
+  private static boolean started = false;
+
+  /**
+   * Metrics -- requests, requests folded into a queued request, superseded renders, and completed renders
+   */
+  private static long requests = 0L, coalesced = 0L, superseded = 0L, completed = 0L;
+
+  /**
+   * Metrics -- total and maximum latency (nanoseconds), maximum queue depth
+   */
+  private static long latency_total = 0L, latency_max = 0L; private static int max_depth = 0;
+
+  /**
+   * Request a render for a component.  Returns immediately.
+   *
+   *@param component component to render
+   *@param priority  scheduling priority at the time of the request -- higher renders first (see {@link RTPanel.RTComponent#renderPriority()})
+   */
+  public static void schedule(RTPanel.RTComponent component, int priority) {
+    synchronized (pending) {
+      start(); requests++;
+      if (running.containsKey(component)) { component.nextRenderID(); superseded++; }
+      Request request = pending.get(component);
+      if (request != null) { request.priority = priority; coalesced++; return; }
+      pending.put(component, new Request(System.nanoTime(), priority));
+      if (pending.size() > max_depth) max_depth = pending.size();
+      pending.notifyAll();
+    }
+  }
+
+  /**
+   * Determine if a component has a render queued or in progress.
+   *
+   *@param  component component to check
+   *
+   *@return true if a render will deliver a new render context
+   */
+  public static boolean busy(RTPanel.RTComponent component) {
+    synchronized (pending) { return pending.containsKey(component) || running.containsKey(component); }
+  }
+
+  /**
+   * Start the render threads (if not already started).  Called with the lock held.
+   */
+  private static void start() {
+    if (started) return; started = true;
+    for (int i=0;i<RENDER_THREADS;i++) {
+      Thread thread = new Thread(new Worker(), "RT Render " + (i+1));
+      thread.setDaemon(true); thread.start();
+    }
+  }
+
+  /**
+   * Take the highest priority pending component that isn't already rendering.  Called with the lock held.
+   *
+   *@return component to render or null if none are ready
+   */
+  private static RTPanel.RTComponent next() {
+    if (paused > 0) return null;
+    RTPanel.RTComponent best = null; int best_pri = -1;
+    Iterator<Map.Entry<RTPanel.RTComponent,Request>> it = pending.entrySet().iterator();
+    while (it.hasNext()) {
+      Map.Entry<RTPanel.RTComponent,Request> entry = it.next(); if (running.containsKey(entry.getKey())) continue;
+      int pri = entry.getValue().priority; if (pri > best_pri) { best = entry.getKey(); best_pri = pri; }
+    }
+    return best;
+  }
+
+  /**
+   * Pause the renders.  The renders in progress are superseded (and queued again) and this
+   * waits for them to finish -- no renders start until {@link #resume()} is called.  Used to
+   * change the records that the renders iterate over.  Every pause must be matched by a resume.
+   */
+  public static void pause() {
+    synchronized (pending) {
+      paused++; boolean interrupted = false;
+      Iterator<Map.Entry<RTPanel.RTComponent,Request>> it = running.entrySet().iterator(); while (it.hasNext()) {
+        Map.Entry<RTPanel.RTComponent,Request> entry = it.next(); entry.getKey().nextRenderID(); superseded++;
+        if (pending.containsKey(entry.getKey()) == false) pending.put(entry.getKey(), new Request(System.nanoTime(), entry.getValue().priority));
+      }
+      while (running.size() > 0) { try { pending.wait(); } catch (InterruptedException ie) { interrupted = true; } }
+      if (interrupted) Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Resume the renders after a {@link #pause()}.
+   */
+  public static void resume() { synchronized (pending) { if (paused > 0) paused--; pending.notifyAll(); } }
+
+  /**
+   * Render thread -- loops on the pending requests.
+   */
+  static class Worker implements Runnable {
+    public void run() {
+      while (true) {
+        RTPanel.RTComponent component; long requested;
+        synchronized (pending) {
+          while ((component = next()) == null) { try { pending.wait(); } catch (InterruptedException ie) { return; } }
+          Request request = pending.remove(component); requested = request.time; running.put(component, request);
+        }
+        try { component.renderNow();
+        } catch (Throwable t) { System.err.println("RenderScheduler - Render Failed: " + t); t.printStackTrace(System.err);
+        } finally {
+          synchronized (pending) {
+            running.remove(component); completed++;
+            long latency = System.nanoTime() - requested; latency_total += latency; if (latency > latency_max) latency_max = latency;
+            pending.notifyAll();
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Return the number of queued (not yet started) renders.
+   *
+   *@return queue depth
+   */
+  public static int queueDepth() { synchronized (pending) { return pending.size(); } }
+
+  /**
+   * Return the maximum queue depth seen.
+   *
+   *@return maximum queue depth
+   */
+  public static int maxQueueDepth() { synchronized (pending) { return max_depth; } }
+
+  /**
+   * Return the number of renders in progress.
+   *
+   *@return active renders
+   */
+  public static int activeRenders() { synchronized (pending) { return running.size(); } }
+
+  /**
+   * Return the number of completed renders.
+   *
+   *@return completed renders
+   */
+  public static long completedRenders() { synchronized (pending) { return completed; } }
+
+  /**
+   * Return the average latency from request to finished render.
+   *
+   *@return average latency in milliseconds
+   */
+  public static double averageLatencyMillis() { synchronized (pending) { return completed == 0L ? 0.0 : (latency_total / 1e6) / completed; } }
+
+  /**
+   * Return the maximum latency from request to finished render.
+   *
+   *@return maximum latency in milliseconds
+   */
+  public static double maxLatencyMillis() { synchronized (pending) { return latency_max / 1e6; } }
+
+  /**
+   * Return a one line summary of the metrics.
+   *
+   *@return metrics summary
+   */
+  public static String metrics() {
+    synchronized (pending) {
+      return "Renders: queued=" + pending.size() + " (max " + max_depth + ") active=" + running.size() + " completed=" + completed +
+             " requests=" + requests + " coalesced=" + coalesced + " superseded=" + superseded +
+             " latency avg=" + String.format("%.1f", completed == 0L ? 0.0 : (latency_total / 1e6) / completed) + "ms max=" + String.format("%.1f", latency_max / 1e6) + "ms";
+    }
+  }
+}
@@ -0,0 +1,149 @@
+/*
+
+Copyright 2013 David Trimm
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package racetrack.test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import racetrack.framework.Bundle;
+import racetrack.framework.BundleBitmapSet;
+import racetrack.framework.Bundles;
+import racetrack.framework.BundlesCounterContext;
+import racetrack.framework.BundlesDT;
+import racetrack.framework.BundlesRecs;
+import racetrack.framework.BundlesUtils;
+import racetrack.framework.KeyMaker;
+import racetrack.framework.Tablet;
+
+/**
+ * Check of {@link BundlesCounterContext#fork()} -- the way the histogram folds appended records into
+ * a cached aggregation.  Records are counted into a context, the context is forked, and appended
+ * records are counted into the fork.  The fork must match a context that counted all of the
+ * records and the original context must be unchanged.  Prints the time to count the original
+ * records against the time to fork and fold the appended records.
+ *
+ *@author  D. Trimm
+ *@version 1.0
+ */
+public class CounterContextFold {
+  /**
+   * Usage:  java CounterContextFold [records] [appended] [rounds]
+   */
+  public static void main(String args[]) {
+    try {
+      int records  = args.length > 0 ? Integer.parseInt(args[0]) : 200000,
+          appended = args.length > 1 ? Integer.parseInt(args[1]) : 1000,
+          rounds   = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+      Bundles root = new BundlesRecs();
+      List<Bundle> base  = new ArrayList<Bundle>(BundlesUtils.parse(root, csv(0,       records),  0));
+      Set<Bundle>  known = new HashSet<Bundle>(base);
+      Set<Bundle>  after = BundlesUtils.parse(root, csv(records, appended), 0);
+      List<Bundle> added = new ArrayList<Bundle>(); Iterator<Bundle> it = after.iterator(); while (it.hasNext()) { Bundle bundle = it.next(); if (known.contains(bundle) == false) added.add(bundle); }
+      List<Bundle> all   = new ArrayList<Bundle>(base); all.addAll(added);
+
+      String count_bys[] = { BundlesDT.COUNT_BY_BUNS, "OCTS", "dip" }, color_bys[] = { null, "dpt" };
+      int failures = 0;
+      System.out.println("count_by,color_by,records,appended,bins,COMPUTE_MS,FOLD_MS,failures");
+      for (int round=0;round<rounds;round++) {
+        for (int i=0;i<count_bys.length;i++) for (int j=0;j<color_bys.length;j++) {
+          String count_by = count_bys[i], color_by = color_bys[j]; int f = 0;
+          long t0 = System.nanoTime();
+          BundlesCounterContext ctx = count(new BundlesCounterContext(root, count_by, color_by), base);
+          long t1 = System.nanoTime();
+          String before = dump(ctx, null);
+          long t2 = System.nanoTime();
+          BundlesCounterContext next = count(ctx.fork(), added);
+          long t3 = System.nanoTime();
+          BundlesCounterContext full = count(new BundlesCounterContext(root, count_by, color_by), all);
+          // The fork matches the full count and the original is unchanged
+          if (dump(next, full).equals(dump(full, null)) == false) { f++; System.err.println("Fold Differs From Full Count : " + count_by + " / " + color_by); }
+          if (dump(ctx,  null).equals(before)           == false) { f++; System.err.println("Fold Changed The Original : "    + count_by + " / " + color_by); }
+          try { count(ctx, added); f++; System.err.println("Forked Context Accepted A Count"); } catch (RuntimeException re) { }
+          failures += f;
+          System.out.println(count_by + "," + color_by + "," + base.size() + "," + added.size() + "," + bins(next) + "," + (t1-t0)/1000000L + "," + (t3-t2)/1000000L + "," + f);
+        }
+      }
+      System.out.println(failures == 0 ? "ok" : ("FAILED : " + failures));
+      if (failures > 0) System.exit(1);
+    } catch (IOException ioe) { System.err.println("IOException: " + ioe); ioe.printStackTrace(System.err); System.exit(1); }
+    System.exit(0);
+  }
+
+  /**
+   * Write a CSV file of flow-like records -- the source addresses are the bins.
+   */
+  static File csv(int first, int n) throws IOException {
+    File file = File.createTempFile("ccfold", ".csv"); file.deleteOnExit();
+    StringBuilder sb = new StringBuilder("sip,dip,dpt,OCTS\n");
+    for (int i=first;i<first+n;i++) {
+      int s = (i * 7919) % 50000, d = i % 3000;
+      sb.append("10.").append(s >> 16).append('.').append((s >> 8) & 0xff).append('.').append(s & 0xff).append(",192.168.").append(d >> 8).append('.').append(d & 0xff)
+        .append(',').append((i % 9 == 0) ? 443 : (i % 5 == 0 ? 53 : 80)).append(',').append(40 + (i * 31) % 1500).append('\n');
+    }
+    FileOutputStream out = new FileOutputStream(file); out.write(sb.toString().getBytes("UTF-8")); out.close();
+    return file;
+  }
+
+  /**
+   * Count the records into the context binned by the source address.
+   */
+  static BundlesCounterContext count(BundlesCounterContext ctx, List<Bundle> bundles) {
+    Map<Tablet,KeyMaker> kms = new HashMap<Tablet,KeyMaker>();
+    for (int i=0;i<bundles.size();i++) {
+      Bundle bundle = bundles.get(i); KeyMaker km = kms.get(bundle.getTablet());
+      if (km == null) kms.put(bundle.getTablet(), km = new KeyMaker(bundle.getTablet(), "sip"));
+      String bins[] = km.stringKeys(bundle); for (int j=0;j<bins.length;j++) ctx.count(bundle, bins[j]);
+    }
+    return ctx;
+  }
+
+  /**
+   * Return the number of bins.
+   */
+  static int bins(BundlesCounterContext ctx) { int n = 0; Iterator<String> it = ctx.binIterator(); while (it.hasNext()) { it.next(); n++; } return n; }
+
+  /**
+   * Describe everything the context reports.  The record sets are compared against a
+   * reference context if one is specified.
+   */
+  static String dump(BundlesCounterContext ctx, BundlesCounterContext ref) {
+    StringBuilder sb = new StringBuilder();
+    sb.append(ctx.totalMaximum()).append('|').append(ctx.totalColorMaximum()).append('\n');
+    Set<String> bins = new TreeSet<String>(), cbins = new TreeSet<String>();
+    Iterator<String> it = ctx.binIterator();      while (it.hasNext()) bins.add(it.next());
+    it = ctx.colorBinIterator();                  while (it.hasNext()) cbins.add(it.next());
+    it = cbins.iterator(); while (it.hasNext()) { String cbin = it.next(); sb.append(cbin).append('|').append(ctx.totalColorMaximum(cbin)).append('\n'); }
+    it = bins.iterator(); while (it.hasNext()) {
+      String bin = it.next(); Set<Bundle> set = ctx.getBundles(bin);
+      sb.append(bin).append('|').append(ctx.total(bin)).append('|').append(ctx.binColorTotal(bin)).append('|').append(ctx.binColor(bin)).append('|').append(set.size());
+      if (ref != null && BundleBitmapSet.sameRecords(set, ref.getBundles(bin)) == false) sb.append("|records differ");
+      Iterator<String> it_c = cbins.iterator(); while (it_c.hasNext()) { String cbin = it_c.next(); double d = ctx.total(bin, cbin); if (d != 0.0) sb.append('|').append(cbin).append('=').append(d); }
+      sb.append('\n');
+    }
+    return sb.toString();
+  }
+}
@@ -0,0 +1,144 @@
+/*
+
+Copyright 2013 David Trimm
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package racetrack.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import racetrack.framework.BundlesDT;
+import racetrack.framework.DataTypeClassifier;
+import racetrack.util.CSVReader;
+import racetrack.util.CSVTokenConsumer;
+
+/**
+ * Differential test of the {@link DataTypeClassifier} against the regex classification
+ * in {@link BundlesDT}.  Checks every field of a directory of csv files (by default, the
+ * VAST 2014 challenge data), a set of hand-picked edge cases, and random mutations of both.
+ * Prints the mismatches (if any) and the time per string for both approaches.
+ *
+ *@author  D. Trimm
+ *@version 1.0
+ */
+public class DataTypeClassifierDiff {
+  /**
+   * Edge cases near the boundaries of the regexes
+   */
+  static final String edges[] = {
+    "0", "+1", "-", "1.5", "1.", ".5", "-0.0", "1.2.3", "255.255.255.255", "256.1.1.1", "01.02.03.04", "099.1.1.1", "1.1.1", "1.1.1.1.",
+    "10.0.0.0/8", "10.0.0.0/32", "10.0.0.0/33", "10.0.0.0/08", "10.0.0.0/", "10.0.0.0/123",
+    "::", "::1", "fe80::1%eth0", " ::1 ", "::ffff:192.168.1.1", "1:2:3:4:5:6:7:8", "1:2:3:4:5:6:7:8:9", "1:2:3:4:5:6:1.2.3.4", "1::2:3:4:5:6:7",
+    "1:2:3:4:5:6:7::", "fe80::1%", "::1%\n", "1:2::3::4", "12345::1", "::01.2.3.4", "a:b", "1:2:3:4:5:6:7:",
+    "a@b.com", "a.b-c@x.y.z9", "@b.com", "a@b", "a@b.c.", "a@1.com", "a@@b.com",
+    "example.com", "a.b", "a.b1", "a-b.c-d.org", ".com", "a..com", "abc.de-f",
+    "http://a.b", "https://www.example.com/path?q=1", "ftp://a.b/", "HTTP://A.B.", "http://a.", "http://.a", "http://a.b/x:", "http://a_b.c-d/e~f#g",
+    "Mozilla/5.0 (Windows NT 6.1)", "Mozil/", "Mozil", "Lynx/2.8", "Outlook-Express", "Foo/1.0 (bar)", "Foo/1.0 [en] (X11)", "Foo/1.0 ()", "x (compatible; y)",
+    "x (compatible)", "Foo/1.0 [en]  (X11)", "Foo/1.0 [] (x)", "Mozilla/5.0\n(x)",
+    "2014-01-06", "2014-1-6", "2014/13/01", "2014-12-32", "2014-01-06 07:08", "2014-01-06T7:08:09.123Z", "2014-01-06 24:00", "2014.01.06 07:08:09.",
+    "20140106", "20141301", "20140106 0708Z", "20140106 070809Z", "20140106 2400Z", "Sat Jan 4 7:08:09 2014", "Sun Feb 31 23:59:59 2014", "Mon Jan 32 1:00:00 2014",
+    "aabbccddeeff", "aa:bb:cc:dd:ee:ff", "aa-bb:cc-dd:ee-ff", "aa:bb:cc:dd:ee:fg",
+    "0123456789abcdef0123456789ABCDEF", "0123456789abcdef0123456789ABCDEF ", "0123456789abcdef0123456789ABCDEFx",
+    "", " ", "unknown", " ", "1\u00850",
+  };
+
+  /**
+   * Characters used for the mutations
+   */
+  static final String alphabet = "0123456789abcdefABCDEFxyzXYZ.:/-_@+%?&=# ()[];,~^\t\n\r\u0085Z T";
+
+  /**
+   * Usage:  java DataTypeClassifierDiff [directory] [mutations-per-string]
+   */
+  public static void main(String args[]) {
+    try {
+      File dir       = new File(args.length > 0 ? args[0] : "data/2014_vast_challenge");
+      int  mutations = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+      // Collect the distinct fields from the files
+      final Set<String> set = new HashSet<String>(Arrays.asList(edges));
+      File files[] = dir.listFiles();
+      if (files != null) {
+        Arrays.sort(files);
+        for (int i=0;i<files.length;i++) {
+          if (files[i].getName().endsWith(".csv") == false) continue;
+          new CSVReader(files[i], new CSVTokenConsumer() {
+            public boolean consume(String tokens[], String line, int line_no) { for (int j=0;j<tokens.length;j++) set.add(tokens[j]); return true; }
+            public void commentLine(String line) { } }, ",", true);
+        }
+      }
+      List<String> base = new ArrayList<String>(set);
+
+      // Mutate each string -- insert, delete, replace, and truncate characters
+      Random rand = new Random(1L);
+      List<String> list = new ArrayList<String>(base);
+      for (int i=0;i<base.size();i++) {
+        String str = base.get(i);
+        for (int j=0;j<mutations;j++) {
+          StringBuilder sb = new StringBuilder(str); int edits = 1 + rand.nextInt(3);
+          for (int k=0;k<edits;k++) {
+            int pos = sb.length() == 0 ? 0 : rand.nextInt(sb.length()); char c = alphabet.charAt(rand.nextInt(alphabet.length()));
+            switch (rand.nextInt(4)) {
+              case 0:  sb.insert(pos, c);                                        break;
+              case 1:  if (sb.length() > 0) sb.deleteCharAt(pos);                break;
+              case 2:  if (sb.length() > 0) sb.setCharAt(pos, c);                break;
+              default: sb.setLength(pos);                                        break;
+            }
+          }
+          list.add(sb.toString());
+        }
+      }
+      String strs[] = list.toArray(new String[list.size()]);
+
+      // Compare
+      int mismatches = 0;
+      for (int i=0;i<strs.length;i++) {
+        BundlesDT.DT by_regex = BundlesDT.getEntityDataTypeRegex(strs[i]), by_scan = DataTypeClassifier.classify(strs[i]);
+        if (strs[i].equals(BundlesDT.NOTSET)) continue;
+        if (by_regex != by_scan) { if (mismatches++ < 50) System.err.println("Mismatch : \"" + escape(strs[i]) + "\" : regex = " + by_regex + " : scan = " + by_scan); }
+      }
+
+      // Time both
+      int sum = 0; long t0 = System.nanoTime();
+      for (int i=0;i<strs.length;i++) sum += BundlesDT.getEntityDataTypeRegex(strs[i]).ordinal();
+      long t1 = System.nanoTime();
+      for (int i=0;i<strs.length;i++) sum -= DataTypeClassifier.classify(strs[i]).ordinal();
+      long t2 = System.nanoTime();
+
+      // Print results
+      System.out.println("strings,mismatches,REGEX_NS,SCAN_NS,SPEEDUP");
+      System.out.println(strs.length + "," + mismatches + "," +
+                         String.format("%.1f", (t1-t0)/(double) strs.length) + "," + String.format("%.1f", (t2-t1)/(double) strs.length) + "," +
+                         String.format("%.1f", (t1-t0)/(double) Math.max(1L, t2-t1)));
+      if (mismatches > 0) System.exit(1);
+    } catch (IOException ioe) { System.err.println("IOException: " + ioe); }
+  }
+
+  /**
+   * Make control characters printable
+   */
+  static String escape(String str) {
+    StringBuilder sb = new StringBuilder();
+    for (int i=0;i<str.length();i++) { char c = str.charAt(i); if (c < 32 || c > 126) sb.append(String.format("\\u%04x", (int) c)); else sb.append(c); }
+    return sb.toString();
+  }
+}
@@ -0,0 +1,210 @@
+/*
+
+Copyright 2013 David Trimm
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package racetrack.test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import racetrack.framework.BundlesG;
+import racetrack.util.InternTable;
+
+/**
+ * Multi-threaded stress test of the {@link InternTable} and of the field interning in
+ * {@link BundlesG}.  Many writers intern overlapping (shuffled) key sets while readers
+ * probe the table.  Verifies that every thread saw the same value for a key, that the
+ * counter-issued values are dense (exactly 0..n-1), and that readers never saw a value
+ * change.  Also compares the time against a synchronized HashMap.
+ *
+ *@author  D. Trimm
+ *@version 1.0
+ */
+public class InternTableStress {
+  /**
+   * Usage:  java InternTableStress [threads] [keys] [rounds]
+   */
+  public static void main(String args[]) throws Exception {
+    int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8,
+        keys    = args.length > 1 ? Integer.parseInt(args[1]) : 200000,
+        rounds  = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+    int failures = 0;
+    System.out.println("round,threads,keys,failures,INTERN_MS,SYNC_MAP_MS");
+    for (int round=0;round<rounds;round++) {
+      String strs[] = new String[keys]; for (int i=0;i<keys;i++) strs[i] = "entity-" + round + "-" + i;
+      List<List<String>> orders = new ArrayList<List<String>>(); for (int t=0;t<threads;t++) orders.add(shuffled(strs, round * 1000L + t));
+      int f   = stressIntern(strs, orders) + stressPutIfAbsent(strs, threads) + stressFields(threads);
+      long t0 = System.nanoTime();
+      internOnly(orders);
+      long t1 = System.nanoTime();
+      syncMap(orders);
+      long t2 = System.nanoTime();
+      failures += f;
+      System.out.println(round + "," + threads + "," + keys + "," + f + "," + (t1-t0)/1000000L + "," + (t2-t1)/1000000L);
+    }
+    System.out.println(failures == 0 ? "ok" : ("FAILED : " + failures));
+    if (failures > 0) System.exit(1);
+  }
+
+  /**
+   * Start the threads at the same time and wait for them to finish.
+   */
+  static void run(Runnable runnables[]) throws InterruptedException {
+    final CountDownLatch start = new CountDownLatch(1); Thread ts[] = new Thread[runnables.length];
+    for (int i=0;i<ts.length;i++) {
+      final Runnable runnable = runnables[i];
+      ts[i] = new Thread(new Runnable() { public void run() { try { start.await(); } catch (InterruptedException ie) { } runnable.run(); } });
+      ts[i].start();
+    }
+    start.countDown();
+    for (int i=0;i<ts.length;i++) ts[i].join();
+  }
+
+  /**
+   * Return a shuffled copy of the strings.
+   */
+  static List<String> shuffled(String strs[], long seed) {
+    List<String> list = new ArrayList<String>(strs.length); for (int i=0;i<strs.length;i++) list.add(strs[i]);
+    Collections.shuffle(list, new Random(seed)); return list;
+  }
+
+  /**
+   * Writers intern shuffled copies of the keys from one counter while a reader watches a sample of the keys.
+   *
+   *@return number of failures
+   */
+  static int stressIntern(final String strs[], List<List<String>> orders) throws InterruptedException {
+    int threads = orders.size();
+    final InternTable table = new InternTable(); final AtomicInteger counter = new AtomicInteger(0), bad_reads = new AtomicInteger(0);
+    final int seen[][] = new int[threads][strs.length];
+    final AtomicInteger writers_done = new AtomicInteger(0);
+    Runnable runnables[] = new Runnable[threads + 1];
+    for (int t=0;t<threads;t++) {
+      final int me = t; final List<String> order = orders.get(t);
+      final Map<String,Integer> index = new HashMap<String,Integer>(); for (int i=0;i<strs.length;i++) index.put(strs[i], i);
+      runnables[t] = new Runnable() { public void run() {
+        for (int i=0;i<order.size();i++) { String str = order.get(i); seen[me][index.get(str)] = table.intern(str, counter, 0); }
+        writers_done.incrementAndGet();
+      } };
+    }
+    // Reader -- once a key is visible, its value must never change
+    final int watched = Math.min(1024, strs.length), finals = threads;
+    runnables[threads] = new Runnable() { public void run() {
+      int first[] = new int[watched]; boolean found[] = new boolean[watched];
+      while (writers_done.get() < finals) {
+        for (int i=0;i<watched;i++) {
+          int value = table.get(strs[i], -1);
+          if (value == -1) { if (found[i]) bad_reads.incrementAndGet(); continue; }
+          if (found[i] == false) { found[i] = true; first[i] = value; } else if (first[i] != value) bad_reads.incrementAndGet();
+        }
+      }
+    } };
+    run(runnables);
+
+    int failures = bad_reads.get();
+    if (counter.get() != strs.length) { System.err.println("Counter " + counter.get() + " != " + strs.length); failures++; }
+    if (table.size()  != strs.length) { System.err.println("Size "    + table.size()  + " != " + strs.length); failures++; }
+    boolean used[] = new boolean[strs.length];
+    for (int i=0;i<strs.length;i++) {
+      int value = table.get(strs[i], -1);
+      if (value < 0 || value >= strs.length || used[value]) { failures++; continue; }
+      used[value] = true;
+      for (int t=0;t<threads;t++) if (seen[t][i] != value) failures++;
+    }
+    return failures;
+  }
+
+  /**
+   * Timed workload -- each thread interns its ordering of the keys.
+   */
+  static void internOnly(List<List<String>> orders) throws InterruptedException {
+    final InternTable table = new InternTable(); final AtomicInteger counter = new AtomicInteger(0);
+    Runnable runnables[] = new Runnable[orders.size()];
+    for (int t=0;t<runnables.length;t++) {
+      final List<String> order = orders.get(t);
+      runnables[t] = new Runnable() { public void run() { for (int i=0;i<order.size();i++) table.intern(order.get(i), counter, 0); } };
+    }
+    run(runnables);
+  }
+
+  /**
+   * Same workload against a synchronized map for comparison.
+   */
+  static void syncMap(List<List<String>> orders) throws InterruptedException {
+    final Map<String,Integer> map = new HashMap<String,Integer>();
+    Runnable runnables[] = new Runnable[orders.size()];
+    for (int t=0;t<runnables.length;t++) {
+      final List<String> order = orders.get(t);
+      runnables[t] = new Runnable() { public void run() {
+        for (int i=0;i<order.size();i++) { String str = order.get(i); synchronized (map) { if (map.containsKey(str) == false) map.put(str, map.size()); } }
+      } };
+    }
+    run(runnables);
+  }
+
+  /**
+   * Each thread offers a different value for every key -- all threads must agree on the winner.
+   *
+   *@return number of failures
+   */
+  static int stressPutIfAbsent(final String strs[], int threads) throws InterruptedException {
+    final InternTable table = new InternTable(); final int seen[][] = new int[threads][strs.length];
+    Runnable runnables[] = new Runnable[threads];
+    for (int t=0;t<threads;t++) {
+      final int me = t;
+      runnables[t] = new Runnable() { public void run() {
+        if ((me & 1) == 0) { for (int i=0;i<strs.length;i++)    seen[me][i] = table.putIfAbsent(strs[i], me); }
+        else               { for (int i=strs.length-1;i>=0;i--) seen[me][i] = table.putIfAbsent(strs[i], me); }
+      } };
+    }
+    run(runnables);
+    int failures = 0;
+    for (int i=0;i<strs.length;i++) { int value = table.get(strs[i], -1); for (int t=0;t<threads;t++) if (seen[t][i] != value) failures++; }
+    return failures;
+  }
+
+  /**
+   * Threads create the same fields in different orders -- field indices must be dense and agree.
+   *
+   *@return number of failures
+   */
+  static int stressFields(int threads) throws InterruptedException {
+    final BundlesG globals = new BundlesG(); final int fields = 200; final int seen[][] = new int[threads][fields];
+    Runnable runnables[] = new Runnable[threads];
+    for (int t=0;t<threads;t++) {
+      final int me = t;
+      runnables[t] = new Runnable() { public void run() {
+        for (int i=0;i<fields;i++) { int fld = ((me & 1) == 0) ? (i + me*37) % fields : (fields - 1 - (i + me*37) % fields); seen[me][fld] = globals.getOrCreateField("field" + fld, false); }
+      } };
+    }
+    run(runnables);
+    int failures = 0; boolean used[] = new boolean[fields];
+    if (globals.numberOfFields() != fields) failures++;
+    for (int i=0;i<fields;i++) {
+      int fld_i = globals.fieldIndex("field" + i);
+      if (fld_i < 0 || fld_i >= fields || used[fld_i] || globals.fieldHeader(fld_i).equals("field" + i) == false) { failures++; continue; }
+      used[fld_i] = true;
+      for (int t=0;t<threads;t++) if (seen[t][i] != fld_i) failures++;
+    }
+    return failures;
+  }
+}
@@ -0,0 +1,141 @@
+/*
+
+Copyright 2013 David Trimm
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package racetrack.test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+import racetrack.util.CSVTokenConsumer;
+import racetrack.util.RFC4180CSVReader;
+import racetrack.util.RFC4180ParallelReader;
+
+/**
+ * Fuzz test of the {@link RFC4180ParallelReader} against the sequential {@link RFC4180CSVReader}.
+ * Random files (quoted fields with embedded delimiters, newlines, doubled quotes, stray quotes
+ * and carriage returns, non-ascii bytes, missing trailing newlines, compressed files) are
+ * parsed by both readers at several chunk sizes -- every token, line, and line number must
+ * match.  Also times both readers on a larger file.
+ *
+ *@author  D. Trimm
+ *@version 1.0
+ */
+public class RFC4180Fuzz {
+  /**
+   * Usage:  java RFC4180Fuzz [files] [seed] [timing-records]
+   */
+  public static void main(String args[]) {
+    try {
+      int  files   = args.length > 0 ? Integer.parseInt(args[0]) : 300;
+      long seed    = args.length > 1 ? Long.parseLong(args[1])   : 1L;
+      int  records = args.length > 2 ? Integer.parseInt(args[2]) : 200000;
+      Random rand = new Random(seed); int chunks[] = { 1, 2, 3, 7, 16, 61, 256, 4096, RFC4180ParallelReader.CHUNK_BYTES };
+      File dir = new File(System.getProperty("java.io.tmpdir"));
+
+      int compared = 0, mismatches = 0;
+      for (int f=0;f<files;f++) {
+        boolean gz = rand.nextInt(5) == 0; String encoding = rand.nextBoolean() ? null : "UTF-8";
+        File file = File.createTempFile("rfc4180fuzz", gz ? ".csv.gz" : ".csv", dir); file.deleteOnExit();
+        write(file, randomBytes(rand, 1 + rand.nextInt(60)), gz);
+        int halt = rand.nextInt(4) == 0 ? 1 + rand.nextInt(20) : 0;
+        List<String> expect = sequential(file, encoding, halt);
+        for (int c=0;c<chunks.length;c++) {
+          List<String> got = parallel(file, encoding, halt, chunks[c]); compared++;
+          if (got.equals(expect) == false) {
+            if (mismatches++ < 10) System.err.println("Mismatch : " + file + " (chunk = " + chunks[c] + ", encoding = " + encoding + ", halt = " + halt + ")\n  expected " + expect + "\n  got      " + got);
+          }
+        }
+        if (mismatches == 0) file.delete();
+      }
+
+      // Time both on a larger file
+      File file = File.createTempFile("rfc4180time", ".csv", dir); file.deleteOnExit();
+      StringBuilder sb = new StringBuilder("timestamp,sip,dip,note,OCTS\n");
+      for (int i=0;i<records;i++) {
+        sb.append("2014-01-06 07:").append(i%60 < 10 ? "0" : "").append(i%60).append(":00,10.0.").append(i%200).append('.').append(i%250).append(",192.168.1.").append(i%100)
+          .append(i%3 == 0 ? ",\"note, with \"\"quotes\"\"\nand a newline\"," : ",plain note,").append(i).append('\n');
+      }
+      write(file, sb.toString().getBytes("ISO-8859-1"), false);
+      long t0 = System.currentTimeMillis(); int seq = sequential(file, null, 0).size();
+      long t1 = System.currentTimeMillis(); int par = parallel(file, null, 0, RFC4180ParallelReader.CHUNK_BYTES).size();
+      long t2 = System.currentTimeMillis();
+      file.delete();
+
+      System.out.println("files,comparisons,mismatches,records,SEQUENTIAL_MS,PARALLEL_MS");
+      System.out.println(files + "," + compared + "," + mismatches + "," + (seq == par ? "" + seq : (seq + "!=" + par)) + "," + (t1-t0) + "," + (t2-t1));
+      if (mismatches > 0 || seq != par) System.exit(1);
+    } catch (IOException ioe) { System.err.println("IOException: " + ioe); ioe.printStackTrace(System.err); System.exit(1); }
+  }
+
+  /**
+   * Pieces that the random files are assembled from
+   */
+  static final String pieces[] = { ",", ",", "\"", "\"\"", "\n", "\n", "\r\n", "\r", "a", "bc", "123", " ", "\",", "\"\n", "x\"y", "é", "€" };
+
+  /**
+   * Create random file contents.
+   */
+  static byte[] randomBytes(Random rand, int n) throws IOException {
+    StringBuilder sb = new StringBuilder();
+    for (int i=0;i<n;i++) {
+      if (rand.nextInt(4) == 0) { sb.append('"'); int m = rand.nextInt(6); for (int j=0;j<m;j++) sb.append(pieces[rand.nextInt(pieces.length)]); sb.append('"'); }
+      else sb.append(pieces[rand.nextInt(pieces.length)]);
+    }
+    if (rand.nextInt(3) != 0) sb.append('\n');
+    byte bytes[] = sb.toString().getBytes("UTF-8");
+    if (rand.nextInt(6) == 0 && bytes.length > 0) bytes[rand.nextInt(bytes.length)] = (byte) (0x80 + rand.nextInt(128)); // Invalid utf-8
+    return bytes;
+  }
+
+  /**
+   * Write the bytes to the file.
+   */
+  static void write(File file, byte bytes[], boolean gz) throws IOException {
+    OutputStream out = new FileOutputStream(file); if (gz) out = new GZIPOutputStream(out);
+    try { out.write(bytes); } finally { out.close(); }
+  }
+
+  /**
+   * Consumer that records everything it's handed -- halts after the specified number of records (0 for never).
+   */
+  static class Recorder implements CSVTokenConsumer {
+    List<String> list = new ArrayList<String>(); int halt;
+    Recorder(int halt) { this.halt = halt; }
+    public boolean consume(String tokens[], String line, int line_no) {
+      StringBuilder sb = new StringBuilder(); sb.append(line_no).append('|').append(tokens.length);
+      for (int i=0;i<tokens.length;i++) sb.append('|').append(tokens[i]);
+      sb.append("|line=").append(line);
+      list.add(sb.toString());
+      return halt == 0 || list.size() < halt;
+    }
+    public void commentLine(String line) { list.add("comment=" + line); }
+  }
+
+  static List<String> sequential(File file, String encoding, int halt) throws IOException {
+    Recorder recorder = new Recorder(halt); new RFC4180CSVReader(file, recorder, encoding); return recorder.list;
+  }
+
+  static List<String> parallel(File file, String encoding, int halt, int chunk) throws IOException {
+    Recorder recorder = new Recorder(halt); new RFC4180ParallelReader(file, recorder, encoding, chunk); return recorder.list;
+  }
+}
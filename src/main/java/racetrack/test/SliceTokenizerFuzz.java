@@ -0,0 +1,91 @@
+/*
+
+Copyright 2013 David Trimm
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package racetrack.test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import racetrack.util.CSVReader;
+import racetrack.util.InternTable;
+import racetrack.util.SliceTokenizer;
+
+/**
+ * Fuzz test of the {@link SliceTokenizer} (through {@link CSVReader#tokenize(String,String,boolean,InternTable)})
+ * against the general {@link CSVReader#tokenizeDelims(String,String,boolean)}.  Random lines
+ * (blank fields, surrounding whitespace, '%xx', '%uXXXX', '+', malformed escapes) must produce
+ * the same tokens -- or the same exception -- with and without a dictionary.  Also times both
+ * on repetitive flow records.
+ *
+ *@author  D. Trimm
+ *@version 1.0
+ */
+public class SliceTokenizerFuzz {
+  /**
+   * Usage:  java SliceTokenizerFuzz [lines] [seed] [timing-lines]
+   */
+  public static void main(String args[]) {
+    int  lines   = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+    long seed    = args.length > 1 ? Long.parseLong(args[1])   : 1L;
+    int  records = args.length > 2 ? Integer.parseInt(args[2]) : 500000;
+    Random rand = new Random(seed); String delims[] = { ",", "\t", "|" };
+
+    // Dictionary holds a few of the pieces so that both the hit and the miss paths run
+    InternTable dict = new InternTable(); for (int i=0;i<pieces.length;i+=2) dict.put(pieces[i], i);
+
+    int compared = 0, mismatches = 0;
+    for (int l=0;l<lines;l++) {
+      String delim = delims[rand.nextInt(delims.length)]; boolean strip = rand.nextBoolean();
+      StringBuilder sb = new StringBuilder(); int n = rand.nextInt(12);
+      for (int i=0;i<n;i++) { String p = pieces[rand.nextInt(pieces.length)]; sb.append(p.equals(",") ? delim : p); }
+      String line = sb.toString(), expect = attempt(line, delim, strip, null, true);
+      for (int d=0;d<2;d++) {
+        String got = attempt(line, delim, strip, d == 0 ? null : dict, false); compared++;
+        if (got.equals(expect) == false && mismatches++ < 10)
+          System.err.println("Mismatch : \"" + line + "\" (delim = \"" + delim + "\", strip = " + strip + ")\n  expected " + expect + "\n  got      " + got);
+      }
+    }
+
+    // Time both on repetitive records
+    String flows[] = new String[1000];
+    for (int i=0;i<flows.length;i++) flows[i] = "2014-01-06 07:00:" + (i%60) + ",10.0.0." + (i%20) + "," + (i%5 == 0 ? 443 : 80) + ",TCP,192.168.1." + (i%10) + ",US," + (i*37);
+    for (int i=0;i<flows.length;i++) { String ts[] = CSVReader.tokenizeDelims(flows[i], ",", true); for (int j=1;j<ts.length-1;j++) dict.putIfAbsent(ts[j], j); }
+    long sum = 0;
+    long t0 = System.currentTimeMillis(); for (int i=0;i<records;i++) sum += CSVReader.tokenizeDelims(flows[i%flows.length], ",", true).length;
+    long t1 = System.currentTimeMillis(); for (int i=0;i<records;i++) sum += CSVReader.tokenize(flows[i%flows.length], ",", true, dict).length;
+    long t2 = System.currentTimeMillis();
+
+    System.out.println("lines,comparisons,mismatches,records,GENERAL_MS,SLICE_MS");
+    System.out.println(lines + "," + compared + "," + mismatches + "," + (sum/2) + "," + (t1-t0) + "," + (t2-t1));
+    if (mismatches > 0) System.exit(1);
+  }
+
+  /**
+   * Pieces that the random lines are assembled from (a comma is replaced by the delimiter)
+   */
+  static final String pieces[] = { ",", ",", " ", "\t", "80", "TCP", "a+b", "+", "%20", "%41x", "%u0041", "%", "%2", "%zz", "%u12", "%uzzzz", "10.0.0.1", " US ", "é", "\r" };
+
+  /**
+   * Tokenize a line and describe the result (or the exception).
+   */
+  static String attempt(String line, String delim, boolean strip, InternTable dict, boolean general) {
+    try {
+      String tokens[] = general ? CSVReader.tokenizeDelims(line, delim, strip) : CSVReader.tokenize(line, delim, strip, dict);
+      return Arrays.asList(tokens).toString();
+    } catch (RuntimeException re) { return re.getClass().getName(); }
+  }
+}
@@ -0,0 +1,101 @@
+/*
+
+Copyright 2013 David Trimm
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package racetrack.test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+import racetrack.framework.Bundles;
+import racetrack.framework.BundlesColumnar;
+import racetrack.framework.BundlesRecs;
+import racetrack.framework.BundlesSnapshot;
+import racetrack.framework.BundlesUtils;
+
+/**
+ * Truncation and corruption test of {@link BundlesSnapshot#read}.  A snapshot of a small
+ * dataset (both backends) is cut at random lengths and has random bytes overwritten -- every
+ * read must either succeed or throw an IOException, and a rejected snapshot must leave the
+ * bundles unchanged (no fields, no records).
+ *
+ *@author  D. Trimm
+ *@version 1.0
+ */
+public class SnapshotFuzz {
+  /**
+   * Usage:  java SnapshotFuzz [trials] [seed]
+   */
+  public static void main(String args[]) {
+    try {
+      int  trials = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+      long seed   = args.length > 1 ? Long.parseLong(args[1])   : 1L;
+      Random rand = new Random(seed); File dir = new File(System.getProperty("java.io.tmpdir"));
+
+      // Small dataset -- timestamps, scalars, and a few repeated values
+      File csv = File.createTempFile("snapfuzz", ".csv", dir); csv.deleteOnExit();
+      StringBuilder sb = new StringBuilder("timestamp,sip,dip,dpt,OCTS,note\n");
+      for (int i=0;i<500;i++) sb.append("2014-01-06 07:").append(i%60 < 10 ? "0" : "").append(i%60).append(":00,10.0.0.").append(i%20).append(",192.168.1.").append(i%7)
+                                .append(',').append(i%5 == 0 ? 443 : 80).append(',').append(i*13).append(",note ").append(i%11).append('\n');
+      FileOutputStream out = new FileOutputStream(csv); out.write(sb.toString().getBytes("UTF-8")); out.close();
+
+      int reads = 0, rejected = 0, failures = 0;
+      for (int backend=0;backend<2;backend++) {
+        Bundles bundles = create(backend); long records = BundlesUtils.parse(bundles, csv, 0).size();
+        File snap = File.createTempFile("snapfuzz", BundlesSnapshot.EXTENSION, dir); snap.deleteOnExit();
+        BundlesSnapshot.write(bundles, null, null, snap);
+        byte bytes[] = readAll(snap);
+        Bundles check = create(backend); long loaded = BundlesSnapshot.read(check, null, snap, null).size();
+        if (loaded != records) { failures++; System.err.println("Clean Snapshot Loaded " + loaded + " Of " + records + " Records (backend " + backend + ")"); }
+
+        File bad = File.createTempFile("snapfuzz", BundlesSnapshot.EXTENSION, dir); bad.deleteOnExit();
+        for (int t=0;t<trials;t++) {
+          byte trial[];
+          if (rand.nextBoolean()) { trial = new byte[rand.nextInt(bytes.length)]; System.arraycopy(bytes, 0, trial, 0, trial.length); }
+          else {
+            trial = bytes.clone(); int n = 1 + rand.nextInt(4);
+            for (int i=0;i<n;i++) trial[rand.nextInt(trial.length)] = (byte) rand.nextInt(256);
+          }
+          FileOutputStream bad_out = new FileOutputStream(bad); bad_out.write(trial); bad_out.close();
+          Bundles fresh = create(backend); int fields = fresh.getGlobals().numberOfFields(); reads++;
+          try { BundlesSnapshot.read(fresh, null, bad, null);
+          } catch (IOException ioe) {
+            rejected++;
+            if (fresh.getGlobals().numberOfFields() != fields || fresh.size() != 0) { if (failures++ < 10) System.err.println("Rejected Snapshot Changed The Bundles : " + ioe); }
+          } catch (Throwable th) { if (failures++ < 10) { System.err.println("Unexpected " + th + " (backend " + backend + ", trial " + t + ")"); th.printStackTrace(System.err); } }
+        }
+      }
+      System.out.println("SnapshotFuzz : " + reads + " reads, " + rejected + " rejected, " + failures + " failures");
+    } catch (IOException ioe) { System.err.println("IOException: " + ioe); ioe.printStackTrace(System.err); }
+    System.exit(0);
+  }
+
+  /**
+   * Create the bundles for a backend (0 = records, 1 = columnar).
+   */
+  private static Bundles create(int backend) { return backend == 0 ? new BundlesRecs() : new BundlesColumnar(); }
+
+  /**
+   * Read a whole file.
+   */
+  private static byte[] readAll(File file) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try { byte bytes[] = new byte[(int) raf.length()]; raf.readFully(bytes); return bytes; } finally { raf.close(); }
+  }
+}
@@ -0,0 +1,86 @@
+/*
+
+Copyright 2013 David Trimm
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package racetrack.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import racetrack.util.CSVReader;
+import racetrack.util.CSVTokenConsumer;
+import racetrack.util.TimeStampParser;
+import racetrack.util.Utils;
+
+/**
+ * Micro-benchmark of the timestamp parsing -- compares the generic parser against the
+ * {@link TimeStampParser} on the timestamp columns of a directory of csv files (by default,
+ * the VAST 2014 challenge data).  Also verifies that both produce the same values.
+ *
+ *@author  D. Trimm
+ *@version 1.0
+ */
+public class TimeStampParserBench {
+  /**
+   * Usage:  java TimeStampParserBench [directory] [passes]
+   */
+  public static void main(String args[]) {
+    try {
+      File dir    = new File(args.length > 0 ? args[0] : "data/2014_vast_challenge");
+      int  passes = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+
+      // Pull the timestamp columns from the files
+      final List<String> list = new ArrayList<String>();
+      File files[] = dir.listFiles(); if (files == null) { System.err.println("Usage:  java TimeStampParserBench [directory] [passes]"); System.exit(0); }
+      Arrays.sort(files);
+      for (int i=0;i<files.length;i++) {
+        if (files[i].getName().endsWith(".csv") == false) continue;
+        new CSVReader(files[i], new CSVTokenConsumer() {
+          int cols[] = null;
+          public boolean consume(String tokens[], String line, int line_no) {
+            if (tokens.length == 0) { cols = null; return true; }
+            if (cols == null) {
+              cols = new int[tokens.length]; for (int j=0;j<tokens.length;j++) cols[j] = (tokens[j].equals("beg") || tokens[j].equals("timestamp") || tokens[j].equals("end") || tokens[j].equals("timestamp_end")) ? 1 : 0;
+            } else for (int j=0;j<tokens.length && j<cols.length;j++) if (cols[j] == 1) list.add(tokens[j]);
+            return true;
+          }
+          public void commentLine(String line) { } }, ",", true);
+      }
+      String strs[] = list.toArray(new String[list.size()]);
+
+      // Verify
+      TimeStampParser parser = new TimeStampParser(); int mismatches = 0;
+      for (int i=0;i<strs.length;i++) if (Utils.parseTimeStampGeneric(strs[i]) != parser.parse(strs[i])) mismatches++;
+
+      // Time both
+      long sum = 0L, t0 = System.nanoTime();
+      for (int p=0;p<passes;p++) for (int i=0;i<strs.length;i++) sum += Utils.parseTimeStampGeneric(strs[i]);
+      long t1 = System.nanoTime();
+      for (int p=0;p<passes;p++) for (int i=0;i<strs.length;i++) sum -= parser.parse(strs[i]);
+      long t2 = System.nanoTime();
+
+      // Print results
+      long n = ((long) passes) * strs.length;
+      System.out.println("timestamps,passes,layouts,mismatches,GENERIC_NS,COMPILED_NS,SPEEDUP,CHECK");
+      System.out.println(strs.length + "," + passes + "," + parser.layouts() + "," + mismatches + "," +
+                         String.format("%.1f", (t1-t0)/(double) n) + "," + String.format("%.1f", (t2-t1)/(double) n) + "," +
+                         String.format("%.1f", (t1-t0)/(double) Math.max(1L, t2-t1)) + "," + (sum == 0L));
+    } catch (IOException ioe) { System.err.println("IOException: " + ioe); }
+  }
+}
@@ -27,6 +27,7 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import racetrack.framework.BundlesDT;
 import racetrack.gui.RTGraphPanel;
@@ -51,9 +52,10 @@ public class GeoData {
 
     /**
      * The singleton instance for the GeoData class. Used to conserve resources
-     * and to guarantee that only one instance exists.
+     * and to guarantee that only one instance exists.  Volatile so that lookups
+     * only lock while the instance is being created.
      */
-    private static GeoData instance = null;
+    private static volatile GeoData instance = null;
     /**
      * Shape files related to geospatial data (country borders).
      */
@@ -76,6 +78,19 @@ public class GeoData {
      * ASN's.
      */
             ipv4_asn_service = null;
+    /**
+     * Database files behind the lookup services -- reopened for each thread that needs the cached lookups
+     */
+    private File geoip_file, geoasn_file;
+    /**
+     * Per-thread lookup services for the cached lookups.  The maxmind services lock on every lookup, so
+     * the render workers each read the database files through their own (file-backed) service instead of
+     * waiting on the shared ones.
+     */
+    private final ThreadLocal<LookupService> thread_geo_service = new ThreadLocal<LookupService>() {
+      @Override protected LookupService initialValue() { return openLookupService(ipv4_geo_service, geoip_file);  } },
+                                             thread_asn_service = new ThreadLocal<LookupService>() {
+      @Override protected LookupService initialValue() { return openLookupService(ipv4_asn_service, geoasn_file); } };
     /**
      * Flag to indicate that the geo service should be enabled (if the data files are present)
      */
@@ -89,17 +104,17 @@ public class GeoData {
     /**
      * Cache for country code lookups
      */
-    private Map<String, String> cc_lu = new HashMap<String, String>();
+    private Map<String, String> cc_lu = new ConcurrentHashMap<String, String>();
 
     /**
      * Cache for asn lookups
      */
-    private Map<String, String> asn_lu = new HashMap<String, String>();
+    private Map<String, String> asn_lu = new ConcurrentHashMap<String, String>();
 
     /**
      * Cache for organization lookups
      */
-    private Map<String, String> org_lu = new HashMap<String, String>();
+    private Map<String, String> org_lu = new ConcurrentHashMap<String, String>();
 
     /**
      * Return the set of country codes that were loaded during the initiation of
@@ -157,8 +172,8 @@ public class GeoData {
             URI source_uri = RTGraphPanel.class.getProtectionDomain().getCodeSource().getLocation().toURI();
             File dir         = new File(source_uri);
             File geoip_dir   = new File(dir, "geoip");
-            File geoip_file  = new File(geoip_dir, "GeoLiteCity.dat"); if (!geoip_file.exists())  System.err.println("No GeoIP  File: " + geoip_file);
-            File geoasn_file = new File(geoip_dir, "GeoIPASNum.dat");  if (!geoasn_file.exists()) System.err.println("No GeoASN File: " + geoasn_file);
+            geoip_file       = new File(geoip_dir, "GeoLiteCity.dat"); if (!geoip_file.exists())  System.err.println("No GeoIP  File: " + geoip_file);
+            geoasn_file      = new File(geoip_dir, "GeoIPASNum.dat");  if (!geoasn_file.exists()) System.err.println("No GeoASN File: " + geoasn_file);
 
             // Create the IP lookup service
             System.err.print("GeoIP...  ");
@@ -197,6 +212,24 @@ public class GeoData {
 	}
     }
 
+    /**
+     * Open a thread's own lookup service for a database file.  Falls back to the shared service
+     * if the file cannot be reopened.
+     *
+     * @param shared shared service for the file (null if the service is not available)
+     * @param file   database file
+     * @return lookup service for the calling thread
+     */
+    private static LookupService openLookupService(LookupService shared, File file) {
+        if (shared == null) return null;
+        try {
+            return new LookupService(file, LookupService.GEOIP_STANDARD);
+        } catch (IOException ioe) {
+            System.err.println("GeoData:  Sharing Lookup Service For \"" + file + "\" : " + ioe);
+            return shared;
+        }
+    }
+
     /**
      * For a specific data type and string value, return the geolocation point.
      * These lookups are not cached because the point information is only looked
@@ -228,15 +261,17 @@ public class GeoData {
      * @return country code
      */
     public String geoCC(BundlesDT.DT datatype, String str) {
-        if (cc_lu.containsKey(str) == false && datatype == BundlesDT.DT.IPv4 && ipv4_geo_service != null) {
-            Location location = ipv4_geo_service.getLocation(str);
-            if (location != null) {
-                cc_lu.put(str, location.countryCode);
+        String cc = cc_lu.get(str);
+        if (cc == null && datatype == BundlesDT.DT.IPv4 && ipv4_geo_service != null) {
+            Location location = thread_geo_service.get().getLocation(str);
+            if (location != null && location.countryCode != null) {
+                cc = location.countryCode;
             } else {
-                cc_lu.put(str, BundlesDT.NOTSET);
+                cc = BundlesDT.NOTSET;
             }
+            cc_lu.put(str, cc);
         }
-        return cc_lu.get(str);
+        return cc;
     }
 
     /**
@@ -248,15 +283,17 @@ public class GeoData {
      * @return autonomous system number (ASN)
      */
     public String geoASN(BundlesDT.DT datatype, String str) {
-        if (asn_lu.containsKey(str) == false && datatype == BundlesDT.DT.IPv4 && ipv4_asn_service != null) {
-            String asn = ipv4_asn_service.getOrg(str);
+        String result = asn_lu.get(str);
+        if (result == null && datatype == BundlesDT.DT.IPv4 && ipv4_asn_service != null) {
+            String asn = thread_asn_service.get().getOrg(str);
             if (asn != null && asn.indexOf(" ") >= 0) {
-                asn_lu.put(str, asn.substring(0, asn.indexOf(" ")));
+                result = asn.substring(0, asn.indexOf(" "));
             } else {
-                asn_lu.put(str, BundlesDT.NOTSET);
+                result = BundlesDT.NOTSET;
             }
+            asn_lu.put(str, result);
         }
-        return asn_lu.get(str);
+        return result;
     }
 
     /**
@@ -269,15 +306,17 @@ public class GeoData {
      * @return organizational designator
      */
     public String geoOrg(BundlesDT.DT datatype, String str) {
-        if (org_lu.containsKey(str) == false && datatype == BundlesDT.DT.IPv4 && ipv4_asn_service != null) {
-            String asn = ipv4_asn_service.getOrg(str);
+        String result = org_lu.get(str);
+        if (result == null && datatype == BundlesDT.DT.IPv4 && ipv4_asn_service != null) {
+            String asn = thread_asn_service.get().getOrg(str);
             if (asn != null && asn.indexOf(" ") >= 0) {
-                org_lu.put(str, asn.substring(asn.indexOf(" ") + 1, asn.length()));
+                result = asn.substring(asn.indexOf(" ") + 1, asn.length());
             } else {
-                org_lu.put(str, BundlesDT.NOTSET);
+                result = BundlesDT.NOTSET;
             }
+            org_lu.put(str, result);
         }
-        return org_lu.get(str);
+        return result;
     }
 
     /**
@@ -382,10 +421,16 @@ public class GeoData {
      * @return singleton instance of GeoData class
      */
     public static GeoData getInstance() {
-        if (instance == null) {
-            instance = new GeoData();
+        GeoData geodata = instance;
+        if (geodata == null) {
+            synchronized (GeoData.class) {
+                if (instance == null) {
+                    instance = new GeoData();
+                }
+                geodata = instance;
+            }
         }
-        return instance;
+        return geodata;
     }
 
     /**
@@ -38,10 +38,11 @@ import racetrack.util.CacheManager;
  */
 public class MACAddress {
     /**
-     * The singleton instance for the MACAddress class. Used to conserve resources
-     * and to guarantee that only one instance exists.
+     * Holds the singleton instance for the MACAddress class. Used to conserve resources
+     * and to guarantee that only one instance exists -- the class loader creates it
+     * (once) on first use, so the lookups never lock.
      */
-    private static MACAddress instance = null;
+    private static class Holder { static final MACAddress instance = new MACAddress(); }
 
     /**
      * Lookup table to convert six hex digits to organization
@@ -118,8 +119,7 @@ public class MACAddress {
      * @return singleton instance of MACAddress class
      */
     public static MACAddress getInstance() {
-        if (instance == null) { instance = new MACAddress(); }
-        return instance;
+        return Holder.instance;
     }
 }
 
@@ -21,8 +21,10 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.net.URISyntaxException;
-import java.util.HashMap;
+import java.util.EnumMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import racetrack.framework.BundlesDT;
 import racetrack.gui.RTGraphPanel;
@@ -39,7 +41,8 @@ import cz.mallat.uasparser.UserAgentInfo;
  */
 public class UserAgents {
   /**
-   * The actual parser for this wrapper.
+   * The actual parser for this wrapper.  Only read after loading -- each parse compiles its own matchers --
+   * so the lookups share it without locking.
    */
   UASparser parser;
 
@@ -60,16 +63,15 @@ public class UserAgents {
    }
   }
   /**
-   * Instance - Provides Singleton
+   * Instance - Provides Singleton (created by the class loader on first use)
    */
-  private static UserAgents instance;
+  private static class Holder { static final UserAgents instance = new UserAgents(); }
 
   /**
    * Return the singleton for this class.
    */
-  public static  synchronized UserAgents getInstance() {
-    if (instance == null) instance = new UserAgents();
-    return instance;
+  public static  UserAgents getInstance() {
+    return Holder.instance;
   }
 
   /**
@@ -78,9 +80,10 @@ public class UserAgents {
   public enum Component { TYPE, NAME, FAMILY, COMPANY, OSNAME, OSFAMILY, OSCOMPANY };
 
   /**
-   * Caches the previously calculated transformation for faster use.
+   * Caches the previously calculated transformation for faster use.  Entries are complete
+   * before they are published.
    */
-  Map<String,Map<Component,String>> cache = new HashMap<String,Map<Component,String>>();
+  ConcurrentMap<String,Map<Component,String>> cache = new ConcurrentHashMap<String,Map<Component,String>>();
 
   /**
    * Lookup the specified component in the included user agent string.
@@ -91,46 +94,50 @@ public class UserAgents {
    *@return user agent decoded result
    */
   public String lookup(String ua_str, Component component) { 
-    if (cache.containsKey(ua_str) == false) {
-      cache.put(ua_str, new HashMap<Component,String>());
+    Map<Component,String> decoded = cache.get(ua_str);
+    if (decoded == null) {
+      decoded = new EnumMap<Component,String>(Component.class);
       UserAgentInfo info = null; String str = null;
-      try { info = parser.parse(ua_str); } catch (IOException ioe) { System.err.println("IOE: " + ioe); }
+      try { if (parser != null) info = parser.parse(ua_str); } catch (IOException ioe) { System.err.println("IOE: " + ioe); }
 
       // TYPE
       if (info == null || str == null || str.equals("")) str = BundlesDT.NOTSET;
-      cache.get(ua_str).put(Component.TYPE,str); str = null;
+      decoded.put(Component.TYPE,str); str = null;
 
       // NAME
       if (info != null) str = info.getUaName();
       if (info == null || str == null || str.equals("")) str = BundlesDT.NOTSET;
-      cache.get(ua_str).put(Component.NAME,str); str = null;
+      decoded.put(Component.NAME,str); str = null;
 
       // FAMILY
       if (info != null) str = info.getUaFamily();
       if (info == null || str == null || str.equals("")) str = BundlesDT.NOTSET;
-      cache.get(ua_str).put(Component.FAMILY,str); str = null;
+      decoded.put(Component.FAMILY,str); str = null;
 
       // COMPANY
       if (info != null) str = info.getUaCompany();
       if (info == null || str == null || str.equals("")) str = BundlesDT.NOTSET;
-      cache.get(ua_str).put(Component.COMPANY,str); str = null;
+      decoded.put(Component.COMPANY,str); str = null;
 
       // OSNAME
       if (info != null) str = info.getOsName();
       if (info == null || str == null || str.equals("")) str = BundlesDT.NOTSET;
-      cache.get(ua_str).put(Component.OSNAME,str); str = null;
+      decoded.put(Component.OSNAME,str); str = null;
 
       // OSFAMILY
       if (info != null) str = info.getOsFamily();
       if (info == null || str == null || str.equals("")) str = BundlesDT.NOTSET;
-      cache.get(ua_str).put(Component.OSFAMILY,str); str = null;
+      decoded.put(Component.OSFAMILY,str); str = null;
 
       // OSCOMPANY
       if (info != null) str = info.getOsCompany();
       if (info == null || str == null || str.equals("")) str = BundlesDT.NOTSET;
-      cache.get(ua_str).put(Component.OSCOMPANY,str); str = null;
+      decoded.put(Component.OSCOMPANY,str); str = null;
+
+      // Publish -- a concurrent lookup of the same string may have won
+      Map<Component,String> previous = cache.putIfAbsent(ua_str, decoded); if (previous != null) decoded = previous;
     }
-    return cache.get(ua_str).get(component);
+    return decoded.get(component);
   }
 }
 
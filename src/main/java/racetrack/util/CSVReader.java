@@ -80,32 +80,79 @@ public class CSVReader {
       boolean        keep_parsing = true;
       while ((line = in.readLine()) != null && keep_parsing) { line_no++;
         if (line.startsWith("#")) { consumer.commentLine(line); continue; }
-	// Put the tokens into an array list
-        List<String> al = new ArrayList<String>();
-	StringTokenizer st = new StringTokenizer(line, delim, true); 
-	while (st.hasMoreTokens()) al.add(st.nextToken());
-        if (al.size() > 0) {
-          if (al.get(0).indexOf(delim)>=0)           al.add(0,BundlesDT.NOTSET);
-	  if (al.get(al.size()-1).indexOf(delim)>=0) al.add(BundlesDT.NOTSET);
-	  int i = 1;
-	  while (i < al.size()-1) {
-            if (al.get(i).indexOf(delim)>=0 && al.get(i+1).indexOf(delim)>=0) al.add(i+1,BundlesDT.NOTSET);
-	    i++;
-	  }
-	  String tokens[] = new String[al.size()/2 + 1];
-	  for (i=0;i<tokens.length;i++) {
-	    tokens[i] = Utils.decFmURL(al.get(2*i));
-	    if (strip_spaces) {
-              tokens[i] = Utils.stripSpaces(tokens[i]);
-              if (tokens[i].equals("")) tokens[i] = BundlesDT.NOTSET;
-            }
-          }
-	  keep_parsing = consumer.consume(tokens, line, line_no);
-	} else keep_parsing = consumer.consume(new String[0], line, line_no);
+        keep_parsing = consumer.consume(tokenize(line, delim, strip_spaces), line, line_no);
       }
       in.close();
     } catch (IOException ioe) { throw ioe;
     } finally                 { if (in != null) in.close();
     }
   }
+
+  /**
+   * Separate a line into its tokens.  Empty fields are replaced with the notset string and
+   * the tokens are URL decoded.  Safe to call from multiple threads.
+   *
+   *@param line         line to tokenize (not a comment line)
+   *@param delim        delimiter
+   *@param strip_spaces remove spaces at the beginning and ending of the tokens
+   *
+   *@return tokens -- empty array for a blank line
+   */
+  public static String[] tokenize(String line, String delim, boolean strip_spaces) { return tokenize(line, delim, strip_spaces, null); }
+
+  /**
+   * Separate a line into its tokens -- tokens that are already in the dictionary come back as
+   * the dictionary's strings.  Single character delimiters use a per-thread {@link SliceTokenizer}.
+   *
+   *@param line         line to tokenize (not a comment line)
+   *@param delim        delimiter
+   *@param strip_spaces remove spaces at the beginning and ending of the tokens
+   *@param dict         known strings to reuse (may be null)
+   *
+   *@return tokens -- empty array for a blank line
+   */
+  public static String[] tokenize(String line, String delim, boolean strip_spaces, InternTable dict) {
+    if (delim.length() != 1) return tokenizeDelims(line, delim, strip_spaces);
+    SliceTokenizer st = tokenizers.get(); st.reset(delim.charAt(0), strip_spaces); st.tokenize(line);
+    return st.tokens(dict);
+  }
+
+  /**
+   * Tokenizer for each thread
+   */
+  private static final ThreadLocal<SliceTokenizer> tokenizers = new ThreadLocal<SliceTokenizer>() {
+    @Override protected SliceTokenizer initialValue() { return new SliceTokenizer(',', false); } };
+
+  /**
+   * Separate a line into its tokens where any character in the delimiter string is a delimiter.
+   *
+   *@param line         line to tokenize (not a comment line)
+   *@param delim        delimiter characters
+   *@param strip_spaces remove spaces at the beginning and ending of the tokens
+   *
+   *@return tokens -- empty array for a blank line
+   */
+  public static String[] tokenizeDelims(String line, String delim, boolean strip_spaces) {
+    // Put the tokens into an array list
+    List<String> al = new ArrayList<String>();
+    StringTokenizer st = new StringTokenizer(line, delim, true); 
+    while (st.hasMoreTokens()) al.add(st.nextToken());
+    if (al.size() == 0) return new String[0];
+    if (al.get(0).indexOf(delim)>=0)           al.add(0,BundlesDT.NOTSET);
+    if (al.get(al.size()-1).indexOf(delim)>=0) al.add(BundlesDT.NOTSET);
+    int i = 1;
+    while (i < al.size()-1) {
+      if (al.get(i).indexOf(delim)>=0 && al.get(i+1).indexOf(delim)>=0) al.add(i+1,BundlesDT.NOTSET);
+      i++;
+    }
+    String tokens[] = new String[al.size()/2 + 1];
+    for (i=0;i<tokens.length;i++) {
+      tokens[i] = Utils.decFmURL(al.get(2*i));
+      if (strip_spaces) {
+        tokens[i] = Utils.stripSpaces(tokens[i]);
+        if (tokens[i].equals("")) tokens[i] = BundlesDT.NOTSET;
+      }
+    }
+    return tokens;
+  }
 }
@@ -0,0 +1,171 @@
+/*
+
+Copyright 2013 David Trimm
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package racetrack.util;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ordered pipeline for the streaming readers (csv ingest, RFC4180 parsing, log conversion).
+ * A reader thread cuts the input into chunks and submits each one to the {@link WorkerPool}
+ * -- the calling thread takes the results back in input order.  Only {@link #IN_FLIGHT} chunks
+ * are queued ahead of the calling thread, so the reader blocks (instead of using memory) when
+ * the calling thread falls behind.
+ *
+ * The end of the input (or a failure of the reader) is queued like a chunk, so the calling
+ * thread sees it after the chunks before it.  Exceptions from the reader or the workers are
+ * rethrown to the calling thread as the reader or worker threw them.  When the calling thread
+ * is done (finished, halted, or failed) it stops the pipeline -- the reader quits and the
+ * queued work is cancelled.
+ *
+ *@author  D. Trimm
+ *@version 1.0
+ */
+public class ChunkPipeline<T> {
+  /**
+   * Maximum number of chunks read ahead of the calling thread
+   */
+  public static final int IN_FLIGHT = 2*WorkerPool.threads() + 2;
+
+  /**
+   * Reads the input and hands the chunks to the pipeline.  Runs on the reader thread.
+   */
+  public interface Reader<T> {
+    /**
+     * Read the input -- return early when {@link ChunkPipeline#submit} (or {@link ChunkPipeline#completed})
+     * returns false.
+     *
+     *@param pipeline pipeline to hand the chunks to
+     */
+    public void read(ChunkPipeline<T> pipeline) throws Exception;
+  }
+
+  /**
+   * Results in input order -- a future returning null marks the end of the input
+   */
+  private final BlockingQueue<Future<T>> queue = new ArrayBlockingQueue<Future<T>>(IN_FLIGHT);
+
+  /**
+   * Flag to stop the reader (and the queued work)
+   */
+  private volatile boolean stop = false;
+
+  /**
+   * Description for the interruption message
+   */
+  private final String name;
+
+  /**
+   * Construct the pipeline and start the reader thread.
+   *
+   *@param name   description of the work (e.g., "Ingest") -- also names the reader thread
+   *@param reader reads the input into the pipeline
+   */
+  public ChunkPipeline(String name, final Reader<T> reader) {
+    this.name = name;
+    Thread thread = new Thread(new Runnable() { public void run() {
+      try { reader.read(ChunkPipeline.this); offer(done(null)); } catch (Throwable t) { offer(done(t)); }
+    } }, "RT " + name + " Reader");
+    thread.setDaemon(true); thread.start();
+  }
+
+  /**
+   * Return true if the pipeline was stopped -- readers and workers should quit.
+   *
+   *@return stop flag
+   */
+  public boolean stopped() { return stop; }
+
+  /**
+   * Submit a chunk's work to the worker pool.  Called from the reader -- blocks while the calling thread is behind.
+   *
+   *@param  work work for the chunk
+   *
+   *@return false if the pipeline was stopped
+   */
+  public boolean submit(Callable<T> work) { return offer(WorkerPool.pool().submit(work)); }
+
+  /**
+   * Queue a result that the reader produced itself.  Called from the reader -- blocks while the calling thread is behind.
+   *
+   *@param  result result to queue in order with the chunks
+   *
+   *@return false if the pipeline was stopped
+   */
+  public boolean completed(final T result) {
+    FutureTask<T> future = new FutureTask<T>(new Callable<T>() { public T call() { return result; } });
+    future.run(); return offer(future);
+  }
+
+  /**
+   * Queue a future.
+   *
+   *@return false if the pipeline was stopped
+   */
+  private boolean offer(Future<T> future) {
+    try {
+      while (queue.offer(future, 100L, TimeUnit.MILLISECONDS) == false) if (stop) { future.cancel(false); return false; }
+      return true;
+    } catch (InterruptedException ie) { future.cancel(false); return false; }
+  }
+
+  /**
+   * Create the future marking the end of the input (or the failure of the reader).
+   */
+  private Future<T> done(final Throwable t) {
+    FutureTask<T> future = new FutureTask<T>(new Callable<T>() { public T call() throws Exception {
+      if (t instanceof Exception) throw (Exception) t; else if (t instanceof Error) throw (Error) t; else return null; } } );
+    future.run(); return future;
+  }
+
+  /**
+   * Take the next result in input order -- waits for the work to finish.  Called from the calling thread.
+   *
+   *@return next result or null at the end of the input
+   */
+  public T take() throws IOException {
+    try { return queue.take().get();
+    } catch (InterruptedException ie) { Thread.currentThread().interrupt(); throw new InterruptedIOException(name + " Interrupted");
+    } catch (ExecutionException ee)   { if (ee.getCause() instanceof IOException) throw (IOException) ee.getCause(); WorkerPool.rethrow(ee); return null; }
+  }
+
+  /**
+   * Stop the reader and cancel the queued work.  Called from the calling thread once it's done with the results.
+   */
+  public void stop() {
+    stop = true; Future<T> future; while ((future = queue.poll()) != null) future.cancel(false);
+  }
+
+  /**
+   * Rethrow an exception that a worker recorded within its result (after the results before it were used).
+   *
+   *@param failure exception from the worker
+   */
+  public static void rethrow(Throwable failure) {
+    if (failure instanceof RuntimeException) throw (RuntimeException) failure;
+    if (failure instanceof Error)            throw (Error)            failure;
+    throw new RuntimeException(failure);
+  }
+}
@@ -0,0 +1,141 @@
+/*
+
+Copyright 2013 David Trimm
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package racetrack.util;
+
+/**
+ * GMT date arithmetic on milliseconds since the epoch -- no calendar, no allocation, and safe to
+ * use from any thread.  Dates are proleptic gregorian, so the results only agree with a
+ * {@link java.util.GregorianCalendar} on and after {@link #GREGORIAN_SAFE}.
+ *
+ *@author  D. Trimm
+ *@version 1.0
+ */
+public class CivilTime {
+  /**
+   * Milliseconds in the time units
+   */
+  public static final long SECOND = 1000L, MINUTE = 60L*SECOND, HOUR = 60L*MINUTE, DAY = 24L*HOUR;
+
+  /**
+   * First instant (1583-01-01 00:00:00.000) where the arithmetic agrees with the calendars -- the
+   * calendars switch to the julian rules before the 1582 cutover
+   */
+  public static final long GREGORIAN_SAFE = daysFromCivil(1583, 1, 1) * DAY;
+
+  /**
+   * Floor division (rounds towards negative infinity).
+   */
+  public static long floorDiv(long a, long b) { long q = a / b; if ((a % b != 0) && ((a ^ b) < 0)) q--; return q; }
+
+  /**
+   * Floor modulus (same sign as the divisor).
+   */
+  public static long floorMod(long a, long b) { return a - floorDiv(a, b) * b; }
+
+  /**
+   * Convert a civil date into days since the epoch.
+   *
+   *@param y year
+   *@param m month (1 - 12)
+   *@param d day of the month (1 - 31)
+   *
+   *@return days since 1970-01-01
+   */
+  public static long daysFromCivil(long y, int m, int d) {
+    y -= (m <= 2) ? 1 : 0;
+    long era = floorDiv(y, 400), yoe = y - era * 400,
+         doy = (153 * (m + (m > 2 ? -3 : 9)) + 2) / 5 + d - 1,
+         doe = yoe * 365 + yoe/4 - yoe/100 + doy;
+    return era * 146097 + doe - 719468;
+  }
+
+  /**
+   * Convert days since the epoch into a civil date packed as (year * 512 + month * 32 + day) --
+   * see {@link #year(long)}, {@link #month(long)}, and {@link #day(long)}.
+   *
+   *@param  days days since 1970-01-01
+   *
+   *@return packed civil date
+   */
+  public static long civilFromDays(long days) {
+    long z   = days + 719468, era = floorDiv(z, 146097), doe = z - era * 146097,
+         yoe = (doe - doe/1460 + doe/36524 - doe/146096) / 365,
+         doy = doe - (365*yoe + yoe/4 - yoe/100),
+         mp  = (5*doy + 2) / 153,
+         d   = doy - (153*mp + 2)/5 + 1,
+         m   = (mp < 10) ? mp + 3 : mp - 9,
+         y   = yoe + era * 400 + ((m <= 2) ? 1 : 0);
+    return y * 512 + m * 32 + d;
+  }
+
+  /**
+   * Year of a packed civil date.
+   */
+  public static long year(long civil)  { return floorDiv(civil, 512); }
+
+  /**
+   * Month (1 - 12) of a packed civil date.
+   */
+  public static int  month(long civil) { return (int) (floorMod(civil, 512) >> 5); }
+
+  /**
+   * Day of the month (1 - 31) of a packed civil date.
+   */
+  public static int  day(long civil)   { return (int) (civil & 31L); }
+
+  /**
+   * Return the start of the year that contains a timestamp.
+   *
+   *@param  ts milliseconds since the epoch
+   *
+   *@return milliseconds since the epoch
+   */
+  public static long floorYear(long ts)  { long c = civilFromDays(floorDiv(ts, DAY)); return daysFromCivil(year(c), 1,        1) * DAY; }
+
+  /**
+   * Return the start of the month that contains a timestamp.
+   *
+   *@param  ts milliseconds since the epoch
+   *
+   *@return milliseconds since the epoch
+   */
+  public static long floorMonth(long ts) { long c = civilFromDays(floorDiv(ts, DAY)); return daysFromCivil(year(c), month(c), 1) * DAY; }
+
+  /**
+   * Return the day of the week of a timestamp.
+   *
+   *@param  ts milliseconds since the epoch
+   *
+   *@return day of the week -- 0 for sunday
+   */
+  public static int dayOfWeek(long ts) { return (int) floorMod(floorDiv(ts, DAY) + 4, 7); }
+
+  /**
+   * Append a value zero padded to a width.
+   *
+   *@param sb    builder to append to
+   *@param value non-negative value
+   *@param width minimum number of digits
+   *
+   *@return the builder
+   */
+  public static StringBuilder pad(StringBuilder sb, long value, int width) {
+    for (long p = (width > 1) ? 10 : 0, w = 1; w < width; w++, p *= 10) if (value < p) sb.append('0');
+    return sb.append(value);
+  }
+}
@@ -0,0 +1,145 @@
+/*
+
+Copyright 2013 David Trimm
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package racetrack.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Stable sort of row indices by precomputed key columns.  Each column holds one long per row
+ * (a number, a timestamp, or the rank of a string) and is compared in order -- later columns
+ * break the ties of the earlier ones, and rows that tie on every column keep their order.
+ * Rows flagged as missing a key sort after the others whichever way the column sorts.
+ * Large sorts are split across the {@link WorkerPool}: the pieces are sorted in parallel and
+ * then merged in parallel rounds.
+ *
+ *@author  D. Trimm
+ *@version 1.0
+ */
+public class IndexSort {
+  /**
+   * Rows below which the sort stays on the calling thread
+   */
+  public static final int PARALLEL_MIN = 1 << 15;
+
+  /**
+   * Runs sorted by insertion before merging
+   */
+  private static final int RUN = 32;
+
+  /**
+   * Return the rows (0 ... n-1) in sorted order.
+   *
+   *@param  keys    key columns -- keys[column][row]
+   *@param  missing rows without a key -- missing[column][row], null (or a null column) for none
+   *@param  inverts true for the columns that sort descending
+   *@param  n       number of rows
+   *
+   *@return row indices in sorted order
+   */
+  public static int[] order(long keys[][], boolean missing[][], boolean inverts[], int n) {
+    int rows[] = new int[n]; for (int i=0;i<n;i++) rows[i] = i;
+    sort(rows, keys, missing, inverts);
+    return rows;
+  }
+
+  /**
+   * Sort row indices in place.
+   *
+   *@param rows    row indices to sort
+   *@param keys    key columns -- keys[column][row]
+   *@param missing rows without a key -- missing[column][row], null (or a null column) for none
+   *@param inverts true for the columns that sort descending
+   */
+  public static void sort(final int rows[], final long keys[][], final boolean missing[][], final boolean inverts[]) {
+    final int n = rows.length; if (n < 2 || keys.length == 0) return;
+    final int tmp[] = new int[n];
+    int pieces = WorkerPool.threads(); while (pieces > 1 && n / pieces < PARALLEL_MIN / 4) pieces--;
+    if (pieces <= 1 || n < PARALLEL_MIN) { sortRange(rows, tmp, 0, n, keys, missing, inverts); return; }
+
+    // Sort the pieces
+    final int bounds[] = new int[pieces+1]; for (int i=0;i<=pieces;i++) bounds[i] = (int) (((long) n * i) / pieces);
+    List<Runnable> tasks = new ArrayList<Runnable>();
+    for (int i=0;i<pieces;i++) { final int lo = bounds[i], hi = bounds[i+1];
+      tasks.add(new Runnable() { public void run() { sortRange(rows, tmp, lo, hi, keys, missing, inverts); } }); }
+    WorkerPool.runAll(tasks);
+
+    // Merge neighbors until one piece is left -- alternating between the arrays
+    int src[] = rows, dst[] = tmp, b[] = bounds;
+    while (b.length > 2) {
+      final int from[] = src, to[] = dst; int nb[] = new int[b.length/2 + 1]; int k = 0; tasks.clear();
+      for (int i=0;i<b.length-1;i+=2) {
+        final int lo = b[i], mid = b[i+1], hi = (i+2 < b.length) ? b[i+2] : mid; // An odd piece out is just copied
+        nb[k++] = lo;
+        tasks.add(new Runnable() { public void run() { merge(from, to, lo, mid, hi, keys, missing, inverts); } });
+      }
+      nb[k] = n; WorkerPool.runAll(tasks);
+      b = nb; int swap[] = src; src = dst; dst = swap;
+    }
+    if (src != rows) System.arraycopy(src, 0, rows, 0, n);
+  }
+
+
+  /**
+   * Compare two rows.
+   *
+   *@return negative, zero, or positive
+   */
+  private static int compare(long keys[][], boolean missing[][], boolean inverts[], int a, int b) {
+    for (int c=0;c<keys.length;c++) {
+      if (missing != null && missing[c] != null) {
+        boolean mx = missing[c][a], my = missing[c][b];
+        if (mx != my) return mx ? 1 : -1; else if (mx) continue;
+      }
+      long x = keys[c][a], y = keys[c][b];
+      if (x != y) return ((x < y) != inverts[c]) ? -1 : 1;
+    }
+    return 0;
+  }
+
+  /**
+   * Bottom-up merge sort of a range -- the result is left in rows.
+   */
+  private static void sortRange(int rows[], int tmp[], int lo, int hi, long keys[][], boolean missing[][], boolean inverts[]) {
+    for (int r=lo;r<hi;r+=RUN) {
+      int end = Math.min(hi, r + RUN);
+      for (int i=r+1;i<end;i++) {
+        int v = rows[i], j = i - 1;
+        while (j >= r && compare(keys, missing, inverts, rows[j], v) > 0) { rows[j+1] = rows[j]; j--; }
+        rows[j+1] = v;
+      }
+    }
+    int src[] = rows, dst[] = tmp;
+    for (int w=RUN;w<hi-lo;w*=2) {
+      for (int i=lo;i<hi;i+=2*w) merge(src, dst, i, Math.min(hi, i + w), Math.min(hi, i + 2*w), keys, missing, inverts);
+      int swap[] = src; src = dst; dst = swap;
+    }
+    if (src != rows) System.arraycopy(src, lo, rows, lo, hi - lo);
+  }
+
+  /**
+   * Merge [lo,mid) and [mid,hi) of src into dst -- ties take the left side first.
+   */
+  private static void merge(int src[], int dst[], int lo, int mid, int hi, long keys[][], boolean missing[][], boolean inverts[]) {
+    int i = lo, j = mid, k = lo;
+    if (mid > lo && mid < hi && compare(keys, missing, inverts, src[mid-1], src[mid]) <= 0) { System.arraycopy(src, lo, dst, lo, hi - lo); return; }
+    while (i < mid && j < hi) dst[k++] = (compare(keys, missing, inverts, src[j], src[i]) < 0) ? src[j++] : src[i++];
+    while (i < mid) dst[k++] = src[i++];
+    while (j < hi)  dst[k++] = src[j++];
+  }
+}
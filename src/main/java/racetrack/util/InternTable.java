@@ -0,0 +1,257 @@
+/*
+
+Copyright 2013 David Trimm
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package racetrack.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Concurrent string-to-integer lookup for interning entities and field names.  The table
+ * is split into shards by the string hash -- each shard is an open-addressing (linear probe)
+ * table.  Inserts lock only their shard.  Reads never lock -- slots hold immutable entries
+ * and a grown shard table is published as a whole, so a reader sees either the old or the
+ * new table but never a partial one.
+ *
+ * Entries are only removed by {@link #clear()}.
+ *
+ *@author  D. Trimm
+ *@version 1.0
+ */
+public class InternTable {
+  /**
+   * Number of shards (power of two)
+   */
+  static final int SHARDS         = 64;
+
+  /**
+   * Initial slots per shard (power of two)
+   */
+  static final int INITIAL_SLOTS  = 16;
+
+  /**
+   * Immutable mapping held in a slot
+   */
+  static final class Entry {
+    final String key; final int hash; final int value;
+    Entry(String key, int hash, int value) { this.key = key; this.hash = hash; this.value = value; }
+  }
+
+  /**
+   * One shard -- the slots are replaced (never modified below the probe chains) when grown
+   */
+  static final class Shard {
+    volatile AtomicReferenceArray<Entry> slots = new AtomicReferenceArray<Entry>(INITIAL_SLOTS);
+    int size = 0;
+  }
+
+  /**
+   * The shards
+   */
+  private final Shard shards[] = new Shard[SHARDS];
+
+  /**
+   * Construct an empty table.
+   */
+  public InternTable() { for (int i=0;i<shards.length;i++) shards[i] = new Shard(); }
+
+  /**
+   * Spread the string hash so that both the shard (upper bits) and the slot (lower bits) vary.
+   */
+  static int hash(String key) { return spread(key.hashCode()); }
+
+  /**
+   * Hash a character slice -- equal to {@link #hash(String)} of the same characters.
+   */
+  static int hash(char cs[], int off, int len) { int h = 0; for (int i=off;i<off+len;i++) h = 31*h + cs[i]; return spread(h); }
+
+  /**
+   * Spread a string hash code.
+   */
+  private static int spread(int h) { h ^= (h >>> 16); h *= 0x85ebca6b; h ^= (h >>> 13); return h; }
+
+  /**
+   * Return the shard for a hash.
+   */
+  private Shard shard(int h) { return shards[h >>> 26]; }
+
+  /**
+   * Find an entry in a slot table.
+   */
+  private static Entry find(AtomicReferenceArray<Entry> slots, String key, int h) {
+    int mask = slots.length() - 1, i = h & mask; Entry e;
+    while ((e = slots.get(i)) != null) { if (e.hash == h && e.key.equals(key)) return e; i = (i + 1) & mask; }
+    return null;
+  }
+
+  /**
+   * Store an entry into a slot table -- replacing the entry with the same key if present.
+   *
+   *@return true if the key was new
+   */
+  private static boolean store(AtomicReferenceArray<Entry> slots, Entry entry) {
+    int mask = slots.length() - 1, i = entry.hash & mask; Entry e;
+    while ((e = slots.get(i)) != null) {
+      if (e.hash == entry.hash && e.key.equals(entry.key)) { slots.set(i, entry); return false; }
+      i = (i + 1) & mask;
+    }
+    slots.set(i, entry); return true;
+  }
+
+  /**
+   * Insert or replace an entry in a shard.  Caller holds the shard's lock.
+   */
+  private static void insert(Shard shard, Entry entry) {
+    AtomicReferenceArray<Entry> slots = shard.slots;
+    if ((shard.size + 1) * 2 > slots.length()) {
+      AtomicReferenceArray<Entry> grown = new AtomicReferenceArray<Entry>(slots.length() * 2);
+      for (int i=0;i<slots.length();i++) { Entry e = slots.get(i); if (e != null) store(grown, e); }
+      shard.slots = slots = grown;
+    }
+    if (store(slots, entry)) shard.size++;
+  }
+
+  /**
+   * Return the value for a key.  Never blocks.
+   *
+   *@param  key     key to lookup
+   *@param  missing value to return if the key is not present
+   *
+   *@return value for the key or missing
+   */
+  public int get(String key, int missing) {
+    int h = hash(key); Entry e = find(shard(h).slots, key, h);
+    return e == null ? missing : e.value;
+  }
+
+  /**
+   * Return the stored key equal to a character slice -- lets a tokenizer reuse the key
+   * instead of allocating a string for a value that's already present.  Never blocks.
+   *
+   *@param  cs  characters
+   *@param  off offset of the slice
+   *@param  len length of the slice
+   *
+   *@return stored key or null if the slice isn't present
+   */
+  public String canonical(char cs[], int off, int len) {
+    int h = hash(cs, off, len); AtomicReferenceArray<Entry> slots = shard(h).slots;
+    int mask = slots.length() - 1, i = h & mask; Entry e;
+    while ((e = slots.get(i)) != null) { if (e.hash == h && regionEquals(e.key, cs, off, len)) return e.key; i = (i + 1) & mask; }
+    return null;
+  }
+
+  /**
+   * Compare a string to a character slice.
+   */
+  private static boolean regionEquals(String key, char cs[], int off, int len) {
+    if (key.length() != len) return false;
+    for (int i=0;i<len;i++) if (key.charAt(i) != cs[off+i]) return false;
+    return true;
+  }
+
+  /**
+   * Determine if a key is present.  Never blocks.
+   *
+   *@param  key key to lookup
+   *
+   *@return true if present
+   */
+  public boolean containsKey(String key) { int h = hash(key); return find(shard(h).slots, key, h) != null; }
+
+  /**
+   * Set the value for a key -- replacing any existing value.
+   *
+   *@param key   key
+   *@param value value
+   */
+  public void put(String key, int value) {
+    int h = hash(key); Shard shard = shard(h);
+    synchronized (shard) { insert(shard, new Entry(key, h, value)); }
+  }
+
+  /**
+   * Set the value for a key only if the key is not already present.
+   *
+   *@param  key   key
+   *@param  value value to use if absent
+   *
+   *@return the value now associated with the key
+   */
+  public int putIfAbsent(String key, int value) {
+    int h = hash(key); Shard shard = shard(h); Entry e = find(shard.slots, key, h);
+    if (e != null) return e.value;
+    synchronized (shard) {
+      if ((e = find(shard.slots, key, h)) != null) return e.value;
+      insert(shard, new Entry(key, h, value)); return value;
+    }
+  }
+
+  /**
+   * Return the value for a key -- if absent, the key is assigned base plus the next value
+   * from the counter.  The counter is only advanced when the key is inserted, so the values
+   * issued from one counter are dense even when many threads intern the same keys.
+   *
+   *@param  key     key
+   *@param  counter counter to draw new values from
+   *@param  base    offset added to the counter value
+   *
+   *@return the value associated with the key
+   */
+  public int intern(String key, AtomicInteger counter, int base) {
+    int h = hash(key); Shard shard = shard(h); Entry e = find(shard.slots, key, h);
+    if (e != null) return e.value;
+    synchronized (shard) {
+      if ((e = find(shard.slots, key, h)) != null) return e.value;
+      int value = base + counter.getAndIncrement();
+      insert(shard, new Entry(key, h, value)); return value;
+    }
+  }
+
+  /**
+   * Return the number of keys.  Only exact when no inserts are in progress.
+   *
+   *@return number of keys
+   */
+  public int size() {
+    int sum = 0; for (int i=0;i<shards.length;i++) synchronized (shards[i]) { sum += shards[i].size; }
+    return sum;
+  }
+
+  /**
+   * Return a snapshot of the keys.
+   *
+   *@return list of keys
+   */
+  public List<String> keys() {
+    List<String> list = new ArrayList<String>();
+    for (int i=0;i<shards.length;i++) {
+      AtomicReferenceArray<Entry> slots = shards[i].slots;
+      for (int j=0;j<slots.length();j++) { Entry e = slots.get(j); if (e != null) list.add(e.key); }
+    }
+    return list;
+  }
+
+  /**
+   * Remove all of the keys.
+   */
+  public void clear() {
+    for (int i=0;i<shards.length;i++) synchronized (shards[i]) { shards[i].slots = new AtomicReferenceArray<Entry>(INITIAL_SLOTS); shards[i].size = 0; }
+  }
+}
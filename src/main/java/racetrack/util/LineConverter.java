@@ -0,0 +1,619 @@
+/*
+
+Copyright 2013 David Trimm
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package racetrack.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Streaming conversion core shared by the converters that turn sensor output (bro logs,
+ * tcpdump text) into csv.  A reader thread splits the input (or the decompressed gzip stream)
+ * into line-aligned chunks, the {@link WorkerPool} converts the lines, and the calling thread
+ * hands the converted records to a {@link Sink} in input order (see {@link ChunkPipeline}).  Only
+ * a bounded number of chunks are in flight, so the memory used doesn't depend on the size of the input.
+ *
+ * Control lines (e.g., the "#fields" lines of a bro log) change how the lines after them are
+ * converted.  They're handled in order on the reader thread -- each one produces the state
+ * that the following lines are converted under.  Records that depend on earlier records
+ * (e.g., dns answers that refer back to their request) are finished in order by {@link #commit}.
+ *
+ *@author  D. Trimm
+ *@version 1.0
+ */
+public abstract class LineConverter<S> {
+  /**
+   * Default chunk size (bytes of the uncompressed input)
+   */
+  public static final int CHUNK_BYTES = 256*1024;
+
+  /**
+   * Destination for the converted records.  Calls are made from a single thread in input order.
+   * Rows of a table that hasn't had a header are under the table name as the header.
+   */
+  public interface Sink {
+    /**
+     * Start (or restart) a table -- the rows that follow for the table are under this header.
+     *
+     *@param table  table name
+     *@param header csv header line
+     */
+    public void header(String table, String header) throws IOException;
+
+    /**
+     * Add a row to a table.
+     *
+     *@param table table name
+     *@param line  csv line
+     */
+    public void row(String table, String line) throws IOException;
+
+    /**
+     * Finish the output.
+     */
+    public void close() throws IOException;
+  }
+
+  /**
+   * Converted output of a run of lines -- filled in by the converter, handed to the sink in order.
+   */
+  public static class Output {
+    /**
+     * Table for each value -- null for warnings
+     */
+    List<String> tables = new ArrayList<String>();
+    /**
+     * Csv lines, {@link Header}s, warnings, or converter specific records finished in {@link #commit}
+     */
+    List<Object> values = new ArrayList<Object>();
+    /**
+     * Exception thrown while converting the line after the last value (null if none)
+     */
+    Throwable    failure;
+
+    /**
+     * Start (or restart) a table.
+     *
+     *@param table  table name
+     *@param header csv header line
+     */
+    public void header(String table, String header) { tables.add(table); values.add(new Header(header)); }
+
+    /**
+     * Add a row to a table.
+     *
+     *@param table table name
+     *@param row   csv line (or a record for the converter to finish in {@link #commit})
+     */
+    public void row(String table, Object row) { tables.add(table); values.add(row); }
+
+    /**
+     * Add a warning -- printed to stderr in order with the records.
+     *
+     *@param msg warning message
+     */
+    public void warn(String msg) { tables.add(null); values.add(msg); }
+  }
+
+  /**
+   * Header value within the output
+   */
+  static final class Header { final String header; Header(String header) { this.header = header; } }
+
+  /**
+   * Run of data lines converted by a worker
+   */
+  class Segment {
+    byte bytes[]; int off, len; int line_no; S state;
+    Segment(byte bytes[], int off, int len, int line_no, S state) { this.bytes = bytes; this.off = off; this.len = len; this.line_no = line_no; this.state = state; }
+  }
+
+  /**
+   * Character set of the input
+   */
+  protected Charset charset = Charset.defaultCharset();
+
+  /**
+   * Statistics for the last conversion
+   */
+  private AtomicLong lines = new AtomicLong(); private long bytes;
+
+  /**
+   * Return the state at the start of an input.
+   *
+   *@param  name name of the input (file path)
+   *
+   *@return initial state
+   */
+  protected abstract S start(String name);
+
+  /**
+   * Return the first byte that marks a control line -- -1 if the converter doesn't have control lines.
+   *
+   *@return control line prefix
+   */
+  protected int controlPrefix() { return -1; }
+
+  /**
+   * Handle a control line.  Called on the reader thread in input order.  The state handed in
+   * may still be in use by the workers -- return a new state instead of modifying it.
+   *
+   *@param  state   state before the control line
+   *@param  line    control line
+   *@param  line_no line number
+   *@param  out     output for the line
+   *
+   *@return state for the lines that follow
+   */
+  protected S controlLine(S state, String line, int line_no, Output out) { return state; }
+
+  /**
+   * Convert a data line.  Called on the worker threads -- the state must only be read.
+   *
+   *@param state   state in effect for the line
+   *@param line    line to convert
+   *@param line_no line number
+   *@param out     output for the line
+   */
+  protected abstract void convertLine(S state, String line, int line_no, Output out);
+
+  /**
+   * Finish a row and hand it to the sink.  Called on the calling thread in input order -- converters
+   * with records that depend on earlier records override this.
+   *
+   *@param table table name
+   *@param row   row from the output
+   *@param sink  destination
+   */
+  protected void commit(String table, Object row, Sink sink) throws IOException { sink.row(table, (String) row); }
+
+  /**
+   * Convert a file (compressed files are detected from their content) into the sink.  The sink isn't closed.
+   *
+   *@param file file to convert
+   *@param sink destination
+   */
+  public void convert(File file, Sink sink) throws IOException { convert(new FileInputStream(file), file.getPath(), sink, CHUNK_BYTES, true); }
+
+  /**
+   * Convert a stream (a compressed stream is detected from its content) into the sink.  Neither the stream nor the sink is closed.
+   *
+   *@param in   input stream
+   *@param name name of the input for messages
+   *@param sink destination
+   */
+  public void convert(InputStream in, String name, Sink sink) throws IOException { convert(in, name, sink, CHUNK_BYTES, false); }
+
+  /**
+   * Convert a stream into the sink.
+   *
+   *@param in          input stream
+   *@param name        name of the input for messages
+   *@param sink        destination
+   *@param chunk_bytes chunk size
+   *@param close       close the input when done
+   */
+  void convert(InputStream in, String name, Sink sink, int chunk_bytes, boolean close) throws IOException {
+    long t0 = System.currentTimeMillis(); lines.set(0L); bytes = 0L;
+    ChunkPipeline<Output> pipeline = new ChunkPipeline<Output>("Conversion", new Reader(in, start(name), chunk_bytes, close));
+    try { commitAll(pipeline, sink); } finally { pipeline.stop(); }
+    double secs = Math.max(1L, System.currentTimeMillis() - t0)/1000.0;
+    System.err.println("  Convert : " + new File(name).getName() + " : " + lines.get() + " lines (" + String.format("%.0f", lines.get()/secs) + " lines/sec, " + String.format("%.1f", (bytes/(1024.0*1024.0))/secs) + " MB/sec)");
+  }
+
+  /**
+   * Hand the outputs to the sink in input order.
+   */
+  private void commitAll(ChunkPipeline<Output> pipeline, Sink sink) throws IOException {
+    while (true) {
+      Output out = pipeline.take(); if (out == null) return;
+      for (int i=0;i<out.values.size();i++) {
+        String table = out.tables.get(i); Object value = out.values.get(i);
+        if      (table == null)           System.err.println(value);
+        else if (value instanceof Header) sink.header(table, ((Header) value).header);
+        else                              commit(table, value, sink);
+      }
+      if (out.failure != null) ChunkPipeline.rethrow(out.failure);
+    }
+  }
+
+  /**
+   * Reader -- splits the input into line-aligned chunks, handles the control lines, and
+   * hands the runs of data lines in between to the workers.
+   */
+  class Reader implements ChunkPipeline.Reader<Output> {
+    InputStream in; S state; int chunk_bytes; boolean close;
+    Reader(InputStream in, S state, int chunk_bytes, boolean close) { this.in = in; this.state = state; this.chunk_bytes = chunk_bytes; this.close = close; }
+    public void read(ChunkPipeline<Output> pipeline) throws IOException {
+      try {
+        InputStream is = decompress(in); int prefix = controlPrefix();
+        byte buf[] = new byte[chunk_bytes]; int len = 0, line_no = 1;
+        while (pipeline.stopped() == false) {
+          // Fill the buffer
+          int n = 0; while (len < buf.length && (n = is.read(buf, len, buf.length - len)) >= 0) len += n;
+          boolean eof = (n < 0);
+          // Cut after the last complete line -- a line longer than the buffer grows the buffer
+          int cut = eof ? len : cut(buf, len);
+          if (cut == 0 && eof == false) { byte grown[] = new byte[buf.length*2]; System.arraycopy(buf, 0, grown, 0, len); buf = grown; continue; }
+
+          // Walk the lines -- the control lines split the chunk into runs of data lines
+          int i = 0, seg = 0, seg_line = line_no;
+          while (i < cut) {
+            int j = i; while (j < cut && buf[j] != '\n' && buf[j] != '\r') j++;
+            int next = j + 1; if (j < cut && buf[j] == '\r' && next < cut && buf[next] == '\n') next++;
+            if (prefix >= 0 && j > i && buf[i] == prefix) {
+              if (i > seg && pipeline.submit(new Worker(new Segment(buf, seg, i - seg, seg_line, state), pipeline)) == false) return;
+              Output out = new Output(); state = controlLine(state, new String(buf, i, j - i, charset), line_no, out);
+              if (pipeline.completed(out) == false) return;
+              seg = Math.min(next, cut); seg_line = line_no + 1;
+            }
+            line_no++; i = next;
+          }
+          if (cut > seg && pipeline.submit(new Worker(new Segment(buf, seg, cut - seg, seg_line, state), pipeline)) == false) return;
+          bytes += cut;
+
+          // Carry the partial line into the next buffer
+          byte carry[] = new byte[Math.max(chunk_bytes, len - cut)]; System.arraycopy(buf, cut, carry, 0, len - cut); len = len - cut; buf = carry;
+          if (eof) break;
+        }
+      } finally { if (close) try { in.close(); } catch (IOException ioe) { }
+      }
+    }
+  }
+
+  /**
+   * Worker -- splits a run into lines and converts them.
+   */
+  class Worker implements Callable<Output> {
+    Segment segment; ChunkPipeline<Output> pipeline;
+    Worker(Segment segment, ChunkPipeline<Output> pipeline) { this.segment = segment; this.pipeline = pipeline; }
+    public Output call() {
+      Output out = new Output(); if (pipeline.stopped()) return out;
+      String text = new String(segment.bytes, segment.off, segment.len, charset); segment.bytes = null;
+      int i = 0, n = text.length(), line_no = segment.line_no, count = 0;
+      while (i < n) {
+        // Same line endings as BufferedReader.readLine()
+        int j = i; while (j < n && text.charAt(j) != '\n' && text.charAt(j) != '\r') j++;
+        String line = text.substring(i, j);
+        i = j + 1; if (j < n && text.charAt(j) == '\r' && i < n && text.charAt(i) == '\n') i++;
+        try { convertLine(segment.state, line, line_no++, out); count++;
+        } catch (Throwable t) { out.failure = t; break; }
+      }
+      lines.addAndGet(count);
+      return out;
+    }
+  }
+
+  /**
+   * Return the length of the complete lines in a buffer -- the cut is after a line feed or after a
+   * carriage return that's followed (within the buffer) by something other than a line feed.
+   *
+   *@param  buf buffer
+   *@param  len bytes in the buffer
+   *
+   *@return bytes of complete lines (0 if none)
+   */
+  static int cut(byte buf[], int len) {
+    for (int i=len-1;i>=0;i--) {
+      if (buf[i] == '\n') return i + 1;
+      if (buf[i] == '\r' && i + 1 < len) return i + 1; // buf[i+1] isn't a line feed (it would have been found first)
+    }
+    return 0;
+  }
+
+  /**
+   * Wrap a stream with a gzip decompressor if the stream starts with the gzip magic number.
+   *
+   *@param  in input stream
+   *
+   *@return stream of the uncompressed bytes
+   */
+  public static InputStream decompress(InputStream in) throws IOException {
+    BufferedInputStream bin = new BufferedInputStream(in, 64*1024);
+    bin.mark(2); int b0 = bin.read(), b1 = bin.read(); bin.reset();
+    if (b0 == 0x1f && b1 == 0x8b) return new GZIPInputStream(bin, 64*1024);
+    return bin;
+  }
+
+  /**
+   * Create an output file -- compressed if the filename ends with ".gz".
+   *
+   *@param  file file to create
+   *
+   *@return output stream
+   */
+  public static OutputStream create(File file) throws IOException {
+    OutputStream out = new FileOutputStream(file);
+    if (file.getName().toLowerCase().endsWith(".gz")) out = new GZIPOutputStream(out, 64*1024);
+    return out;
+  }
+
+  /**
+   * Split a string on a delimiter -- same tokens as a {@link java.util.StringTokenizer} (empty tokens are skipped).
+   *
+   *@param  str   string to split
+   *@param  delim delimiter
+   *
+   *@return tokens
+   */
+  public static String[] split(String str, char delim) {
+    int count = 0, n = str.length();
+    for (int i=0;i<n;) { while (i < n && str.charAt(i) == delim) i++; if (i < n) count++; while (i < n && str.charAt(i) != delim) i++; }
+    String tokens[] = new String[count]; int k = 0;
+    for (int i=0;i<n;) { while (i < n && str.charAt(i) == delim) i++; int j = i; while (j < n && str.charAt(j) != delim) j++; if (j > i) tokens[k++] = str.substring(i,j); i = j; }
+    return tokens;
+  }
+
+  /**
+   * Return a token from a split -- throws the same exception as a {@link java.util.StringTokenizer} that runs out of tokens.
+   *
+   *@param  tokens tokens
+   *@param  i      index
+   *
+   *@return token
+   */
+  public static String token(String tokens[], int i) { if (i >= tokens.length) throw new NoSuchElementException(); return tokens[i]; }
+
+  /**
+   * Drop-in for a {@link java.util.StringTokenizer} with a single delimiter character -- splits the whole string up front.
+   */
+  public static class Tokens {
+    private String tokens[]; private int i = 0;
+    public Tokens(String str, char delim) { tokens = split(str, delim); }
+    public boolean hasMoreTokens() { return i < tokens.length; }
+    public int     countTokens()   { return tokens.length - i; }
+    public String  nextToken()     { return token(tokens, i++); }
+  }
+
+  /**
+   * Last millisecond formatted with the fast path (end of year 9999)
+   */
+  static final long MAX_FAST_MS = 253402300800000L;
+
+  /**
+   * Formatter for the timestamps outside of the fast path -- one per thread
+   */
+  static ThreadLocal<SimpleDateFormat> exact_sdf = new ThreadLocal<SimpleDateFormat>() {
+    protected SimpleDateFormat initialValue() { SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS'Z'"); sdf.setTimeZone(TimeZone.getTimeZone("GMT")); return sdf; } };
+
+  /**
+   * Thread-safe version of {@link Utils#exactDate(long)} -- same output.  Dates from 1970 on are
+   * computed from the day number directly (no calendar).
+   *
+   *@param  ms timestamp in millis
+   *
+   *@return formatted date
+   */
+  public static String exactDate(long ms) {
+    if (ms < 0L || ms >= MAX_FAST_MS) return exact_sdf.get().format(new Date(ms));
+    long days = ms / 86400000L; int msod = (int) (ms % 86400000L);
+    // Civil date from the day number
+    long z   = days + 719468L, era = z / 146097L, doe = z - era * 146097L,
+         yoe = (doe - doe/1460L + doe/36524L - doe/146096L) / 365L,
+         doy = doe - (365L*yoe + yoe/4L - yoe/100L), mp = (5L*doy + 2L)/153L;
+    int  d   = (int) (doy - (153L*mp + 2L)/5L + 1L), m = (int) (mp < 10L ? mp + 3L : mp - 9L), y = (int) (yoe + era * 400L + (m <= 2 ? 1 : 0));
+    int  hh  = msod / 3600000, mm = (msod / 60000) % 60, ss = (msod / 1000) % 60, sss = msod % 1000;
+    char cs[] = new char[24];
+    cs[0]  = (char) ('0' + y/1000); cs[1] = (char) ('0' + (y/100)%10); cs[2] = (char) ('0' + (y/10)%10); cs[3] = (char) ('0' + y%10); cs[4] = '-';
+    cs[5]  = (char) ('0' + m/10);   cs[6] = (char) ('0' + m%10);       cs[7] = '-';
+    cs[8]  = (char) ('0' + d/10);   cs[9] = (char) ('0' + d%10);       cs[10] = ' ';
+    cs[11] = (char) ('0' + hh/10); cs[12] = (char) ('0' + hh%10); cs[13] = ':';
+    cs[14] = (char) ('0' + mm/10); cs[15] = (char) ('0' + mm%10); cs[16] = ':';
+    cs[17] = (char) ('0' + ss/10); cs[18] = (char) ('0' + ss%10); cs[19] = '.';
+    cs[20] = (char) ('0' + sss/100); cs[21] = (char) ('0' + (sss/10)%10); cs[22] = (char) ('0' + sss%10); cs[23] = 'Z';
+    return new String(cs);
+  }
+
+  /**
+   * Sink that writes one table to a stream.  Each header starts a new section (a blank line and
+   * the header).  The other tables are spooled to temporary files and appended as sections when
+   * the sink is closed.
+   */
+  public static class StreamSink implements Sink {
+    /**
+     * Output
+     */
+    private BufferedWriter out; private boolean close_stream;
+    /**
+     * Table written directly to the stream
+     */
+    private String primary;
+    /**
+     * Flag indicating that something has been written to the stream
+     */
+    private boolean written = false;
+    /**
+     * Rows of the other tables
+     */
+    private Spool spool = new Spool();
+
+    /**
+     * Construct the sink.
+     *
+     *@param os           output stream
+     *@param primary      table written directly to the stream
+     *@param close_stream close the stream when the sink is closed (otherwise it's only flushed)
+     */
+    public StreamSink(OutputStream os, String primary, boolean close_stream) {
+      this.primary = primary; this.close_stream = close_stream;
+      out = new BufferedWriter(new OutputStreamWriter(os), 64*1024);
+    }
+
+    public void header(String table, String header) throws IOException {
+      if (table.equals(primary) == false) { spool.header(table, header); return; }
+      if (written) out.newLine();
+      out.write(header); out.newLine(); written = true;
+    }
+
+    public void row(String table, String line) throws IOException {
+      if (table.equals(primary) == false) { spool.row(table, line); return; }
+      out.write(line); out.newLine(); written = true;
+    }
+
+    /**
+     * Write the spooled tables (so far) to the stream and flush it.
+     */
+    public void flush() throws IOException { spool.drain(out); out.flush(); }
+
+    public void close() throws IOException { flush(); if (close_stream) out.close(); }
+  }
+
+  /**
+   * Sink that writes each table to its own file -- the filename is the base followed by the
+   * table name and ".csv" (".csv.gz" if compressed).
+   */
+  public static class FileSink implements Sink {
+    /**
+     * Filename prefix and compression flag
+     */
+    private String base; private boolean gz;
+    /**
+     * Open files by table
+     */
+    private Map<String,BufferedWriter> outs = new LinkedHashMap<String,BufferedWriter>();
+
+    /**
+     * Construct the sink.
+     *
+     *@param base filename prefix
+     *@param gz   compress the files
+     */
+    public FileSink(String base, boolean gz) { this.base = base; this.gz = gz; }
+
+    /**
+     * Return the file for a table.
+     *
+     *@param  table table name
+     *
+     *@return file
+     */
+    public File file(String table) { return new File(base + table + (gz ? ".csv.gz" : ".csv")); }
+
+    public void header(String table, String header) throws IOException {
+      BufferedWriter out = outs.get(table);
+      if (out == null) outs.put(table, out = new BufferedWriter(new OutputStreamWriter(create(file(table))), 64*1024)); else out.newLine();
+      out.write(header); out.newLine();
+    }
+
+    public void row(String table, String line) throws IOException {
+      BufferedWriter out = outs.get(table); if (out == null) { header(table, table); out = outs.get(table); }
+      out.write(line); out.newLine();
+    }
+
+    /**
+     * Flush the files.
+     */
+    public void flush() throws IOException { Iterator<BufferedWriter> it = outs.values().iterator(); while (it.hasNext()) it.next().flush(); }
+
+    public void close() throws IOException {
+      IOException first = null;
+      Iterator<BufferedWriter> it = outs.values().iterator(); while (it.hasNext()) { try { it.next().close(); } catch (IOException ioe) { if (first == null) first = ioe; } }
+      outs.clear(); if (first != null) throw first;
+    }
+  }
+
+  /**
+   * Holds the rows of secondary tables in temporary files until they can be written out.  Only
+   * a few of the files are kept open at a time so that many tables can be spooled.
+   */
+  public static class Spool {
+    /**
+     * Maximum number of spool files open at once
+     */
+    static final int MAX_OPEN = 32;
+    /**
+     * Spooled table
+     */
+    static class Table { String header; File file; }
+    /**
+     * Tables in the order first seen
+     */
+    private Map<String,Table> tables = new LinkedHashMap<String,Table>();
+    /**
+     * Open writers -- least recently used first
+     */
+    private LinkedHashMap<String,BufferedWriter> open = new LinkedHashMap<String,BufferedWriter>(16, 0.75f, true);
+
+    /**
+     * Start a table.  Headers after the first for the same table are ignored.
+     *
+     *@param table  table name
+     *@param header csv header line
+     */
+    public void header(String table, String header) throws IOException {
+      if (tables.containsKey(table)) return;
+      Table t = new Table(); t.header = header; t.file = File.createTempFile("rtspool", ".csv"); t.file.deleteOnExit(); tables.put(table, t);
+    }
+
+    /**
+     * Add a row to a table -- the table is created with the table name as its header if needed.
+     *
+     *@param table table name
+     *@param line  csv line
+     */
+    public void row(String table, String line) throws IOException {
+      if (tables.containsKey(table) == false) header(table, table);
+      BufferedWriter out = open.get(table);
+      if (out == null) {
+        if (open.size() >= MAX_OPEN) { Iterator<BufferedWriter> it = open.values().iterator(); it.next().close(); it.remove(); }
+        open.put(table, out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tables.get(table).file, true)), 16*1024));
+      }
+      out.write(line); out.newLine();
+    }
+
+    /**
+     * Write the spooled tables to the output (a blank line, the header, then the rows) and remove them.
+     *
+     *@param out output
+     */
+    public void drain(Writer out) throws IOException {
+      Iterator<BufferedWriter> it_open = open.values().iterator(); while (it_open.hasNext()) it_open.next().close(); open.clear();
+      String nl = System.getProperty("line.separator");
+      Iterator<Table> it = tables.values().iterator(); while (it.hasNext()) {
+        Table table = it.next(); out.write(nl); out.write(table.header); out.write(nl);
+        BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(table.file)));
+        try { String line; while ((line = in.readLine()) != null) { out.write(line); out.write(nl); } } finally { in.close(); }
+        table.file.delete();
+      }
+      tables.clear();
+    }
+  }
+}
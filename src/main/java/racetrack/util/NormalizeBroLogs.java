@@ -17,13 +17,15 @@ limitations under the License.
 */
 package racetrack.util;
 
-import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.PrintStream;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -38,55 +40,57 @@ import racetrack.framework.BundlesDT;
 import racetrack.util.Utils;
 
 /**
- * Normalize bro log files into a file format readable by racetrack application (CSV, URL encoded...)
+ * Normalize bro log files into a file format readable by racetrack application (CSV, URL encoded...).
+ * Runs on the {@link LineConverter} -- the "#" metafile lines are the control lines and the
+ * records are converted in parallel.  Information captured from the ssl and certificate
+ * fields goes to separate tables (named by their headers).
  * 
  * @author  D. Trimm
  * @version 0.1
  */
-public class NormalizeBroLogs { 
+public class NormalizeBroLogs extends LineConverter<NormalizeBroLogs.Section> { 
   /**
-   * Construct the instance... not much to see here.  Pre-determined scalar fields are calculated here.
+   * Table name for the normalized log records
    */
-  public NormalizeBroLogs() { 
-    to_all_caps.add("orig_ip_bytes");
-    to_all_caps.add("orig_bytes");
-    to_all_caps.add("orig_pkts");
-    to_all_caps.add("resp_ip_bytes");
-    to_all_caps.add("resp_bytes");
-    to_all_caps.add("resp_pkts");
-    to_all_caps.add("response_body_len");
-    to_all_caps.add("total_bytes");
-    to_all_caps.add("seen_bytes");
-    to_all_caps.add("missing_bytes");
-    to_all_caps.add("missed_bytes");
-    to_all_caps.add("overflow_bytes");
-    to_all_caps.add("request_body_len");
-  }
+  public static final String TABLE = "bro";
+
+  /**
+   * Fields that need to be made into all caps (to represent scalar values) -- shared with the
+   * native zeek reader so that both produce the same headers
+   */
+  public static final Set<String> SCALAR_FIELDS = Collections.unmodifiableSet(new HashSet<String>(Arrays.asList(
+    "orig_ip_bytes", "orig_bytes", "orig_pkts", "resp_ip_bytes", "resp_bytes", "resp_pkts", "response_body_len",
+    "total_bytes", "seen_bytes", "missing_bytes", "missed_bytes", "overflow_bytes", "request_body_len")));
+
+  /**
+   * Construct the instance... not much to see here.
+   */
+  public NormalizeBroLogs() { }
 
   /**
    * Fields that need to be made into all caps (to represent scalar values)
    */
-  Set<String> to_all_caps = new HashSet<String>();
+  Set<String> to_all_caps = new HashSet<String>(SCALAR_FIELDS);
 
   /**
    * Generic parse errors flag - should be set if any parse error was found
    */
-  boolean parse_errors = false;
+  volatile boolean parse_errors = false;
 
   /**
    * Error flag - ints exceeded max and were converted back to the max
    */
-  boolean ints_exceed_max = false;
+  volatile boolean ints_exceed_max = false;
 
   /**
    * Unrecognized metafile information
    */
-  boolean unrecognized_metafile_info = false;
+  volatile boolean unrecognized_metafile_info = false;
 
   /**
    * Unknown field separator encountered
    */
-  boolean unknown_separator = false;
+  volatile boolean unknown_separator = false;
 
   /**
    * Print out parser errors.
@@ -104,19 +108,16 @@ public class NormalizeBroLogs {
   }
 
   /**
-   * Read a file in, normalize the header and the records and dump to the provided PrintStream.
-   *
-   *@param file file to parse
-   *@param out  PrintStream for normalized results
+   * Parsing state from the metafile lines -- replaced (never modified) when a metafile line changes it.
    */
-  public void normalize(File file, PrintStream out) throws IOException {
-    BufferedReader in = new BufferedReader(new FileReader(file)); 
-    
-    // Parsing variables/state
+  static class Section {
+    String               file;
     String               separator        = " ";
+    char                 sep              = ' ';
     String               fields[]         = null;
     boolean              has_timestamp    = false;
     boolean              has_duration     = false;
+    boolean              has_end          = false;
     int                  file_field_count = -1;
     int                  timestamp_i      = -1;
     int                  duration_i       = -1;
@@ -124,125 +125,170 @@ public class NormalizeBroLogs {
     String               empty_str        = "";
     String               unset_str        = "";
     char                 set_separator    = ',';
-    Map<String,Integer> fields_map        = new HashMap<String,Integer>();
-
-    String line = null; int line_no = 0; while ((line = in.readLine()) != null) { line_no++;
-      //
-      // Parse the metafile lines separately -- these include info on fields, field types, etc.
-      //
-      if (line.startsWith("#")) {
-        StringTokenizer st = new StringTokenizer(line, separator);
-	String first = st.nextToken();
-        if        (first.equals("#separator"))     { separator = parseSeparator(st.nextToken());
-	} else if (first.equals("#set_separator")) { String str = st.nextToken(); set_separator = str.charAt(0); if (str.length() > 1) throw new RuntimeException("Set separator more than one character \"" + str + "\"");
-	} else if (first.equals("#empty_field"))   { empty_str = st.nextToken();
-	} else if (first.equals("#unset_field"))   { unset_str = st.nextToken();
-	} else if (first.equals("#path"))          { path_str = st.nextToken();
-	} else if (first.equals("#open"))          {
-	} else if (first.equals("#fields"))        {
-	  file_field_count = st.countTokens();
-	  fields = new String[file_field_count + 1]; // extra for file type
-	  for (int i=0;i<fields.length-1;i++) fields[i] = st.nextToken();
-          fields[fields.length - 1] = "parse_filetype";
-	  for (int i=0;i<fields.length;i++) { if (fields[i].equals("ts"))       { has_timestamp = true; fields[i] = "timestamp"; timestamp_i = i; }
-                                              if (fields[i].equals("duration")) { has_duration  = true;                          duration_i  = i; } }
-	  if (has_timestamp && has_duration) { String new_fields[] = new String[fields.length+1]; System.arraycopy(fields, 0, new_fields, 0, fields.length); new_fields[new_fields.length - 1] = "timestamp_end"; fields = new_fields; }
-
-          // Make the scalar fields all caps
-          for (int i=0;i<fields.length;i++) { if (to_all_caps.contains(fields[i].toLowerCase())) fields[i] = fields[i].toUpperCase(); 
-	                                      else                                               fields[i] = fields[i].toLowerCase(); }
-
-          // Print the header
-	  for (int i=0;i<fields.length;i++) {
-	    if (i > 0) out.print(",");
-	    out.print(fields[i]);
-            fields_map.put(fields[i], i);
-	  }
+    Map<String,Integer>  fields_map       = new HashMap<String,Integer>();
+    /**
+     * Special processing flags (from the fields present)
+     */
+    boolean              dns, certificate;
+    Section(String file) { this.file = file; }
+    Section copy() {
+      Section s = new Section(file);
+      s.separator = separator; s.sep = sep; s.fields = fields; s.has_timestamp = has_timestamp; s.has_duration = has_duration; s.has_end = has_end;
+      s.file_field_count = file_field_count; s.timestamp_i = timestamp_i; s.duration_i = duration_i; s.path_str = path_str; s.empty_str = empty_str;
+      s.unset_str = unset_str; s.set_separator = set_separator; s.fields_map = fields_map; s.dns = dns; s.certificate = certificate;
+      return s;
+    }
+  }
+
+  /**
+   * Rows captured from the ssl and certificate fields by {@link #normalize(File,PrintStream)} -- see {@link #printCapturedTables(PrintStream)}
+   */
+  Spool captured = new Spool();
+
+  /**
+   * Read a file in, normalize the header and the records and dump to the provided PrintStream.  The
+   * captured tables are held until {@link #printCapturedTables(PrintStream)}.
+   *
+   *@param file file to parse
+   *@param out  PrintStream for normalized results
+   */
+  public void normalize(File file, PrintStream out) throws IOException {
+    final StreamSink primary = new StreamSink(out, TABLE, false);
+    convert(file, new Sink() {
+      public void header(String table, String header) throws IOException { if (table.equals(TABLE)) primary.header(table, header); else captured.header(table, header); }
+      public void row(String table, String line)      throws IOException { if (table.equals(TABLE)) primary.row(table, line);       else captured.row(table, line);       }
+      public void close() { } } );
+    primary.close();
+  }
 
-	  // For dns records... awful hack
-	  if (fields_map.containsKey("answers") && fields_map.containsKey("query") && fields_map.containsKey("timestamp")) out.print(",tags");
+  @Override
+  protected Section start(String name) { return new Section(name); }
 
-	  out.println("");
+  @Override
+  protected int controlPrefix() { return '#'; }
 
-	} else if (first.equals("#types"))         {
-	} else if (first.equals("#close"))         {
-	} else { parse_errors = unrecognized_metafile_info = true;  throw new RuntimeException("Unrecognized metafile line in " + file + "\nLine :\"" + line + "\""); }
+  /**
+   * Parse the metafile lines -- these include info on fields, field types, etc.
+   */
+  @Override
+  protected Section controlLine(Section section, String line, int line_no, Output out) {
+    Section s = section.copy();
+    StringTokenizer st = new StringTokenizer(line, s.separator);
+    String first = st.nextToken();
+    if        (first.equals("#separator"))     { s.separator = parseSeparator(st.nextToken()); s.sep = s.separator.charAt(0);
+    } else if (first.equals("#set_separator")) { String str = st.nextToken(); s.set_separator = str.charAt(0); if (str.length() > 1) throw new RuntimeException("Set separator more than one character \"" + str + "\"");
+    } else if (first.equals("#empty_field"))   { s.empty_str = st.nextToken();
+    } else if (first.equals("#unset_field"))   { s.unset_str = st.nextToken();
+    } else if (first.equals("#path"))          { s.path_str = st.nextToken();
+    } else if (first.equals("#open"))          {
+    } else if (first.equals("#fields"))        {
+      s.file_field_count = st.countTokens();
+      String fields[] = new String[s.file_field_count + 1]; // extra for file type
+      for (int i=0;i<fields.length-1;i++) fields[i] = st.nextToken();
+      fields[fields.length - 1] = "parse_filetype";
+      for (int i=0;i<fields.length;i++) { if (fields[i].equals("ts"))       { s.has_timestamp = true; fields[i] = "timestamp"; s.timestamp_i = i; }
+                                          if (fields[i].equals("duration")) { s.has_duration  = true;                          s.duration_i  = i; } }
+      if (s.has_timestamp && s.has_duration) { String new_fields[] = new String[fields.length+1]; System.arraycopy(fields, 0, new_fields, 0, fields.length); new_fields[new_fields.length - 1] = "timestamp_end"; fields = new_fields; }
+
+      // Make the scalar fields all caps
+      for (int i=0;i<fields.length;i++) { if (to_all_caps.contains(fields[i].toLowerCase())) fields[i] = fields[i].toUpperCase(); 
+                                          else                                               fields[i] = fields[i].toLowerCase(); }
+
+      // Build the header
+      Map<String,Integer> fields_map = new HashMap<String,Integer>(s.fields_map);
+      StringBuilder sb = new StringBuilder();
+      for (int i=0;i<fields.length;i++) {
+        if (i > 0) sb.append(",");
+        sb.append(fields[i]);
+        fields_map.put(fields[i], i);
+      }
+      s.fields = fields; s.fields_map = fields_map; s.has_end = fields[fields.length-1].equals("timestamp_end");
+
+      // For dns records... awful hack
+      s.dns         = fields_map.containsKey("answers")                       && fields_map.containsKey("query")                         && fields_map.containsKey("timestamp");
+      s.certificate = fields_map.containsKey("certificate.issuer")            && fields_map.containsKey("certificate.subject")           && 
+                      fields_map.containsKey("certificate.not_valid_before")  && fields_map.containsKey("certificate.not_valid_after")   &&
+                      fields_map.containsKey("certificate.key_alg")           && fields_map.containsKey("certificate.sig_alg")           &&
+                      fields_map.containsKey("certificate.serial")            && fields_map.containsKey("uid");
+      if (s.dns) sb.append(",tags");
+
+      out.header(TABLE, sb.toString());
+
+    } else if (first.equals("#types"))         {
+    } else if (first.equals("#close"))         {
+    } else { parse_errors = unrecognized_metafile_info = true;  throw new RuntimeException("Unrecognized metafile line in " + s.file + "\nLine :\"" + line + "\""); }
+    return s;
+  }
 
-      //
-      // Parse the actual record lines separately
-      //
-      } else                   {
-        StringTokenizer st = new StringTokenizer(line, separator);
-	if (st.countTokens() != file_field_count) { System.err.println("File \"" + file + "\", Line " + line_no + " - Incorrect Token Count\n  Line \"" + line + "\"");
+  /**
+   * Parse the actual record lines
+   */
+  @Override
+  protected void convertLine(Section s, String line, int line_no, Output out) {
+    String st[] = split(line, s.sep);
+    if (st.length != s.file_field_count) { out.warn("File \"" + s.file + "\", Line " + line_no + " - Incorrect Token Count\n  Line \"" + line + "\""); return; }
+    String fields[] = s.fields; Map<String,Integer> fields_map = s.fields_map; String empty_str = s.empty_str, unset_str = s.unset_str; char set_separator = s.set_separator;
+
+    String tokens[] = new String[fields.length]; System.arraycopy(st, 0, tokens, 0, s.file_field_count);
+
+    // Append file type and file path
+    tokens[s.file_field_count+0] = s.path_str;
+
+    // Take care of timestamp conversions
+    if (s.has_timestamp) {
+      // Extract the timestamp field and convert it to a normalized value
+      long millis = secondFractionsToMillis(tokens[s.timestamp_i]);
+      tokens[s.timestamp_i] = exactDate(millis);
+
+      // Take care of the duration (if it exists)
+      if (s.has_end) {
+        if (tokens[s.duration_i].equals(unset_str)) {
+          tokens[tokens.length-1] = exactDate(millis);
         } else {
-	  String tokens[] = new String[fields.length]; for (int i=0;i<file_field_count;i++) tokens[i] = st.nextToken();
-
-	  // Append file type and file path
-	  tokens[file_field_count+0] = path_str;
-	  
-	  // Take care of timestamp conversions
-	  if (has_timestamp) {
-	    // Extract the timestamp field and convert it to a normalized value
-	    long millis = secondFractionsToMillis(tokens[timestamp_i]);
-	    tokens[timestamp_i] = Utils.exactDate(millis);
-
-            // Take care of the duration (if it exists)
-	    if (fields[fields.length-1].equals("timestamp_end")) {
-	      if (tokens[duration_i].equals(unset_str)) {
-	        tokens[tokens.length-1] = Utils.exactDate(millis);
-	      } else {
-	        long duration_millis = secondFractionsToMillis(tokens[duration_i]);
-	        tokens[tokens.length-1] = Utils.exactDate(millis + duration_millis);
-              }
-	    }
-	  }
+          long duration_millis = secondFractionsToMillis(tokens[s.duration_i]);
+          tokens[tokens.length-1] = exactDate(millis + duration_millis);
+        }
+      }
+    }
 
-	  // Make a few replicas (in case the processign modifies the states)
-          String proc_fields[] = new String[fields.length]; System.arraycopy(fields, 0, proc_fields, 0, proc_fields.length);
-          String proc_tokens[] = new String[tokens.length]; System.arraycopy(tokens, 0, proc_tokens, 0, proc_tokens.length);
-
-          // Special processing section -- usually for a field with multiple components
-	  if (fields_map.containsKey("answers")                       && fields_map.containsKey("query")                         && 
-	      fields_map.containsKey("timestamp"))                                                                                  { String results[][] = captureDNS(proc_fields, proc_tokens, fields_map, set_separator, unset_str);
-                                                                                                                                      proc_fields = results[0];
-                                                                                                                                      proc_tokens = results[1]; }
-	  if (fields_map.containsKey("certificate.issuer")            && fields_map.containsKey("certificate.subject")           && 
-	      fields_map.containsKey("certificate.not_valid_before")  && fields_map.containsKey("certificate.not_valid_after")   &&
-	      fields_map.containsKey("certificate.key_alg")           && fields_map.containsKey("certificate.sig_alg")           &&
-	      fields_map.containsKey("certificate.serial")            && fields_map.containsKey("uid"))                             { captureCertificate(proc_fields, proc_tokens, fields_map, set_separator); }
-
-
-          if (fields_map.containsKey("client_issuer")  && isNonEmpty(proc_tokens[fields_map.get("client_issuer")],  empty_str, unset_str) && fields_map.containsKey("uid"))
-            captureSSL(proc_tokens[fields_map.get("timestamp")], "client_issuer", proc_tokens[fields_map.get("client_issuer")], proc_tokens[fields_map.get("uid")], 
-                       proc_tokens[fields_map.get("server_name")], proc_tokens[fields_map.get("id.orig_h")], set_separator);
-
-	  if (fields_map.containsKey("client_subject") && isNonEmpty(proc_tokens[fields_map.get("client_subject")], empty_str, unset_str) && fields_map.containsKey("uid"))
-            captureSSL(proc_tokens[fields_map.get("timestamp")], "client_subject", proc_tokens[fields_map.get("client_subject")], proc_tokens[fields_map.get("uid")],
-                       proc_tokens[fields_map.get("server_name")], proc_tokens[fields_map.get("id.orig_h")], set_separator);
-
-	  if (fields_map.containsKey("issuer")         && isNonEmpty(proc_tokens[fields_map.get("issuer")],         empty_str, unset_str) && fields_map.containsKey("uid"))
-            captureSSL(proc_tokens[fields_map.get("timestamp")], "issuer", proc_tokens[fields_map.get("issuer")], proc_tokens[fields_map.get("uid")],
-                       proc_tokens[fields_map.get("server_name")], proc_tokens[fields_map.get("id.orig_h")], set_separator);
-
-	  if (fields_map.containsKey("subject")        && isNonEmpty(proc_tokens[fields_map.get("subject")],        empty_str, unset_str) && fields_map.containsKey("uid"))
-            captureSSL(proc_tokens[fields_map.get("timestamp")], "subject", proc_tokens[fields_map.get("subject")], proc_tokens[fields_map.get("uid")],
-                       proc_tokens[fields_map.get("server_name")], proc_tokens[fields_map.get("id.orig_h")], set_separator);
-
-	  // Print it to a line
-          for (int i=0;i<proc_tokens.length;i++) {
-	    if (i > 0) out.print(",");
-	    if (proc_fields[i].equals("timestamp") || proc_fields[i].equals("timestamp_end")) out.print(proc_tokens[i]);
-	    else {
-             if (Utils.allNumbers(proc_tokens[i])) { try { Integer.parseInt(proc_tokens[i]); } catch (NumberFormatException nfe) { proc_tokens[i] = "" + Integer.MAX_VALUE; parse_errors = ints_exceed_max = true; } } 
-             if (proc_tokens[i].equals(empty_str) || proc_tokens[i].equals(unset_str)) proc_tokens[i] = "";
-             out.print(Utils.encToURL(proc_tokens[i]));
-            }
-	  }
-	  out.println("");
-	  }
-	}
+    // The processing may replace the arrays (but doesn't modify them in place)
+    String proc_fields[] = fields, proc_tokens[] = tokens;
+
+    // Special processing section -- usually for a field with multiple components
+    if (s.dns)         { String results[][] = captureDNS(proc_fields, proc_tokens, fields_map, set_separator, unset_str);
+                         proc_fields = results[0];
+                         proc_tokens = results[1]; }
+    if (s.certificate) { captureCertificate(proc_fields, proc_tokens, fields_map, set_separator, out); }
+
+    if (fields_map.containsKey("client_issuer")  && isNonEmpty(proc_tokens[fields_map.get("client_issuer")],  empty_str, unset_str) && fields_map.containsKey("uid"))
+      captureSSL(proc_tokens[fields_map.get("timestamp")], "client_issuer", proc_tokens[fields_map.get("client_issuer")], proc_tokens[fields_map.get("uid")], 
+                 proc_tokens[fields_map.get("server_name")], proc_tokens[fields_map.get("id.orig_h")], set_separator, out);
+
+    if (fields_map.containsKey("client_subject") && isNonEmpty(proc_tokens[fields_map.get("client_subject")], empty_str, unset_str) && fields_map.containsKey("uid"))
+      captureSSL(proc_tokens[fields_map.get("timestamp")], "client_subject", proc_tokens[fields_map.get("client_subject")], proc_tokens[fields_map.get("uid")],
+                 proc_tokens[fields_map.get("server_name")], proc_tokens[fields_map.get("id.orig_h")], set_separator, out);
+
+    if (fields_map.containsKey("issuer")         && isNonEmpty(proc_tokens[fields_map.get("issuer")],         empty_str, unset_str) && fields_map.containsKey("uid"))
+      captureSSL(proc_tokens[fields_map.get("timestamp")], "issuer", proc_tokens[fields_map.get("issuer")], proc_tokens[fields_map.get("uid")],
+                 proc_tokens[fields_map.get("server_name")], proc_tokens[fields_map.get("id.orig_h")], set_separator, out);
+
+    if (fields_map.containsKey("subject")        && isNonEmpty(proc_tokens[fields_map.get("subject")],        empty_str, unset_str) && fields_map.containsKey("uid"))
+      captureSSL(proc_tokens[fields_map.get("timestamp")], "subject", proc_tokens[fields_map.get("subject")], proc_tokens[fields_map.get("uid")],
+                 proc_tokens[fields_map.get("server_name")], proc_tokens[fields_map.get("id.orig_h")], set_separator, out);
+
+    // Build the line
+    StringBuilder sb = new StringBuilder(line.length() + 64);
+    for (int i=0;i<proc_tokens.length;i++) {
+      if (i > 0) sb.append(",");
+      String token = proc_tokens[i];
+      if (proc_fields[i].equals("timestamp") || proc_fields[i].equals("timestamp_end")) sb.append(token);
+      else {
+        if (Utils.allNumbers(token)) { try { Integer.parseInt(token); } catch (NumberFormatException nfe) { token = "" + Integer.MAX_VALUE; parse_errors = ints_exceed_max = true; } } 
+        if (token.equals(empty_str) || token.equals(unset_str)) token = "";
+        sb.append(Utils.encToURL(token));
       }
-    in.close();
+    }
+    out.row(TABLE, sb.toString());
   }
 
   /**
@@ -297,8 +343,9 @@ public class NormalizeBroLogs {
    *@param keyvals   key values to break apart
    *@param uid       uid of the original record for a linkage
    *@param set_sep   set separator
+   *@param out       output for the captured row
    */
-  public void captureSSL(String timestamp, String prefix, String keyvals, String uid, String server_name, String orig_h, char set_sep) {
+  public void captureSSL(String timestamp, String prefix, String keyvals, String uid, String server_name, String orig_h, char set_sep, Output out) {
     Map<String,String> map  = makeMap(keyvals, set_sep);
     Set<String>        set  = new HashSet<String>(); set.addAll(map.keySet());
     // Add in the list of knowns (this decreases the tablet entropy...)
@@ -325,9 +372,8 @@ public class NormalizeBroLogs {
        } else row += ",";
     }
 
-    // Save off for later output
-    if (hdr_to_rows.containsKey(header) == false) hdr_to_rows.put(header, new ArrayList<String>());
-    hdr_to_rows.get(header).add(row);
+    // Table is named by its header
+    out.row(header, row);
   }
 
   /**
@@ -336,8 +382,9 @@ public class NormalizeBroLogs {
    *@param fields     field names
    *@param tokens     field values for this record
    *@param fields_map lookup to convert fields to indices
+   *@param out        output for the captured row
    */
-  public void captureCertificate(String fields[], String tokens[], Map<String,Integer> fields_map, char set_sep) {
+  public void captureCertificate(String fields[], String tokens[], Map<String,Integer> fields_map, char set_sep, Output out) {
     Map<String,String> subject_map = makeMap(tokens[fields_map.get("certificate.subject")], set_sep),
                        issuer_map  = makeMap(tokens[fields_map.get("certificate.issuer")], set_sep);
     String not_valid_before_str = tokens[fields_map.get("certificate.not_valid_before")],
@@ -354,8 +401,8 @@ public class NormalizeBroLogs {
                      "certificate.serial"              + "," +
                      "uid";
 
-    String row    =  Utils.exactDate(not_valid_before)                             + "," +
-                     Utils.exactDate(not_valid_after)                              + "," +
+    String row    =  exactDate(not_valid_before)                             + "," +
+                     exactDate(not_valid_after)                              + "," +
                      Utils.encToURL(tokens[fields_map.get("certificate.key_alg")])  + "," +
                      Utils.encToURL(tokens[fields_map.get("certificate.sig_alg")])  + "," +
                      Utils.encToURL(tokens[fields_map.get("certificate.serial")])   + "," +
@@ -382,16 +429,10 @@ public class NormalizeBroLogs {
       row    += "," + Utils.encToURL(to_cat);
     }
 
-    // Save off for later output
-    if (hdr_to_rows.containsKey(header) == false) hdr_to_rows.put(header, new ArrayList<String>());
-    hdr_to_rows.get(header).add(row);
+    // Table is named by its header
+    out.row(header, row);
   }
 
-  /**
-   * Map linking addition info -- header goes to list of rows for that header
-   */
-  Map<String,List<String>> hdr_to_rows = new HashMap<String,List<String>>();
-
   /**
    * Separate a delimited field into its parts.
    *
@@ -447,18 +488,14 @@ public class NormalizeBroLogs {
    *
    *@param out print stream
    */
-  public void printCapturedTables(PrintStream out) {
-    Iterator<String> it_hdr = hdr_to_rows.keySet().iterator(); while (it_hdr.hasNext()) {
-      out.println(""); String hdr = it_hdr.next(); out.println(hdr);
-      List<String> rows = hdr_to_rows.get(hdr);
-      for (int i=0;i<rows.size();i++) out.println(rows.get(i));
-    }
+  public void printCapturedTables(PrintStream out) throws IOException {
+    BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(out)); captured.drain(writer); writer.flush();
   }
 
   /**
    * Convert a string with seconds (and possible fractions) to a long millis.
    */
-  public long secondFractionsToMillis(String secs_str) {
+  public static long secondFractionsToMillis(String secs_str) {
     String secs_fraction_str = ""; 
     if (secs_str.indexOf(".") >= 0) { secs_fraction_str = secs_str.substring(secs_str.indexOf(".") + 1, secs_str.length());
                                       secs_str          = secs_str.substring(0,secs_str.indexOf(".")); }
@@ -515,16 +552,16 @@ public class NormalizeBroLogs {
       // Construct the normalizer
       NormalizeBroLogs normalizer = new NormalizeBroLogs();
 
-      // Parse the options (nothing here yet)
-      
-      // Parse the files and dump the output
-      for (int i=0;i<args.length;i++) {
-        normalizer.normalize(new File(args[i]), System.out);
-	if (i < args.length - 1) System.out.println(""); // blank line between headers
-      }
+      // Parse the options -- "-o file" writes to a file (compressed if it ends with ".gz")
+      OutputStream os = System.out; int i = 0;
+      if (args.length >= 2 && args[0].equals("-o")) { os = create(new File(args[1])); i = 2; }
 
-      // Print out captured info
-      normalizer.printCapturedTables(System.out);
+      // Parse the files ("-" for stdin) and dump the output -- the captured tables come after the logs
+      StreamSink sink = new StreamSink(os, TABLE, os != System.out);
+      for (;i<args.length;i++) {
+        if (args[i].equals("-")) normalizer.convert(System.in, "stdin", sink); else normalizer.convert(new File(args[i]), sink);
+      }
+      sink.close();
 
       // Print out parse errors (if any existed)
       normalizer.printParseErrors(System.err);
@@ -17,23 +17,33 @@ limitations under the License.
 */
 package racetrack.util;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintStream;
 
-import java.util.StringTokenizer;
+import java.util.NoSuchElementException;
 
 import racetrack.util.Utils;
 
 /**
- * Normalize bro log files into a file format readable by racetrack application (CSV, URL encoded...)
+ * Normalize tcpdump output into a file format readable by racetrack application (CSV...).
+ * Runs on the {@link LineConverter} -- the lines are converted in parallel.
  * 
  * @author  D. Trimm
  * @version 0.1
  */
-public class NormalizeTCPDump { 
+public class NormalizeTCPDump extends LineConverter<String> { 
+  /**
+   * Table name for the records
+   */
+  public static final String TABLE  = "tcpdump";
+
+  /**
+   * Header for the records
+   */
+  public static final String HEADER = "timestamp,sip,spt,proto,dpt,dip";
+
   /**
    * Print output options
    */
@@ -52,73 +62,60 @@ public class NormalizeTCPDump {
    *@param file file to parse
    */
   public void parse(File file) throws IOException {
-    BufferedReader in = new BufferedReader(new FileReader(file));
-    String line; 
-    while ((line = in.readLine()) != null) {
-      StringTokenizer st = new StringTokenizer(line, " ");
-      String yyyymmdd = st.nextToken(),
-             hhmmss   = st.nextToken(),
-             layer    = st.nextToken(),
-	     sip_pt   = st.nextToken(),
-	     gt       = st.nextToken(),
-	     dip_pt   = st.nextToken();
-
-      String ts  = yyyymmdd + "T" + hhmmss;
-
-      String sip = extractIP(sip_pt),
-             spt = extractPort(sip_pt),
-	     dip = extractIP(dip_pt),
-	     dpt = extractPort(dip_pt);
-
-      // Next string determines how it will be parsed
-      String proto  = st.nextToken();
-      boolean its_a_number = false; int number = 0;
-      try {  String tmp = proto; if (tmp.endsWith("+")) tmp = tmp.substring(0,tmp.length()-1); number = Integer.parseInt(tmp); its_a_number = true; } catch (NumberFormatException nfe) { }
-
-      //------------------------------------------------------------------------------------------
-      //
-      // TCP
-      //
-      if (proto.equals("Flags")) {
-        proto = "tcp";
-	out.println(ts    + "," +
-	            sip   + "," +
-		    spt   + "," +
-		    proto + "," +
-		    dpt   + "," +
-		    dip);
-
-      //------------------------------------------------------------------------------------------
-      //
-      // UDP
-      //
-      } else if (proto.equals("UDP") || proto.equals("UDP,")) {
-        proto = "udp";
-
-	out.println(ts    + "," +
-	            sip   + "," +
-		    spt   + "," +
-		    proto + "," +
-		    dpt   + "," +
-		    dip);
-
-      //------------------------------------------------------------------------------------------
-      //
-      // DNS
-      //
-      } else if (its_a_number && number > 0) {
-        proto = "udp";
-
-	out.println(ts    + "," +
-	            sip   + "," +
-		    spt   + "," +
-		    proto + "," +
-		    dpt   + "," +
-		    dip);
-
-      } else { /* System.err.println("Not Parsing \"" + line + "\"..."); */ }
-    }
-    in.close();
+    StreamSink sink = new StreamSink(out, TABLE, false);
+    convert(file, sink); sink.close();
+  }
+
+  @Override
+  protected String start(String name) { return name; }
+
+  /**
+   * Convert a line -- lines that aren't tcp, udp, or dns are skipped.
+   */
+  @Override
+  protected void convertLine(String name, String line, int line_no, Output out) {
+    String st[] = split(line, ' ');
+    String yyyymmdd = token(st,0),
+           hhmmss   = token(st,1),
+           layer    = token(st,2),
+           sip_pt   = token(st,3),
+           gt       = token(st,4),
+           dip_pt   = token(st,5);
+
+    // Next string determines how it will be parsed
+    String proto  = token(st,6);
+    boolean its_a_number = false; int number = 0;
+    try {  String tmp = proto; if (tmp.endsWith("+")) tmp = tmp.substring(0,tmp.length()-1); number = Integer.parseInt(tmp); its_a_number = true; } catch (NumberFormatException nfe) { }
+
+    //------------------------------------------------------------------------------------------
+    //
+    // TCP
+    //
+    if (proto.equals("Flags")) {
+      proto = "tcp";
+
+    //------------------------------------------------------------------------------------------
+    //
+    // UDP
+    //
+    } else if (proto.equals("UDP") || proto.equals("UDP,")) {
+      proto = "udp";
+
+    //------------------------------------------------------------------------------------------
+    //
+    // DNS
+    //
+    } else if (its_a_number && number > 0) {
+      proto = "udp";
+
+    } else { /* System.err.println("Not Parsing \"" + line + "\"..."); */ return; }
+
+    StringBuilder sb = new StringBuilder(line.length());
+    sb.append(yyyymmdd).append('T').append(hhmmss).append(',');
+    appendIP(sb, sip_pt); sb.append(','); appendPort(sb, sip_pt); sb.append(',');
+    sb.append(proto).append(',');
+    appendPort(sb, dip_pt); sb.append(','); appendIP(sb, dip_pt);
+    out.row(TABLE, sb.toString());
   }
 
   /**
@@ -128,15 +125,7 @@ public class NormalizeTCPDump {
    *
    *@return ip address
    */
-  public String extractIP(String str) {
-    StringTokenizer st = new StringTokenizer(str, ".:");
-    StringBuffer    sb = new StringBuffer();
-    sb.append(st.nextToken()); sb.append(".");
-    sb.append(st.nextToken()); sb.append(".");
-    sb.append(st.nextToken()); sb.append(".");
-    sb.append(st.nextToken());
-    return sb.toString();
-  }
+  public String extractIP(String str) { StringBuilder sb = new StringBuilder(); appendIP(sb, str); return sb.toString(); }
 
   /**
    * Extract the port portion of the ip_port string.
@@ -145,12 +134,40 @@ public class NormalizeTCPDump {
    *
    *@return port
    */
-  public String extractPort(String str) {
-    StringTokenizer st = new StringTokenizer(str, ".:");
-    StringBuffer    sb = new StringBuffer();
-    st.nextToken(); st.nextToken(); st.nextToken(); st.nextToken();
-    if (st.hasMoreTokens()) sb.append(st.nextToken()); else sb.append("0");
-    return sb.toString();
+  public String extractPort(String str) { StringBuilder sb = new StringBuilder(); appendPort(sb, str); return sb.toString(); }
+
+  /**
+   * Append the ip portion of the ip_port string -- the first four of the tokens separated by periods and colons.
+   *
+   *@param sb  string builder
+   *@param str ip_port string
+   */
+  static void appendIP(StringBuilder sb, String str) {
+    int i = 0, n = str.length();
+    for (int k=0;k<4;k++) {
+      while (i < n && (str.charAt(i) == '.' || str.charAt(i) == ':')) i++;
+      if (i == n) throw new NoSuchElementException();
+      if (k > 0) sb.append('.');
+      int j = i; while (j < n && str.charAt(j) != '.' && str.charAt(j) != ':') j++;
+      sb.append(str, i, j); i = j;
+    }
+  }
+
+  /**
+   * Append the port portion of the ip_port string -- the fifth of the tokens separated by periods and colons (0 if missing).
+   *
+   *@param sb  string builder
+   *@param str ip_port string
+   */
+  static void appendPort(StringBuilder sb, String str) {
+    int i = 0, n = str.length();
+    for (int k=0;k<5;k++) {
+      while (i < n && (str.charAt(i) == '.' || str.charAt(i) == ':')) i++;
+      if (i == n) { if (k < 4) throw new NoSuchElementException(); sb.append('0'); return; }
+      int j = i; while (j < n && str.charAt(j) != '.' && str.charAt(j) != ':') j++;
+      if (k == 4) { sb.append(str, i, j); return; }
+      i = j;
+    }
   }
 
   /**
@@ -179,9 +196,16 @@ public class NormalizeTCPDump {
       /**
        * Check the args
        */
-      if (args.length == 0) { System.err.println("Consumes TCPDump output generated with the following options: \"tcpdump -tttt -nnn -r <pcap-file>\""); } else {
-        NormalizeTCPDump parser = new NormalizeTCPDump(System.out);
-	for (int i=0;i<args.length;i++) { parser.parse(new File(args[i])); }
+      if (args.length == 0) { System.err.println("Consumes TCPDump output generated with the following options: \"tcpdump -tttt -nnn -r <pcap-file>\"");
+                              System.err.println("Usage:  java racetrack.util.NormalizeTCPDump [-o output-file[.gz]] tcpdump-output-file|- [...]"); } else {
+        // Parse the options -- "-o file" writes to a file (compressed if it ends with ".gz")
+        OutputStream os = System.out; int i = 0;
+        if (args.length >= 2 && args[0].equals("-o")) { os = create(new File(args[1])); i = 2; }
+
+        NormalizeTCPDump parser = new NormalizeTCPDump(System.out); StreamSink sink = new StreamSink(os, TABLE, os != System.out);
+        sink.header(TABLE, HEADER);
+        for (;i<args.length;i++) { if (args[i].equals("-")) parser.convert(System.in, "stdin", sink); else parser.convert(new File(args[i]), sink); }
+        sink.close();
       }
     } catch (Throwable t) { System.err.println("Throwable: " + t); t.printStackTrace(System.err); }
   }
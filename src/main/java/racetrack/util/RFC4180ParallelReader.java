@@ -0,0 +1,332 @@
+/*
+
+Copyright 2013 David Trimm
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package racetrack.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.zip.GZIPInputStream;
+
+import racetrack.framework.BundlesDT;
+
+/**
+ * Parallel version of the {@link RFC4180CSVReader} -- the consumer sees exactly the same
+ * tokens, lines, and line numbers.  A reader thread cuts the file into chunks that end just
+ * after a newline (see {@link ChunkPipeline}).  Because a chunk follows a newline, the parser state at the start of a
+ * chunk is one of only two possibilities:  at the start of a record, or inside a quoted field
+ * (a newline embedded in quotes).  The {@link WorkerPool} parses each chunk under both
+ * assumptions -- for the quoted assumption, only the bytes up to the first record end differ,
+ * so the records usually converge with the first parse.  The calling thread then picks the
+ * correct assumption for each chunk in file order and re-parses only the records that span
+ * chunk boundaries.
+ *
+ * As with the sequential reader, an incomplete record at the end of the file (no trailing
+ * newline) is dropped.
+ *
+ *@author  D. Trimm
+ *@version 1.0
+ */
+public class RFC4180ParallelReader {
+  /**
+   * Default chunk size (bytes of the uncompressed file)
+   */
+  public static final int CHUNK_BYTES = 256*1024;
+
+  /**
+   * A parsed record
+   */
+  static class Rec {
+    /**
+     * Tokens -- blanks already replaced with the notset string
+     */
+    String tokens[];
+    /**
+     * Raw line (each byte as a character) including the quotes and line endings
+     */
+    String line;
+    /**
+     * Offset of the record start within the chunk
+     */
+    int    start;
+  }
+
+  /**
+   * Parse of a chunk under one assumption of the starting state
+   */
+  static class Spec {
+    /**
+     * Offset of the first record start -- -1 if no record starts within the chunk
+     */
+    int       head_end;
+    /**
+     * Complete records
+     */
+    List<Rec> recs;
+    /**
+     * Index into the records of the first record (records may be shared between assumptions)
+     */
+    int       first;
+    /**
+     * Offset where the trailing incomplete record starts (the chunk length if none)
+     */
+    int       tail_start;
+  }
+
+  /**
+   * Chunk of the file -- the bytes in, the parses out
+   */
+  static class Chunk {
+    /**
+     * Bytes of the chunk
+     */
+    byte bytes[]; int len;
+    /**
+     * Parse assuming the chunk starts a record, and assuming the chunk starts within a quoted field
+     */
+    Spec at_record, in_quotes;
+  }
+
+  /**
+   * Consumer for the parsed tokens
+   */
+  private CSVTokenConsumer consumer;
+
+  /**
+   * Charset for decoding tokens -- null to use each byte as a character
+   */
+  private Charset          charset;
+
+  /**
+   * Chunks in file order -- stopped once the consumer halts or the commit fails
+   */
+  private ChunkPipeline<Chunk> pipeline;
+
+  /**
+   * Construct the reader and run it through the file.
+   *
+   *@param file         csv file to parse
+   *@param consumer     consumer to direct tokens to
+   *@param encoding     null if no decoding is specified; else the specified decoding string will be used (e.g., "UTF-8")
+   */
+  public RFC4180ParallelReader(File file, CSVTokenConsumer consumer, String encoding) throws IOException { this(file, consumer, encoding, CHUNK_BYTES); }
+
+  /**
+   * Construct the reader and run it through the file.
+   *
+   *@param file         csv file to parse
+   *@param consumer     consumer to direct tokens to
+   *@param encoding     null if no decoding is specified; else the specified decoding string will be used (e.g., "UTF-8")
+   *@param chunk_bytes  chunk size
+   */
+  public RFC4180ParallelReader(File file, CSVTokenConsumer consumer, String encoding, int chunk_bytes) throws IOException {
+    this.consumer = consumer;
+    if (encoding != null) {
+      try { charset = Charset.forName(encoding); } catch (IllegalArgumentException iae) { throw new UnsupportedEncodingException(encoding); }
+    }
+    pipeline = new ChunkPipeline<Chunk>("RFC4180 Parse", new Reader(file, Math.max(1, chunk_bytes)));
+    try { commit(); } finally { pipeline.stop(); }
+  }
+
+  /**
+   * Hand the records to the consumer in file order.
+   */
+  private void commit() throws IOException {
+    int line_no = 1; byte carry[] = new byte[1024]; int carry_len = 0; Parser parser = new Parser();
+    while (true) {
+      Chunk chunk = pipeline.take(); if (chunk == null) return;
+
+      // No carried bytes -- the chunk starts a record.  Otherwise, the chunk starts within a quoted field of the carried record.
+      Spec spec = (carry_len == 0) ? chunk.at_record : chunk.in_quotes;
+      int  head = (spec.head_end < 0) ? chunk.len : spec.head_end;
+      if (carry_len + head > carry.length) { byte grown[] = new byte[Math.max(carry.length*2, carry_len + head)]; System.arraycopy(carry, 0, grown, 0, carry_len); carry = grown; }
+      System.arraycopy(chunk.bytes, 0, carry, carry_len, head); carry_len += head;
+      if (spec.head_end < 0) continue;
+
+      // Finish the carried record
+      if (carry_len > 0) {
+        Rec rec = new Rec(); parser.parse(carry, 0, carry_len, rec);
+        if (consumer.consume(rec.tokens, rec.line, line_no++) == false) return;
+        carry_len = 0;
+      }
+      // The complete records
+      for (int i=spec.first;i<spec.recs.size();i++) { Rec rec = spec.recs.get(i); if (consumer.consume(rec.tokens, rec.line, line_no++) == false) return; }
+      // Carry the incomplete record
+      int tail = chunk.len - spec.tail_start;
+      if (tail > carry.length) carry = new byte[tail];
+      System.arraycopy(chunk.bytes, spec.tail_start, carry, 0, tail); carry_len = tail;
+    }
+  }
+
+  /**
+   * Record parser -- the same state machine as the {@link RFC4180CSVReader}.  Not thread safe (reuses its token buffer).
+   */
+  class Parser {
+    byte tok[] = new byte[256]; int tok_len = 0; List<String> tokens = new ArrayList<String>();
+
+    /**
+     * Parse one record starting at a record start.
+     *
+     *@param  b     bytes
+     *@param  start record start
+     *@param  end   end of the bytes
+     *@param  rec   record to fill in (if complete)
+     *
+     *@return offset after the record -- -1 if the record is incomplete
+     */
+    int parse(byte b[], int start, int end, Rec rec) {
+      boolean in_dquotes = false, last_was_dquote = false; tok_len = 0; tokens.clear();
+      for (int i=start;i<end;i++) {
+        int c = b[i] & 0xff;
+        if (in_dquotes) {
+          if (last_was_dquote) {
+            if        (c == ',')  { addToken(); in_dquotes = false; last_was_dquote = false;
+            } else if (c == '\r') { in_dquotes = false; last_was_dquote = false;
+            } else if (c == '\n') { addToken(); return finish(b, start, i + 1, rec);
+            } else                { append(c); last_was_dquote = false; }
+          } else if (c == '\"') { last_was_dquote = true;
+          } else                { append(c); }
+        } else if (c == ',')   { addToken();
+        } else if (c == '\"')  { in_dquotes = true;
+        } else if (c == '\r')  {
+        } else if (c == '\n')  { addToken(); return finish(b, start, i + 1, rec);
+        } else                 { append(c); }
+      }
+      return -1;
+    }
+
+    void append(int c) { if (tok_len == tok.length) { byte grown[] = new byte[tok.length*2]; System.arraycopy(tok, 0, grown, 0, tok_len); tok = grown; } tok[tok_len++] = (byte) c; }
+
+    void addToken() { tokens.add(charset == null ? latin1(tok, 0, tok_len) : new String(tok, 0, tok_len, charset)); tok_len = 0; }
+
+    int finish(byte b[], int start, int end, Rec rec) {
+      rec.tokens = new String[tokens.size()];
+      for (int i=0;i<rec.tokens.length;i++) { String str = tokens.get(i); rec.tokens[i] = (str.length() == 0) ? BundlesDT.NOTSET : str; }
+      rec.line = latin1(b, start, end - start); rec.start = start;
+      return end;
+    }
+  }
+
+  /**
+   * Convert bytes to a string with each byte as a character.
+   */
+  @SuppressWarnings("deprecation")
+  static String latin1(byte b[], int off, int len) { return new String(b, 0, off, len); }
+
+  /**
+   * Find the end of the record that is in progress at the start -- assumes the start is within a
+   * quoted field (and not just after a quote).
+   *
+   *@return offset after the record end -- -1 if the record doesn't end within the bytes
+   */
+  static int endOfQuotedRecord(byte b[], int start, int end) {
+    boolean in_dquotes = true, last_was_dquote = false;
+    for (int i=start;i<end;i++) {
+      int c = b[i] & 0xff;
+      if (in_dquotes) {
+        if (last_was_dquote) {
+          if      (c == ',' || c == '\r') { in_dquotes = false; last_was_dquote = false; }
+          else if (c == '\n')             { return i + 1; }
+          else                            { last_was_dquote = false; }
+        } else if (c == '\"') last_was_dquote = true;
+      } else if (c == '\"') { in_dquotes = true;
+      } else if (c == '\n') { return i + 1; }
+    }
+    return -1;
+  }
+
+  /**
+   * Reader -- splits the file into chunks that end after a newline and hands them to the workers.
+   */
+  class Reader implements ChunkPipeline.Reader<Chunk> {
+    File file; int chunk_bytes;
+    Reader(File file, int chunk_bytes) { this.file = file; this.chunk_bytes = chunk_bytes; }
+    public void read(ChunkPipeline<Chunk> pipeline) throws IOException {
+      FileInputStream fis = null;
+      try {
+        fis = new FileInputStream(file);
+        InputStream in = file.getName().toLowerCase().endsWith(".gz") ? new GZIPInputStream(fis, 64*1024) : fis;
+        byte buf[] = new byte[chunk_bytes]; int len = 0;
+        while (pipeline.stopped() == false) {
+          // Fill the buffer
+          int n = 0; while (len < buf.length && (n = in.read(buf, len, buf.length - len)) >= 0) len += n;
+          boolean eof = (n < 0);
+          // Cut after the last newline -- a buffer without one grows
+          int cut = len - 1; if (eof == false) while (cut >= 0 && buf[cut] != '\n') cut--;
+          if (cut < 0 && eof == false) { byte grown[] = new byte[buf.length*2]; System.arraycopy(buf, 0, grown, 0, len); buf = grown; continue; }
+          if (cut >= 0) {
+            Chunk chunk = new Chunk(); chunk.bytes = buf; chunk.len = cut + 1;
+            byte next[] = new byte[Math.max(chunk_bytes, len - chunk.len)]; System.arraycopy(buf, chunk.len, next, 0, len - chunk.len); len = len - chunk.len; buf = next;
+            if (pipeline.submit(new Worker(chunk, pipeline)) == false) return;
+          }
+          if (eof) break;
+        }
+      } finally { if (fis != null) try { fis.close(); } catch (IOException ioe) { }
+      }
+    }
+  }
+
+  /**
+   * Worker -- parses a chunk under both assumptions of the starting state.
+   */
+  class Worker implements Callable<Chunk> {
+    Chunk chunk; ChunkPipeline<Chunk> pipeline;
+    Worker(Chunk chunk, ChunkPipeline<Chunk> pipeline) { this.chunk = chunk; this.pipeline = pipeline; }
+    public Chunk call() {
+      if (pipeline.stopped()) return chunk;
+      Parser parser = new Parser();
+      chunk.at_record = records(parser, 0);
+      int head_end = endOfQuotedRecord(chunk.bytes, 0, chunk.len);
+      if (head_end < 0) { chunk.in_quotes = new Spec(); chunk.in_quotes.head_end = -1; return chunk; }
+      // Share the records if the quoted assumption lands on a record start of the first parse
+      List<Rec> recs = chunk.at_record.recs;
+      for (int i=0;i<recs.size() && recs.get(i).start <= head_end;i++) {
+        if (recs.get(i).start == head_end) {
+          Spec spec = new Spec(); spec.head_end = head_end; spec.recs = recs; spec.first = i; spec.tail_start = chunk.at_record.tail_start;
+          chunk.in_quotes = spec; return chunk;
+        }
+      }
+      if (chunk.at_record.tail_start == head_end) {
+        Spec spec = new Spec(); spec.head_end = head_end; spec.recs = recs; spec.first = recs.size(); spec.tail_start = head_end;
+        chunk.in_quotes = spec; return chunk;
+      }
+      chunk.in_quotes = records(parser, head_end);
+      return chunk;
+    }
+
+    /**
+     * Parse the complete records from a record start.
+     */
+    Spec records(Parser parser, int start) {
+      Spec spec = new Spec(); spec.head_end = start; spec.recs = new ArrayList<Rec>();
+      int pos = start;
+      while (pos < chunk.len) {
+        Rec rec = new Rec(); int next = parser.parse(chunk.bytes, pos, chunk.len, rec);
+        if (next < 0) break;
+        spec.recs.add(rec); pos = next;
+      }
+      spec.tail_start = pos;
+      return spec;
+    }
+  }
+}
@@ -0,0 +1,589 @@
+/*
+
+Copyright 2013 David Trimm
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package racetrack.util;
+
+import java.util.Arrays;
+
+/**
+ * Compressed bitmap for non-negative integers (roaring-style).  The integer
+ * space is split into 64K chunks by the upper 16 bits -- each chunk that has
+ * any values is held in a container.  Sparse chunks (4096 values or less) are
+ * sorted char arrays, dense chunks are 1024-word bitmaps.  Memory scales with
+ * the number of values rather than with the range of the values.
+ *
+ * Set operations (and, andNot, or) are performed container-by-container with
+ * word-wise operations on the dense chunks.  Containers that an operation doesn't
+ * change are shared with the result (as are the containers of {@link #share()}) --
+ * a shared container is copied before it's changed, so the bitmaps stay independent.
+ * The class is not synchronized.
+ *
+ * @author  D. Trimm
+ * @version 1.0
+ */
+public class RoaringBitmap {
+  /**
+   * Maximum cardinality for an array container
+   */
+  static final int ARRAY_MAX = 4096;
+
+  /**
+   * Upper 16 bits of each container (sorted)
+   */
+  private char      keys[]       = new char[4];
+
+  /**
+   * Containers corresponding to the keys
+   */
+  private Container containers[] = new Container[4];
+
+  /**
+   * Number of containers in use
+   */
+  private int       size         = 0;
+
+  /**
+   * Number of values in the bitmap
+   */
+  private int       cardinality  = 0;
+
+  /**
+   * Construct an empty bitmap.
+   */
+  public RoaringBitmap() { }
+
+  /**
+   * Return the number of values in this bitmap.
+   *
+   *@return cardinality
+   */
+  public int     cardinality() { return cardinality; }
+
+  /**
+   * Return true if the bitmap has no values.
+   *
+   *@return true if empty
+   */
+  public boolean isEmpty()     { return cardinality == 0; }
+
+  /**
+   * Find the container index for the specified key.
+   *
+   *@param  key upper 16 bits
+   *
+   *@return index if found, otherwise (-(insertion point) - 1)
+   */
+  private int containerIndex(char key) { return Arrays.binarySearch(keys, 0, size, key); }
+
+  /**
+   * Add a value to the bitmap.
+   *
+   *@param  x value to add (must be non-negative)
+   *
+   *@return true if the value was not already present
+   */
+  public boolean add(int x) {
+    if (x < 0) throw new RuntimeException("RoaringBitmap.add() - Negative Value " + x);
+    char key = (char) (x >>> 16), low = (char) x;
+    int  i   = containerIndex(key);
+    if (i < 0) {
+      i = -i - 1; insertContainer(i, key, new ArrayContainer());
+    }
+    Container c = containers[i]; int card = c.card;
+    if (c.shared) { if (c.contains(low)) return false; c = c.copy(); } // Copy before changing
+    containers[i] = c = c.add(low);
+    if (c.card == card) return false;
+    cardinality++; return true;
+  }
+
+  /**
+   * Remove a value from the bitmap.
+   *
+   *@param  x value to remove
+   *
+   *@return true if the value was present
+   */
+  public boolean remove(int x) {
+    if (x < 0) return false;
+    int i = containerIndex((char) (x >>> 16)); if (i < 0) return false;
+    Container c = containers[i]; int card = c.card;
+    if (c.shared) { if (c.contains((char) x) == false) return false; c = c.copy(); } // Copy before changing
+    containers[i] = c = c.remove((char) x);
+    if (c.card == card) return false;
+    cardinality--;
+    if (c.card == 0) removeContainer(i);
+    return true;
+  }
+
+  /**
+   * Determine if the bitmap contains the value.
+   *
+   *@param  x value to check
+   *
+   *@return true if present
+   */
+  public boolean contains(int x) {
+    if (x < 0) return false;
+    int i = containerIndex((char) (x >>> 16)); if (i < 0) return false;
+    return containers[i].contains((char) x);
+  }
+
+  /**
+   * Return the first value greater than or equal to the specified value.
+   *
+   *@param  from starting value (inclusive)
+   *
+   *@return next value or -1 if none remain
+   */
+  public int nextValue(int from) {
+    if (from < 0) from = 0;
+    int i = containerIndex((char) (from >>> 16)), low = from & 0xffff;
+    if (i < 0) { i = -i - 1; low = 0; }
+    for (;i<size;i++) {
+      int v = containers[i].nextValue(low);
+      if (v >= 0) return (((int) keys[i]) << 16) | v;
+      low = 0;
+    }
+    return -1;
+  }
+
+  /**
+   * Return an iterator over the values in increasing order.
+   *
+   *@return value iterator
+   */
+  public IntIterator iterator() { return new IntIterator(); }
+
+  /**
+   * Iterator over the values in the bitmap.  Supports removal of the last value returned.
+   */
+  public class IntIterator {
+    /**
+     * Next value to return (-1 if none)
+     */
+    private int next_v;
+
+    /**
+     * Last value returned
+     */
+    private int last_v = -1;
+
+    /**
+     * Construct the iterator at the first value.
+     */
+    IntIterator() { next_v = nextValue(0); }
+
+    /**
+     * Return true if more values remain.
+     *
+     *@return true if more values exist
+     */
+    public boolean hasNext() { return next_v >= 0; }
+
+    /**
+     * Return the next value.
+     *
+     *@return next value
+     */
+    public int     next()    {
+      if (next_v < 0) throw new java.util.NoSuchElementException();
+      last_v = next_v; next_v = (last_v == Integer.MAX_VALUE) ? -1 : nextValue(last_v+1); return last_v;
+    }
+
+    /**
+     * Remove the last value returned.
+     */
+    public void    remove()  { if (last_v < 0) throw new IllegalStateException(); RoaringBitmap.this.remove(last_v); last_v = -1; }
+  }
+
+  /**
+   * Insert a container at the specified position.
+   */
+  private void insertContainer(int i, char key, Container c) {
+    if (size == keys.length) {
+      keys       = Arrays.copyOf(keys,       size*2);
+      containers = Arrays.copyOf(containers, size*2);
+    }
+    System.arraycopy(keys,       i, keys,       i+1, size-i);
+    System.arraycopy(containers, i, containers, i+1, size-i);
+    keys[i] = key; containers[i] = c; size++;
+  }
+
+  /**
+   * Remove the container at the specified position.
+   */
+  private void removeContainer(int i) {
+    System.arraycopy(keys,       i+1, keys,       i, size-i-1);
+    System.arraycopy(containers, i+1, containers, i, size-i-1);
+    size--; containers[size] = null;
+  }
+
+  /**
+   * Append a (non-empty) container -- keys must be appended in increasing order.
+   */
+  private void append(char key, Container c) {
+    if (c == null || c.card == 0) return;
+    if (size == keys.length) {
+      keys       = Arrays.copyOf(keys,       size*2);
+      containers = Arrays.copyOf(containers, size*2);
+    }
+    keys[size] = key; containers[size] = c; size++; cardinality += c.card;
+  }
+
+  /**
+   * Return a copy of this bitmap.
+   *
+   *@return independent copy
+   */
+  public RoaringBitmap copy() {
+    RoaringBitmap bm = new RoaringBitmap();
+    for (int i=0;i<size;i++) bm.append(keys[i], containers[i].copy());
+    return bm;
+  }
+
+  /**
+   * Return a copy of this bitmap that shares its containers -- the cost is proportional to the
+   * number of containers rather than the number of values.
+   *
+   *@return independent copy
+   */
+  public RoaringBitmap share() {
+    RoaringBitmap bm = new RoaringBitmap();
+    for (int i=0;i<size;i++) bm.append(keys[i], containers[i].share());
+    return bm;
+  }
+
+  /**
+   * Return the intersection of two bitmaps.
+   *
+   *@param  a first bitmap
+   *@param  b second bitmap
+   *
+   *@return new bitmap with values in both
+   */
+  public static RoaringBitmap and(RoaringBitmap a, RoaringBitmap b) {
+    RoaringBitmap bm = new RoaringBitmap(); int i = 0, j = 0;
+    while (i < a.size && j < b.size) {
+      if      (a.keys[i] < b.keys[j]) i++;
+      else if (a.keys[i] > b.keys[j]) j++;
+      else { bm.append(a.keys[i], a.containers[i].and(b.containers[j])); i++; j++; }
+    }
+    return bm;
+  }
+
+  /**
+   * Return the values in the first bitmap that are not in the second.
+   *
+   *@param  a first bitmap
+   *@param  b bitmap to subtract
+   *
+   *@return new bitmap with values in a but not b
+   */
+  public static RoaringBitmap andNot(RoaringBitmap a, RoaringBitmap b) {
+    RoaringBitmap bm = new RoaringBitmap(); int i = 0, j = 0;
+    while (i < a.size) {
+      if      (j >= b.size || a.keys[i] < b.keys[j]) { bm.append(a.keys[i], a.containers[i].share()); i++; }
+      else if (a.keys[i] > b.keys[j])                 { j++; }
+      else { bm.append(a.keys[i], a.containers[i].andNot(b.containers[j])); i++; j++; }
+    }
+    return bm;
+  }
+
+  /**
+   * Return the union of two bitmaps.
+   *
+   *@param  a first bitmap
+   *@param  b second bitmap
+   *
+   *@return new bitmap with values in either
+   */
+  public static RoaringBitmap or(RoaringBitmap a, RoaringBitmap b) {
+    RoaringBitmap bm = new RoaringBitmap(); int i = 0, j = 0;
+    while (i < a.size || j < b.size) {
+      if      (j >= b.size || (i < a.size && a.keys[i] < b.keys[j])) { bm.append(a.keys[i], a.containers[i].share()); i++; }
+      else if (i >= a.size || a.keys[i] > b.keys[j])                 { bm.append(b.keys[j], b.containers[j].share()); j++; }
+      else { bm.append(a.keys[i], a.containers[i].or(b.containers[j])); i++; j++; }
+    }
+    return bm;
+  }
+
+  /**
+   * Replace the contents of this bitmap with the contents of another.  Used to make the
+   * static operations in-place.
+   *
+   *@param other bitmap whose contents are taken (should not be used afterwards)
+   */
+  public void become(RoaringBitmap other) {
+    keys = other.keys; containers = other.containers; size = other.size; cardinality = other.cardinality;
+  }
+
+  /**
+   * Return an estimate of the memory used by this bitmap.
+   *
+   *@return approximate size in bytes
+   */
+  public long sizeInBytes() {
+    long sz = 32 + keys.length*2 + containers.length*4;
+    for (int i=0;i<size;i++) sz += containers[i].sizeInBytes();
+    return sz;
+  }
+
+  /**
+   * Determine if two bitmaps hold the same values.
+   *
+   *@param  o object to compare against
+   *
+   *@return true if same values
+   */
+  @Override
+  public boolean equals(Object o) {
+    if (o instanceof RoaringBitmap == false) return false;
+    RoaringBitmap other = (RoaringBitmap) o;
+    if (other.cardinality != cardinality || other.size != size) return false;
+    for (int i=0;i<size;i++) if (keys[i] != other.keys[i] || containers[i].sameAs(other.containers[i]) == false) return false;
+    return true;
+  }
+
+  /**
+   * Hashcode consistent with equals.
+   *
+   *@return hashcode
+   */
+  @Override
+  public int hashCode() {
+    int h = cardinality;
+    for (int i=0;i<size;i++) h = 31*h + keys[i]*17 + containers[i].card;
+    return h;
+  }
+
+  /**
+   * Return a string representation for debugging.
+   *
+   *@return string describing the bitmap
+   */
+  @Override
+  public String toString() { return "|RoaringBitmap|card=" + cardinality + "|containers=" + size + "|bytes=" + sizeInBytes() + "|"; }
+
+  /**
+   * Container for the lower 16 bits of a chunk.  Containers are kept in canonical
+   * form (array at or below ARRAY_MAX values, bitmap above) so that equality is
+   * a direct comparison.
+   */
+  static abstract class Container {
+    /**
+     * Number of values in the container
+     */
+    int card = 0;
+    /**
+     * Set once the container is held by more than one bitmap -- it's copied before it's changed
+     */
+    boolean shared = false;
+    /**
+     * Mark the container as shared and return it.
+     */
+    Container share() { shared = true; return this; }
+    abstract boolean   contains(char x);
+    abstract Container add(char x);
+    abstract Container remove(char x);
+    abstract int       nextValue(int from);
+    abstract Container copy();
+    abstract Container and(Container other);
+    abstract Container andNot(Container other);
+    abstract Container or(Container other);
+    abstract long      sizeInBytes();
+    abstract boolean   sameAs(Container other);
+  }
+
+  /**
+   * Sparse container -- sorted values.
+   */
+  static class ArrayContainer extends Container {
+    /**
+     * Sorted values
+     */
+    char content[];
+
+    ArrayContainer()           { content = new char[4]; }
+    ArrayContainer(int cap)    { content = new char[cap]; }
+
+    boolean   contains(char x) { return Arrays.binarySearch(content, 0, card, x) >= 0; }
+
+    Container add(char x)      {
+      int i = Arrays.binarySearch(content, 0, card, x); if (i >= 0) return this;
+      if (card >= ARRAY_MAX) { BitmapContainer bc = toBitmap(); bc.add(x); return bc; }
+      i = -i - 1;
+      if (card == content.length) content = Arrays.copyOf(content, Math.min(ARRAY_MAX, card*2));
+      System.arraycopy(content, i, content, i+1, card-i); content[i] = x; card++;
+      return this;
+    }
+
+    Container remove(char x)   {
+      int i = Arrays.binarySearch(content, 0, card, x); if (i < 0) return this;
+      System.arraycopy(content, i+1, content, i, card-i-1); card--;
+      return this;
+    }
+
+    int       nextValue(int from) {
+      if (from > 0xffff) return -1;
+      int i = Arrays.binarySearch(content, 0, card, (char) from); if (i < 0) i = -i - 1;
+      return (i < card) ? content[i] : -1;
+    }
+
+    Container copy()           { ArrayContainer ac = new ArrayContainer(Math.max(card,1)); System.arraycopy(content, 0, ac.content, 0, card); ac.card = card; return ac; }
+
+    BitmapContainer toBitmap() { BitmapContainer bc = new BitmapContainer(); for (int i=0;i<card;i++) bc.set(content[i]); return bc; }
+
+    Container and(Container other) {
+      ArrayContainer ac = new ArrayContainer(Math.max(card,1));
+      if (other instanceof ArrayContainer) {
+        ArrayContainer o = (ArrayContainer) other; int i = 0, j = 0;
+        while (i < card && j < o.card) {
+          if      (content[i] < o.content[j]) i++;
+          else if (content[i] > o.content[j]) j++;
+          else { ac.content[ac.card++] = content[i]; i++; j++; }
+        }
+      } else {
+        for (int i=0;i<card;i++) if (other.contains(content[i])) ac.content[ac.card++] = content[i];
+      }
+      return ac;
+    }
+
+    Container andNot(Container other) {
+      ArrayContainer ac = new ArrayContainer(Math.max(card,1));
+      if (other instanceof ArrayContainer) {
+        ArrayContainer o = (ArrayContainer) other; int i = 0, j = 0;
+        while (i < card) {
+          if      (j >= o.card || content[i] < o.content[j]) { ac.content[ac.card++] = content[i]; i++; }
+          else if (content[i] > o.content[j])                { j++; }
+          else { i++; j++; }
+        }
+      } else {
+        for (int i=0;i<card;i++) if (other.contains(content[i]) == false) ac.content[ac.card++] = content[i];
+      }
+      return ac;
+    }
+
+    Container or(Container other) {
+      if (other instanceof BitmapContainer) return other.or(this);
+      ArrayContainer o = (ArrayContainer) other;
+      if (card + o.card > ARRAY_MAX) { BitmapContainer bc = toBitmap(); for (int j=0;j<o.card;j++) bc.set(o.content[j]); return bc.canonical(); }
+      ArrayContainer ac = new ArrayContainer(Math.max(card + o.card,1)); int i = 0, j = 0;
+      while (i < card || j < o.card) {
+        if      (j >= o.card || (i < card && content[i] < o.content[j])) ac.content[ac.card++] = content[i++];
+        else if (i >= card   || content[i] > o.content[j])               ac.content[ac.card++] = o.content[j++];
+        else { ac.content[ac.card++] = content[i]; i++; j++; }
+      }
+      return ac;
+    }
+
+    long      sizeInBytes()    { return 24 + content.length*2; }
+
+    boolean   sameAs(Container other) {
+      if (other instanceof ArrayContainer == false || other.card != card) return false;
+      char o[] = ((ArrayContainer) other).content;
+      for (int i=0;i<card;i++) if (content[i] != o[i]) return false;
+      return true;
+    }
+  }
+
+  /**
+   * Dense container -- 65536 bits.
+   */
+  static class BitmapContainer extends Container {
+    /**
+     * Bit words
+     */
+    long words[] = new long[1024];
+
+    boolean   contains(char x) { return (words[x >>> 6] & (1L << x)) != 0L; }
+
+    /**
+     * Set a bit without canonicalization.
+     */
+    void      set(char x)      { long w = words[x >>> 6]; long nw = w | (1L << x); if (nw != w) { words[x >>> 6] = nw; card++; } }
+
+    Container add(char x)      { set(x); return this; }
+
+    Container remove(char x)   {
+      long w = words[x >>> 6]; long nw = w & ~(1L << x);
+      if (nw != w) { words[x >>> 6] = nw; card--; }
+      return canonical();
+    }
+
+    int       nextValue(int from) {
+      if (from > 0xffff) return -1;
+      int  wi = from >>> 6; long w = words[wi] & (-1L << from);
+      while (true) {
+        if (w != 0L) return wi*64 + Long.numberOfTrailingZeros(w);
+        if (++wi == words.length) return -1;
+        w = words[wi];
+      }
+    }
+
+    /**
+     * Convert to an array container if the cardinality is small enough.
+     */
+    Container canonical() {
+      if (card > ARRAY_MAX) return this;
+      ArrayContainer ac = new ArrayContainer(Math.max(card,1));
+      for (int wi=0;wi<words.length;wi++) { long w = words[wi];
+        while (w != 0L) { ac.content[ac.card++] = (char) (wi*64 + Long.numberOfTrailingZeros(w)); w &= (w - 1); } }
+      return ac;
+    }
+
+    Container copy()           { BitmapContainer bc = new BitmapContainer(); System.arraycopy(words, 0, bc.words, 0, words.length); bc.card = card; return bc; }
+
+    Container and(Container other) {
+      if (other instanceof ArrayContainer) return other.and(this);
+      BitmapContainer bc = new BitmapContainer(); long o[] = ((BitmapContainer) other).words; int c = 0;
+      for (int i=0;i<words.length;i++) { long w = words[i] & o[i]; bc.words[i] = w; c += Long.bitCount(w); }
+      bc.card = c; return bc.canonical();
+    }
+
+    Container andNot(Container other) {
+      BitmapContainer bc = (BitmapContainer) copy();
+      if (other instanceof ArrayContainer) {
+        ArrayContainer o = (ArrayContainer) other;
+        for (int j=0;j<o.card;j++) { char x = o.content[j]; long w = bc.words[x >>> 6]; long nw = w & ~(1L << x); if (nw != w) { bc.words[x >>> 6] = nw; bc.card--; } }
+      } else {
+        long o[] = ((BitmapContainer) other).words; int c = 0;
+        for (int i=0;i<words.length;i++) { long w = words[i] & ~o[i]; bc.words[i] = w; c += Long.bitCount(w); }
+        bc.card = c;
+      }
+      return bc.canonical();
+    }
+
+    Container or(Container other) {
+      BitmapContainer bc = (BitmapContainer) copy();
+      if (other instanceof ArrayContainer) {
+        ArrayContainer o = (ArrayContainer) other; for (int j=0;j<o.card;j++) bc.set(o.content[j]);
+      } else {
+        long o[] = ((BitmapContainer) other).words; int c = 0;
+        for (int i=0;i<words.length;i++) { long w = words[i] | o[i]; bc.words[i] = w; c += Long.bitCount(w); }
+        bc.card = c;
+      }
+      return bc;
+    }
+
+    long      sizeInBytes()    { return 24 + words.length*8; }
+
+    boolean   sameAs(Container other) {
+      if (other instanceof BitmapContainer == false || other.card != card) return false;
+      return Arrays.equals(words, ((BitmapContainer) other).words);
+    }
+  }
+}
@@ -23,6 +23,7 @@ import java.io.IOException;
 import java.io.PrintStream;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -30,11 +31,19 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import java.util.zip.GZIPOutputStream;
 
 import racetrack.framework.Bundle;
 import racetrack.framework.Bundles;
+import racetrack.framework.BundlesDT;
+import racetrack.framework.BundlesG;
 import racetrack.framework.BundlesRecs;
 import racetrack.framework.BundlesUtils;
 import racetrack.framework.KeyMaker;
@@ -62,6 +71,29 @@ public class ShuntingYardAlgorithm {
    */
   protected Set<String> fields = new HashSet<String>();
 
+  /**
+   * Number of records handed to a worker at a time for parallel evaluation
+   */
+  public static final int CHUNK_SIZE = 8192;
+
+  /**
+   * Set when the evaluation should be abandoned (e.g., the user edited the expression)
+   */
+  private volatile boolean cancelled = false;
+
+  /**
+   * Abandon any evaluation in progress.  The parallel version of {@link #matches(Bundles,boolean,UpdateMonitor)}
+   * returns null once it notices.
+   */
+  public void cancel() { cancelled = true; }
+
+  /**
+   * Return true if the evaluation was cancelled.
+   *
+   *@return cancelled flag
+   */
+  public boolean cancelled() { return cancelled; }
+
   /**
    * Construct the RPN version of the input
    *
@@ -183,103 +215,535 @@ public class ShuntingYardAlgorithm {
    *@return  a set of the bundles that matches the boolean expression
    */
   public Set<Bundle> matches(Set<Bundle> bundles, boolean terminate_early) { 
-    // Track which tablets are acceptable
-    Map<Tablet,Map<String,KeyMaker>> keymakers = new HashMap<Tablet,Map<String,KeyMaker>>();
+    // Compiled predicates for each tablet encountered
+    Map<Tablet,Predicate> compiled = new HashMap<Tablet,Predicate>(); Tablet last_tablet = null; Predicate predicate = null;
 
     // Return data structure
     Set<Bundle> return_set = new HashSet<Bundle>();
 
     Iterator<Bundle> it = bundles.iterator(); while (it.hasNext()) {
       Bundle bundle = it.next(); Tablet tablet = bundle.getTablet();
-      // Does this bundle (corresponding tablet) have the necessary fields to satisfy the expression?
-      keymakers.put(tablet, new HashMap<String,KeyMaker>());
-      Iterator<String> field_it = fields.iterator(); while (field_it.hasNext()) {
-        String field = field_it.next();
-        if   (KeyMaker.tabletCompletesBlank(tablet, field)) keymakers.get(tablet).put(field, new KeyMaker(tablet,field));
+      if (tablet != last_tablet) {
+        predicate = compiled.get(tablet); if (predicate == null) { predicate = compile(tablet); compiled.put(tablet, predicate); }
+        last_tablet = tablet;
       }
+      if (predicate.matches(bundle)) {
+        return_set.add(bundle);
+        if (terminate_early) return return_set;
+      }
+    }
 
-      // Execute the expression
-      List stack = new ArrayList();
-      Map<String,KeyMaker> makers = keymakers.get(tablet); 
-      for (int i=0;i<output.size();i++) {
-        // for (int j=0;j<stack.size();j++) System.err.print(stack.get(j) + "\t"); System.err.println(""); // DEBUG
-
-        String token = output.get(i); 
-        if        (token.startsWith("{"))  { StringTokenizer st = new StringTokenizer(token, "{},"); 
-                                             Set<String> set = new HashSet<String>(); while (st.hasMoreTokens()) set.add(st.nextToken());
-                                             stack.add(set);
-        } else if (token.equals("in"))     { Object p = stack.get(stack.size()-1); stack.remove(stack.size()-1);
-                                             Object q = stack.get(stack.size()-1); stack.remove(stack.size()-1);
-
-                                             if ((p instanceof String && (((String) p).toLowerCase()).equals("false")) ||
-                                                 (q instanceof String && (((String) q).toLowerCase()).equals("false"))) {
+    return return_set;
+  }
+
+  /**
+   * Determine which records match the boolean expression.  Iterates tablet-by-tablet so that
+   * the expression is compiled once per tablet.
+   *
+   *@param   bundles          records to check
+   *@param   terminate_early  terminate at the first match
+   *
+   *@return  a set of the records that matches the boolean expression
+   */
+  public Set<Bundle> matches(Bundles bundles, boolean terminate_early) { return matches(bundles, terminate_early, null); }
+
+  /**
+   * Determine which records match the boolean expression.  Each tablet is cut into chunks
+   * that are evaluated in parallel on the shared {@link WorkerPool} -- each chunk gets its own
+   * compiled predicate (and key makers) so that the workers share no evaluation state.  The
+   * partial results are merged on the calling thread.  If terminate_early is set, the first
+   * match found by any worker stops all of the others.
+   *
+   *@param   bundles          records to check
+   *@param   terminate_early  terminate at the first match (at most one record is returned)
+   *@param   monitor          progress monitor (may be null)
+   *
+   *@return  a set of the records that matches the boolean expression or null if cancelled
+   */
+  public Set<Bundle> matches(Bundles bundles, boolean terminate_early, UpdateMonitor monitor) {
+    // Cut the tablets into chunks
+    List<Chunk> chunks = new ArrayList<Chunk>(); int total = 0;
+    Iterator<Tablet> it_tab = bundles.tabletIterator(); while (it_tab.hasNext() && cancelled == false) {
+      Tablet tablet = it_tab.next(); Predicate predicate = compile(tablet);
+      if (predicate instanceof ConstantPredicate && ((ConstantPredicate) predicate).value == false) continue;
+      Bundle recs[] = new Bundle[Math.max(1, Math.min(CHUNK_SIZE, tablet.size()))]; int n = 0;
+      Iterator<Bundle> it = tablet.bundleIterator(); while (it.hasNext()) {
+        if (n == recs.length) { chunks.add(new Chunk(predicate, recs, n)); total += n; predicate = compile(tablet); recs = new Bundle[CHUNK_SIZE]; n = 0; }
+        recs[n++] = it.next();
+      }
+      if (n > 0) { chunks.add(new Chunk(predicate, recs, n)); total += n; }
+    }
+    if (cancelled) return null;
+    if (monitor != null) { monitor.updateStatusMessage("Evaluating " + total + " Records"); monitor.updateProgress(0.0f); }
+
+    // Small inputs aren't worth the hand-off
+    final AtomicBoolean stop = new AtomicBoolean(false);
+    Set<Bundle> return_set = new HashSet<Bundle>();
+    if (chunks.size() <= 1 || WorkerPool.threads() == 1) {
+      for (int i=0;i<chunks.size() && stop.get() == false;i++) return_set.addAll(chunks.get(i).evaluate(terminate_early, stop));
+    } else {
+      CompletionService<List<Bundle>> service = new ExecutorCompletionService<List<Bundle>>(WorkerPool.pool());
+      Map<Future<List<Bundle>>,Chunk> futures = new HashMap<Future<List<Bundle>>,Chunk>();
+      for (int i=0;i<chunks.size();i++) {
+        final Chunk chunk = chunks.get(i); final boolean early = terminate_early;
+        futures.put(service.submit(new Callable<List<Bundle>>() { public List<Bundle> call() { return chunk.evaluate(early, stop); } }), chunk);
+      }
+      try {
+        int done = 0; for (int i=0;i<futures.size();i++) {
+          Future<List<Bundle>> future = service.take(); List<Bundle> partial = future.get();
+          return_set.addAll(partial); done += futures.get(future).n;
+          if (monitor != null) monitor.updateProgress(((float) done)/total);
+          if (cancelled || (terminate_early && return_set.size() > 0)) break;
+        }
+      } catch (InterruptedException ie) { cancelled = true; Thread.currentThread().interrupt();
+      } catch (ExecutionException  ee) { WorkerPool.rethrow(ee);
+      } finally { stop.set(true); Iterator<Future<List<Bundle>>> it = futures.keySet().iterator(); while (it.hasNext()) it.next().cancel(false); }
+    }
+    if (cancelled) return null;
+    if (monitor != null) monitor.updateProgress(1.0f);
+
+    // Keep the sequential semantics for early termination -- only a single record
+    if (terminate_early && return_set.size() > 1) { Bundle first = return_set.iterator().next(); return_set.clear(); return_set.add(first); }
+    return return_set;
+  }
+
+  /**
+   * Chunk of records from a single tablet along with the predicate to evaluate them with.
+   */
+  class Chunk {
+    final Predicate predicate; final Bundle recs[]; final int n;
+    Chunk(Predicate predicate, Bundle recs[], int n) { this.predicate = predicate; this.recs = recs; this.n = n; }
+
+    /**
+     * Evaluate the chunk.  Checks for cancellation (or another chunk's early termination) periodically.
+     *
+     *@param  terminate_early stop at the first match and signal the other chunks
+     *@param  stop            shared flag to stop all of the chunks
+     *
+     *@return matching records
+     */
+    List<Bundle> evaluate(boolean terminate_early, AtomicBoolean stop) {
+      List<Bundle> list = new ArrayList<Bundle>();
+      for (int i=0;i<n;i++) {
+        if ((i & 0x3ff) == 0 && (cancelled || stop.get())) break;
+        if (predicate.matches(recs[i])) {
+          list.add(recs[i]);
+          if (terminate_early) { stop.set(true); break; }
+        }
+      }
+      return list;
+    }
+  }
+
+  /**
+   * Create the key makers for the fields that the tablet can complete.  Fields that the
+   * tablet does not have are left out (and evaluate to false).
+   *
+   *@param  tablet tablet for the records
+   *
+   *@return map of field to key maker
+   */
+  private Map<String,KeyMaker> keyMakers(Tablet tablet) {
+    Map<String,KeyMaker> makers = new HashMap<String,KeyMaker>();
+    Iterator<String> field_it = fields.iterator(); while (field_it.hasNext()) {
+      String field = field_it.next();
+      if   (KeyMaker.tabletCompletesBlank(tablet, field)) makers.put(field, new KeyMaker(tablet,field));
+    }
+    return makers;
+  }
+
+  /**
+   * Evaluate the RPN expression against a single record with the original string-stack interpreter.
+   * Used for expressions that the compiler does not handle (e.g., type mismatches that throw at runtime).
+   *
+   *@param  bundle record to evaluate
+   *@param  makers key makers for the record's tablet
+   *
+   *@return true if the expression evaluates to true
+   */
+  protected boolean interpret(Bundle bundle, Map<String,KeyMaker> makers) {
+    // Execute the expression
+    List stack = new ArrayList();
+    for (int i=0;i<output.size();i++) {
+      // for (int j=0;j<stack.size();j++) System.err.print(stack.get(j) + "\t"); System.err.println(""); // DEBUG
+
+      String token = output.get(i); 
+      if        (token.startsWith("{"))  { StringTokenizer st = new StringTokenizer(token, "{},"); 
+                                           Set<String> set = new HashSet<String>(); while (st.hasMoreTokens()) set.add(st.nextToken());
+                                           stack.add(set);
+      } else if (token.equals("in"))     { Object p = stack.get(stack.size()-1); stack.remove(stack.size()-1);
+                                           Object q = stack.get(stack.size()-1); stack.remove(stack.size()-1);
+
+                                           if ((p instanceof String && (((String) p).toLowerCase()).equals("false")) ||
+                                               (q instanceof String && (((String) q).toLowerCase()).equals("false"))) {
 					       stack.add("false");
-                                             } else {
-                                               if        (q instanceof String   && p instanceof Set) { Set<String> p_set = (Set<String>) p; String q_str = (String) q;
-                                                                                                       if (p_set.contains(q)) stack.add("true"); else stack.add("false");
-                                               } else if (q instanceof String[] && p instanceof Set) { Set<String> p_set = (Set<String>) p; String q_arr[] = (String[]) q;
-                                                                                                       boolean found = false;
-                                                                                                       for (int j=0;j<q_arr.length;j++) if (p_set.contains(q_arr[j])) found = true;
-                                                                                                       if (found) stack.add("true"); else stack.add("false");
-                                               } else throw new RuntimeException("ShuntYard (IN): p (" + p +") and/or q (" + q + ") are not proper types (set,string) / (set,string[])");
-                                             }
-        } else if (token.equals("*")  ||
-                   token.equals("/")  ||
-                   token.equals("+")  ||
-                   token.equals("-")  ||
-                   token.equals(">")  ||
-                   token.equals("<")  ||
-                   token.equals(">=") ||
-                   token.equals("<=") ||
-                   token.equals("="))      { Object p = stack.get(stack.size()-1); stack.remove(stack.size()-1); int p_i = 0;
-                                             Object q = stack.get(stack.size()-1); stack.remove(stack.size()-1); int q_i = 0;
-
-                                             if ((p instanceof String && (((String) p).toLowerCase()).equals("false")) ||
-                                                 (q instanceof String && (((String) q).toLowerCase()).equals("false"))) {
+                                           } else {
+                                             if        (q instanceof String   && p instanceof Set) { Set<String> p_set = (Set<String>) p; String q_str = (String) q;
+                                                                                                     if (p_set.contains(q)) stack.add("true"); else stack.add("false");
+                                             } else if (q instanceof String[] && p instanceof Set) { Set<String> p_set = (Set<String>) p; String q_arr[] = (String[]) q;
+                                                                                                     boolean found = false;
+                                                                                                     for (int j=0;j<q_arr.length;j++) if (p_set.contains(q_arr[j])) found = true;
+                                                                                                     if (found) stack.add("true"); else stack.add("false");
+                                             } else throw new RuntimeException("ShuntYard (IN): p (" + p +") and/or q (" + q + ") are not proper types (set,string) / (set,string[])");
+                                           }
+      } else if (token.equals("*")  ||
+                 token.equals("/")  ||
+                 token.equals("+")  ||
+                 token.equals("-")  ||
+                 token.equals(">")  ||
+                 token.equals("<")  ||
+                 token.equals(">=") ||
+                 token.equals("<=") ||
+                 token.equals("="))      { Object p = stack.get(stack.size()-1); stack.remove(stack.size()-1); int p_i = 0;
+                                           Object q = stack.get(stack.size()-1); stack.remove(stack.size()-1); int q_i = 0;
+
+                                           if ((p instanceof String && (((String) p).toLowerCase()).equals("false")) ||
+                                               (q instanceof String && (((String) q).toLowerCase()).equals("false"))) {
 					       stack.add("false");
-                                             } else {
-                                               if      (p instanceof String)   p_i = Integer.parseInt((String) p);
-                                               else if (p instanceof String[]) p_i = Integer.parseInt(((String[]) p)[0]);
-                                               else throw new RuntimeException("ShuntYard (" + token + "): p (" + p + ") not an integer...");
-  
-                                               if      (q instanceof String)   q_i = Integer.parseInt((String) q);
-                                               else if (q instanceof String[]) q_i = Integer.parseInt(((String[]) q)[0]);
-                                               else throw new RuntimeException("ShuntYard (" + token + "): q (" + q + ") not an integer...");
-  
-                                               if      (token.equals("*")) stack.add("" + (q_i*p_i));
-                                               else if (token.equals("/")) stack.add("" + (q_i/p_i));
-                                               else if (token.equals("+")) stack.add("" + (q_i+p_i));
-                                               else if (token.equals("-")) stack.add("" + (q_i-p_i));
-                                               else if (token.equals(">")) { if (q_i >  p_i) stack.add("true"); else stack.add("false"); }
-                                               else if (token.equals("<")) { if (q_i <  p_i) stack.add("true"); else stack.add("false"); }
-                                               else if (token.equals(">=")){ if (q_i >= p_i) stack.add("true"); else stack.add("false"); }
-                                               else if (token.equals("<=")){ if (q_i <= p_i) stack.add("true"); else stack.add("false"); }
-                                               else if (token.equals("=")) { if (q_i == p_i) stack.add("true"); else stack.add("false"); }
-                                             }
-        } else if (token.equals("and") ||
-                   token.equals("or")  ||
-                   token.equals("xor"))    { Object p = stack.get(stack.size()-1); stack.remove(stack.size()-1);
-                                             Object q = stack.get(stack.size()-1); stack.remove(stack.size()-1);
-                                             if (p instanceof String && q instanceof String) { boolean p_b = ((String) p).equals("true"), q_b = ((String) q).equals("true");
-                                               if      (token.equals("and")) { if (p_b && q_b) stack.add("true"); else stack.add("false"); }
-                                               else if (token.equals("or"))  { if (p_b || q_b) stack.add("true"); else stack.add("false"); }
-                                               else if (token.equals("xor")) { if (p_b ^  q_b) stack.add("true"); else stack.add("false"); }
-                                             } else throw new RuntimeException("ShuntYard (" + token + "): p (" + p + ") and/or q (" + q + ") are not booleans");
-        } else if (token.equals("!"))      { Object p = stack.get(stack.size()-1); stack.remove(stack.size()-1);
-                                             if (p instanceof String) { boolean p_b = ((String) p).equals("true"); if (p_b) stack.add("false"); else stack.add("true");
-                                             } else  throw new RuntimeException("ShuntYard (NOT): p (" + p + ") not a boolean");
-        } else if (Utils.isInteger(token)) { stack.add(token);
-        } else                             { if (makers.containsKey(token)) stack.add(makers.get(token).stringKeys(bundle));
+                                           } else {
+                                             if      (p instanceof String)   p_i = Integer.parseInt((String) p);
+                                             else if (p instanceof String[]) p_i = Integer.parseInt(((String[]) p)[0]);
+                                             else throw new RuntimeException("ShuntYard (" + token + "): p (" + p + ") not an integer...");
+
+                                             if      (q instanceof String)   q_i = Integer.parseInt((String) q);
+                                             else if (q instanceof String[]) q_i = Integer.parseInt(((String[]) q)[0]);
+                                             else throw new RuntimeException("ShuntYard (" + token + "): q (" + q + ") not an integer...");
+
+                                             if      (token.equals("*")) stack.add("" + (q_i*p_i));
+                                             else if (token.equals("/")) stack.add("" + (q_i/p_i));
+                                             else if (token.equals("+")) stack.add("" + (q_i+p_i));
+                                             else if (token.equals("-")) stack.add("" + (q_i-p_i));
+                                             else if (token.equals(">")) { if (q_i >  p_i) stack.add("true"); else stack.add("false"); }
+                                             else if (token.equals("<")) { if (q_i <  p_i) stack.add("true"); else stack.add("false"); }
+                                             else if (token.equals(">=")){ if (q_i >= p_i) stack.add("true"); else stack.add("false"); }
+                                             else if (token.equals("<=")){ if (q_i <= p_i) stack.add("true"); else stack.add("false"); }
+                                             else if (token.equals("=")) { if (q_i == p_i) stack.add("true"); else stack.add("false"); }
+                                           }
+      } else if (token.equals("and") ||
+                 token.equals("or")  ||
+                 token.equals("xor"))    { Object p = stack.get(stack.size()-1); stack.remove(stack.size()-1);
+                                           Object q = stack.get(stack.size()-1); stack.remove(stack.size()-1);
+                                           if (p instanceof String && q instanceof String) { boolean p_b = ((String) p).equals("true"), q_b = ((String) q).equals("true");
+                                             if      (token.equals("and")) { if (p_b && q_b) stack.add("true"); else stack.add("false"); }
+                                             else if (token.equals("or"))  { if (p_b || q_b) stack.add("true"); else stack.add("false"); }
+                                             else if (token.equals("xor")) { if (p_b ^  q_b) stack.add("true"); else stack.add("false"); }
+                                           } else throw new RuntimeException("ShuntYard (" + token + "): p (" + p + ") and/or q (" + q + ") are not booleans");
+      } else if (token.equals("!"))      { Object p = stack.get(stack.size()-1); stack.remove(stack.size()-1);
+                                           if (p instanceof String) { boolean p_b = ((String) p).equals("true"); if (p_b) stack.add("false"); else stack.add("true");
+                                           } else  throw new RuntimeException("ShuntYard (NOT): p (" + p + ") not a boolean");
+      } else if (Utils.isInteger(token)) { stack.add(token);
+      } else                             { if (makers.containsKey(token)) stack.add(makers.get(token).stringKeys(bundle));
 	                                     else                           stack.add("false");
-        }
       }
-      if (stack.size() == 1 && stack.get(0) instanceof String && ((String) stack.get(0)).equals("true")) return_set.add(bundle);
+    }
+    return (stack.size() == 1 && stack.get(0) instanceof String && ((String) stack.get(0)).equals("true"));
+
+  }
+
+  /**
+   * Compiled form of the expression for a specific tablet.
+   */
+  public interface Predicate {
+    /**
+     * Evaluate the expression for a record.
+     *
+     *@param  bundle record (must belong to the tablet that the predicate was compiled for)
+     *
+     *@return true if the record matches
+     */
+    public boolean matches(Bundle bundle);
+  }
+
+  /**
+   * Predicate with a fixed result (e.g., the tablet is missing all of the needed fields).
+   */
+  static class ConstantPredicate implements Predicate {
+    final boolean value; ConstantPredicate(boolean value) { this.value = value; }
+    public boolean matches(Bundle bundle) { return value; }
+  }
+
+  /**
+   * Predicate that falls back to the string-stack interpreter.
+   */
+  class InterpretedPredicate implements Predicate {
+    final Map<String,KeyMaker> makers; InterpretedPredicate(Map<String,KeyMaker> makers) { this.makers = makers; }
+    public boolean matches(Bundle bundle) { return interpret(bundle, makers); }
+  }
+
+  /**
+   * Predicate backed by a compiled node tree.
+   */
+  static class NodePredicate implements Predicate {
+    final Node root; NodePredicate(Node root) { this.root = root; }
+    public boolean matches(Bundle bundle) { return root.evalBool(bundle); }
+  }
+
+  /**
+   * Compile the RPN output into a typed predicate for the specified tablet.  Field
+   * indices and key makers are resolved once, integer literals are parsed once, and
+   * set literals are built once.  The semantics match the interpreter -- a field that
+   * the tablet cannot complete evaluates to false (and propagates as false through
+   * arithmetic, comparisons, and set membership).  Expressions whose types cannot be
+   * resolved statically fall back to the interpreter.
+   *
+   *@param  tablet tablet to compile for
+   *
+   *@return predicate for the tablet's records
+   */
+  public Predicate compile(Tablet tablet) {
+    Map<String,KeyMaker> makers = keyMakers(tablet);
+    try {
+      Node root = build(tablet, makers);
+      if (root instanceof BoolConst) return new ConstantPredicate(((BoolConst) root).value);
+      return new NodePredicate(root);
+    } catch (Uncompilable uc) { return new InterpretedPredicate(makers); }
+  }
+
+  /**
+   * Thrown during compilation when the expression cannot be typed.
+   */
+  static class Uncompilable extends Exception { 
+    private static final long serialVersionUID = 1L;
+  }
+
+  /**
+   * Build the node tree from the RPN output.
+   *
+   *@param  tablet tablet to build for
+   *@param  makers key makers for the fields the tablet completes
+   *
+   *@return root node (always a boolean node)
+   */
+  private Node build(Tablet tablet, Map<String,KeyMaker> makers) throws Uncompilable {
+    List<Node> stack = new ArrayList<Node>();
+    for (int i=0;i<output.size();i++) {
+      String token = output.get(i);
+      if        (token.startsWith("{"))  { StringTokenizer st = new StringTokenizer(token, "{},");
+                                           Set<String> set = new HashSet<String>(); while (st.hasMoreTokens()) set.add(st.nextToken());
+                                           stack.add(new SetLit(set));
+      } else if (token.equals("in"))     { Node p = pop(stack), q = pop(stack);
+                                           if      (p.type == NType.FALSE || q.type == NType.FALSE) stack.add(new FalseNode());
+                                           else if (p.type != NType.SET)                            throw new Uncompilable();
+                                           else if (q.type == NType.INT || q.type == NType.KEYS)    stack.add(new InSet(q, ((SetLit) p).set));
+                                           else throw new Uncompilable();
+      } else if (token.equals("*")  || token.equals("/")  || token.equals("+")  || token.equals("-")) {
+                                           Node p = pop(stack), q = pop(stack);
+                                           if (p.type == NType.FALSE || q.type == NType.FALSE) stack.add(new FalseNode());
+                                           else stack.add(new Arith(token.charAt(0), asInt(tablet, q), asInt(tablet, p)));
+      } else if (token.equals(">")  || token.equals("<")  || token.equals(">=") || token.equals("<=") || token.equals("=")) {
+                                           Node p = pop(stack), q = pop(stack);
+                                           if (p.type == NType.FALSE || q.type == NType.FALSE) stack.add(new FalseNode());
+                                           else stack.add(new Compare(token, asInt(tablet, q), asInt(tablet, p)));
+      } else if (token.equals("and") || token.equals("or") || token.equals("xor")) {
+                                           Node p = pop(stack), q = pop(stack);
+                                           stack.add(new Logic(token, asBool(q), asBool(p)));
+      } else if (token.equals("!"))      { Node p = pop(stack);
+                                           Node b = asBool(p);
+                                           if (b instanceof BoolConst) stack.add(new BoolConst(!((BoolConst) b).value));
+                                           else                        stack.add(new Not(b));
+      } else if (Utils.isInteger(token)) { stack.add(new IntLit(token));
+      } else                             { if (makers.containsKey(token)) stack.add(new FieldKeys(token, makers.get(token)));
+                                           else                           stack.add(new FalseNode());
+      }
+    }
+    if (stack.size() != 1) throw new Uncompilable();
+    Node root = stack.get(0);
+    switch (root.type) {
+      case BOOL:  return root;
+      case INT:   return asBool(root);
+      default:    return new BoolConst(false);
+    }
+  }
 
-      // Determine if we need to terminate early
-      if (terminate_early && return_set.size() > 0) return return_set;
+  /**
+   * Pop a node from the compilation stack.
+   */
+  private static Node pop(List<Node> stack) throws Uncompilable {
+    if (stack.size() == 0) throw new Uncompilable();
+    return stack.remove(stack.size()-1);
+  }
+
+  /**
+   * Convert a node into an integer node.  Plain fields whose values are all integers are parsed
+   * once per distinct value -- others are parsed from the first key.
+   */
+  private static Node asInt(Tablet tablet, Node n) throws Uncompilable {
+    if (n.type == NType.INT)  return n;
+    if (n.type == NType.KEYS) {
+      FieldKeys fk = (FieldKeys) n; BundlesG globals = tablet.getBundles().getGlobals();
+      int fld_i = (fk.field.indexOf(BundlesDT.DELIM) >= 0) ? -1 : globals.fieldIndex(fk.field);
+      if (fld_i >= 0 && tablet.hasField(fld_i)) {
+        Set<BundlesDT.DT> dts = globals.getFieldDataTypes(fld_i);
+        if (dts != null && dts.size() == 1 && dts.contains(BundlesDT.DT.INTEGER)) return new FieldValue(fk);
+      }
+      return new KeysToInt(fk);
     }
+    throw new Uncompilable();
+  }
 
-    return return_set;
+  /**
+   * Convert a node into a boolean node.  Integers are never the string "true" so they evaluate to
+   * false (but are still evaluated in case they throw).
+   */
+  private static Node asBool(Node n) throws Uncompilable {
+    switch (n.type) {
+      case BOOL:  return n;
+      case FALSE: return new BoolConst(false);
+      case INT:   if (n instanceof IntLit) return new BoolConst(false); else return new IntAsFalse(n);
+      default:    throw new Uncompilable();
+    }
+  }
+
+  /**
+   * Static types for the compiled nodes.  FALSE is the placeholder for a field that the tablet cannot complete.
+   */
+  enum NType { BOOL, INT, KEYS, SET, FALSE }
+
+  /**
+   * Compiled expression node.
+   */
+  abstract static class Node {
+    /**
+     * Static type of the node
+     */
+    NType   type;
+
+    /**
+     * True if evaluation of the node can never throw -- allows the logical operators to short circuit
+     */
+    boolean safe = true;
+
+    Node(NType type) { this.type = type; }
+    boolean  evalBool(Bundle bundle)   { throw new RuntimeException("ShuntYard: not a boolean node"); }
+    int      evalInt(Bundle bundle)    { throw new RuntimeException("ShuntYard: not an integer node"); }
+    String   evalString(Bundle bundle) { return "" + evalInt(bundle); }
+    String[] evalKeys(Bundle bundle)   { throw new RuntimeException("ShuntYard: not a keys node"); }
+  }
+
+  static class FalseNode extends Node { FalseNode() { super(NType.FALSE); } }
+
+  static class BoolConst extends Node {
+    final boolean value; BoolConst(boolean value) { super(NType.BOOL); this.value = value; }
+    boolean evalBool(Bundle bundle) { return value; }
+  }
+
+  static class SetLit extends Node {
+    final Set<String> set; SetLit(Set<String> set) { super(NType.SET); this.set = set; }
+  }
+
+  static class IntLit extends Node {
+    final String str; final int value; IntLit(String str) { super(NType.INT); this.str = str; this.value = Integer.parseInt(str); }
+    int    evalInt(Bundle bundle)    { return value; }
+    String evalString(Bundle bundle) { return str; }
+  }
+
+  static class FieldKeys extends Node {
+    final String field; final KeyMaker km; FieldKeys(String field, KeyMaker km) { super(NType.KEYS); this.field = field; this.km = km; }
+    String[] evalKeys(Bundle bundle) { return km.stringKeys(bundle); }
+  }
+
+  /**
+   * Integer field -- parsed from the key string like {@link KeysToInt} but memoized by the key id
+   * (the field's dictionary code) so that each distinct value is only parsed once.
+   */
+  static class FieldValue extends Node {
+    final FieldKeys keys; private volatile Integer vals[] = new Integer[64];
+    FieldValue(FieldKeys keys) { super(NType.INT); this.keys = keys; safe = false; }
+    int evalInt(Bundle bundle) {
+      int ids[] = new int[1]; if (keys.km.keyIds(bundle, ids) != 1) return Integer.parseInt(keys.evalKeys(bundle)[0]);
+      int id = ids[0]; Integer my_vals[] = vals;
+      if (id < my_vals.length && my_vals[id] != null) return my_vals[id];
+      int value = Integer.parseInt(keys.km.keyString(id));
+      synchronized (this) {
+        my_vals = vals; if (id >= my_vals.length) my_vals = Arrays.copyOf(my_vals, Math.max(id+1, my_vals.length*2));
+        my_vals[id] = value; vals = my_vals;
+      }
+      return value;
+    }
+  }
+
+  static class KeysToInt extends Node {
+    final FieldKeys keys; KeysToInt(FieldKeys keys) { super(NType.INT); this.keys = keys; safe = false; }
+    int evalInt(Bundle bundle) { return Integer.parseInt(keys.evalKeys(bundle)[0]); }
+  }
+
+  static class IntAsFalse extends Node {
+    final Node n; IntAsFalse(Node n) { super(NType.BOOL); this.n = n; safe = n.safe; }
+    boolean evalBool(Bundle bundle) { n.evalInt(bundle); return false; }
+  }
+
+  static class Arith extends Node {
+    final char op; final Node q, p;
+    Arith(char op, Node q, Node p) { super(NType.INT); this.op = op; this.q = q; this.p = p; safe = q.safe && p.safe && op != '/'; }
+    int evalInt(Bundle bundle) {
+      int q_i = q.evalInt(bundle), p_i = p.evalInt(bundle);
+      switch (op) {
+        case '*': return q_i*p_i;
+        case '/': return q_i/p_i;
+        case '+': return q_i+p_i;
+        default:  return q_i-p_i;
+      }
+    }
+  }
+
+  static class Compare extends Node {
+    final int op; final Node q, p;
+    Compare(String op_str, Node q, Node p) { 
+      super(NType.BOOL); this.q = q; this.p = p; safe = q.safe && p.safe;
+      if      (op_str.equals(">"))  op = 0;
+      else if (op_str.equals("<"))  op = 1;
+      else if (op_str.equals(">=")) op = 2;
+      else if (op_str.equals("<=")) op = 3;
+      else                          op = 4;
+    }
+    boolean evalBool(Bundle bundle) {
+      int q_i = q.evalInt(bundle), p_i = p.evalInt(bundle);
+      switch (op) {
+        case 0:  return q_i >  p_i;
+        case 1:  return q_i <  p_i;
+        case 2:  return q_i >= p_i;
+        case 3:  return q_i <= p_i;
+        default: return q_i == p_i;
+      }
+    }
+  }
+
+  static class InSet extends Node {
+    final Node q; final Set<String> set;
+    InSet(Node q, Set<String> set) { super(NType.BOOL); this.q = q; this.set = set; safe = q.safe; }
+    boolean evalBool(Bundle bundle) {
+      if (q.type == NType.KEYS) {
+        String keys[] = q.evalKeys(bundle);
+        for (int i=0;i<keys.length;i++) if (set.contains(keys[i])) return true;
+        return false;
+      } else return set.contains(q.evalString(bundle));
+    }
+  }
+
+  static class Logic extends Node {
+    final int op; final Node q, p;
+    Logic(String op_str, Node q, Node p) {
+      super(NType.BOOL); this.q = q; this.p = p; safe = q.safe && p.safe;
+      if      (op_str.equals("and")) op = 0;
+      else if (op_str.equals("or"))  op = 1;
+      else                           op = 2;
+    }
+    boolean evalBool(Bundle bundle) {
+      boolean q_b = q.evalBool(bundle);
+      // Short circuit only if skipping the other side cannot hide an exception
+      if (p.safe) { if (op == 0 && q_b == false) return false; if (op == 1 && q_b) return true; }
+      boolean p_b = p.evalBool(bundle);
+      switch (op) {
+        case 0:  return q_b && p_b;
+        case 1:  return q_b || p_b;
+        default: return q_b ^  p_b;
+      }
+    }
+  }
+
+  static class Not extends Node {
+    final Node p; Not(Node p) { super(NType.BOOL); this.p = p; safe = p.safe; }
+    boolean evalBool(Bundle bundle) { return !p.evalBool(bundle); }
   }
 
   /**
@@ -0,0 +1,216 @@
+/*
+
+Copyright 2013 David Trimm
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package racetrack.util;
+
+import racetrack.framework.BundlesDT;
+
+/**
+ * Single-delimiter tokenizer that splits a line into (offset, length) slices over a character
+ * window -- no string is created per token until the caller asks for one.  Produces the same
+ * tokens as {@link CSVReader#tokenize(String,String,boolean)}:  blank fields become the notset
+ * string, fields are URL decoded, and the spaces are optionally stripped.
+ *
+ * The decode only runs on fields that contain an escape ('%' or '+').  Fields without escapes
+ * are looked up as slices in an {@link InternTable} -- values that the table already holds
+ * (ports, protocols, country codes, repeated addresses) come back as the stored string and
+ * never allocate.
+ *
+ * Not thread safe -- each thread uses its own instance.  The window is borrowed, not copied,
+ * so the slices are only valid until the caller reuses the characters.
+ *
+ *@author  D. Trimm
+ *@version 1.0
+ */
+public class SliceTokenizer {
+  /**
+   * Delimiter
+   */
+  private char    delim;
+
+  /**
+   * Strip the spaces from the front and back of each token
+   */
+  private boolean strip_spaces;
+
+  /**
+   * Copy buffer for lines handed over as strings
+   */
+  private char    buffer[] = new char[256];
+
+  /**
+   * Current window
+   */
+  private char    cs[]     = buffer;
+
+  /**
+   * Slice offsets and lengths (after stripping) for each token in the window
+   */
+  private int     offs[]   = new int[32], lens[] = new int[32];
+
+  /**
+   * Flags for slices that contain an escape
+   */
+  private boolean escs[]   = new boolean[32];
+
+  /**
+   * Number of tokens in the window
+   */
+  private int     count    = 0;
+
+  /**
+   * Construct the tokenizer.
+   *
+   *@param delim        delimiter
+   *@param strip_spaces strip the spaces from the front and back of each token
+   */
+  public SliceTokenizer(char delim, boolean strip_spaces) { reset(delim, strip_spaces); }
+
+  /**
+   * Change the delimiter and stripping -- allows a tokenizer to be reused.
+   *
+   *@param delim        delimiter
+   *@param strip_spaces strip the spaces from the front and back of each token
+   */
+  public void reset(char delim, boolean strip_spaces) { this.delim = delim; this.strip_spaces = strip_spaces; }
+
+  /**
+   * Tokenize a line -- the characters are copied into the reusable buffer.
+   *
+   *@param  line line to tokenize
+   *
+   *@return number of tokens
+   */
+  public int tokenize(String line) {
+    int n = line.length(); if (buffer.length < n) buffer = new char[Math.max(n, buffer.length*2)];
+    line.getChars(0, n, buffer, 0);
+    return window(buffer, 0, n);
+  }
+
+  /**
+   * Tokenize a window of characters in place.
+   *
+   *@param  chars characters (not copied)
+   *@param  off   start of the line
+   *@param  len   length of the line
+   *
+   *@return number of tokens
+   */
+  public int window(char chars[], int off, int len) {
+    cs = chars; count = 0; if (len == 0) return 0;
+    int i = off, end = off + len;
+    while (true) {
+      int j = i; boolean esc = false;
+      while (j < end && cs[j] != delim) { if (cs[j] == '%' || cs[j] == '+') esc = true; j++; }
+      add(i, j, esc);
+      if (j == end) return count;
+      i = j + 1;
+    }
+  }
+
+  /**
+   * Record a slice -- escaped slices are stripped after their decode.
+   */
+  private void add(int i, int j, boolean esc) {
+    if (count == offs.length) {
+      int n = count*2; int o[] = new int[n], l[] = new int[n]; boolean e[] = new boolean[n];
+      System.arraycopy(offs, 0, o, 0, count); System.arraycopy(lens, 0, l, 0, count); System.arraycopy(escs, 0, e, 0, count);
+      offs = o; lens = l; escs = e;
+    }
+    if (strip_spaces && esc == false) { while (i < j && space(cs[i])) i++; while (j > i && space(cs[j-1])) j--; }
+    offs[count] = i; lens[count] = j - i; escs[count] = esc; count++;
+  }
+
+  /**
+   * Whitespace as stripped by {@link Utils#stripSpaces(String)}.
+   */
+  private static boolean space(char c) { return c == ' ' || c == '\t' || c == '\r' || c == '\n'; }
+
+  /**
+   * Return the number of tokens in the window.
+   *
+   *@return number of tokens
+   */
+  public int count() { return count; }
+
+  /**
+   * Return the current window.
+   *
+   *@return characters that the slices refer to
+   */
+  public char[] chars() { return cs; }
+
+  /**
+   * Return the offset of a token's slice.
+   *
+   *@param  i token index
+   *
+   *@return offset into {@link #chars()}
+   */
+  public int offset(int i) { return offs[i]; }
+
+  /**
+   * Return the length of a token's slice.
+   *
+   *@param  i token index
+   *
+   *@return length of the slice
+   */
+  public int length(int i) { return lens[i]; }
+
+  /**
+   * Determine if a token's slice contains an escape (the slice is the raw, undecoded text).
+   *
+   *@param  i token index
+   *
+   *@return true if the token needs a decode
+   */
+  public boolean escaped(int i) { return escs[i]; }
+
+  /**
+   * Return a token as a string.
+   *
+   *@param  i    token index
+   *@param  dict known strings to reuse (may be null)
+   *
+   *@return token
+   */
+  public String token(int i, InternTable dict) {
+    int off = offs[i], len = lens[i];
+    if (escs[i]) {
+      String str = Utils.decFmURL(new String(cs, off, len));
+      if (strip_spaces) { str = Utils.stripSpaces(str); if (str.length() == 0) str = BundlesDT.NOTSET; }
+      return str;
+    }
+    if (len == 0) return BundlesDT.NOTSET;
+    if (dict != null) { String known = dict.canonical(cs, off, len); if (known != null) return known; }
+    return new String(cs, off, len);
+  }
+
+  /**
+   * Return all of the tokens as strings.
+   *
+   *@param  dict known strings to reuse (may be null)
+   *
+   *@return tokens
+   */
+  public String[] tokens(InternTable dict) {
+    String tokens[] = new String[count];
+    for (int i=0;i<count;i++) tokens[i] = token(i, dict);
+    return tokens;
+  }
+}
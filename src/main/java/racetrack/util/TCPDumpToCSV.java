@@ -17,79 +17,140 @@ limitations under the License.
 */
 package racetrack.util;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileOutputStream;
-import java.io.FileReader;
 import java.io.IOException;
 import java.io.PrintStream;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.StringTokenizer;
 
 import racetrack.util.Utils;
 
 /**
- * Converts TCPDump output to CSV for loading into RACETrack.
+ * Converts TCPDump output to CSV for loading into RACETrack.  Runs on the {@link LineConverter} --
+ * the lines are converted in parallel into the tcp, udp, dns, and arp tables.  The dns answers
+ * are matched to their requests in order when the records are committed.
  *
  *@author  D. Trimm
  *@version 0.1
  */
-public class TCPDumpToCSV {
+public class TCPDumpToCSV extends LineConverter<String> {
+  /**
+   * Table names
+   */
+  public static final String TCP = "tcp", UDP = "udp", DNS = "dns", ARP = "arp";
+
+  /**
+   * Headers for the tables
+   */
+  static final Map<String,String> headers = new HashMap<String,String>();
+  static {
+    headers.put(DNS, "timestamp,pkt_type,ipproto,sip,spt,dip,dpt,DNSLENGTH,dnstype,dnsans,dnsreq,dnsreqno,parser,source");
+    headers.put(TCP, "timestamp,pkt_type,ipproto,sip,spt,dip,dpt,seq,ack,win,LENGTH,parser,source");
+    headers.put(UDP, "timestamp,pkt_type,ipproto,sip,spt,dip,dpt,LENGTH,parser,source");
+    headers.put(ARP, "timestamp,pkt_type,arp_msg,arp_ip,arp_mac,arp_tell,LENGTH,parser,source");
+  }
+
   /**
    * Base filename prefix
    */
   String base;
 
+  /**
+   * Compress the output files
+   */
+  boolean gz;
+
   /**
    * Constructor
    */
-  public TCPDumpToCSV() { base = Utils.fileDateStr(System.currentTimeMillis()) + "_tcpdump_"; }
+  public TCPDumpToCSV() { this(Utils.fileDateStr(System.currentTimeMillis()) + "_tcpdump_", false); }
 
-  /** 
-   * Currently parsed line
+  /**
+   * Constructor
+   *
+   *@param base filename prefix for the output files
+   *@param gz   compress the output files
    */
-  String line;
+  public TCPDumpToCSV(String base, boolean gz) { this.base = base; this.gz = gz; }
 
   /**
-   * Currently parse line number
+   * Output files for {@link #parse(File)}
    */
-  int    line_no;
+  FileSink sink = null;
 
   /**
-   * Current file being parsed
+   * Tables that have been started (header written)
    */
-  File   file;
+  Set<String> started = new HashSet<String>();
 
   /**
-   * Parse an input file.  Convert it to the output stream as it is parsed.  Save
+   * Parse an input file.  Convert it to the output files as it is parsed.  Save
    * additional state for remainder output.
    */
   public synchronized void parse(File file) throws IOException {
-    this.file = file; BufferedReader in = new BufferedReader(new FileReader(file)); line_no = 0;
-    while ((line = in.readLine()) != null) { line_no++;
-      StringTokenizer st = new StringTokenizer(line, " ");
-      if (st.countTokens() >= 3) {
-	// Figure out the timestamp -- we'll have to drop off the milliseconds past the thousandth...
-        String yyyymmdd_str = st.nextToken(),
-	       hhmmss_str   = st.nextToken(); 
+    if (sink == null) sink = new FileSink(base, gz);
+    convert(file, sink); sink.flush();
+  }
+
+  /**
+   * Close the output files from {@link #parse(File)}.
+   */
+  public synchronized void close() throws IOException { if (sink != null) sink.close(); sink = null; }
+
+  @Override
+  protected String start(String name) { return new File(name).getName(); }
+
+  /**
+   * Convert a line by its packet type.
+   */
+  @Override
+  protected void convertLine(String name, String line, int line_no, Output out) {
+    Tokens st = new Tokens(line, ' ');
+    if (st.countTokens() >= 3) {
+      // Figure out the timestamp -- we'll have to drop off the milliseconds past the thousandth...
+      String yyyymmdd_str = st.nextToken(),
+             hhmmss_str   = st.nextToken(); 
 	       
-	       // Parse the timestamp out..
-	       StringTokenizer st2 = new StringTokenizer(hhmmss_str, ":.");  
-	       String timestamp = yyyymmdd_str + " " + st2.nextToken() + ":" + st2.nextToken() + ":" + st2.nextToken() + "." + st2.nextToken().substring(0,3);
-
-	// Grab the packet type
-        String pkt_type     = st.nextToken();
-        if      (pkt_type.equals("IP"))    parseIP(timestamp,  pkt_type, st);
-	else if (pkt_type.equals("IP6"))   parseIP(timestamp,  pkt_type, st);
-	else if (pkt_type.equals("ARP,"))  parseARP(timestamp, pkt_type, st);
-	else System.err.println("Do Not Understand Packet Type \"" + pkt_type + "\"");
-      }
+             // Parse the timestamp out..
+             StringTokenizer st2 = new StringTokenizer(hhmmss_str, ":.");  
+             String timestamp = yyyymmdd_str + " " + st2.nextToken() + ":" + st2.nextToken() + ":" + st2.nextToken() + "." + st2.nextToken().substring(0,3);
+
+      // Grab the packet type
+      String pkt_type     = st.nextToken();
+      if      (pkt_type.equals("IP"))    parseIP(timestamp,  pkt_type, st, line, name, line_no, out);
+      else if (pkt_type.equals("IP6"))   parseIP(timestamp,  pkt_type, st, line, name, line_no, out);
+      else if (pkt_type.equals("ARP,"))  parseARP(timestamp, pkt_type, st, line, name, line_no, out);
+      else out.warn("Do Not Understand Packet Type \"" + pkt_type + "\"");
     }
-    in.close();
+  }
+
+  /**
+   * Describe the line for a message.
+   */
+  private static String where(String line, String name, int line_no) { return "\"" + line + "\" (\"" + name + "\", " + line_no + ")"; }
+
+  /**
+   * Dns record -- the answers are matched to their request when committed
+   */
+  static class Dns {
+    /**
+     * Fields through the destination port
+     */
+    String       prefix;
+    /**
+     * Request number and size
+     */
+    String       req_no, dns_size;
+    /**
+     * Types and answers
+     */
+    List<String> types = new ArrayList<String>(), answers = new ArrayList<String>();
   }
 
   /**
@@ -98,8 +159,12 @@ public class TCPDumpToCSV {
    *@param ts       timestamp string in RACETrack format
    *@param pkt_type packet type string -- should be "IP"
    *@param st       remainder of the tokens
+   *@param line     line being parsed
+   *@param name     name of the file
+   *@param line_no  line number
+   *@param out      output for the records
    */
-  private void parseIP(String ts, String pkt_type, StringTokenizer st) throws IOException {
+  private void parseIP(String ts, String pkt_type, Tokens st, String line, String name, int line_no, Output out) {
     // System.err.println("IP line \"" + line + "\"");
     boolean valid = true;
     
@@ -122,125 +187,91 @@ public class TCPDumpToCSV {
         if      (token.equals("seq")) { seq = st.nextToken(); if (seq.endsWith(",")) seq = seq.substring(0,seq.length()-1); }
         else if (token.equals("ack")) { ack = st.nextToken(); if (ack.endsWith(",")) ack = ack.substring(0,ack.length()-1); }
 	else if (token.equals("win")) { win = st.nextToken(); if (win.endsWith(",")) win = win.substring(0,win.length()-1); }
-	else System.err.println("Do Not Understand TCP Variable In Line \"" + line + "\" (\"" + file.getName() + "\", " + line_no + ")");
+	else out.warn("Do Not Understand TCP Variable In Line " + where(line, name, line_no));
 	token = st.nextToken();
       }
 
       while (token.equals("length") == false) { token = st.nextToken(); }
       String length    = st.nextToken();
 
-      if (valid) { initTCPOutIfNeeded(); tcp_out.println(ts + ",ip,tcp," + sip + "," + spt + "," + dip + "," + dpt + ",x" + seq + ",x" + ack + "," + win + "," + length + ",tcpparse,tcpdump");
-      } else System.err.println("Do Not Understand TCP Line \"" + line + "\" (\"" + file.getName() + "\", " + line_no + ")");
+      if (valid) { out.row(TCP, ts + ",ip,tcp," + sip + "," + spt + "," + dip + "," + dpt + ",x" + seq + ",x" + ack + "," + win + "," + length + ",tcpparse,tcpdump");
+      } else out.warn("Do Not Understand TCP Line " + where(line, name, line_no));
 
     } else if (flags_label.equals("UDP,"))  {
       String length_label = st.nextToken();
       String length       = st.nextToken();
 
-      if (valid) { initUDPOutIfNeeded(); udp_out.println(ts + ",ip,udp," + sip + "," + spt + "," + dip + "," + dpt + "," + length + ",udpparse,tcpdump");
-      } else System.err.println("Do Not Understand UDP Line \"" + line + "\" (\"" + file.getName() + "\", " + line_no + ")");
+      if (valid) { out.row(UDP, ts + ",ip,udp," + sip + "," + spt + "," + dip + "," + dpt + "," + length + ",udpparse,tcpdump");
+      } else out.warn("Do Not Understand UDP Line " + where(line, name, line_no));
 
     } else if (flags_label.equals("ICMP6,")) {
-      System.err.println("Not Parsing ICMP6 Yet...");
+      out.warn("Not Parsing ICMP6 Yet...");
 //
 // NEED STUFF HERE
 //
 
     } else if (flags_label.equals("dhcp6")) {
-      System.err.println("Not Parsing dhcp6 Yet...");
+      out.warn("Not Parsing dhcp6 Yet...");
 
 //
 // NEED STUFF HERE
 //
 
     } else if (flags_label.equals("NBT")) {
-      String udp_str       = st.nextToken(); if (udp_str.equals("UDP")              == false) System.err.println("IP NBT Packet - Protocol Should Be UDP");
-      String pkt_137_str   = st.nextToken(); if (pkt_137_str.equals("PACKET(137):") == false) System.err.println("IP NBT Packet - Packet Number Should Be 137");
+      String udp_str       = st.nextToken(); if (udp_str.equals("UDP")              == false) out.warn("IP NBT Packet - Protocol Should Be UDP");
+      String pkt_137_str   = st.nextToken(); if (pkt_137_str.equals("PACKET(137):") == false) out.warn("IP NBT Packet - Packet Number Should Be 137");
       String query_str     = st.nextToken(); if (query_str.equals("QUERY;")         == false &&
-                                                 query_str.equals("REGISTRATION;")  == false) System.err.println("IP NBT Packet - Packet Should Have Query/Registration String - \"" + query_str + "\"");
-      String request_str   = st.nextToken(); if (request_str.equals("REQUEST;")     == false) System.err.println("IP NBT Packet - Packet Should Have Request String - \"" + request_str + "\"");
-      String broadcast_str = st.nextToken(); if (broadcast_str.equals("BROADCAST")  == false) System.err.println("IP NBT Packet - Packet Should Have Broadcast String - \"" + broadcast_str + "\"");
+                                                 query_str.equals("REGISTRATION;")  == false) out.warn("IP NBT Packet - Packet Should Have Query/Registration String - \"" + query_str + "\"");
+      String request_str   = st.nextToken(); if (request_str.equals("REQUEST;")     == false) out.warn("IP NBT Packet - Packet Should Have Request String - \"" + request_str + "\"");
+      String broadcast_str = st.nextToken(); if (broadcast_str.equals("BROADCAST")  == false) out.warn("IP NBT Packet - Packet Should Have Broadcast String - \"" + broadcast_str + "\"");
 
-      System.err.println("Not Parsing NBT Yet...");
+      out.warn("Not Parsing NBT Yet...");
 
     } else if (flags_is_number) {
-      String req_no   = flags_label; if (req_no.endsWith("+")) req_no = req_no.substring(0,req_no.length()-1);
-
-      List<String> list = new ArrayList<String>();
+      Dns dns = new Dns();
+      dns.req_no = flags_label; if (dns.req_no.endsWith("+")) dns.req_no = dns.req_no.substring(0,dns.req_no.length()-1);
       
       String dns_type = st.nextToken(); String response_count = "";
       if (dns_type.indexOf("/") >= 0) { response_count = dns_type; dns_type = st.nextToken(); }
       while (dns_type.equals("A?") || dns_type.equals("A") || dns_type.equals("CNAME")) {
 	String answer = st.nextToken(); if (answer.endsWith(",")) answer = answer.substring(0,answer.length()-1);
-        if (dns_type.equals("A?")) dns_req_map.put(req_no, answer);
-        list.add(Utils.encToURL(dns_type) + "|" + Utils.encToURL(answer));
+        dns.types.add(dns_type); dns.answers.add(answer);
 	dns_type = st.nextToken();
       }
 
       String dns_size = dns_type; if (dns_size.charAt(0)                   == '(') dns_size = dns_size.substring(1,dns_size.length());
 	                          if (dns_size.charAt(dns_size.length()-1) == ')') dns_size = dns_size.substring(0,dns_size.length()-1);
 
-      for (int i=0;i<list.size();i++) {
-        st = new StringTokenizer(list.get(i),"|");        dns_type = Utils.decFmURL(st.nextToken());
-	                                           String answer   = Utils.decFmURL(st.nextToken());
-        String request = "";
-        if ((dns_type.equals("A") || dns_type.equals("CNAME")) && dns_req_map.containsKey(req_no)) request = dns_req_map.get(req_no);
-	else if (dns_type.equals("A?"))                                                            { request = answer; answer = ""; }
+      dns.prefix = ts + ",ip,dns," + sip + "," + spt + "," + dip + "," + dpt + ","; dns.dns_size = dns_size;
+      out.row(DNS, dns);
 
-	initDNSOutIfNeeded();
-        dns_out.println(ts + ",ip,dns," + sip + "," + spt + "," + dip + "," + dpt + "," + dns_size + "," + 
-	                Utils.encToURL(dns_type) + "," + Utils.encToURL(answer) + "," + Utils.encToURL(request) + "," + req_no + ",dnsparse,tcpdump");
-      }
-
-    } else System.err.println("Do Not Understand IP Line \"" + line + "\" (\"" + file.getName() + "\", " + line_no + ") Flags_Label = \"" + flags_label + "\"");
+    } else out.warn("Do Not Understand IP Line " + where(line, name, line_no) + " Flags_Label = \"" + flags_label + "\"");
   }
 
   /**
-   * DNS Request Map
+   * DNS Request Map -- only used on the committing thread
    */
   Map<String,String> dns_req_map = new HashMap<String,String>();
 
   /**
-   * TCP output stream
-   */
-  PrintStream dns_out = null;
-
-  /**
-   * Initialize the TCP output file.
-   */
-  private void initDNSOutIfNeeded() throws IOException {
-    if (dns_out == null) { 
-      dns_out = new PrintStream(new FileOutputStream(new File(base + "dns.csv"))); 
-      dns_out.println("timestamp,pkt_type,ipproto,sip,spt,dip,dpt,DNSLENGTH,dnstype,dnsans,dnsreq,dnsreqno,parser,source");
-    }
-  }
-
-  /**
-   * TCP output stream
-   */
-  PrintStream tcp_out = null;
-
-  /**
-   * Initialize the TCP output file.
-   */
-  private void initTCPOutIfNeeded() throws IOException {
-    if (tcp_out == null) { 
-      tcp_out = new PrintStream(new FileOutputStream(new File(base + "tcp.csv"))); 
-      tcp_out.println("timestamp,pkt_type,ipproto,sip,spt,dip,dpt,seq,ack,win,LENGTH,parser,source");
-    }
-  }
-
-  /**
-   * UDP output stream
-   */
-  PrintStream udp_out = null;
-
-  /**
-   * Initialize the UDP output file.
+   * Write the header of a table before its first row.  Dns records are matched to their requests here.
    */
-  private void initUDPOutIfNeeded() throws IOException {
-    if (udp_out == null) { 
-      udp_out = new PrintStream(new FileOutputStream(new File(base + "udp.csv"))); 
-      udp_out.println("timestamp,pkt_type,ipproto,sip,spt,dip,dpt,LENGTH,parser,source");
+  @Override
+  protected void commit(String table, Object row, Sink sink) throws IOException {
+    if (row instanceof Dns) {
+      Dns dns = (Dns) row;
+      for (int i=0;i<dns.types.size();i++) if (dns.types.get(i).equals("A?")) dns_req_map.put(dns.req_no, dns.answers.get(i));
+      for (int i=0;i<dns.types.size();i++) {
+        String dns_type = dns.types.get(i), answer = dns.answers.get(i), request = "";
+        if ((dns_type.equals("A") || dns_type.equals("CNAME")) && dns_req_map.containsKey(dns.req_no)) request = dns_req_map.get(dns.req_no);
+	else if (dns_type.equals("A?"))                                                                { request = answer; answer = ""; }
+
+        if (started.add(DNS)) sink.header(DNS, headers.get(DNS));
+        sink.row(DNS, dns.prefix + dns.dns_size + "," + Utils.encToURL(dns_type) + "," + Utils.encToURL(answer) + "," + Utils.encToURL(request) + "," + dns.req_no + ",dnsparse,tcpdump");
+      }
+    } else {
+      if (started.add(table)) sink.header(table, headers.get(table));
+      if (row != null) sink.row(table, (String) row);
     }
   }
 
@@ -268,30 +299,19 @@ public class TCPDumpToCSV {
     return s.substring(s.lastIndexOf(".")+1, s.length()); 
   }
 
-  /**
-   * Initialize the ARP output file.
-   */
-  private void initARPOutIfNeeded() throws IOException {
-    if (arp_out == null) { 
-      arp_out = new PrintStream(new FileOutputStream(new File(base + "arp.csv"))); 
-      arp_out.println("timestamp,pkt_type,arp_msg,arp_ip,arp_mac,arp_tell,LENGTH,parser,source");
-    }
-  }
-
-  /**
-   * ARP output stream
-   */
-  PrintStream arp_out;
-
   /**
    * Parse an ARP packet
    *
    *@param ts       timestamp string in RACETrack format
    *@param pkt_type packet type string -- should be "ARP,"
    *@param st       remainder of the tokens
+   *@param line     line being parsed
+   *@param name     name of the file
+   *@param line_no  line number
+   *@param out      output for the records
    */
-  private void parseARP(String ts, String pkt_type, StringTokenizer st) throws IOException {
-    initARPOutIfNeeded();
+  private void parseARP(String ts, String pkt_type, Tokens st, String line, String name, int line_no, Output out) {
+    out.row(ARP, null); // Starts the table even if the line isn't understood
     String request_reply = st.nextToken();
     if        (request_reply.equals("Request")) {
       String request_type = st.nextToken();
@@ -313,9 +333,9 @@ public class TCPDumpToCSV {
 	String length_label = st.nextToken(); // "length";
 	  if (length_label.equals("length") == false) valid = false;
         String length       = st.nextToken();
-	if (valid) { arp_out.println(ts + ",arp,request," + ip + "," + ff_mac + "," + recipient + "," + length + ",arpparser,tcpdump");
-        } else System.err.println("Do Not Understand ARP Request Line Format \"" + line + "\" (\"" + file.getName() + "\", " + line_no + ")");
-      } else System.err.println("Do Not Understand ARP Request Line \"" + line + "\" (\"" + file.getName() + "\", " + line_no + ")");
+	if (valid) { out.row(ARP, ts + ",arp,request," + ip + "," + ff_mac + "," + recipient + "," + length + ",arpparser,tcpdump");
+        } else out.warn("Do Not Understand ARP Request Line Format " + where(line, name, line_no));
+      } else out.warn("Do Not Understand ARP Request Line " + where(line, name, line_no));
     } else if (request_reply.equals("Reply"))   {
       boolean valid = true;
       String who          = st.nextToken();
@@ -326,9 +346,9 @@ public class TCPDumpToCSV {
       String length_label = st.nextToken();
 	if (length_label.equals("length") == false) valid = false;
       String length       = st.nextToken();
-      if (valid) { arp_out.println(ts + ",arp,reply," + who + "," + mac + ",," + length + ",arpparser,tcpdump");
-      } else System.err.println("Do Not Understand ARP Reply Line Format \"" + line + "\" (\"" + file.getName() + "\", " + line_no + ")");
-    } else System.err.println("Do Not Understand ARP Line \"" + line + "\" (\"" + file.getName() + "\", " + line_no + ")");
+      if (valid) { out.row(ARP, ts + ",arp,reply," + who + "," + mac + ",," + length + ",arpparser,tcpdump");
+      } else out.warn("Do Not Understand ARP Reply Line Format " + where(line, name, line_no));
+    } else out.warn("Do Not Understand ARP Line " + where(line, name, line_no));
   }
 
   /**
@@ -340,11 +360,20 @@ public class TCPDumpToCSV {
     try {
       if (args.length == 0) printUsage(System.err);
       else  {
-        TCPDumpToCSV to_csv = new TCPDumpToCSV();
-        for (int i=0;i<args.length;i++) {
-	  System.err.println("Parsing File \"" + args[i] + "\"...");
-	  to_csv.parse(new File(args[i]));
+        // Parse the options
+        String base = Utils.fileDateStr(System.currentTimeMillis()) + "_tcpdump_"; boolean gz = false; int i = 0;
+        while (i < args.length) {
+          if      (args[i].equals("-gz"))                          { gz = true;         i++;   }
+          else if (args[i].equals("-base") && i+1 < args.length)   { base = args[i+1];  i += 2; }
+          else break;
         }
+        TCPDumpToCSV to_csv = new TCPDumpToCSV(base, gz); FileSink files = new FileSink(base, gz);
+        try {
+          for (;i<args.length;i++) {
+	    System.err.println("Parsing File \"" + args[i] + "\"...");
+	    if (args[i].equals("-")) to_csv.convert(System.in, "stdin", files); else to_csv.convert(new File(args[i]), files);
+          }
+        } finally { files.close(); }
       }
     } catch (IOException ioe) {
       System.err.println("IOException: " + ioe);
@@ -357,10 +386,12 @@ public class TCPDumpToCSV {
    *@param out output stream for usage
    */
   public static void printUsage(PrintStream out) {
-    out.println("Usage:  java racetrack.util.TCPDumpToCSV pcap-output-file [pcap-output-file...]");
+    out.println("Usage:  java racetrack.util.TCPDumpToCSV [-gz] [-base prefix] pcap-output-file|- [pcap-output-file...]");
     out.println("");
     out.println("  Convert from pcap to pcap-output-file using the following:");
     out.println("    tcpdump -tttt -n -r <pcap-file>");
+    out.println("");
+    out.println("  Writes prefix + {tcp,udp,dns,arp}.csv -- compressed (.csv.gz) with -gz.  Use - to read stdin.");
   }
 }
 
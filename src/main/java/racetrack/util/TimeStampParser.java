@@ -0,0 +1,276 @@
+/*
+
+Copyright 2013 David Trimm
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package racetrack.util;
+
+/**
+ * Timestamp parser that learns the layouts of the timestamps it sees.  The first value
+ * of a layout (token count and the token widths that {@link Utils#parseTimeStamp(String)}
+ * keys on) is parsed by the generic method and compiled into a layout.  Later values that
+ * match a compiled layout are parsed in a single pass over the characters -- no tokenizer,
+ * no calendar, and no allocation.  Values that don't match any layout (weekdays, oversized
+ * tokens, out of range fields, dates before the Gregorian cutover, etc.) fall back to the generic method.
+ *
+ * Results are identical to the generic method.  Instances are thread-safe -- one instance
+ * per column keeps the layout lookup to a single comparison.
+ *
+ *@author  D. Trimm
+ *@version 1.0
+ */
+public class TimeStampParser {
+  /**
+   * Maximum number of layouts learned per parser
+   */
+  public static final int MAX_LAYOUTS = 8;
+
+  /**
+   * Maximum number of tokens within a compiled layout
+   */
+  static final int MAX_TOKENS = 16;
+
+  /**
+   * Value returned by a layout that doesn't match
+   */
+  static final long NO_MATCH = Long.MIN_VALUE;
+
+  /**
+   * Delimiters used by the generic method
+   */
+  static final boolean delimiter[] = new boolean[128];
+  static { String delims = "-/\\:Tt .Zz,"; for (int i=0;i<delims.length();i++) delimiter[delims.charAt(i)] = true; }
+
+  /**
+   * Token roles
+   */
+  static final byte IGNORE = 0, YEAR = 1, YEAR2K = 2, MONTH = 3, DAY = 4, HOUR = 5, MINUTE = 6, SECOND = 7, MILLIS = 8,
+                    YMD8   = 9, HM4  = 10, HMS6 = 11;
+
+  /**
+   * Compiled layouts -- replaced (never modified) when a layout is learned
+   */
+  private volatile Layout layouts[] = new Layout[0];
+
+  /**
+   * Parse a timestamp into the milliseconds since the epoch.
+   *
+   *@param str string to convert
+   *
+   *@return milliseconds since the epoch
+   */
+  public long parse(String str) {
+    if (str == null) return Utils.parseTimeStampGeneric(str);
+    Layout ls[] = layouts;
+    for (int i=0;i<ls.length;i++) { long ts = ls[i].parse(str); if (ts != NO_MATCH) return ts; }
+    // Learn the layout (if it's one that can be compiled)
+    if (ls.length < MAX_LAYOUTS) {
+      Layout layout = Layout.compile(str);
+      if (layout != null) {
+        long ts = layout.parse(str);
+        if (ts != NO_MATCH) { learn(layout); return ts; }
+      }
+    }
+    return Utils.parseTimeStampGeneric(str);
+  }
+
+  /**
+   * Add a layout to the learned layouts.
+   */
+  private synchronized void learn(Layout layout) {
+    Layout ls[] = layouts; if (ls.length >= MAX_LAYOUTS) return;
+    for (int i=0;i<ls.length;i++) if (ls[i].equals(layout)) return;
+    Layout copy[] = new Layout[ls.length+1]; System.arraycopy(ls, 0, copy, 0, ls.length); copy[ls.length] = layout;
+    layouts = copy;
+  }
+
+  /**
+   * Return the number of layouts that have been learned.
+   *
+   *@return learned layouts
+   */
+  public int layouts() { return layouts.length; }
+
+  /**
+   * Compiled layout.  A layout is the token count plus the width tests that the generic method
+   * makes (first and third tokens of four characters, second token of three, the millisecond width).
+   * Tokens are maximal runs of non-delimiters -- either one to nine ascii digits or a three letter month.
+   */
+  static class Layout {
+    /**
+     * Number of tokens
+     */
+    int     tokens;
+    /**
+     * Role of each token
+     */
+    byte    role[];
+    /**
+     * Width tests per token -- minimum, maximum, and excluded widths (-1 for none)
+     */
+    int     min_w[], max_w[], not_w[];
+
+    /**
+     * Compile the layout of a timestamp -- mirrors the role assignment of the generic method.
+     *
+     *@param str sample timestamp
+     *
+     *@return layout or null if the sample can't be compiled
+     */
+    static Layout compile(String str) {
+      // Find the token widths
+      int w[] = new int[MAX_TOKENS], n = 0, i = 0, len = str.length();
+      while (i < len) {
+        while (i < len && isDelimiter(str.charAt(i))) i++; if (i == len) break;
+        int j = i; while (j < len && isDelimiter(str.charAt(j)) == false) j++;
+        if (n == MAX_TOKENS) return null; w[n++] = j - i; i = j;
+      }
+      Layout layout = new Layout(); layout.tokens = n; layout.role = new byte[n];
+      layout.min_w = new int[n]; layout.max_w = new int[n]; layout.not_w = new int[n];
+      for (i=0;i<n;i++) { layout.min_w[i] = 1; layout.max_w[i] = 9; layout.not_w[i] = -1; }
+      if (n < 3) {
+        if        (n == 1 && w[0] == 8)                  { layout.fix(0, 8); layout.role[0] = YMD8;
+        } else if (n == 2 && w[0] == 8 && w[1] == 4)     { layout.fix(0, 8); layout.role[0] = YMD8; layout.fix(1, 4); layout.role[1] = HM4;
+        } else if (n == 2 && w[0] == 8 && w[1] == 6)     { layout.fix(0, 8); layout.role[0] = YMD8; layout.fix(1, 6); layout.role[1] = HMS6;
+        } else return null;
+      } else {
+        if        (w[0] == 4) { layout.fix(0, 4);                                         layout.role[0] = YEAR;   layout.role[1] = MONTH; layout.role[2] = DAY;
+        } else if (w[2] == 4) { layout.not_w[0] = 4; layout.fix(2, 4);
+          if (w[1] == 3)      { layout.fix(1, 3);                                         layout.role[2] = YEAR;   layout.role[1] = MONTH; layout.role[0] = DAY;
+          } else              { layout.not_w[1] = 3;                                      layout.role[2] = YEAR;   layout.role[0] = MONTH; layout.role[1] = DAY; }
+        } else                { layout.not_w[0] = 4; layout.not_w[2] = 4;                 layout.role[2] = YEAR2K; layout.role[0] = MONTH; layout.role[1] = DAY; }
+        if (n >= 4) layout.role[3] = HOUR;
+        if (n >= 5) layout.role[4] = MINUTE;
+        if (n >= 6) layout.role[5] = SECOND;
+        if (n >= 7) { layout.role[6] = MILLIS; if (w[6] > 3) layout.min_w[6] = 4; else layout.fix(6, w[6]); }
+      }
+      return layout;
+    }
+
+    /**
+     * Fix the width of a token.
+     */
+    private void fix(int i, int width) { min_w[i] = max_w[i] = width; }
+
+    /**
+     * Parse a timestamp with this layout.
+     *
+     *@param str timestamp
+     *
+     *@return milliseconds since the epoch or {@link #NO_MATCH} if the string doesn't fit the layout
+     */
+    long parse(String str) {
+      int yer = 0, mon = 0, day = 0, hor = 0, min = 0, sec = 0, ms = 0;
+      int i = 0, len = str.length(), k = 0;
+      while (i < len) {
+        char c = str.charAt(i); if (isDelimiter(c)) { i++; continue; }
+        if (k == tokens) return NO_MATCH;
+        // Read the token -- digits or a month
+        int j = i, value = 0, width;
+        if (c >= '0' && c <= '9') {
+          while (j < len && (c = str.charAt(j)) >= '0' && c <= '9') { value = value*10 + (c - '0'); j++; if (j - i > 9) return NO_MATCH; }
+          width = j - i; if (j < len && isDelimiter(str.charAt(j)) == false) return NO_MATCH;
+        } else {
+          while (j < len && isDelimiter(str.charAt(j)) == false) j++;
+          width = j - i; if (width != 3 || (value = month(str.charAt(i), str.charAt(i+1), str.charAt(i+2))) == 0) return NO_MATCH;
+        }
+        if (width < min_w[k] || width > max_w[k] || width == not_w[k]) return NO_MATCH;
+        switch (role[k]) {
+          case YEAR:   yer = value;        break;
+          case YEAR2K: yer = value + 2000; break;
+          case MONTH:  mon = value;        break;
+          case DAY:    day = value;        break;
+          case HOUR:   hor = value;        break;
+          case MINUTE: min = value;        break;
+          case SECOND: sec = value;        break;
+          case MILLIS: if (width > 3) { value = 0; for (int m=i;m<i+3;m++) value = value*10 + (str.charAt(m) - '0'); width = 3; }
+                       ms = (width == 1) ? 100*value : ((width == 2) ? 10*value : value); break;
+          case YMD8:   yer = digits(str, i, 4); mon = digits(str, i+4, 2); day = digits(str, i+6, 2); break;
+          case HM4:    hor = digits(str, i, 2); min = digits(str, i+2, 2);                               break;
+          case HMS6:   hor = digits(str, i, 2); min = digits(str, i+2, 2); sec = digits(str, i+4, 2);    break;
+        }
+        k++; i = j;
+      }
+      if (k != tokens) return NO_MATCH;
+      // Years before the Gregorian cutover, far future years, and large rollovers are left to the calendar
+      if (yer < 1600 || yer > 100000 || mon > 12 || day > 31 || hor > 23 || min > 59 || sec > 59) return NO_MATCH;
+      return epochMillis(yer, mon, day, hor, min, sec, ms);
+    }
+
+    /**
+     * Layouts are equal if they have the same tokens and width tests.
+     */
+    public boolean equals(Object obj) {
+      if ((obj instanceof Layout) == false) return false; Layout other = (Layout) obj;
+      return tokens == other.tokens && java.util.Arrays.equals(role,  other.role)  && java.util.Arrays.equals(min_w, other.min_w) &&
+                                       java.util.Arrays.equals(max_w, other.max_w) && java.util.Arrays.equals(not_w, other.not_w);
+    }
+    public int hashCode() { return tokens; }
+  }
+
+  /**
+   * Determine if a character is a delimiter for the generic method.
+   */
+  static boolean isDelimiter(char c) { return c < 128 && delimiter[c]; }
+
+  /**
+   * Parse a run of digits (already known to be digits).
+   */
+  static int digits(String str, int i, int width) { int value = 0; for (int j=i;j<i+width;j++) value = value*10 + (str.charAt(j) - '0'); return value; }
+
+  /**
+   * Convert a three letter month abbreviation (case insensitive) into the month number.
+   *
+   *@return month (1 - 12) or zero if not a month
+   */
+  static int month(char c0, char c1, char c2) {
+    c0 = Character.toLowerCase(c0); c1 = Character.toLowerCase(c1); c2 = Character.toLowerCase(c2);
+    switch (c0) {
+      case 'j': if (c1 == 'a' && c2 == 'n') return 1; if (c1 == 'u' && c2 == 'n') return 6; if (c1 == 'u' && c2 == 'l') return 7; return 0;
+      case 'f': return (c1 == 'e' && c2 == 'b') ? 2  : 0;
+      case 'm': if (c1 == 'a' && c2 == 'r') return 3; if (c1 == 'a' && c2 == 'y') return 5; return 0;
+      case 'a': if (c1 == 'p' && c2 == 'r') return 4; if (c1 == 'u' && c2 == 'g') return 8; return 0;
+      case 's': return (c1 == 'e' && c2 == 'p') ? 9  : 0;
+      case 'o': return (c1 == 'c' && c2 == 't') ? 10 : 0;
+      case 'n': return (c1 == 'o' && c2 == 'v') ? 11 : 0;
+      case 'd': return (c1 == 'e' && c2 == 'c') ? 12 : 0;
+      default:  return 0;
+    }
+  }
+
+  /**
+   * Convert a (lenient) GMT date and time into milliseconds since the epoch.  Out of range fields
+   * roll over into the next larger field just like a lenient {@link java.util.GregorianCalendar}.
+   * Only valid for years after the Gregorian cutover.
+   *
+   *@param yer year
+   *@param mon month (1 - 12, rolls over)
+   *@param day day of the month (rolls over)
+   *@param hor hour of the day
+   *@param min minute
+   *@param sec second
+   *@param ms  milliseconds
+   *
+   *@return milliseconds since the epoch
+   */
+  static long epochMillis(int yer, int mon, int day, int hor, int min, int sec, int ms) {
+    // Fields are never negative -- so the months are never negative
+    long months = ((long) yer)*12L + (mon - 1);
+    long y      = months / 12L; int m = (int) (months % 12L) + 1;
+    // Days from the civil date (proleptic gregorian) for the first of the month
+    long days = CivilTime.daysFromCivil(y, m, 1) + (day - 1);
+    return days * 86400000L + hor * 3600000L + min * 60000L + sec * 1000L + ms;
+  }
+}
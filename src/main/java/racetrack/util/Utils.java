@@ -2146,8 +2146,10 @@ public class Utils {
 
   /**
    * Calendar used to parse timestamp strings.  Critical that it be set to GMT!
+   * One per thread so that timestamps can be parsed by the ingest workers.
    */
-  static Calendar gmtcal = Calendar.getInstance(TimeZone.getTimeZone("GMT"));
+  static ThreadLocal<Calendar> gmtcal = new ThreadLocal<Calendar>() {
+    protected Calendar initialValue() { return Calendar.getInstance(TimeZone.getTimeZone("GMT")); } };
 
   /**
    * Attempt to parse a timestamp into the milliseconds since the epoch.  LIBRARY
@@ -2161,7 +2163,22 @@ public class Utils {
    *
    *@return milliseconds since the epoch
    */
-  public static long parseTimeStamp(String str) {
+  public static long parseTimeStamp(String str) { return timestamp_parser.parse(str); }
+
+  /**
+   * Shared parser for {@link #parseTimeStamp(String)} -- learns the layouts as they're seen
+   */
+  static final TimeStampParser timestamp_parser = new TimeStampParser();
+
+  /**
+   * Generic version of {@link #parseTimeStamp(String)} -- tokenizes the string and works out the
+   * layout for every call.  Used by the {@link TimeStampParser} for layouts that it can't compile.
+   *
+   *@param str string to convert
+   *
+   *@return milliseconds since the epoch
+   */
+  public static long parseTimeStampGeneric(String str) {
     StringTokenizer st = new StringTokenizer(str, "-/\\:Tt .Zz,");
     String tokens[] = new String[st.countTokens()]; for (int i=0;i<tokens.length;i++) tokens[i] = st.nextToken(); 
     // - convert to ints
@@ -2229,9 +2246,9 @@ public class Utils {
       }
     }
 
-    // Use a calendar to properly convert into epoch millis
-    gmtcal.set(yer,mon-1,day,hor,min,sec); gmtcal.set(Calendar.MILLISECOND, ms);
-    return gmtcal.getTimeInMillis();
+    // Use a calendar to properly convert into epoch millis -- cleared so that the era from an earlier (rolled over) date doesn't carry over
+    Calendar cal = gmtcal.get(); cal.clear(); cal.set(yer,mon-1,day,hor,min,sec); cal.set(Calendar.MILLISECOND, ms);
+    return cal.getTimeInMillis();
   }
 
   /**
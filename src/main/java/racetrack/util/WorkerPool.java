@@ -0,0 +1,101 @@
+/*
+
+Copyright 2013 David Trimm
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package racetrack.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Shared pool of worker threads for splitting compute-bound work (filtering,
+ * aggregation) across the available processors.  The threads are daemons so
+ * that they never keep the application alive.  Work submitted to the pool
+ * should not block on other work in the pool.
+ *
+ *@author  D. Trimm
+ *@version 1.0
+ */
+public class WorkerPool {
+  /**
+   * Number of worker threads
+   */
+  private static final int             threads = Math.max(1, Runtime.getRuntime().availableProcessors());
+
+  /**
+   * The shared pool -- created on first use
+   */
+  private static       ExecutorService pool    = null;
+
+  /**
+   * Return the number of worker threads in the pool.
+   *
+   *@return number of threads
+   */
+  public static int threads() { return threads; }
+
+  /**
+   * Return the shared pool.
+   *
+   *@return executor service for the workers
+   */
+  public static synchronized ExecutorService pool() {
+    if (pool == null) {
+      final AtomicInteger count = new AtomicInteger(0);
+      pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+        public Thread newThread(Runnable runnable) {
+          Thread thread = new Thread(runnable, "RT Worker " + count.incrementAndGet());
+          thread.setDaemon(true); thread.setPriority(Thread.NORM_PRIORITY - 1);
+          return thread;
+        } } );
+    }
+    return pool;
+  }
+
+  /**
+   * Run tasks on the pool and wait for all of them -- the first task runs on the calling thread.
+   *
+   *@param tasks tasks to run
+   */
+  public static void runAll(List<Runnable> tasks) {
+    if (tasks.size() == 0) return;
+    List<Future<?>> futures = new ArrayList<Future<?>>();
+    for (int i=1;i<tasks.size();i++) futures.add(pool().submit(tasks.get(i)));
+    tasks.get(0).run();
+    try { for (int i=0;i<futures.size();i++) futures.get(i).get();
+    } catch (InterruptedException ie) { Thread.currentThread().interrupt(); throw new RuntimeException(ie);
+    } catch (ExecutionException  ee) { rethrow(ee); }
+  }
+
+  /**
+   * Rethrow the cause of an execution exception from a worker so that callers see the
+   * same exception that the sequential version would have thrown.
+   *
+   *@param ee execution exception from a future
+   */
+  public static void rethrow(ExecutionException ee) {
+    Throwable cause = ee.getCause();
+    if      (cause instanceof RuntimeException) throw (RuntimeException) cause;
+    else if (cause instanceof Error)            throw (Error)            cause;
+    else                                        throw new RuntimeException(cause);
+  }
+}
@@ -0,0 +1,284 @@
+/*
+
+Copyright 2013 David Trimm
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package racetrack.visualization;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import racetrack.util.WorkerPool;
+
+/**
+ * Per-pixel accumulation of weighted (and optionally colored) points over a rectangle of an
+ * image.  Points are accumulated into int/float buffers -- large point sets are split across
+ * the {@link WorkerPool} with one set of buffers per partition, and the partitions are summed
+ * by pixel ranges afterwards.  The buffers are mapped through a transfer function and written
+ * into the image in one pass.
+ *
+ * The points at each pixel are kept (as indices into the accumulated arrays) so that hit
+ * testing and selection can work against the buffer instead of per-point geometry.
+ *
+ *@author  D. Trimm
+ *@version 1.0
+ */
+public class DensityRaster {
+  /**
+   * Transfer functions from the accumulated weight to the intensity
+   */
+  public enum Transfer { LOG, EQ_HIST };
+
+  /**
+   * Points below which the accumulation stays on the calling thread
+   */
+  public static final int PARALLEL_MIN = 1 << 16;
+
+  /**
+   * Limit on the pixels buffered across the partitions (pixels times partitions)
+   */
+  public static final int BUFFERED_MAX = 1 << 22;
+
+  /**
+   * Upper left corner of the raster in image coordinates
+   */
+  final int   x0, y0,
+
+  /**
+   * Size of the raster in pixels
+   */
+              w,  h;
+
+  /**
+   * Points per pixel
+   */
+  int         counts[];
+
+  /**
+   * Sum of the weights per pixel
+   */
+  float       weights[];
+
+  /**
+   * Color-weighted sums per pixel -- null if the points aren't colored
+   */
+  float       reds[], greens[], blues[];
+
+  /**
+   * Points by pixel -- the points of pixel i are entries[starts[i] ... starts[i+1]-1]
+   */
+  int         starts[], entries[];
+
+  /**
+   * Construct a raster covering a rectangle of an image.
+   *
+   *@param x0 left image coordinate
+   *@param y0 top image coordinate
+   *@param w  width in pixels
+   *@param h  height in pixels
+   */
+  public DensityRaster(int x0, int y0, int w, int h) { this.x0 = x0; this.y0 = y0; this.w = Math.max(w, 1); this.h = Math.max(h, 1); }
+
+  /**
+   * Return the pixel index of an image coordinate.
+   *
+   *@param  sx image x coordinate
+   *@param  sy image y coordinate
+   *
+   *@return pixel index -- -1 if the coordinate is outside of the raster
+   */
+  public int pixel(int sx, int sy) {
+    int x = sx - x0, y = sy - y0; if (x < 0 || y < 0 || x >= w || y >= h) return -1;
+    return y*w + x;
+  }
+
+  /**
+   * Return the number of points at an image coordinate.
+   */
+  public int   count(int sx, int sy)  { int i = pixel(sx, sy); return (i < 0 || counts == null) ? 0   : counts[i];  }
+
+  /**
+   * Return the accumulated weight at an image coordinate.
+   */
+  public float weight(int sx, int sy) { int i = pixel(sx, sy); return (i < 0 || weights == null) ? 0f : weights[i]; }
+
+  /**
+   * Return the points (indices into the accumulated arrays) at an image coordinate.
+   *
+   *@param  sx image x coordinate
+   *@param  sy image y coordinate
+   *
+   *@return point indices -- empty if none
+   */
+  public int[] points(int sx, int sy) {
+    int i = pixel(sx, sy); if (i < 0 || starts == null) return new int[0];
+    return Arrays.copyOfRange(entries, starts[i], starts[i+1]);
+  }
+
+  /**
+   * Return the image coordinates of the pixels with points.
+   *
+   *@return pairs of coordinates -- { x0, y0, x1, y1, ... }
+   */
+  public int[] occupied() {
+    int n = 0; for (int i=0;i<counts.length;i++) if (counts[i] > 0) n++;
+    int xys[] = new int[2*n]; int k = 0;
+    for (int i=0;i<counts.length;i++) if (counts[i] > 0) { xys[k++] = x0 + i%w; xys[k++] = y0 + i/w; }
+    return xys;
+  }
+
+  /**
+   * Return the image coordinates of the pixels with points within a rectangle of the image.
+   *
+   *@param  sx0 left image coordinate (inclusive)
+   *@param  sy0 top image coordinate (inclusive)
+   *@param  sx1 right image coordinate (inclusive)
+   *@param  sy1 bottom image coordinate (inclusive)
+   *
+   *@return pairs of coordinates -- { x0, y0, x1, y1, ... }
+   */
+  public int[] occupied(int sx0, int sy0, int sx1, int sy1) {
+    int xa = Math.max(sx0 - x0, 0), ya = Math.max(sy0 - y0, 0), xb = Math.min(sx1 - x0, w-1), yb = Math.min(sy1 - y0, h-1);
+    List<Integer> list = new ArrayList<Integer>();
+    for (int y=ya;y<=yb;y++) for (int x=xa;x<=xb;x++) if (counts[y*w+x] > 0) { list.add(x0 + x); list.add(y0 + y); }
+    int xys[] = new int[list.size()]; for (int i=0;i<xys.length;i++) xys[i] = list.get(i);
+    return xys;
+  }
+
+  /**
+   * Accumulate points into the raster (replaces any previous accumulation).  Weights below
+   * zero count as zero.
+   *
+   *@param px      pixel index of each point (see {@link #pixel(int,int)}) -- -1 to skip the point
+   *@param weight  weight of each point
+   *@param rgb     color of each point (as rgb ints) -- null for uncolored points
+   *@param n       number of points
+   */
+  public void accumulate(final int px[], final float weight[], final int rgb[], final int n) {
+    final int size = w*h; final boolean colored = (rgb != null);
+    int pieces = WorkerPool.threads(); while (pieces > 1 && n / pieces < PARALLEL_MIN / 4) pieces--;
+    while (pieces > 1 && (long) pieces * size > BUFFERED_MAX) pieces--;
+    if (n < PARALLEL_MIN) pieces = 1;
+
+    // Accumulate each partition into its own buffers
+    final int   p_counts[][]  = new int  [pieces][];
+    final float p_weights[][] = new float[pieces][], p_reds[][] = new float[pieces][], p_greens[][] = new float[pieces][], p_blues[][] = new float[pieces][];
+    List<Runnable> tasks = new ArrayList<Runnable>();
+    for (int p=0;p<pieces;p++) {
+      final int part = p, lo = (int) (((long) n * p) / pieces), hi = (int) (((long) n * (p+1)) / pieces);
+      tasks.add(new Runnable() { public void run() {
+        int c[] = new int[size]; float wt[] = new float[size], r[] = null, g[] = null, b[] = null;
+        if (colored) { r = new float[size]; g = new float[size]; b = new float[size]; }
+        for (int i=lo;i<hi;i++) {
+          int pi = px[i]; if (pi < 0 || pi >= size) continue;
+          float wi = (weight[i] > 0f) ? weight[i] : 0f;
+          c[pi]++; wt[pi] += wi;
+          if (colored) { int v = rgb[i]; r[pi] += wi * ((v >> 16) & 0xff); g[pi] += wi * ((v >> 8) & 0xff); b[pi] += wi * (v & 0xff); }
+        }
+        p_counts[part] = c; p_weights[part] = wt; p_reds[part] = r; p_greens[part] = g; p_blues[part] = b;
+      } });
+    }
+    WorkerPool.runAll(tasks);
+
+    // Sum the partitions by pixel ranges
+    counts = p_counts[0]; weights = p_weights[0]; reds = p_reds[0]; greens = p_greens[0]; blues = p_blues[0];
+    if (pieces > 1) {
+      tasks.clear(); final int parts = pieces;
+      for (int p=0;p<parts;p++) {
+        final int lo = (int) (((long) size * p) / parts), hi = (int) (((long) size * (p+1)) / parts);
+        tasks.add(new Runnable() { public void run() {
+          for (int q=1;q<parts;q++) for (int i=lo;i<hi;i++) {
+            counts[i] += p_counts[q][i]; weights[i] += p_weights[q][i];
+            if (colored) { reds[i] += p_reds[q][i]; greens[i] += p_greens[q][i]; blues[i] += p_blues[q][i]; }
+          }
+        } });
+      }
+      WorkerPool.runAll(tasks);
+    }
+
+    // Index the points by pixel
+    starts = new int[size+1]; for (int i=0;i<size;i++) starts[i+1] = starts[i] + counts[i];
+    entries = new int[starts[size]]; int at[] = Arrays.copyOf(starts, size);
+    for (int i=0;i<n;i++) { int pi = px[i]; if (pi >= 0 && pi < size) entries[at[pi]++] = i; }
+  }
+
+
+  /**
+   * Return the intensity (0.0 ... 1.0) of each pixel with points.
+   *
+   *@param  transfer transfer function
+   *
+   *@return intensities by pixel -- negative for pixels without points
+   */
+  public float[] intensities(Transfer transfer) {
+    float is[] = new float[counts.length]; Arrays.fill(is, -1f);
+    if (transfer == Transfer.EQ_HIST) {
+      // Rank of the weight among the occupied pixels
+      int n = 0; for (int i=0;i<counts.length;i++) if (counts[i] > 0) n++;
+      float sorted[] = new float[n]; int k = 0; for (int i=0;i<counts.length;i++) if (counts[i] > 0) sorted[k++] = weights[i];
+      Arrays.sort(sorted);
+      for (int i=0;i<counts.length;i++) if (counts[i] > 0) is[i] = ((float) upperBound(sorted, weights[i])) / n;
+    } else {
+      float max = 0f; for (int i=0;i<weights.length;i++) if (weights[i] > max) max = weights[i];
+      double log_max = Math.log1p(max);
+      for (int i=0;i<counts.length;i++) if (counts[i] > 0) is[i] = (log_max > 0.0) ? (float) (Math.log1p(weights[i]) / log_max) : 1f;
+    }
+    return is;
+  }
+
+  /**
+   * Return the number of sorted values less than or equal to a value.
+   */
+  private static int upperBound(float sorted[], float v) {
+    int lo = 0, hi = sorted.length; while (lo < hi) { int mid = (lo + hi) >>> 1; if (sorted[mid] <= v) lo = mid + 1; else hi = mid; }
+    return lo;
+  }
+
+  /**
+   * Write the raster into an image -- the image is read and written once.  Uncolored points
+   * take their color from the scale, colored points are the weighted average of their colors
+   * blended over the background by the intensity.
+   *
+   *@param bi       image to write into
+   *@param transfer transfer function
+   *@param cs       color scale for uncolored points
+   *@param fallback color for colored pixels with no weight
+   */
+  public void render(BufferedImage bi, Transfer transfer, ColorScale cs, Color fallback) {
+    int rw = Math.min(w, bi.getWidth() - x0), rh = Math.min(h, bi.getHeight() - y0); if (rw <= 0 || rh <= 0) return;
+    float is[] = intensities(transfer);
+    int lut[] = new int[256]; if (reds == null) for (int i=0;i<lut.length;i++) lut[i] = cs.at(i/255f).getRGB();
+    int argb[] = bi.getRGB(x0, y0, rw, rh, null, 0, rw);
+    for (int y=0;y<rh;y++) for (int x=0;x<rw;x++) {
+      int i = y*w + x; if (is[i] < 0f) continue;
+      int o = y*rw + x;
+      if (reds == null) { argb[o] = lut[Math.min(255, (int) (is[i]*255f))]; continue; }
+      float a = 0.25f + 0.75f * is[i], r, g, b;
+      if (weights[i] > 0f) { r = reds[i]/weights[i]; g = greens[i]/weights[i]; b = blues[i]/weights[i]; }
+      else                 { r = fallback.getRed();  g = fallback.getGreen();  b = fallback.getBlue();  }
+      int bg = argb[o];
+      argb[o] = 0xff000000 | (blend((bg >> 16) & 0xff, r, a) << 16) | (blend((bg >> 8) & 0xff, g, a) << 8) | blend(bg & 0xff, b, a);
+    }
+    bi.setRGB(x0, y0, rw, rh, argb, 0, rw);
+  }
+
+  /**
+   * Blend a color component over the background component.
+   */
+  private static int blend(int bg, float fg, float a) { return Math.max(0, Math.min(255, Math.round(bg + (fg - bg) * a))); }
+}